@@ -0,0 +1,382 @@
+package com.veetechis.lib.io;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+
+/**
+ * <p>
+ * Provides random access to the uncompressed content of a file in the
+ * <code>Compression.Format.BLOCK</code> format.  The block index is loaded
+ * when the file is opened; a read at any position then inflates only the
+ * blocks it covers.  Blocks are read with positional reads on a shared
+ * <code>FileChannel</code>, so concurrent readers do not contend for a file
+ * position, and each thread keeps its most recently inflated block, so that
+ * sequential reads in small steps inflate every block once.
+ * </p>
+ *
+ * <p>
+ * <b>Tech Note:</b> An instance may be shared by threads.
+ * </p>
+ *
+ * @author      pendraconx@gmail.com
+ * @see			Compression
+ */
+public class BlockCompressedFile
+	implements Closeable
+{
+	private final File file;
+	private final FileChannel channel;
+	private final long[] fileOffsets;		// per block, plus the terminator
+	private final long[] rawOffsets;		// per block, plus the raw size
+	private final ThreadLocal<Block> cached = new ThreadLocal<Block>();
+
+
+	/**
+	 * <p>
+	 * Creates a new instance of <code>BlockCompressedFile</code> for the
+	 * specified file.
+	 * </p>
+	 *
+	 * <p>
+	 * Throws an exception if the file is not found or can not be read, or is
+	 * not a complete file in the block format.
+	 * </p>
+	 *
+	 * @param  file				the file to access.
+	 * @throws					java.io.FileNotFoundException
+	 *							if the file does not exist or is not accessible.
+	 * @throws					java.io.IOException
+	 *							if the file can not be read or is not in the
+	 *								block format.
+	 */
+	public BlockCompressedFile( File file )
+		throws IOException
+	{
+		if( ! FileUtils.isReadableFile( file ) )
+		{
+			throw new FileNotFoundException( "Path name can not be read: " + FileUtils.getPathOf( file ) );
+		}
+
+		this.file = file;
+		this.channel = FileChannel.open( file.toPath(), StandardOpenOption.READ );
+
+		try
+		{
+			long size = channel.size();
+			if( size < 8 + Compression.BLOCK_HEADER_LENGTH + 4 + Compression.BLOCK_TRAILER_LENGTH )
+			{
+				throw new ZipException( "Not in BLOCK format: " + FileUtils.getPathOf( file ) );
+			}
+
+			byte[] head = readAt( 0L, 8 );
+			byte[] trailer = readAt( size - Compression.BLOCK_TRAILER_LENGTH, Compression.BLOCK_TRAILER_LENGTH );
+			if( Compression.readInt( head, 0 ) != Compression.BLOCK_MAGIC ||
+					Compression.readInt( trailer, 16 ) != Compression.BLOCK_MAGIC )
+			{
+				throw new ZipException( "Not in BLOCK format or incomplete: " + FileUtils.getPathOf( file ) );
+			}
+
+			long indexOffset = Compression.readLong( trailer, 0 );
+			long rawSize = Compression.readLong( trailer, 8 );
+			long indexLength = size - Compression.BLOCK_TRAILER_LENGTH - indexOffset;
+			if( indexOffset < 8 || indexLength < 4 || indexLength > Integer.MAX_VALUE )
+			{
+				throw new ZipException( "Corrupt block index: " + FileUtils.getPathOf( file ) );
+			}
+
+			byte[] index = readAt( indexOffset, (int) indexLength );
+			int count = Compression.readInt( index, 0 );
+			if( count < 0 || 4 + (long) count * 16 != indexLength )
+			{
+				throw new ZipException( "Corrupt block index: " + FileUtils.getPathOf( file ) );
+			}
+
+			fileOffsets = new long[count + 1];
+			rawOffsets = new long[count + 1];
+			for( int i = 0; i < count; i++ )
+			{
+				fileOffsets[i] = Compression.readLong( index, 4 + i * 16 );
+				rawOffsets[i] = Compression.readLong( index, 12 + i * 16 );
+			}
+			fileOffsets[count] = indexOffset - Compression.BLOCK_HEADER_LENGTH;
+			rawOffsets[count] = rawSize;
+		}
+		catch( IOException exc )
+		{
+			channel.close();
+			throw exc;
+		}
+	}
+
+	/**
+	 * <p>
+	 * Returns <code>true</code> if the given file is in the block format, as
+	 * identified by its leading bytes.
+	 * </p>
+	 *
+	 * @param  file				the file to examine.
+	 * @return					true if the file is block compressed.
+	 * @throws					java.io.IOException
+	 *							if the file can not be read.
+	 */
+	public static boolean isBlockCompressed( File file )
+		throws IOException
+	{
+		return Compression.detect( file ) == Compression.Format.BLOCK;
+	}
+
+	/**
+	 * <p>
+	 * Returns the file referenced by the instance.
+	 * </p>
+	 *
+	 * @return					the referenced file.
+	 */
+	public File getFile()
+	{
+		return file;
+	}
+
+	/**
+	 * <p>
+	 * Returns the uncompressed size of the file's content.
+	 * </p>
+	 *
+	 * @return					the uncompressed size in bytes.
+	 */
+	public long size()
+	{
+		return rawOffsets[rawOffsets.length - 1];
+	}
+
+	/**
+	 * <p>
+	 * Returns the number of compressed blocks in the file.
+	 * </p>
+	 *
+	 * @return					the number of blocks.
+	 */
+	public int getBlockCount()
+	{
+		return rawOffsets.length - 1;
+	}
+
+	/**
+	 * <p>
+	 * Reads uncompressed content starting at the given position into the
+	 * given buffer, up to its remaining space, and returns the number of
+	 * bytes read, or -1 if the position is at or past the end of the content.
+	 * Like <code>FileChannel.read(ByteBuffer,long)</code> this may read fewer
+	 * bytes than requested; it reads at most to the end of a block.
+	 * </p>
+	 *
+	 * <p>
+	 * Throws an exception if an I/O error occurs or a block is corrupt.
+	 * </p>
+	 *
+	 * @param  dst				the buffer to read into.
+	 * @param  position			the position in the uncompressed content.
+	 * @return					the number of bytes read, or -1.
+	 * @throws					java.io.IOException
+	 *							if an I/O error occurs.
+	 */
+	public int read( ByteBuffer dst, long position )
+		throws IOException
+	{
+		if( position < 0 ) throw new IllegalArgumentException( "Negative position: " + position );
+		if( position >= size() ) return -1;
+		if( ! dst.hasRemaining() ) return 0;
+
+		Block block = load( position );
+		int off = (int) (position - rawOffsets[block.index]);
+		int n = Math.min( dst.remaining(), block.length - off );
+		dst.put( block.data, off, n );
+
+		return n;
+	}
+
+	/**
+	 * <p>
+	 * Returns a new stream over the uncompressed content starting at the given
+	 * position.  The stream shares this instance's channel; closing it does
+	 * not close the instance.
+	 * </p>
+	 *
+	 * @param  position			the position in the uncompressed content.
+	 * @return					a stream of the content from the position.
+	 */
+	public InputStream newInputStream( long position )
+	{
+		return new PositionInputStream( position );
+	}
+
+	/**
+	 * <p>
+	 * Closes the file.
+	 * </p>
+	 *
+	 * @throws					java.io.IOException
+	 *							if an I/O error occurs.
+	 */
+	public void close()
+		throws IOException
+	{
+		channel.close();
+	}
+
+
+	/*
+	 * Returns the calling thread's inflated block containing the given
+	 * position, inflating it if it is not the cached one.
+	 */
+	private Block load( long position )
+		throws IOException
+	{
+		Block block = cached.get();
+		if( block == null )
+		{
+			block = new Block();
+			cached.set( block );
+		}
+		else if( block.index >= 0 && position >= rawOffsets[block.index] && position < rawOffsets[block.index + 1] )
+		{
+			return block;
+		}
+
+		int i = Arrays.binarySearch( rawOffsets, position );
+		if( i < 0 ) i = -i - 2;
+
+		int packedLength = (int) (fileOffsets[i + 1] - fileOffsets[i]);
+		if( packedLength < Compression.BLOCK_HEADER_LENGTH || packedLength > Compression.BLOCK_HEADER_LENGTH + Compression.BLOCK_SIZE )
+		{
+			throw new ZipException( "Corrupt block index: " + FileUtils.getPathOf( file ) );
+		}
+
+		block.index = -1;
+		if( block.packed.length < packedLength ) block.packed = new byte[packedLength];
+		readFully( block.packed, packedLength, fileOffsets[i] );
+
+		int rawLength = Compression.readInt( block.packed, 0 );
+		int storedLength = Compression.readInt( block.packed, 4 );
+		int checksum = Compression.readInt( block.packed, 8 );
+		if( rawLength != rawOffsets[i + 1] - rawOffsets[i] || storedLength != packedLength - Compression.BLOCK_HEADER_LENGTH )
+		{
+			throw new ZipException( "Corrupt block header at " + fileOffsets[i] + ": " + FileUtils.getPathOf( file ) );
+		}
+
+		if( storedLength == rawLength )
+		{
+			System.arraycopy( block.packed, Compression.BLOCK_HEADER_LENGTH, block.data, 0, rawLength );
+		}
+		else
+		{
+			Inflater inflater = Compression.acquireInflater( true );
+			try
+			{
+				Compression.inflate( inflater, block.packed, Compression.BLOCK_HEADER_LENGTH, storedLength,
+						block.data, rawLength );
+			}
+			finally
+			{
+				Compression.releaseInflater( inflater, true );
+			}
+		}
+
+		CRC32 crc = new CRC32();
+		crc.update( block.data, 0, rawLength );
+		if( (int) crc.getValue() != checksum )
+		{
+			throw new ZipException( "Block checksum mismatch at " + fileOffsets[i] + ": " + FileUtils.getPathOf( file ) );
+		}
+
+		block.index = i;
+		block.length = rawLength;
+		return block;
+	}
+
+	private byte[] readAt( long position, int length )
+		throws IOException
+	{
+		byte[] b = new byte[length];
+		readFully( b, length, position );
+		return b;
+	}
+
+	private void readFully( byte[] b, int length, long position )
+		throws IOException
+	{
+		ByteBuffer buf = ByteBuffer.wrap( b, 0, length );
+		while( buf.hasRemaining() )
+		{
+			int n = channel.read( buf, position + buf.position() );
+			if( n < 0 ) throw new ZipException( "Unexpected end of file: " + FileUtils.getPathOf( file ) );
+		}
+	}
+
+
+	/*
+	 * A thread's most recently inflated block.
+	 */
+	private static final class Block
+	{
+		int index = -1;
+		int length;
+		final byte[] data = new byte[Compression.BLOCK_SIZE];
+		byte[] packed = new byte[Compression.BLOCK_HEADER_LENGTH + Compression.BLOCK_SIZE];
+	}
+
+	/*
+	 * Sequential stream over the content from a start position.
+	 */
+	private final class PositionInputStream
+		extends InputStream
+	{
+		private long position;
+
+		PositionInputStream( long position )
+		{
+			this.position = position;
+		}
+
+		public int read()
+			throws IOException
+		{
+			byte[] b = new byte[1];
+			return (read( b, 0, 1 ) < 0 ? -1 : b[0] & 0xFF);
+		}
+
+		public int read( byte[] b, int off, int len )
+			throws IOException
+		{
+			if( len == 0 ) return 0;
+
+			int n = BlockCompressedFile.this.read( ByteBuffer.wrap( b, off, len ), position );
+			if( n > 0 ) position += n;
+			return n;
+		}
+
+		public long skip( long n )
+		{
+			long k = Math.max( 0L, Math.min( n, size() - position ) );
+			position += k;
+			return k;
+		}
+
+		public int available()
+		{
+			return (int) Math.min( Integer.MAX_VALUE, Math.max( 0L, size() - position ) );
+		}
+	}
+
+} // End of class: +com.vtis.io.BlockCompressedFile
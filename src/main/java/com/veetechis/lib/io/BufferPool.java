@@ -0,0 +1,647 @@
+package com.veetechis.lib.io;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+
+/**
+ * <p>
+ * A pool of reusable byte buffers, both heap (<code>byte[]</code>) and direct
+ * (<code>ByteBuffer</code>), for I/O and other hot paths that would otherwise
+ * allocate a fresh buffer per call.  The pool has the following
+ * characteristics:
+ * <ul>
+ * <li>Buffers come in power-of-two size classes from <code>MIN_SIZE</code> to
+ * <code>MAX_SIZE</code>; a request is served from the smallest class that
+ * fits it, so a buffer may be larger than requested.  Larger requests are
+ * allocated and discarded without pooling.</li>
+ * <li>Each thread keeps a small cache of released buffers per size class,
+ * served without synchronization; a shared pool behind it holds buffers up to
+ * a per-class byte limit and is used when a thread's cache is empty or full.
+ * </li>
+ * <li>In debug mode, each acquired buffer is tracked along with where it was
+ * acquired, and buffers reclaimed by the garbage collector without having
+ * been released are logged as leaks.  Debug mode is enabled with
+ * <code>setDebug</code> or the system property
+ * <code>com.veetechis.lib.io.BufferPool.debug=true</code>; it is costly and
+ * meant for testing.</li>
+ * <li>Usage is counted (acquisitions, thread cache and shared pool hits,
+ * allocations, releases, discards, and leaks) and returned by
+ * <code>getMetrics</code>.</li>
+ * </ul>
+ * </p>
+ *
+ * <p>
+ * A released buffer must not be used any more by the releasing code; its
+ * content is not cleared.  Buffers that are not released are simply garbage
+ * collected, so releasing is an optimization rather than an obligation.
+ * </p>
+ *
+ * <p>
+ * <b>Tech Note:</b> An instance may be shared by threads.  Most code should
+ * use the shared instance returned by <code>getShared</code>.
+ * </p>
+ *
+ * @author      pendraconx@gmail.com
+ */
+public final class BufferPool
+{
+	/**
+	 * The smallest size class, in bytes.
+	 */
+	public final static int MIN_SIZE = 4 * 1024;
+
+	/**
+	 * The largest size class, in bytes.
+	 */
+	public final static int MAX_SIZE = 4 * 1024 * 1024;
+
+	/**
+	 * The default number of bytes the shared pool holds per size class.
+	 */
+	public final static int DEFAULT_CLASS_LIMIT = 16 * 1024 * 1024;
+
+	private final static int MIN_SHIFT = Integer.numberOfTrailingZeros( MIN_SIZE );
+	private final static int CLASSES = Integer.numberOfTrailingZeros( MAX_SIZE ) - MIN_SHIFT + 1;
+	private final static int THREAD_CACHE_BYTES = 256 * 1024;
+	private final static int THREAD_CACHE_MAX = 8;
+
+	private final static BufferPool shared = new BufferPool( DEFAULT_CLASS_LIMIT );
+	private final static Log log = LogFactory.getLog( BufferPool.class );
+
+	private final Shelf<byte[]> heap;
+	private final Shelf<ByteBuffer> direct;
+	private final ThreadLocal<ThreadCache> cache = new ThreadLocal<ThreadCache>();
+	private volatile boolean debug = Boolean.getBoolean( BufferPool.class.getName() + ".debug" );
+	private final ConcurrentHashMap<Tracker,Throwable> tracked = new ConcurrentHashMap<Tracker,Throwable>();
+	private final ReferenceQueue<Object> collected = new ReferenceQueue<Object>();
+
+	private final LongAdder acquired = new LongAdder();
+	private final LongAdder threadHits = new LongAdder();
+	private final LongAdder sharedHits = new LongAdder();
+	private final LongAdder allocated = new LongAdder();
+	private final LongAdder released = new LongAdder();
+	private final LongAdder discarded = new LongAdder();
+	private final LongAdder leaked = new LongAdder();
+
+
+	/**
+	 * <p>
+	 * Usage counters of a pool, as returned by <code>getMetrics</code>.
+	 * </p>
+	 */
+	public static final class Metrics
+	{
+		/** Buffers acquired. */
+		public final long acquired;
+		/** Acquisitions served from a thread's cache. */
+		public final long threadHits;
+		/** Acquisitions served from the shared pool. */
+		public final long sharedHits;
+		/** Acquisitions served by allocating a new buffer. */
+		public final long allocated;
+		/** Buffers released. */
+		public final long released;
+		/** Released buffers dropped as not poolable or over the pool limit. */
+		public final long discarded;
+		/** Buffers found collected without being released (debug mode). */
+		public final long leaked;
+		/** Bytes currently held by the shared pool. */
+		public final long pooledBytes;
+
+		Metrics( BufferPool pool )
+		{
+			acquired = pool.acquired.sum();
+			threadHits = pool.threadHits.sum();
+			sharedHits = pool.sharedHits.sum();
+			allocated = pool.allocated.sum();
+			released = pool.released.sum();
+			discarded = pool.discarded.sum();
+			leaked = pool.leaked.sum();
+			pooledBytes = pool.heap.bytes() + pool.direct.bytes();
+		}
+
+		/**
+		 * Returns the share of acquisitions served without allocating.
+		 *
+		 * @return				the hit ratio, from 0 to 1.
+		 */
+		public double hitRatio()
+		{
+			return (acquired == 0 ? 0.0 : (double) (threadHits + sharedHits) / acquired);
+		}
+
+		public String toString()
+		{
+			return "BufferPool[acquired=" + acquired + ", threadHits=" + threadHits +
+					", sharedHits=" + sharedHits + ", allocated=" + allocated +
+					", released=" + released + ", discarded=" + discarded +
+					", leaked=" + leaked + ", pooledBytes=" + pooledBytes + "]";
+		}
+	}
+
+
+	/**
+	 * <p>
+	 * Creates a new instance of <code>BufferPool</code> whose shared pool
+	 * holds up to the given number of bytes per size class, for heap and
+	 * direct buffers each.
+	 * </p>
+	 *
+	 * @param  classLimit		the bytes held per size class.
+	 */
+	public BufferPool( int classLimit )
+	{
+		heap = new Shelf<byte[]>( classLimit );
+		direct = new Shelf<ByteBuffer>( classLimit );
+	}
+
+	/**
+	 * <p>
+	 * Returns the shared pool, which holds up to
+	 * <code>DEFAULT_CLASS_LIMIT</code> bytes per size class.
+	 * </p>
+	 *
+	 * @return					the shared pool.
+	 */
+	public static BufferPool getShared()
+	{
+		return shared;
+	}
+
+	/**
+	 * <p>
+	 * Turns debug mode (leak detection) on or off.  Only buffers acquired
+	 * while it is on are tracked.
+	 * </p>
+	 *
+	 * @param  debug			true to track acquired buffers.
+	 */
+	public void setDebug( boolean debug )
+	{
+		this.debug = debug;
+		if( ! debug ) tracked.clear();
+	}
+
+	/**
+	 * <p>
+	 * Returns a heap buffer of at least the given size.
+	 * </p>
+	 *
+	 * @param  minSize			the minimum buffer size.
+	 * @return					a buffer of at least minSize bytes.
+	 */
+	public byte[] acquire( int minSize )
+	{
+		acquired.increment();
+		int c = sizeClass( minSize );
+		byte[] buf = null;
+		if( c >= 0 )
+		{
+			buf = (byte[]) threadCache().poll( c, false );
+			if( buf != null )
+			{
+				threadHits.increment();
+			}
+			else if( (buf = heap.poll( c )) != null )
+			{
+				sharedHits.increment();
+			}
+		}
+		if( buf == null )
+		{
+			allocated.increment();
+			buf = new byte[(c >= 0 ? classSize( c ) : minSize)];
+		}
+
+		if( debug ) track( buf );
+		return buf;
+	}
+
+	/**
+	 * <p>
+	 * Returns a heap buffer to the pool.  Buffers not of a size class size
+	 * are discarded.
+	 * </p>
+	 *
+	 * @param  buf				the buffer to release.
+	 */
+	public void release( byte[] buf )
+	{
+		if( buf == null ) return;
+
+		released.increment();
+		if( debug && ! untrack( buf ) )
+		{
+			discarded.increment();
+			return;
+		}
+
+		int c = exactClass( buf.length );
+		if( c < 0 || ! (threadCache().offer( c, false, buf ) || heap.offer( c, buf, buf.length )) )
+		{
+			discarded.increment();
+		}
+	}
+
+	/**
+	 * <p>
+	 * Returns a cleared direct buffer with a capacity of at least the given
+	 * size, and its limit set to that size.
+	 * </p>
+	 *
+	 * @param  minSize			the minimum buffer capacity.
+	 * @return					a direct buffer of at least minSize bytes.
+	 */
+	public ByteBuffer acquireDirect( int minSize )
+	{
+		acquired.increment();
+		int c = sizeClass( minSize );
+		ByteBuffer buf = null;
+		if( c >= 0 )
+		{
+			buf = (ByteBuffer) threadCache().poll( c, true );
+			if( buf != null )
+			{
+				threadHits.increment();
+			}
+			else if( (buf = direct.poll( c )) != null )
+			{
+				sharedHits.increment();
+			}
+		}
+		if( buf == null )
+		{
+			allocated.increment();
+			buf = ByteBuffer.allocateDirect( (c >= 0 ? classSize( c ) : minSize) );
+		}
+
+		buf.clear();
+		buf.limit( minSize );
+		if( debug ) track( buf );
+		return buf;
+	}
+
+	/**
+	 * <p>
+	 * Returns a buffer to the pool: a direct buffer to the direct pool, or a
+	 * heap buffer's backing array (if it wraps a whole array) to the heap
+	 * pool.
+	 * </p>
+	 *
+	 * @param  buf				the buffer to release.
+	 */
+	public void release( ByteBuffer buf )
+	{
+		if( buf == null ) return;
+		if( ! buf.isDirect() )
+		{
+			if( buf.hasArray() && buf.arrayOffset() == 0 && buf.capacity() == buf.array().length )
+			{
+				release( buf.array() );
+			}
+			return;
+		}
+
+		released.increment();
+		if( debug && ! untrack( buf ) )
+		{
+			discarded.increment();
+			return;
+		}
+
+		int c = exactClass( buf.capacity() );
+		if( c < 0 || ! (threadCache().offer( c, true, buf ) || direct.offer( c, buf, buf.capacity() )) )
+		{
+			discarded.increment();
+		}
+	}
+
+	/**
+	 * <p>
+	 * Returns a snapshot of the pool's usage counters.  In debug mode this
+	 * also checks for leaked buffers first.
+	 * </p>
+	 *
+	 * @return					the usage counters.
+	 */
+	public Metrics getMetrics()
+	{
+		if( debug ) reportLeaks();
+		return new Metrics( this );
+	}
+
+
+	/*
+	 * Returns the size class for a request, or -1 if it is too large to pool.
+	 */
+	private static int sizeClass( int size )
+	{
+		if( size <= MIN_SIZE ) return 0;
+		if( size > MAX_SIZE ) return -1;
+
+		return 32 - Integer.numberOfLeadingZeros( size - 1 ) - MIN_SHIFT;
+	}
+
+	/*
+	 * Returns the size class of which the given size is the exact size, or -1.
+	 */
+	private static int exactClass( int size )
+	{
+		if( size < MIN_SIZE || size > MAX_SIZE || Integer.bitCount( size ) != 1 ) return -1;
+
+		return Integer.numberOfTrailingZeros( size ) - MIN_SHIFT;
+	}
+
+	private static int classSize( int c )
+	{
+		return MIN_SIZE << c;
+	}
+
+	private ThreadCache threadCache()
+	{
+		ThreadCache tc = cache.get();
+		if( tc == null )
+		{
+			tc = new ThreadCache();
+			cache.set( tc );
+		}
+
+		return tc;
+	}
+
+	private void track( Object buf )
+	{
+		reportLeaks();
+		tracked.put( new Tracker( buf, collected ), new Throwable( "Buffer acquired here" ) );
+	}
+
+	/*
+	 * Stops tracking the given buffer, returning false if it was not tracked
+	 * (released twice, or acquired before debug mode); such a buffer is not
+	 * pooled, so that it can not be handed out twice.
+	 */
+	private boolean untrack( Object buf )
+	{
+		if( tracked.remove( new Tracker( buf, null ) ) != null ) return true;
+
+		if( log.isDebugEnabled() )
+		{
+			log.debug( "Released buffer was not acquired while tracking, or was released twice",
+					new Throwable( "Buffer released here" ) );
+		}
+		return false;
+	}
+
+	/*
+	 * Logs the tracked buffers that were collected without being released.
+	 */
+	private void reportLeaks()
+	{
+		Object ref;
+		while( (ref = collected.poll()) != null )
+		{
+			Throwable site = tracked.remove( ref );
+			if( site != null )
+			{
+				leaked.increment();
+				log.warn( "Buffer was garbage collected without being released to the pool", site );
+			}
+		}
+	}
+
+
+	/*
+	 * The shared pool of one buffer kind: a queue per size class, bounded by
+	 * a byte limit.
+	 */
+	private static final class Shelf<T>
+	{
+		private final ConcurrentLinkedQueue<T>[] queues;
+		private final AtomicInteger[] counts;
+		private final int limit;
+
+		@SuppressWarnings( { "unchecked", "rawtypes" } )
+		Shelf( int limit )
+		{
+			this.limit = limit;
+			queues = new ConcurrentLinkedQueue[CLASSES];
+			counts = new AtomicInteger[CLASSES];
+			for( int c = 0; c < CLASSES; c++ )
+			{
+				queues[c] = new ConcurrentLinkedQueue<T>();
+				counts[c] = new AtomicInteger();
+			}
+		}
+
+		T poll( int c )
+		{
+			T buf = queues[c].poll();
+			if( buf != null ) counts[c].decrementAndGet();
+			return buf;
+		}
+
+		boolean offer( int c, T buf, int size )
+		{
+			int max = Math.max( 1, limit / size );
+			if( counts[c].incrementAndGet() > max )
+			{
+				counts[c].decrementAndGet();
+				return false;
+			}
+
+			queues[c].offer( buf );
+			return true;
+		}
+
+		long bytes()
+		{
+			long total = 0;
+			for( int c = 0; c < CLASSES; c++ ) total += (long) counts[c].get() * classSize( c );
+			return total;
+		}
+	}
+
+	/*
+	 * A thread's cache of released buffers: a small stack per size class and
+	 * kind, of up to THREAD_CACHE_BYTES per class.
+	 */
+	private static final class ThreadCache
+	{
+		private final Object[][] stacks = new Object[CLASSES * 2][];
+		private final int[] sizes = new int[CLASSES * 2];
+
+		Object poll( int c, boolean direct )
+		{
+			int i = c * 2 + (direct ? 1 : 0);
+			if( sizes[i] == 0 ) return null;
+
+			Object buf = stacks[i][--sizes[i]];
+			stacks[i][sizes[i]] = null;
+			return buf;
+		}
+
+		boolean offer( int c, boolean direct, Object buf )
+		{
+			int i = c * 2 + (direct ? 1 : 0);
+			int max = Math.min( THREAD_CACHE_MAX, THREAD_CACHE_BYTES / classSize( c ) );
+			if( sizes[i] >= max ) return false;
+
+			if( stacks[i] == null ) stacks[i] = new Object[max];
+			stacks[i][sizes[i]++] = buf;
+			return true;
+		}
+	}
+
+	/*
+	 * Weak reference to a tracked buffer, equal to another for the same
+	 * buffer, and to itself once the buffer is collected.
+	 */
+	private static final class Tracker
+		extends WeakReference<Object>
+	{
+		private final int hash;
+
+		Tracker( Object buf, ReferenceQueue<Object> queue )
+		{
+			super( buf, queue );
+			hash = System.identityHashCode( buf );
+		}
+
+		public int hashCode()
+		{
+			return hash;
+		}
+
+		public boolean equals( Object o )
+		{
+			if( o == this ) return true;
+			if( ! (o instanceof Tracker) ) return false;
+
+			Object buf = get();
+			return buf != null && buf == ((Tracker) o).get();
+		}
+	}
+
+	/**
+	 * <p>
+	 * An output stream that collects its content in pooled buffers, in place
+	 * of a <code>ByteArrayOutputStream</code>.  The content is returned by
+	 * <code>toByteArray</code>; closing the stream releases its buffer, after
+	 * which it must not be used.
+	 * </p>
+	 */
+	public static final class PooledOutputStream
+		extends OutputStream
+	{
+		private final BufferPool pool;
+		private byte[] buf;
+		private int count;
+
+		/**
+		 * Creates a stream drawing from the shared pool.
+		 */
+		public PooledOutputStream()
+		{
+			this( shared );
+		}
+
+		/**
+		 * Creates a stream drawing from the given pool.
+		 *
+		 * @param  pool			the pool to draw buffers from.
+		 */
+		public PooledOutputStream( BufferPool pool )
+		{
+			this.pool = pool;
+			this.buf = pool.acquire( MIN_SIZE );
+		}
+
+		public void write( int b )
+		{
+			ensure( count + 1 );
+			buf[count++] = (byte) b;
+		}
+
+		public void write( byte[] b, int off, int len )
+		{
+			ensure( count + len );
+			System.arraycopy( b, off, buf, count, len );
+			count += len;
+		}
+
+		/**
+		 * Returns the number of bytes written.
+		 *
+		 * @return				the content size.
+		 */
+		public int size()
+		{
+			return count;
+		}
+
+		/**
+		 * Discards the content written so far.
+		 */
+		public void reset()
+		{
+			count = 0;
+		}
+
+		/**
+		 * Returns a copy of the content written so far.
+		 *
+		 * @return				the content.
+		 */
+		public byte[] toByteArray()
+		{
+			return Arrays.copyOf( buf, count );
+		}
+
+		/**
+		 * Writes the content written so far to the given stream.
+		 *
+		 * @param  out			the stream to write to.
+		 * @throws				java.io.IOException
+		 *						if an I/O error occurs.
+		 */
+		public void writeTo( OutputStream out )
+			throws IOException
+		{
+			out.write( buf, 0, count );
+		}
+
+		public void close()
+		{
+			if( buf != null )
+			{
+				pool.release( buf );
+				buf = null;
+			}
+		}
+
+		private void ensure( int size )
+		{
+			if( buf == null ) throw new IllegalStateException( "Stream closed" );
+			if( size < 0 ) throw new OutOfMemoryError( "Content too large" );
+			if( size <= buf.length ) return;
+
+			byte[] bigger = pool.acquire( Math.max( size, (int) Math.min( Integer.MAX_VALUE - 8, buf.length * 2L ) ) );
+			System.arraycopy( buf, 0, bigger, 0, count );
+			pool.release( buf );
+			buf = bigger;
+		}
+	}
+
+} // End of class: +com.vtis.io.BufferPool
@@ -1,12 +1,15 @@
 package com.veetechis.lib.io;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.ObjectInputStream;
+import java.nio.charset.Charset;
 
 
 /**
@@ -15,6 +18,15 @@ import java.io.ObjectInputStream;
  * read the content of the file into various data types.
  * </p>
  *
+ * <p>
+ * Compressed files (gzip or the block format) are detected by their leading
+ * bytes and decompressed transparently by <code>readLine</code>,
+ * <code>read</code>, and <code>toObject</code>, unless detection is turned
+ * off with <code>setDecompress</code>.  Detection of zlib files, whose short
+ * header plain text can resemble, is turned on with
+ * <code>setDetectDeflate</code>.
+ * </p>
+ *
  * @author      pendraconx@gmail.com
  */
 public class BufferedFileReader
@@ -24,6 +36,11 @@ public class BufferedFileReader
 	 */
 	protected File file;
 	
+	/**
+	 * The character set of the file's text, or null for the platform default.
+	 */
+	protected Charset charset;
+	
 	
 	/**
 	 * <p>
@@ -50,6 +67,29 @@ public class BufferedFileReader
 		}
 	}
 	
+	/**
+	 * <p>
+	 * Creates a new instance of <code>BufferedFileReader</code> for the
+	 * specified file, whose text is read in the given character set.
+	 * </p>
+	 *
+	 * <p>
+	 * Throws an exception if the specified file is not found or can not be
+	 * accessed for other reasons related to the local file system.
+	 * </p>
+	 *
+	 * @param  file				the file to access.
+	 * @param  charset			the character set of the file's text.
+	 * @throws					java.io.FileNotFoundException
+	 *							if the file does not exist or is not accessible.
+	 */
+	public BufferedFileReader( File file, Charset charset )
+		throws FileNotFoundException
+	{
+		this( file );
+		this.charset = charset;
+	}
+	
 	/**
 	 * <p>
 	 * Returns the file referenced by the instance.
@@ -62,11 +102,78 @@ public class BufferedFileReader
 		return file;
 	}
 	
+	/**
+	 * <p>
+	 * Sets whether compressed content is detected and decompressed (the
+	 * default), or the file is read as is.  Takes effect for streams not yet
+	 * opened by the instance.
+	 * </p>
+	 *
+	 * @param  decompress		true to decompress compressed content.
+	 */
+	public void setDecompress( boolean decompress )
+	{
+		this.decompress = decompress;
+	}
+	
+	/**
+	 * <p>
+	 * Sets whether zlib (<code>DEFLATE</code>) content is also detected; off
+	 * by default, as plain text can start with a valid zlib header.  Takes
+	 * effect for streams not yet opened by the instance.
+	 * </p>
+	 *
+	 * @param  deflate			true to also detect zlib content.
+	 * @see						Compression#detect(byte[],int,boolean)
+	 */
+	public void setDetectDeflate( boolean deflate )
+	{
+		this.detectDeflate = deflate;
+	}
+	
+	/**
+	 * <p>
+	 * Returns the compression format of the referenced file, as identified by
+	 * its leading bytes.
+	 * </p>
+	 *
+	 * @return					the file's compression format.
+	 * @throws					java.io.IOException
+	 *							if an I/O error occurs.
+	 */
+	public Compression.Format getCompression()
+		throws IOException
+	{
+		return Compression.detect( file, detectDeflate );
+	}
+	
+	/**
+	 * <p>
+	 * Returns a new <code>LineReader</code> over the referenced file, in the
+	 * file's character set, for high volume line processing.  The returned
+	 * reader is independent of this instance and must be closed separately.
+	 * It reads the file as is; compressed files are read with
+	 * <code>readLine</code> or, in the block format, with a
+	 * <code>ChunkedFileProcessor</code>.
+	 * </p>
+	 *
+	 * @return					a line reader over the referenced file.
+	 * @throws					java.io.FileNotFoundException
+	 *							if the file is no longer accessible.
+	 * @see						LineReader
+	 */
+	public LineReader getLineReader()
+		throws FileNotFoundException
+	{
+		return new LineReader( file, (charset != null ? charset : Charset.defaultCharset()) );
+	}
+	
 	/**
 	 * <p>
 	 * Returns the line of text starting at the current index within the file
 	 * referenced by this instance.  Returns <code>null</code> if the end of
-	 * the file has been reached.
+	 * the file has been reached.  Text is read in the character set given at
+	 * construction, or the platform default if none was given.
 	 * </p>
 	 *
 	 * <p>
@@ -82,7 +189,8 @@ public class BufferedFileReader
 	{
 		if( reader == null )
 		{
-			reader = new BufferedReader( new FileReader( file ) );
+			reader = new BufferedReader( new InputStreamReader( openStream(),
+					(charset != null ? charset : Charset.defaultCharset()) ), BUFFER_SIZE );
 		}
 		
 		return reader.readLine();
@@ -91,7 +199,9 @@ public class BufferedFileReader
 	/**
 	 * <p>
 	 * Reads and returns the next byte from the current position in the
-	 * referenced file and advances the file's position pointer.
+	 * referenced file and advances the file's position pointer.  The bytes of
+	 * a compressed file are returned decompressed, unless turned off with
+	 * <code>setDecompress</code>.
 	 * </p>
 	 *
 	 * <p>
@@ -105,13 +215,15 @@ public class BufferedFileReader
 	public int read()
 		throws IOException
 	{
-		return getFileInputStream().read();
+		return getInputStream().read();
 	}
 	
 	/**
 	 * <p>
 	 * Deserializes the file referenced by this instance and returns it in
-	 * object form.
+	 * object form.  Files written by an <code>ObjectFileCodec</code> are
+	 * recognized and read with a default codec (no registered classes, no
+	 * allow-list).
 	 * </p>
 	 *
 	 * <p>
@@ -130,9 +242,48 @@ public class BufferedFileReader
 	public Object toObject()
 		throws IOException, ClassNotFoundException
 	{
-		ois = new ObjectInputStream( getFileInputStream() );
+		BufferedInputStream in = new BufferedInputStream( getInputStream(), BUFFER_SIZE );
+		in.mark( 4 );
+		byte[] head = new byte[4];
+		int n = in.read( head );
+		in.reset();
+		if( n == head.length && ObjectFileCodec.isCodecHeader( head ) )
+		{
+			return new ObjectFileCodec().read( in );
+		}
+		
+		ois = new ObjectInputStream( in );
 		return ois.readObject();
 	}
+	
+	/**
+	 * <p>
+	 * Reads the file referenced by this instance, as written by the given
+	 * codec, and returns it in object form.
+	 * </p>
+	 *
+	 * <p>
+	 * Throws an exception if the file was not written by an object codec, if
+	 * the codec's registrations or allow-list do not permit the object's
+	 * class, if the object's class is not on the class path, or if an I/O
+	 * error occurs.
+	 * </p>
+	 *
+	 * @param  codec			the codec with which to read the object.
+	 * @return					the file contents in object form.
+	 * @throws					java.io.IOException
+	 *							if an I/O error occurs or the file content is
+	 *								invalid or not permitted.
+	 * @throws					java.lang.ClassNotFoundException
+	 *							if the class type of the deserialized object is
+	 *								not on the class path.
+	 * @see						BufferedFileWriter#fromObject(Object,ObjectFileCodec)
+	 */
+	public Object toObject( ObjectFileCodec codec )
+		throws IOException, ClassNotFoundException
+	{
+		return codec.read( new BufferedInputStream( getInputStream(), BUFFER_SIZE ) );
+	}
 
 	/**
 	 * <p>
@@ -151,10 +302,10 @@ public class BufferedFileReader
 			reader = null;
 		}
 		
-		if( fis != null )
+		if( in != null )
 		{
-			fis.close();
-			fis = null;
+			in.close();
+			in = null;
 		}
 		
 		if( ois != null )
@@ -166,19 +317,45 @@ public class BufferedFileReader
 	
 	/*
 	 * <p>
-	 * Returns the file input stream for the referenced file.
+	 * Returns the input stream for the referenced file.
+	 * </p>
+	 */
+	private InputStream getInputStream()
+		throws IOException
+	{
+		if( in == null ) in = openStream();
+		return in;
+	}
+	
+	/*
+	 * <p>
+	 * Opens a new stream of the file's content, decompressed if enabled.
 	 * </p>
 	 */
-	private FileInputStream getFileInputStream()
+	private InputStream openStream()
 		throws IOException
 	{
-		if( fis == null ) fis = new FileInputStream( file );
-		return fis;
+		FileInputStream fis = new FileInputStream( file );
+		if( ! decompress ) return fis;
+		
+		try
+		{
+			return Compression.decompress( fis, detectDeflate );
+		}
+		catch( IOException exc )
+		{
+			fis.close();
+			throw exc;
+		}
 	}
 	
 
-	private FileInputStream fis;
+	private final static int BUFFER_SIZE = 64 * 1024;
+
+	private InputStream in;
 	private ObjectInputStream ois;
+	private boolean decompress = true;
+	private boolean detectDeflate;
 	private BufferedReader reader;
 	
 } // End of class: +com.vtis.io.BufferedFileReader
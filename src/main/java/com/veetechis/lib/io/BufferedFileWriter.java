@@ -1,12 +1,26 @@
 package com.veetechis.lib.io;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
-import java.io.FileWriter;
+import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.NotSerializableException;
 import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.util.concurrent.ThreadLocalRandom;
 
 
 /**
@@ -15,10 +29,53 @@ import java.io.ObjectOutputStream;
  * local file system.
  * </p>
  *
+ * <p>
+ * Methods that replace the whole file (<code>fromObject</code> and
+ * <code>replace</code>) do so atomically: the new content is written to a
+ * temporary file in the same directory, which is then renamed over the
+ * referenced file, so that a crash leaves either the old or the new content
+ * but never neither.  How much of this reaches the storage device before the
+ * method returns is chosen per call with a <code>Durability</code> level.
+ * </p>
+ *
+ * <p>
+ * Content is written uncompressed unless a compression format is set with
+ * <code>setCompression</code>.  <code>BufferedFileReader</code> detects and
+ * decompresses such files transparently.
+ * </p>
+ *
  * @author      pendraconx@gmail.com
  */
 public class BufferedFileWriter
 {
+	/**
+	 * <p>
+	 * Enum for specifying how far written data is forced to the storage device
+	 * before a write method returns: not at all (left to the operating
+	 * system), file data only, file data and metadata, or file data and
+	 * metadata plus the directory entry (so that a new or renamed file also
+	 * survives a crash).  Each level costs more latency than the one before.
+	 * </p>
+	 */
+	public static enum Durability { NONE, DATA, FILE, FULL }
+	
+	/**
+	 * <p>
+	 * Writer of the content for an atomic replace.
+	 * </p>
+	 */
+	public static interface Content
+	{
+		/**
+		 * Writes the content to the given stream.
+		 *
+		 * @param  out			the stream to write to.
+		 * @throws				java.io.IOException
+		 *						if an I/O error occurs.
+		 */
+		public void writeTo( OutputStream out )
+			throws IOException;
+	}
 	
 	/**
 	 * <p>
@@ -80,6 +137,37 @@ public class BufferedFileWriter
 		return file;
 	}
 	
+	/**
+	 * <p>
+	 * Sets the compression format of content written by the instance from now
+	 * on; <code>Format.NONE</code> (the default) writes it uncompressed.  Text
+	 * written by <code>append</code>, <code>write</code>, and
+	 * <code>writeLine</code> is compressed as one stream until the instance is
+	 * closed, each call flushing what it wrote.  Appending to an existing file
+	 * starts a new gzip member or zlib stream, which readers join
+	 * transparently; appending in the <code>BLOCK</code> format is not
+	 * possible, as the file ends with its block index.
+	 * </p>
+	 *
+	 * @param  format			the compression format.
+	 */
+	public void setCompression( Compression.Format format )
+	{
+		compression = (format != null ? format : Compression.Format.NONE);
+	}
+	
+	/**
+	 * <p>
+	 * Returns the compression format of content written by the instance.
+	 * </p>
+	 *
+	 * @return					the compression format.
+	 */
+	public Compression.Format getCompression()
+	{
+		return compression;
+	}
+	
 	/**
 	 * <p>
 	 * Appends the given text to the file referenced by this instance.  If the
@@ -103,6 +191,54 @@ public class BufferedFileWriter
 		writer.flush();
 	}
 	
+	/**
+	 * <p>
+	 * Appends the given text to the file referenced by this instance and
+	 * forces it to the storage device per the given durability level.  If the
+	 * file does not exist it is created.
+	 * </p>
+	 *
+	 * <p>
+	 * Throws an exception if an I/O error occurs while writing to the file.
+	 * </p>
+	 *
+	 * @param  text				the text to append.
+	 * @param  durability		how far to force the text to the device.
+	 * @throws					java.io.IOException
+	 *							if an I/O error occurs.
+	 */
+	public void append( String text, Durability durability )
+		throws IOException
+	{
+		append( text );
+		sync( durability );
+	}
+	
+	/**
+	 * <p>
+	 * Forces the text written so far through <code>append</code>,
+	 * <code>write</code>, or <code>writeLine</code> to the storage device per
+	 * the given durability level.
+	 * </p>
+	 *
+	 * <p>
+	 * Throws an exception if an I/O error occurs.
+	 * </p>
+	 *
+	 * @param  durability		how far to force the text to the device.
+	 * @throws					java.io.IOException
+	 *							if an I/O error occurs.
+	 */
+	public void sync( Durability durability )
+		throws IOException
+	{
+		if( writer == null ) return;
+		
+		writer.flush();
+		force( writerOut.getChannel(), durability );
+		if( durability == Durability.FULL ) syncDirectory( file.toPath().toAbsolutePath().getParent() );
+	}
+	
 	/**
 	 * <p>
 	 * Writes the given text to the file referenced by this instance starting at
@@ -160,6 +296,12 @@ public class BufferedFileWriter
 	 * </p>
 	 *
 	 * <p>
+	 * The bytes are copied as stored in the source file: decompression is
+	 * turned off on the source reader, which must not have been read from
+	 * yet.
+	 * </p>
+	 *
+	 * <p>
 	 * Throws an exception if an I/O error occurs.
 	 * </p>
 	 *
@@ -172,13 +314,15 @@ public class BufferedFileWriter
 	public void fromReader( BufferedFileReader source, boolean append )
 		throws IOException
 	{
-		fos = new FileOutputStream( file, append );
+		checkAppend( append );
+		source.setDecompress( false );
+		out = Compression.compress( new BufferedOutputStream( new FileOutputStream( file, append ), BUFFER_SIZE ), compression );
 		int datab = -1;
 		while( (datab = source.read()) != -1 )
 		{
-			fos.write( datab );
+			out.write( datab );
 		}
-		fos.flush();
+		out.flush();
 	}
 	
 	/**
@@ -202,18 +346,183 @@ public class BufferedFileWriter
 	public void fromObject( Object obj )
 		throws IOException, NotSerializableException
 	{
-		if( file.exists() )
+		fromObject( obj, Durability.NONE );
+	}
+	
+	/**
+	 * <p>
+	 * Serializes the given object to the file referenced by this instance,
+	 * atomically replacing any existing file, and forces it to the storage
+	 * device per the given durability level.
+	 * </p>
+	 *
+	 * <p>
+	 * Throws an exception if the argument is not serializable or if an I/O
+	 * error occurs while writing to the file.
+	 * </p>
+	 *
+	 * @param  obj				the object to serialize.
+	 * @param  durability		how far to force the file to the device.
+	 * @throws					java.io.IOException
+	 *							if an I/O error occurs.
+	 * @throws					java.io.NotSerializableException
+	 *							if the object does not implement
+	 *								java.io.Serializable.
+	 */
+	public void fromObject( Object obj, Durability durability )
+		throws IOException, NotSerializableException
+	{
+		replace( out -> {
+			ObjectOutputStream oos = new ObjectOutputStream( out );
+			oos.writeObject( obj );
+			oos.flush();
+		}, durability );
+	}
+	
+	/**
+	 * <p>
+	 * Writes the given object to the file referenced by this instance using
+	 * the given codec, atomically replacing any existing file.
+	 * </p>
+	 *
+	 * <p>
+	 * Throws an exception if the object can not be written by the codec or if
+	 * an I/O error occurs while writing to the file.
+	 * </p>
+	 *
+	 * @param  obj				the object to write.
+	 * @param  codec			the codec with which to write the object.
+	 * @throws					java.io.IOException
+	 *							if an I/O error occurs.
+	 * @throws					java.io.NotSerializableException
+	 *							if the codec can not write the object.
+	 * @see						BufferedFileReader#toObject(ObjectFileCodec)
+	 */
+	public void fromObject( Object obj, ObjectFileCodec codec )
+		throws IOException, NotSerializableException
+	{
+		fromObject( obj, codec, Durability.NONE );
+	}
+	
+	/**
+	 * <p>
+	 * Writes the given object to the file referenced by this instance using
+	 * the given codec, atomically replacing any existing file, and forces it
+	 * to the storage device per the given durability level.
+	 * </p>
+	 *
+	 * <p>
+	 * Throws an exception if the object can not be written by the codec or if
+	 * an I/O error occurs while writing to the file.
+	 * </p>
+	 *
+	 * @param  obj				the object to write.
+	 * @param  codec			the codec with which to write the object.
+	 * @param  durability		how far to force the file to the device.
+	 * @throws					java.io.IOException
+	 *							if an I/O error occurs.
+	 * @throws					java.io.NotSerializableException
+	 *							if the codec can not write the object.
+	 */
+	public void fromObject( Object obj, ObjectFileCodec codec, Durability durability )
+		throws IOException, NotSerializableException
+	{
+		replace( out -> codec.write( obj, out ), durability );
+	}
+	
+	/**
+	 * <p>
+	 * Replaces the file referenced by this instance with the given text,
+	 * atomically, and forces it to the storage device per the given
+	 * durability level.  The text is encoded in the platform default
+	 * character set.
+	 * </p>
+	 *
+	 * <p>
+	 * Throws an exception if an I/O error occurs while writing the file.
+	 * </p>
+	 *
+	 * @param  text				the new content of the file.
+	 * @param  durability		how far to force the file to the device.
+	 * @throws					java.io.IOException
+	 *							if an I/O error occurs.
+	 */
+	public void replace( String text, Durability durability )
+		throws IOException
+	{
+		replace( out -> {
+			Writer w = new OutputStreamWriter( out );
+			w.write( text );
+			w.flush();
+		}, durability );
+	}
+	
+	/**
+	 * <p>
+	 * Replaces the file referenced by this instance with the given content,
+	 * atomically.  The content is written through a buffer to a temporary
+	 * file in the same directory, which is forced to the storage device per
+	 * the given durability level and then moved over the referenced file with
+	 * an atomic rename.  For <code>Durability.FULL</code> the directory is
+	 * also forced, so that the rename itself survives a crash.  On failure
+	 * the temporary file is removed and the referenced file is unchanged.
+	 * </p>
+	 *
+	 * <p>
+	 * The new file keeps the permissions, and where allowed the owner and
+	 * group, of the file it replaces; a new file gets the default permissions
+	 * of the process.
+	 * </p>
+	 *
+	 * <p>
+	 * If the file system does not support atomic renames, the temporary file
+	 * is moved with a plain replacing move instead.
+	 * </p>
+	 *
+	 * @param  content			the writer of the new content.
+	 * @param  durability		how far to force the file to the device.
+	 * @throws					java.io.IOException
+	 *							if an I/O error occurs.
+	 */
+	public void replace( Content content, Durability durability )
+		throws IOException
+	{
+		checkParentPath();
+		
+		Path target = file.toPath().toAbsolutePath();
+		Path dir = target.getParent();
+		Path temp = createTempFile( dir, "." + target.getFileName() );
+		boolean moved = false;
+		
+		try
 		{
-			file.delete();
+			copyAttributes( target, temp );
+			
+			try( FileOutputStream tempOut = new FileOutputStream( temp.toFile() ) )
+			{
+				OutputStream out = Compression.compress( new KeepOpenOutputStream(
+						new BufferedOutputStream( tempOut, BUFFER_SIZE ) ), compression );
+				content.writeTo( out );
+				out.close();
+				force( tempOut.getChannel(), durability );
+			}
+			
+			try
+			{
+				Files.move( temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING );
+			}
+			catch( AtomicMoveNotSupportedException exc )
+			{
+				Files.move( temp, target, StandardCopyOption.REPLACE_EXISTING );
+			}
+			moved = true;
+			
+			if( durability == Durability.FULL ) syncDirectory( dir );
 		}
-		else
+		finally
 		{
-			checkParentPath();
+			if( ! moved ) Files.deleteIfExists( temp );
 		}
-		
-		oos = new ObjectOutputStream( new FileOutputStream( file ) );
-		oos.writeObject( obj );
-		oos.flush();
 	}
 
 	/**
@@ -233,17 +542,13 @@ public class BufferedFileWriter
 			writer = null;
 		}
 		
-		if( fos != null )
+		if( out != null )
 		{
-			fos.close();
-			fos = null;
+			out.close();
+			out = null;
 		}
 		
-		if( oos != null )
-		{
-			oos.close();
-			oos = null;
-		}
+		writerOut = null;
 
 		file = null;
 		appending = null;
@@ -258,25 +563,149 @@ public class BufferedFileWriter
 	}
 	
 	/*
-	 * Returns a FileWriter instance associated with the instance.
+	 * Returns a writer associated with the instance, over a file stream that
+	 * is kept for forcing.
 	 */
-	private FileWriter getWriter( boolean append )
+	private Writer getWriter( boolean append )
 		throws IOException
 	{
 		checkParentPath();
-		if( writer == null ) writer = new FileWriter( file, append );
+		if( writer == null )
+		{
+			checkAppend( append );
+			writerOut = new FileOutputStream( file, append );
+			writer = new OutputStreamWriter( Compression.compress( writerOut, compression ) );
+		}
 		
 		return writer;
 	}
+	
+	/*
+	 * Rejects appending to a non-empty file in the block format.
+	 */
+	private void checkAppend( boolean append )
+		throws IOException
+	{
+		if( append && compression == Compression.Format.BLOCK && file.length() > 0 )
+		{
+			throw new IOException( "Can not append to block compressed file: " + FileUtils.getPathOf( file ) );
+		}
+	}
+	
+	/*
+	 * Forces the channel's data to the device per the durability level.
+	 */
+	private static void force( FileChannel channel, Durability durability )
+		throws IOException
+	{
+		if( durability == Durability.DATA )
+		{
+			channel.force( false );
+		}
+		else if( durability == Durability.FILE || durability == Durability.FULL )
+		{
+			channel.force( true );
+		}
+	}
+	
+	/*
+	 * Creates a new, uniquely named empty file in the given directory with
+	 * the default permissions of the process, unlike
+	 * Files.createTempFile, which restricts them to the owner.
+	 */
+	private static Path createTempFile( Path dir, String prefix )
+		throws IOException
+	{
+		while( true )
+		{
+			Path temp = dir.resolve( prefix + Long.toHexString( ThreadLocalRandom.current().nextLong() ) + ".tmp" );
+			try
+			{
+				return Files.createFile( temp );
+			}
+			catch( FileAlreadyExistsException exc )
+			{
+				// try another name
+			}
+		}
+	}
+	
+	/*
+	 * Copies the POSIX permissions of the given file, if it exists, to the
+	 * temporary file, and its owner and group where the process may change
+	 * them.
+	 */
+	private static void copyAttributes( Path target, Path temp )
+		throws IOException
+	{
+		PosixFileAttributeView view = Files.getFileAttributeView( temp, PosixFileAttributeView.class );
+		if( view == null || ! Files.exists( target ) ) return;
+		
+		PosixFileAttributes attrs = Files.readAttributes( target, PosixFileAttributes.class );
+		view.setPermissions( attrs.permissions() );
+		try
+		{
+			if( ! attrs.owner().equals( Files.getOwner( temp ) ) ) view.setOwner( attrs.owner() );
+			view.setGroup( attrs.group() );
+		}
+		catch( IOException exc )
+		{
+			// not permitted for this process; the owner is the process user
+		}
+	}
+	
+	/*
+	 * Forces the given directory's entries to the device.  Not all platforms
+	 * allow a directory to be opened for this; there it is silently skipped.
+	 */
+	private static void syncDirectory( Path dir )
+	{
+		try( FileChannel channel = FileChannel.open( dir, StandardOpenOption.READ ) )
+		{
+			channel.force( true );
+		}
+		catch( IOException exc )
+		{
+			// not supported on this platform
+		}
+	}
 
 	
 	private File file;					// the file being accessed
-	private FileWriter writer;
-	private FileOutputStream fos;
-	private ObjectOutputStream oos;
+	private Writer writer;
+	private FileOutputStream writerOut;	// the stream under 'writer'
+	private OutputStream out;
+	private Compression.Format compression = Compression.Format.NONE;
 	private boolean createParent;
 	private Boolean appending;
 
 	private final static String LINE_SEP = System.getProperty( "line.separator" );
+	private final static int BUFFER_SIZE = 64 * 1024;
+
+
+	/*
+	 * Flushes instead of closing the underlying stream, so that a compressing
+	 * stream can be finished before the file is forced.
+	 */
+	private static final class KeepOpenOutputStream
+		extends FilterOutputStream
+	{
+		KeepOpenOutputStream( OutputStream out )
+		{
+			super( out );
+		}
+
+		public void write( byte[] b, int off, int len )
+			throws IOException
+		{
+			out.write( b, off, len );
+		}
+
+		public void close()
+			throws IOException
+		{
+			out.flush();
+		}
+	}
 
 } // End of class: +com.vtis.io.BufferedFileWriter
@@ -0,0 +1,578 @@
+package com.veetechis.lib.io;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Spliterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.BinaryOperator;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+
+/**
+ * <p>
+ * Processes the lines of a large text file in parallel.  The file is split
+ * into byte ranges (chunks) whose boundaries are moved forward to the next
+ * line start, so that every line falls in exactly one chunk.  Chunks are then
+ * read concurrently with positional reads on a single shared
+ * <code>FileChannel</code>, each into its own buffer, and processed on a
+ * fork/join pool.  Results are produced in one of two ways:
+ * <ul>
+ * <li>Through <code>process</code>, where each chunk accumulates its lines
+ * into a container from a given supplier and the containers are merged with a
+ * given combiner.  Lines are passed as byte slices, without decoding.</li>
+ * <li>Through <code>lines</code>, as a parallel <code>Stream</code> of
+ * decoded lines backed by a line-aligned <code>Spliterator</code>.</li>
+ * </ul>
+ * </p>
+ *
+ * <p>
+ * Line handling follows <code>LineReader</code>: lines end at a line feed or a
+ * carriage return and line feed, and the file's character set must be line
+ * feed safe.
+ * </p>
+ *
+ * <p>
+ * Files compressed in the <code>Compression.Format.BLOCK</code> format are
+ * detected and processed the same way, over their uncompressed content:
+ * chunks are read through a <code>BlockCompressedFile</code>, which inflates
+ * only the blocks a chunk covers.  Gzip files can not be split and are
+ * rejected.
+ * </p>
+ *
+ * @author      pendraconx@gmail.com
+ * @see			LineReader
+ * @see			BlockCompressedFile
+ */
+public class ChunkedFileProcessor
+	implements Closeable
+{
+	/**
+	 * The default chunk size, in bytes.
+	 */
+	public final static long DEFAULT_CHUNK_SIZE = 8L * 1024 * 1024;
+
+	private final static int READ_BUFFER_SIZE = 64 * 1024;
+	private final static byte LF = '\n';
+	private final static byte CR = '\r';
+
+	private final File file;
+	private final Charset charset;
+	private final FileChannel channel;			// null for block compressed files
+	private final BlockCompressedFile blocks;	// null for plain files
+	private final long size;
+	private long chunkSize;
+	private ForkJoinPool pool;
+
+
+	/**
+	 * <p>
+	 * Accumulates lines, passed as slices of a read buffer, into a result
+	 * container.
+	 * </p>
+	 */
+	public static interface LineAccumulator<A>
+	{
+		/**
+		 * Adds the line held in the given buffer range to the container.  The
+		 * buffer is only valid for the duration of the call.
+		 *
+		 * @param  container	the result container of the current chunk.
+		 * @param  buf			the buffer holding the line.
+		 * @param  offset		the offset of the line in the buffer.
+		 * @param  length		the length of the line in bytes.
+		 * @throws				java.io.IOException
+		 *						to abort processing.
+		 */
+		public void line( A container, byte[] buf, int offset, int length )
+			throws IOException;
+	}
+
+
+	/**
+	 * <p>
+	 * Creates a new instance of <code>ChunkedFileProcessor</code> for the
+	 * specified file in the given character set.
+	 * </p>
+	 *
+	 * <p>
+	 * Throws an exception if the file is not found or can not be read, is
+	 * gzip compressed, or if the character set is not line feed safe.
+	 * </p>
+	 *
+	 * @param  file				the file to process.
+	 * @param  charset			the character set of the file.
+	 * @throws					java.io.FileNotFoundException
+	 *							if the file does not exist or is not accessible.
+	 * @throws					java.io.IOException
+	 *							if the file can not be opened or is gzip
+	 *								compressed.
+	 * @throws					java.lang.IllegalArgumentException
+	 *							if the character set is not line feed safe.
+	 * @see						LineReader#isLineFeedSafe
+	 */
+	public ChunkedFileProcessor( File file, Charset charset )
+		throws IOException
+	{
+		if( ! LineReader.isLineFeedSafe( charset ) )
+		{
+			throw new IllegalArgumentException( "Charset not line feed safe: " + charset );
+		}
+		if( ! FileUtils.isReadableFile( file ) )
+		{
+			throw new FileNotFoundException( "Path name can not be read: " + FileUtils.getPathOf( file ) );
+		}
+
+		Compression.Format format = Compression.detect( file );
+		if( format == Compression.Format.GZIP )
+		{
+			throw new IOException( "Gzip file can not be split; use the block format: " + FileUtils.getPathOf( file ) );
+		}
+
+		this.file = file;
+		this.charset = charset;
+		if( format == Compression.Format.BLOCK )
+		{
+			this.blocks = new BlockCompressedFile( file );
+			this.channel = null;
+			this.size = blocks.size();
+		}
+		else
+		{
+			this.blocks = null;
+			this.channel = FileChannel.open( file.toPath(), StandardOpenOption.READ );
+			this.size = channel.size();
+		}
+		this.chunkSize = DEFAULT_CHUNK_SIZE;
+		this.pool = ForkJoinPool.commonPool();
+	}
+
+	/**
+	 * <p>
+	 * Returns the file processed by this instance.
+	 * </p>
+	 *
+	 * @return					the file being processed.
+	 */
+	public File getFile()
+	{
+		return file;
+	}
+
+	/**
+	 * <p>
+	 * Sets the target chunk size in bytes.  Actual chunks are slightly larger,
+	 * as each boundary is moved forward to the next line start.
+	 * </p>
+	 *
+	 * @param  bytes			the target chunk size.
+	 */
+	public void setChunkSize( long bytes )
+	{
+		chunkSize = Math.max( bytes, 1L );
+	}
+
+	/**
+	 * <p>
+	 * Sets the fork/join pool on which <code>process</code> runs.  The common
+	 * pool is used by default.
+	 * </p>
+	 *
+	 * @param  pool				the pool to process chunks on.
+	 */
+	public void setPool( ForkJoinPool pool )
+	{
+		this.pool = pool;
+	}
+
+	/**
+	 * <p>
+	 * Processes all lines of the file in parallel.  Each chunk's lines are
+	 * passed in order to the accumulator with a container created by the
+	 * supplier for that chunk; the containers are then merged pairwise with
+	 * the combiner, in file order, and the final container is returned.
+	 * </p>
+	 *
+	 * <p>
+	 * Throws an exception if an I/O error occurs or the accumulator aborts
+	 * processing.
+	 * </p>
+	 *
+	 * @param  supplier			creates a result container per chunk.
+	 * @param  accumulator		adds a line to a container.
+	 * @param  combiner			merges two containers into one.
+	 * @return					the combined result.
+	 * @throws					java.io.IOException
+	 *							if an I/O error occurs.
+	 */
+	public <A> A process( Supplier<A> supplier, LineAccumulator<A> accumulator, BinaryOperator<A> combiner )
+		throws IOException
+	{
+		long[] bounds = chunkBounds();
+
+		try
+		{
+			return pool.invoke( new ChunkTask<A>( bounds, 0, bounds.length - 1,
+					supplier, accumulator, combiner ) );
+		}
+		catch( UncheckedIOException exc )
+		{
+			throw exc.getCause();
+		}
+	}
+
+	/**
+	 * <p>
+	 * Returns a line-aligned spliterator over the decoded lines of the file.
+	 * Splitting halves the remaining byte range at the nearest line start.
+	 * I/O errors are raised as <code>UncheckedIOException</code>.
+	 * </p>
+	 *
+	 * @return					a spliterator over the file's lines.
+	 */
+	public Spliterator<String> spliterator()
+	{
+		return new LineSpliterator( 0L, size );
+	}
+
+	/**
+	 * <p>
+	 * Returns a parallel stream of the decoded lines of the file.  I/O errors
+	 * are raised as <code>UncheckedIOException</code>.
+	 * </p>
+	 *
+	 * @return					a parallel stream of the file's lines.
+	 */
+	public Stream<String> lines()
+	{
+		return StreamSupport.stream( spliterator(), true );
+	}
+
+	/**
+	 * <p>
+	 * Closes the file.
+	 * </p>
+	 *
+	 * @throws					java.io.IOException
+	 *							if an I/O error occurs.
+	 */
+	public void close()
+		throws IOException
+	{
+		if( channel != null ) channel.close();
+		if( blocks != null ) blocks.close();
+	}
+
+
+	/*
+	 * Returns the chunk boundaries: the start of each chunk, followed by the
+	 * file size.
+	 */
+	private long[] chunkBounds()
+		throws IOException
+	{
+		int max = (int) Math.min( size / chunkSize + 2, 1024L );
+		long[] bounds = new long[max];
+		int n = 0;
+
+		long pos = 0L;
+		bounds[n++] = pos;
+		while( pos < size )
+		{
+			pos = alignToLine( pos + chunkSize );
+			if( pos < size )
+			{
+				if( n == bounds.length - 1 ) bounds = Arrays.copyOf( bounds, n * 2 );
+				bounds[n++] = pos;
+			}
+		}
+		bounds[n++] = size;
+
+		return Arrays.copyOf( bounds, n );
+	}
+
+	/*
+	 * Returns the start of the first line beginning at or after the given
+	 * position, or the file size if there is none.
+	 */
+	private long alignToLine( long pos )
+		throws IOException
+	{
+		if( pos <= 0L ) return 0L;
+		if( pos >= size ) return size;
+
+		ByteBuffer buf = ByteBuffer.allocate( 4096 );
+		long at = pos - 1;
+		while( at < size )
+		{
+			buf.clear();
+			int n = readAt( buf, at );
+			if( n <= 0 ) break;
+			byte[] b = buf.array();
+			for( int i = 0; i < n; i++ )
+			{
+				if( b[i] == LF ) return at + i + 1;
+			}
+			at += n;
+		}
+
+		return size;
+	}
+
+	/*
+	 * Reads content at the given position of the file, or of its uncompressed
+	 * content for a block compressed file.
+	 */
+	private int readAt( ByteBuffer dst, long position )
+		throws IOException
+	{
+		return (channel != null ? channel.read( dst, position ) : blocks.read( dst, position ));
+	}
+
+
+	/*
+	 * Reads the lines of one byte range with positional reads on the shared
+	 * channel.  Each instance has its own buffer and is used by one thread.
+	 */
+	private final class RangeReader
+	{
+		private long pos;				// next file position to read
+		private final long limit;		// end of the range
+		private byte[] buf = BufferPool.getShared().acquire( (int) Math.min( READ_BUFFER_SIZE, Math.max( chunkSize, 16 ) ) );
+		private int start;
+		private int end;
+		int lineOffset;
+		int lineLength;
+
+		RangeReader( long from, long to )
+		{
+			pos = from;
+			limit = to;
+		}
+
+		/*
+		 * Advances to the next line, setting lineOffset and lineLength, and
+		 * returns false at the end of the range.
+		 */
+		boolean next()
+			throws IOException
+		{
+			int scan = start;
+
+			while( true )
+			{
+				for( int i = scan; i < end; i++ )
+				{
+					if( buf[i] == LF )
+					{
+						setLine( i, true );
+						return true;
+					}
+				}
+
+				if( pos >= limit )
+				{
+					if( start < end )
+					{
+						setLine( end, false );
+						return true;
+					}
+					return false;
+				}
+
+				scan = end - start;
+				fill();
+				scan += start;
+			}
+		}
+
+		private void setLine( int lineEnd, boolean terminated )
+		{
+			lineOffset = start;
+			lineLength = lineEnd - start;
+			if( terminated && lineLength > 0 && buf[lineEnd - 1] == CR ) lineLength--;
+			start = (terminated ? lineEnd + 1 : lineEnd);
+		}
+
+		/*
+		 * Returns the buffer to the pool once the range is read.
+		 */
+		void release()
+		{
+			BufferPool.getShared().release( buf );
+			buf = null;
+		}
+
+		private void fill()
+			throws IOException
+		{
+			int remaining = end - start;
+			if( remaining == buf.length )
+			{
+				byte[] bigger = BufferPool.getShared().acquire( buf.length * 2 );
+				System.arraycopy( buf, start, bigger, 0, remaining );
+				BufferPool.getShared().release( buf );
+				buf = bigger;
+			}
+			else if( start > 0 )
+			{
+				System.arraycopy( buf, start, buf, 0, remaining );
+			}
+			start = 0;
+			end = remaining;
+
+			int want = (int) Math.min( buf.length - end, limit - pos );
+			int n = readAt( ByteBuffer.wrap( buf, end, want ), pos );
+			if( n < 0 )
+			{
+				pos = limit;
+			}
+			else
+			{
+				pos += n;
+				end += n;
+			}
+		}
+	}
+
+	/*
+	 * Processes the chunks in [lo, hi) of the bounds array, splitting the
+	 * range in halves until a single chunk remains.
+	 */
+	private final class ChunkTask<A>
+		extends RecursiveTask<A>
+	{
+		private static final long serialVersionUID = 1L;
+		
+		private final long[] bounds;
+		private final int lo;
+		private final int hi;
+		private final Supplier<A> supplier;
+		private final LineAccumulator<A> accumulator;
+		private final BinaryOperator<A> combiner;
+
+		ChunkTask( long[] bounds, int lo, int hi, Supplier<A> supplier,
+				LineAccumulator<A> accumulator, BinaryOperator<A> combiner )
+		{
+			this.bounds = bounds;
+			this.lo = lo;
+			this.hi = hi;
+			this.supplier = supplier;
+			this.accumulator = accumulator;
+			this.combiner = combiner;
+		}
+
+		protected A compute()
+		{
+			if( hi - lo > 1 )
+			{
+				int mid = (lo + hi) >>> 1;
+				ChunkTask<A> left = new ChunkTask<A>( bounds, lo, mid, supplier, accumulator, combiner );
+				ChunkTask<A> right = new ChunkTask<A>( bounds, mid, hi, supplier, accumulator, combiner );
+				right.fork();
+				A result = left.compute();
+				return combiner.apply( result, right.join() );
+			}
+
+			A container = supplier.get();
+			if( lo >= hi ) return container;
+
+			RangeReader reader = new RangeReader( bounds[lo], bounds[hi] );
+			try
+			{
+				while( reader.next() )
+				{
+					accumulator.line( container, reader.buf, reader.lineOffset, reader.lineLength );
+				}
+			}
+			catch( IOException exc )
+			{
+				throw new UncheckedIOException( exc );
+			}
+			finally
+			{
+				reader.release();
+			}
+
+			return container;
+		}
+	}
+
+	/*
+	 * Spliterator over the lines of a byte range, split at line starts.
+	 */
+	private final class LineSpliterator
+		implements Spliterator<String>
+	{
+		private long from;
+		private final long to;
+		private RangeReader reader;
+
+		LineSpliterator( long from, long to )
+		{
+			this.from = from;
+			this.to = to;
+		}
+
+		public boolean tryAdvance( Consumer<? super String> action )
+		{
+			try
+			{
+				if( reader == null ) reader = new RangeReader( from, to );
+				if( ! reader.next() )
+				{
+					reader.release();
+					return false;
+				}
+			}
+			catch( IOException exc )
+			{
+				throw new UncheckedIOException( exc );
+			}
+
+			action.accept( new String( reader.buf, reader.lineOffset, reader.lineLength, charset ) );
+			return true;
+		}
+
+		public Spliterator<String> trySplit()
+		{
+			if( reader != null || to - from < 2 * READ_BUFFER_SIZE ) return null;
+
+			try
+			{
+				long mid = alignToLine( from + (to - from) / 2 );
+				if( mid <= from || mid >= to ) return null;
+
+				LineSpliterator prefix = new LineSpliterator( from, mid );
+				from = mid;
+				return prefix;
+			}
+			catch( IOException exc )
+			{
+				throw new UncheckedIOException( exc );
+			}
+		}
+
+		public long estimateSize()
+		{
+			return (reader == null ? to - from : reader.limit - reader.pos + reader.end - reader.start) / 64 + 1;
+		}
+
+		public int characteristics()
+		{
+			return ORDERED | NONNULL | IMMUTABLE;
+		}
+	}
+
+} // End of class: +com.vtis.io.ChunkedFileProcessor
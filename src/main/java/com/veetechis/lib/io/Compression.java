@@ -0,0 +1,1087 @@
+package com.veetechis.lib.io;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+
+/**
+ * <p>
+ * Provides streaming compression and decompression of file content in the
+ * following formats:
+ * <ul>
+ * <li><code>GZIP</code>: the gzip file format (RFC 1952).  Concatenated
+ * members, as produced by appending, are read as one stream.</li>
+ * <li><code>DEFLATE</code>: the zlib format (RFC 1950).  Concatenated streams
+ * are read as one stream.</li>
+ * <li><code>BLOCK</code>: a seekable format of independently deflated blocks
+ * of at most <code>BLOCK_SIZE</code> bytes followed by a block index, so that
+ * any position can be read without inflating what precedes it.  Files in this
+ * format are read randomly through <code>BlockCompressedFile</code> and in
+ * parallel chunks through <code>ChunkedFileProcessor</code>.</li>
+ * </ul>
+ * The format of a stream is detected from its leading (magic) bytes; the
+ * zlib format, whose header is ambiguous, only on request.
+ * </p>
+ *
+ * <p>
+ * Deflaters and inflaters are pooled and reused across streams, and stream
+ * buffers are drawn from the shared <code>BufferPool</code>, which avoids the
+ * cost of allocating the native zlib state and the buffers for each file.  Pooled objects are returned when a stream is
+ * closed; an unclosed stream's deflater or inflater is simply not reused.
+ * </p>
+ *
+ * @author      pendraconx@gmail.com
+ * @see			BlockCompressedFile
+ */
+public final class Compression
+{
+	/**
+	 * <p>
+	 * Enum for specifying the compression format of file content.
+	 * </p>
+	 */
+	public static enum Format { NONE, GZIP, DEFLATE, BLOCK }
+
+	/**
+	 * The size of the buffers used by compressing and decompressing streams.
+	 */
+	public final static int BUFFER_SIZE = 64 * 1024;
+
+	/**
+	 * The maximum number of uncompressed bytes in a block of the
+	 * <code>BLOCK</code> format.
+	 */
+	public final static int BLOCK_SIZE = 64 * 1024;
+
+	/*
+	 * BLOCK format layout: header (magic, block size), blocks (raw length,
+	 * packed length, CRC-32 of the raw data, packed data; stored raw when the
+	 * packed length equals the raw length), a zero terminator block header,
+	 * the index (count, then file and raw offset per block), and the trailer
+	 * (index offset, raw size, magic).
+	 */
+	final static int BLOCK_MAGIC = 0x56424C4B;		// "VBLK"
+	final static int BLOCK_HEADER_LENGTH = 12;
+	final static int BLOCK_TRAILER_LENGTH = 20;
+
+	private final static int GZIP_MAGIC = 0x8B1F;
+	private final static int FHCRC = 0x02;
+	private final static int FEXTRA = 0x04;
+	private final static int FNAME = 0x08;
+	private final static int FCOMMENT = 0x10;
+	private final static int POOL_SIZE = Math.max( 4, 2 * Runtime.getRuntime().availableProcessors() );
+
+	private final static ArrayBlockingQueue<Deflater> deflaters = new ArrayBlockingQueue<Deflater>( POOL_SIZE );
+	private final static ArrayBlockingQueue<Deflater> rawDeflaters = new ArrayBlockingQueue<Deflater>( POOL_SIZE );
+	private final static ArrayBlockingQueue<Inflater> inflaters = new ArrayBlockingQueue<Inflater>( POOL_SIZE );
+	private final static ArrayBlockingQueue<Inflater> rawInflaters = new ArrayBlockingQueue<Inflater>( POOL_SIZE );
+
+
+	/*
+	 * Not instantiable.
+	 */
+	private Compression()
+	{
+	}
+
+	/**
+	 * <p>
+	 * Returns the compression format identified by the given leading bytes of
+	 * a stream, or <code>Format.NONE</code> if they identify none.  Only the
+	 * unambiguous <code>GZIP</code> and <code>BLOCK</code> magic numbers are
+	 * detected.
+	 * </p>
+	 *
+	 * @param  head				the leading bytes of a stream.
+	 * @param  length			the number of valid bytes in head.
+	 * @return					the identified format.
+	 * @see						#detect(byte[],int,boolean)
+	 */
+	public static Format detect( byte[] head, int length )
+	{
+		return detect( head, length, false );
+	}
+
+	/**
+	 * <p>
+	 * Returns the compression format identified by the given leading bytes of
+	 * a stream, or <code>Format.NONE</code> if they identify none, detecting
+	 * the <code>DEFLATE</code> (zlib) format only if asked to.  At least four
+	 * bytes are needed to identify the <code>BLOCK</code> format and two for
+	 * the others.
+	 * </p>
+	 *
+	 * <p>
+	 * <b>Tech Note:</b> The zlib header is only two bytes with a check value,
+	 * which about one in 30 arbitrary byte pairs passes.  Plain files starting
+	 * with such a pair (<i>e.g.</i> the text "x^" or "HK") are misdetected as
+	 * <code>DEFLATE</code>, so detect it only for streams known to be either
+	 * zlib or not text.
+	 * </p>
+	 *
+	 * @param  head				the leading bytes of a stream.
+	 * @param  length			the number of valid bytes in head.
+	 * @param  deflate			true to also detect the zlib format.
+	 * @return					the identified format.
+	 */
+	public static Format detect( byte[] head, int length, boolean deflate )
+	{
+		if( length >= 4 && readInt( head, 0 ) == BLOCK_MAGIC ) return Format.BLOCK;
+		if( length < 2 ) return Format.NONE;
+
+		int b0 = head[0] & 0xFF;
+		int b1 = head[1] & 0xFF;
+		if( (b0 | b1 << 8) == GZIP_MAGIC ) return Format.GZIP;
+		if( deflate && (b0 & 0x0F) == 8 && (b0 >>> 4) <= 7 && (b1 & 0x20) == 0 && (b0 << 8 | b1) % 31 == 0 )
+		{
+			return Format.DEFLATE;
+		}
+
+		return Format.NONE;
+	}
+
+	/**
+	 * <p>
+	 * Returns the compression format of the given file, as identified by its
+	 * leading bytes.  The zlib format is not detected.
+	 * </p>
+	 *
+	 * <p>
+	 * Throws an exception if the file can not be read.
+	 * </p>
+	 *
+	 * @param  file				the file to examine.
+	 * @return					the identified format.
+	 * @throws					java.io.IOException
+	 *							if an I/O error occurs.
+	 */
+	public static Format detect( File file )
+		throws IOException
+	{
+		return detect( file, false );
+	}
+
+	/**
+	 * <p>
+	 * Returns the compression format of the given file, as identified by its
+	 * leading bytes, detecting the zlib format only if asked to.
+	 * </p>
+	 *
+	 * <p>
+	 * Throws an exception if the file can not be read.
+	 * </p>
+	 *
+	 * @param  file				the file to examine.
+	 * @param  deflate			true to also detect the zlib format.
+	 * @return					the identified format.
+	 * @throws					java.io.IOException
+	 *							if an I/O error occurs.
+	 * @see						#detect(byte[],int,boolean)
+	 */
+	public static Format detect( File file, boolean deflate )
+		throws IOException
+	{
+		try( FileInputStream in = new FileInputStream( file ) )
+		{
+			byte[] head = new byte[4];
+			return detect( head, readFully( in, head ), deflate );
+		}
+	}
+
+	/**
+	 * <p>
+	 * Returns a stream of the decompressed content of the given stream, whose
+	 * format is detected from its leading bytes.  The zlib format is not
+	 * detected.  Uncompressed content is returned as is, through a buffered
+	 * stream.  Closing the returned stream closes the given stream.
+	 * </p>
+	 *
+	 * <p>
+	 * Throws an exception if an I/O error occurs reading the leading bytes.
+	 * </p>
+	 *
+	 * @param  in				the stream to decompress.
+	 * @return					a stream of the decompressed content.
+	 * @throws					java.io.IOException
+	 *							if an I/O error occurs.
+	 */
+	public static InputStream decompress( InputStream in )
+		throws IOException
+	{
+		return decompress( in, false );
+	}
+
+	/**
+	 * <p>
+	 * Returns a stream of the decompressed content of the given stream, whose
+	 * format is detected from its leading bytes, detecting the zlib format
+	 * only if asked to.  Uncompressed content is returned as is, through a
+	 * buffered stream.  Closing the returned stream closes the given stream.
+	 * </p>
+	 *
+	 * <p>
+	 * Throws an exception if an I/O error occurs reading the leading bytes.
+	 * </p>
+	 *
+	 * @param  in				the stream to decompress.
+	 * @param  deflate			true to also detect the zlib format.
+	 * @return					a stream of the decompressed content.
+	 * @throws					java.io.IOException
+	 *							if an I/O error occurs.
+	 * @see						#detect(byte[],int,boolean)
+	 */
+	public static InputStream decompress( InputStream in, boolean deflate )
+		throws IOException
+	{
+		if( ! in.markSupported() ) in = new BufferedInputStream( in, BUFFER_SIZE );
+
+		byte[] head = new byte[4];
+		in.mark( head.length );
+		int n = readFully( in, head );
+		in.reset();
+
+		return decompress( in, detect( head, n, deflate ) );
+	}
+
+	/**
+	 * <p>
+	 * Returns a stream of the decompressed content of the given stream in the
+	 * given format.  Closing the returned stream closes the given stream.
+	 * </p>
+	 *
+	 * <p>
+	 * Throws an exception if an I/O error occurs reading the stream header.
+	 * </p>
+	 *
+	 * @param  in				the stream to decompress.
+	 * @param  format			the compression format of the stream.
+	 * @return					a stream of the decompressed content.
+	 * @throws					java.io.IOException
+	 *							if an I/O error occurs or the header is
+	 *								invalid.
+	 */
+	public static InputStream decompress( InputStream in, Format format )
+		throws IOException
+	{
+		switch( format )
+		{
+			case GZIP:		return new InflatingInputStream( in, true );
+			case DEFLATE:	return new InflatingInputStream( in, false );
+			case BLOCK:		return new BlockInputStream( in );
+			default:		return in;
+		}
+	}
+
+	/**
+	 * <p>
+	 * Returns a stream that writes its content to the given stream compressed
+	 * in the given format, at the default compression level.  Closing the
+	 * returned stream finishes the compressed data and closes the given
+	 * stream.
+	 * </p>
+	 *
+	 * <p>
+	 * Throws an exception if an I/O error occurs writing the stream header.
+	 * </p>
+	 *
+	 * @param  out				the stream to write to.
+	 * @param  format			the compression format.
+	 * @return					a compressing stream.
+	 * @throws					java.io.IOException
+	 *							if an I/O error occurs.
+	 */
+	public static OutputStream compress( OutputStream out, Format format )
+		throws IOException
+	{
+		return compress( out, format, Deflater.DEFAULT_COMPRESSION );
+	}
+
+	/**
+	 * <p>
+	 * Returns a stream that writes its content to the given stream compressed
+	 * in the given format and at the given compression level (0-9, or -1 for
+	 * the default).  For <code>GZIP</code> and <code>DEFLATE</code>, flushing
+	 * the returned stream emits all data written so far (a zlib sync flush);
+	 * for <code>BLOCK</code> it ends the current block.
+	 * </p>
+	 *
+	 * <p>
+	 * Throws an exception if an I/O error occurs writing the stream header.
+	 * </p>
+	 *
+	 * @param  out				the stream to write to.
+	 * @param  format			the compression format.
+	 * @param  level			the compression level.
+	 * @return					a compressing stream.
+	 * @throws					java.io.IOException
+	 *							if an I/O error occurs.
+	 */
+	public static OutputStream compress( OutputStream out, Format format, int level )
+		throws IOException
+	{
+		switch( format )
+		{
+			case GZIP:		return new DeflatingOutputStream( out, level, true );
+			case DEFLATE:	return new DeflatingOutputStream( out, level, false );
+			case BLOCK:		return new BlockOutputStream( out, level );
+			default:		return out;
+		}
+	}
+
+
+	/*
+	 * Returns a pooled deflater at the given level, producing zlib-wrapped
+	 * data or, if nowrap, raw deflate data.
+	 */
+	static Deflater acquireDeflater( int level, boolean nowrap )
+	{
+		Deflater deflater = (nowrap ? rawDeflaters : deflaters).poll();
+		if( deflater == null ) return new Deflater( level, nowrap );
+
+		deflater.setLevel( level );
+		return deflater;
+	}
+
+	/*
+	 * Resets and returns the given deflater to its pool, or releases its
+	 * native state if the pool is full.
+	 */
+	static void releaseDeflater( Deflater deflater, boolean nowrap )
+	{
+		deflater.reset();
+		if( ! (nowrap ? rawDeflaters : deflaters).offer( deflater ) ) deflater.end();
+	}
+
+	/*
+	 * Returns a pooled inflater for zlib-wrapped data or, if nowrap, raw
+	 * deflate data.
+	 */
+	static Inflater acquireInflater( boolean nowrap )
+	{
+		Inflater inflater = (nowrap ? rawInflaters : inflaters).poll();
+		return (inflater != null ? inflater : new Inflater( nowrap ));
+	}
+
+	/*
+	 * Resets and returns the given inflater to its pool, or releases its
+	 * native state if the pool is full.
+	 */
+	static void releaseInflater( Inflater inflater, boolean nowrap )
+	{
+		inflater.reset();
+		if( ! (nowrap ? rawInflaters : inflaters).offer( inflater ) ) inflater.end();
+	}
+
+	/*
+	 * Returns a pooled buffer of BUFFER_SIZE bytes.
+	 */
+	static byte[] acquireBuffer()
+	{
+		return BufferPool.getShared().acquire( BUFFER_SIZE );
+	}
+
+	/*
+	 * Returns the given buffer to the pool.
+	 */
+	static void releaseBuffer( byte[] buf )
+	{
+		BufferPool.getShared().release( buf );
+	}
+
+	/*
+	 * Inflates packed data into the given raw array, which it must fill
+	 * exactly.
+	 */
+	static void inflate( Inflater inflater, byte[] packed, int off, int packedLength, byte[] raw, int rawLength )
+		throws IOException
+	{
+		inflater.reset();
+		inflater.setInput( packed, off, packedLength );
+		try
+		{
+			int n = 0;
+			while( n < rawLength )
+			{
+				int k = inflater.inflate( raw, n, rawLength - n );
+				if( k == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary()) ) break;
+				n += k;
+			}
+			if( n != rawLength ) throw new ZipException( "Block length mismatch" );
+		}
+		catch( DataFormatException exc )
+		{
+			throw new ZipException( exc.getMessage() );
+		}
+	}
+
+	/*
+	 * Returns the big-endian int at the given offset.
+	 */
+	static int readInt( byte[] b, int off )
+	{
+		return (b[off] & 0xFF) << 24 | (b[off + 1] & 0xFF) << 16 | (b[off + 2] & 0xFF) << 8 | (b[off + 3] & 0xFF);
+	}
+
+	/*
+	 * Returns the big-endian long at the given offset.
+	 */
+	static long readLong( byte[] b, int off )
+	{
+		return (readInt( b, off ) & 0xFFFFFFFFL) << 32 | (readInt( b, off + 4 ) & 0xFFFFFFFFL);
+	}
+
+	/*
+	 * Stores the given int big-endian at the given offset.
+	 */
+	static void writeInt( byte[] b, int off, int v )
+	{
+		b[off] = (byte) (v >>> 24);
+		b[off + 1] = (byte) (v >>> 16);
+		b[off + 2] = (byte) (v >>> 8);
+		b[off + 3] = (byte) v;
+	}
+
+	/*
+	 * Stores the given long big-endian at the given offset.
+	 */
+	static void writeLong( byte[] b, int off, long v )
+	{
+		writeInt( b, off, (int) (v >>> 32) );
+		writeInt( b, off + 4, (int) v );
+	}
+
+	/*
+	 * Reads up to b.length bytes, returning fewer only at end of stream.
+	 */
+	private static int readFully( InputStream in, byte[] b )
+		throws IOException
+	{
+		int n = 0;
+		while( n < b.length )
+		{
+			int k = in.read( b, n, b.length - n );
+			if( k < 0 ) break;
+			n += k;
+		}
+
+		return n;
+	}
+
+
+	/*
+	 * Writes gzip or zlib data with a pooled deflater and buffer.
+	 */
+	private static final class DeflatingOutputStream
+		extends FilterOutputStream
+	{
+		private final boolean gzip;
+		private final CRC32 crc;
+		private Deflater deflater;
+		private byte[] buf;
+
+		DeflatingOutputStream( OutputStream out, int level, boolean gzip )
+			throws IOException
+		{
+			super( out );
+			this.gzip = gzip;
+			this.crc = (gzip ? new CRC32() : null);
+			this.deflater = acquireDeflater( level, gzip );
+			this.buf = acquireBuffer();
+
+			if( gzip )
+			{
+				out.write( new byte[] { 0x1F, (byte) 0x8B, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xFF } );
+			}
+		}
+
+		public void write( int b )
+			throws IOException
+		{
+			write( new byte[] { (byte) b }, 0, 1 );
+		}
+
+		public void write( byte[] b, int off, int len )
+			throws IOException
+		{
+			if( deflater == null ) throw new IOException( "Stream closed" );
+			if( len == 0 ) return;
+
+			if( gzip ) crc.update( b, off, len );
+			deflater.setInput( b, off, len );
+			while( ! deflater.needsInput() )
+			{
+				int n = deflater.deflate( buf, 0, buf.length, Deflater.NO_FLUSH );
+				if( n > 0 ) out.write( buf, 0, n );
+			}
+		}
+
+		public void flush()
+			throws IOException
+		{
+			if( deflater != null )
+			{
+				int n;
+				do
+				{
+					n = deflater.deflate( buf, 0, buf.length, Deflater.SYNC_FLUSH );
+					if( n > 0 ) out.write( buf, 0, n );
+				}
+				while( n == buf.length );
+			}
+			out.flush();
+		}
+
+		public void close()
+			throws IOException
+		{
+			if( deflater == null ) return;
+
+			try
+			{
+				deflater.finish();
+				while( ! deflater.finished() )
+				{
+					int n = deflater.deflate( buf, 0, buf.length );
+					if( n > 0 ) out.write( buf, 0, n );
+				}
+				if( gzip )
+				{
+					byte[] trailer = new byte[8];
+					writeIntLE( trailer, 0, (int) crc.getValue() );
+					writeIntLE( trailer, 4, (int) deflater.getBytesRead() );
+					out.write( trailer );
+				}
+				out.flush();
+			}
+			finally
+			{
+				releaseDeflater( deflater, gzip );
+				releaseBuffer( buf );
+				deflater = null;
+				buf = null;
+				out.close();
+			}
+		}
+
+		private static void writeIntLE( byte[] b, int off, int v )
+		{
+			b[off] = (byte) v;
+			b[off + 1] = (byte) (v >>> 8);
+			b[off + 2] = (byte) (v >>> 16);
+			b[off + 3] = (byte) (v >>> 24);
+		}
+	}
+
+	/*
+	 * Reads gzip or zlib data, including concatenated members, with a pooled
+	 * inflater and buffer.  Input left over when a member ends is kept in the
+	 * buffer for the trailer and the next member.
+	 */
+	private static final class InflatingInputStream
+		extends FilterInputStream
+	{
+		private final boolean gzip;
+		private final CRC32 crc;
+		private Inflater inflater;
+		private byte[] buf;
+		private int pos;				// next unconsumed byte of buf
+		private int limit;				// end of the valid bytes of buf
+		private boolean eof;
+
+		InflatingInputStream( InputStream in, boolean gzip )
+			throws IOException
+		{
+			super( in );
+			this.gzip = gzip;
+			this.crc = (gzip ? new CRC32() : null);
+			this.inflater = acquireInflater( gzip );
+			this.buf = acquireBuffer();
+
+			try
+			{
+				if( gzip ) readHeader( readByte() );
+			}
+			catch( IOException exc )
+			{
+				close();
+				throw exc;
+			}
+		}
+
+		public int read()
+			throws IOException
+		{
+			byte[] b = new byte[1];
+			return (read( b, 0, 1 ) < 0 ? -1 : b[0] & 0xFF);
+		}
+
+		public int read( byte[] b, int off, int len )
+			throws IOException
+		{
+			if( inflater == null ) throw new IOException( "Stream closed" );
+			if( len == 0 ) return 0;
+
+			try
+			{
+				while( ! eof )
+				{
+					if( inflater.finished() )
+					{
+						endMember();
+						continue;
+					}
+					if( inflater.needsInput() )
+					{
+						if( pos >= limit && ! fill() ) throw new EOFException( "Unexpected end of compressed stream" );
+						inflater.setInput( buf, pos, limit - pos );
+						pos = limit;
+					}
+
+					int n = inflater.inflate( b, off, len );
+					if( n > 0 )
+					{
+						if( gzip ) crc.update( b, off, n );
+						return n;
+					}
+					if( inflater.needsDictionary() )
+					{
+						throw new ZipException( "Preset dictionary not supported" );
+					}
+				}
+			}
+			catch( DataFormatException exc )
+			{
+				throw new ZipException( exc.getMessage() );
+			}
+
+			return -1;
+		}
+
+		public long skip( long n )
+			throws IOException
+		{
+			byte[] b = new byte[(int) Math.min( n, 8192 )];
+			long skipped = 0;
+			while( skipped < n )
+			{
+				int k = read( b, 0, (int) Math.min( b.length, n - skipped ) );
+				if( k < 0 ) break;
+				skipped += k;
+			}
+
+			return skipped;
+		}
+
+		public int available()
+			throws IOException
+		{
+			return (eof || inflater == null ? 0 : 1);
+		}
+
+		public boolean markSupported()
+		{
+			return false;
+		}
+
+		public void close()
+			throws IOException
+		{
+			if( inflater == null ) return;
+
+			releaseInflater( inflater, gzip );
+			releaseBuffer( buf );
+			inflater = null;
+			buf = null;
+			in.close();
+		}
+
+		/*
+		 * Checks the trailer of the finished member and starts the next one,
+		 * if any.
+		 */
+		private void endMember()
+			throws IOException
+		{
+			pos = limit - inflater.getRemaining();
+
+			if( gzip )
+			{
+				long value = readIntLE();
+				long size = readIntLE();
+				if( value != crc.getValue() || size != (inflater.getBytesWritten() & 0xFFFFFFFFL) )
+				{
+					throw new ZipException( "Corrupt GZIP trailer" );
+				}
+
+				if( peekByte() < 0 )
+				{
+					eof = true;
+					return;
+				}
+				int b = readByte();
+				if( (b | peekByte() << 8) != GZIP_MAGIC )
+				{
+					eof = true;		// trailing bytes after the last member are ignored
+					return;
+				}
+				readHeader( b );
+				crc.reset();
+			}
+			else if( pos >= limit && ! fill() )
+			{
+				eof = true;
+				return;
+			}
+
+			inflater.reset();
+		}
+
+		private void readHeader( int first )
+			throws IOException
+		{
+			if( (first | readByte() << 8) != GZIP_MAGIC ) throw new ZipException( "Not in GZIP format" );
+			if( readByte() != Deflater.DEFLATED ) throw new ZipException( "Unsupported compression method" );
+
+			int flags = readByte();
+			for( int i = 0; i < 6; i++ ) readByte();		// mtime, xfl, os
+			if( (flags & FEXTRA) != 0 )
+			{
+				int n = readByte() | readByte() << 8;
+				for( int i = 0; i < n; i++ ) readByte();
+			}
+			if( (flags & FNAME) != 0 ) while( readByte() != 0 );
+			if( (flags & FCOMMENT) != 0 ) while( readByte() != 0 );
+			if( (flags & FHCRC) != 0 )
+			{
+				readByte();
+				readByte();
+			}
+		}
+
+		private long readIntLE()
+			throws IOException
+		{
+			return (readByte() | readByte() << 8 | readByte() << 16 | (long) readByte() << 24) & 0xFFFFFFFFL;
+		}
+
+		/*
+		 * Returns the next byte of input; a missing header or trailer byte
+		 * raises EOFException.
+		 */
+		private int readByte()
+			throws IOException
+		{
+			if( pos >= limit && ! fill() ) throw new EOFException( "Unexpected end of compressed stream" );
+			return buf[pos++] & 0xFF;
+		}
+
+		private int peekByte()
+			throws IOException
+		{
+			if( pos >= limit && ! fill() ) return -1;
+			return buf[pos] & 0xFF;
+		}
+
+		private boolean fill()
+			throws IOException
+		{
+			int n = in.read( buf, 0, buf.length );
+			if( n <= 0 ) return false;
+
+			pos = 0;
+			limit = n;
+			return true;
+		}
+	}
+
+	/*
+	 * Writes the BLOCK format.  Data is collected into blocks of BLOCK_SIZE
+	 * bytes, each deflated on its own (or stored, if it does not shrink).
+	 */
+	private static final class BlockOutputStream
+		extends FilterOutputStream
+	{
+		private Deflater deflater;
+		private byte[] block;
+		private byte[] packed;
+		private final byte[] header = new byte[BLOCK_HEADER_LENGTH];
+		private final CRC32 crc = new CRC32();
+		private int count;
+		private long filePos;
+		private long rawPos;
+		private long[] index = new long[64];		// file and raw offset pairs
+		private int blocks;
+
+		BlockOutputStream( OutputStream out, int level )
+			throws IOException
+		{
+			super( out );
+			this.deflater = acquireDeflater( level, true );
+			this.block = acquireBuffer();
+			this.packed = acquireBuffer();
+
+			writeInt( header, 0, BLOCK_MAGIC );
+			writeInt( header, 4, BLOCK_SIZE );
+			out.write( header, 0, 8 );
+			filePos = 8;
+		}
+
+		public void write( int b )
+			throws IOException
+		{
+			write( new byte[] { (byte) b }, 0, 1 );
+		}
+
+		public void write( byte[] b, int off, int len )
+			throws IOException
+		{
+			if( deflater == null ) throw new IOException( "Stream closed" );
+
+			while( len > 0 )
+			{
+				if( count == BLOCK_SIZE ) writeBlock();
+				int n = Math.min( len, BLOCK_SIZE - count );
+				System.arraycopy( b, off, block, count, n );
+				count += n;
+				off += n;
+				len -= n;
+			}
+		}
+
+		public void flush()
+			throws IOException
+		{
+			if( deflater != null ) writeBlock();
+			out.flush();
+		}
+
+		public void close()
+			throws IOException
+		{
+			if( deflater == null ) return;
+
+			try
+			{
+				writeBlock();
+
+				Arrays.fill( header, (byte) 0 );
+				out.write( header );
+				long indexOffset = filePos + header.length;
+
+				byte[] entries = new byte[4 + blocks * 16 + BLOCK_TRAILER_LENGTH];
+				writeInt( entries, 0, blocks );
+				for( int i = 0; i < blocks; i++ )
+				{
+					writeLong( entries, 4 + i * 16, index[i * 2] );
+					writeLong( entries, 12 + i * 16, index[i * 2 + 1] );
+				}
+				int at = 4 + blocks * 16;
+				writeLong( entries, at, indexOffset );
+				writeLong( entries, at + 8, rawPos );
+				writeInt( entries, at + 16, BLOCK_MAGIC );
+				out.write( entries );
+				out.flush();
+			}
+			finally
+			{
+				releaseDeflater( deflater, true );
+				releaseBuffer( block );
+				releaseBuffer( packed );
+				deflater = null;
+				out.close();
+			}
+		}
+
+		private void writeBlock()
+			throws IOException
+		{
+			if( count == 0 ) return;
+
+			deflater.reset();
+			deflater.setInput( block, 0, count );
+			deflater.finish();
+			int len = 0;
+			while( ! deflater.finished() && len < count )
+			{
+				len += deflater.deflate( packed, len, count - len );
+			}
+
+			crc.reset();
+			crc.update( block, 0, count );
+			boolean stored = ! deflater.finished() || len >= count;
+			writeInt( header, 0, count );
+			writeInt( header, 4, (stored ? count : len) );
+			writeInt( header, 8, (int) crc.getValue() );
+			out.write( header );
+			out.write( (stored ? block : packed), 0, (stored ? count : len) );
+
+			if( blocks * 2 == index.length ) index = Arrays.copyOf( index, index.length * 2 );
+			index[blocks * 2] = filePos;
+			index[blocks * 2 + 1] = rawPos;
+			blocks++;
+
+			filePos += header.length + (stored ? count : len);
+			rawPos += count;
+			count = 0;
+		}
+	}
+
+	/*
+	 * Reads the BLOCK format sequentially, ending at the terminator block.
+	 */
+	private static final class BlockInputStream
+		extends FilterInputStream
+	{
+		private Inflater inflater;
+		private byte[] block;
+		private byte[] packed;
+		private final byte[] header = new byte[BLOCK_HEADER_LENGTH];
+		private final CRC32 crc = new CRC32();
+		private int pos;
+		private int limit;
+		private boolean eof;
+
+		BlockInputStream( InputStream in )
+			throws IOException
+		{
+			super( in );
+			this.inflater = acquireInflater( true );
+			this.block = acquireBuffer();
+			this.packed = acquireBuffer();
+
+			try
+			{
+				readFully( header, 8 );
+				if( readInt( header, 0 ) != BLOCK_MAGIC || readInt( header, 4 ) > BLOCK_SIZE )
+				{
+					throw new ZipException( "Not in BLOCK format" );
+				}
+			}
+			catch( IOException exc )
+			{
+				close();
+				throw exc;
+			}
+		}
+
+		public int read()
+			throws IOException
+		{
+			if( pos >= limit && ! nextBlock() ) return -1;
+			return block[pos++] & 0xFF;
+		}
+
+		public int read( byte[] b, int off, int len )
+			throws IOException
+		{
+			if( len == 0 ) return 0;
+			if( pos >= limit && ! nextBlock() ) return -1;
+
+			int n = Math.min( len, limit - pos );
+			System.arraycopy( block, pos, b, off, n );
+			pos += n;
+			return n;
+		}
+
+		public long skip( long n )
+			throws IOException
+		{
+			long skipped = 0;
+			while( skipped < n && (pos < limit || nextBlock()) )
+			{
+				int k = (int) Math.min( n - skipped, limit - pos );
+				pos += k;
+				skipped += k;
+			}
+
+			return skipped;
+		}
+
+		public int available()
+		{
+			return limit - pos;
+		}
+
+		public boolean markSupported()
+		{
+			return false;
+		}
+
+		public void close()
+			throws IOException
+		{
+			if( inflater == null ) return;
+
+			releaseInflater( inflater, true );
+			releaseBuffer( block );
+			releaseBuffer( packed );
+			inflater = null;
+			in.close();
+		}
+
+		private boolean nextBlock()
+			throws IOException
+		{
+			if( inflater == null ) throw new IOException( "Stream closed" );
+			if( eof ) return false;
+
+			readFully( header, header.length );
+			int rawLength = readInt( header, 0 );
+			int packedLength = readInt( header, 4 );
+			if( rawLength == 0 )
+			{
+				eof = true;		// the index and trailer follow
+				return false;
+			}
+			if( rawLength < 0 || rawLength > BLOCK_SIZE || packedLength < 0 || packedLength > rawLength )
+			{
+				throw new ZipException( "Corrupt block header" );
+			}
+
+			if( packedLength == rawLength )
+			{
+				readFully( block, rawLength );
+			}
+			else
+			{
+				readFully( packed, packedLength );
+				inflate( inflater, packed, 0, packedLength, block, rawLength );
+			}
+
+			crc.reset();
+			crc.update( block, 0, rawLength );
+			if( (int) crc.getValue() != readInt( header, 8 ) ) throw new ZipException( "Block checksum mismatch" );
+
+			pos = 0;
+			limit = rawLength;
+			return true;
+		}
+
+		private void readFully( byte[] b, int len )
+			throws IOException
+		{
+			int n = 0;
+			while( n < len )
+			{
+				int k = in.read( b, n, len - n );
+				if( k < 0 ) throw new EOFException( "Unexpected end of compressed stream" );
+				n += k;
+			}
+		}
+	}
+
+} // End of class: +com.vtis.io.Compression
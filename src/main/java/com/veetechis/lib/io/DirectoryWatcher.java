@@ -0,0 +1,509 @@
+package com.veetechis.lib.io;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+
+/**
+ * <p>
+ * Watches a file system location (directory) for files and directories being
+ * created, modified, or deleted, and delivers the changes to a call-back in
+ * batches.  The watcher supports the following characteristics:
+ * <ul>
+ * <li>Only changes to entities accepted by a <code>FileSearchFilter</code> are
+ * delivered.</li>
+ * <li>Optionally, the whole directory tree is watched, with subdirectories
+ * registered as they are created.</li>
+ * <li>Changes are debounced: a batch is delivered once no further change has
+ * been seen for the debounce interval, or once the oldest change in it has
+ * waited for the maximum delay.  Repeated changes to the same entity within a
+ * batch are coalesced into one (<i>e.g.</i> a create followed by several
+ * modifies is delivered as a single create; a create followed by a delete is
+ * not delivered at all).</li>
+ * <li>Batches are delivered through a given <code>Executor</code>, or on the
+ * watcher's own thread if none is given.</li>
+ * </ul>
+ * </p>
+ *
+ * <p>
+ * Settings must be made before the call to <code>start</code>.  If the
+ * underlying watch service loses events, a change of kind
+ * <code>OVERFLOW</code> naming the affected directory is delivered and the
+ * caller should rescan that directory; it is not replaced by later changes
+ * to the same path within the batch.  An exception thrown by the call-back
+ * is logged and does not stop the watcher.
+ * </p>
+ *
+ * @author      pendraconx@gmail.com
+ */
+public class DirectoryWatcher
+	implements Closeable
+{
+	/**
+	 * The default debounce interval, in milliseconds.
+	 */
+	public final static long DEFAULT_DEBOUNCE_MILLIS = 50;
+
+	private final Path root;
+	private final FileSearchFilter filter;
+	private final Consumer<List<Change>> callback;
+	private final Map<WatchKey,Path> watchedDirs;
+	private final Map<Path,Change.Kind> pending;
+
+	private boolean recursive;
+	private long debounceNanos;
+	private long maxDelayNanos;
+	private Executor executor;
+	private WatchService watcher;
+	private Thread watchThread;
+
+	private final static Log log = LogFactory.getLog( DirectoryWatcher.class );
+
+
+	/**
+	 * <p>
+	 * A change made to a watched entity, as delivered to the call-back.
+	 * </p>
+	 */
+	public static final class Change
+	{
+		/**
+		 * <p>
+		 * Enum for specifying the kind of change made to a watched entity.
+		 * </p>
+		 */
+		public static enum Kind { CREATED, MODIFIED, DELETED, OVERFLOW }
+
+		private final File file;
+		private final Kind kind;
+
+		Change( File file, Kind kind )
+		{
+			this.file = file;
+			this.kind = kind;
+		}
+
+		/**
+		 * Returns the changed file or directory.
+		 */
+		public File getFile() { return file; }
+
+		/**
+		 * Returns the kind of change.
+		 */
+		public Kind getKind() { return kind; }
+
+		public String toString()
+		{
+			return kind + ": " + file;
+		}
+	}
+
+
+	/**
+	 * <p>
+	 * Creates a new instance of <code>DirectoryWatcher</code> for the given
+	 * directory, delivering changes to entities accepted by the given filter
+	 * to the call-back.  By default only the directory itself is watched.
+	 * </p>
+	 *
+	 * <p>
+	 * Throws an exception if the directory does not exist or is not readable.
+	 * </p>
+	 *
+	 * @param  dir				the directory to watch.
+	 * @param  filter			the filter to match changed entity names, or
+	 *								null to deliver all changes.
+	 * @param  callback			the receiver of change batches.
+	 * @throws					DirNotFoundException
+	 *							if the directory is not found or can not be
+	 *								accessed.
+	 */
+	public DirectoryWatcher( File dir, FileSearchFilter filter, Consumer<List<Change>> callback )
+		throws DirNotFoundException
+	{
+		if( ! FileUtils.isReadableDirectory( dir ) )
+		{
+			throw new DirNotFoundException( "Path name can not be read: " + FileUtils.getPathOf( dir ) );
+		}
+
+		this.root = dir.toPath().toAbsolutePath().normalize();
+		this.filter = filter;
+		this.callback = callback;
+		this.watchedDirs = new ConcurrentHashMap<WatchKey,Path>();
+		this.pending = new LinkedHashMap<Path,Change.Kind>();
+		this.executor = Runnable::run;
+		setDebounce( DEFAULT_DEBOUNCE_MILLIS, TimeUnit.MILLISECONDS );
+	}
+
+	/**
+	 * <p>
+	 * If set to <code>true</code>, instructs this instance to watch the entire
+	 * directory tree, including subdirectories created after the call to
+	 * <code>start</code>.
+	 * </p>
+	 *
+	 * @param  recursive		watches all subdirectories if true.
+	 */
+	public void setRecursive( boolean recursive )
+	{
+		this.recursive = recursive;
+	}
+
+	/**
+	 * <p>
+	 * Returns <code>true</code> if this instance watches the entire directory
+	 * tree.
+	 * </p>
+	 *
+	 * @return					true if watching recursively.
+	 */
+	public boolean isRecursive()
+	{
+		return recursive;
+	}
+
+	/**
+	 * <p>
+	 * Sets the quiet interval after which pending changes are delivered.  The
+	 * maximum delay of any change is set to ten times this interval.
+	 * </p>
+	 *
+	 * @param  interval			the debounce interval.
+	 * @param  unit				the time unit of the interval.
+	 */
+	public void setDebounce( long interval, TimeUnit unit )
+	{
+		debounceNanos = unit.toNanos( interval );
+		maxDelayNanos = debounceNanos * 10;
+	}
+
+	/**
+	 * <p>
+	 * Sets the maximum time a change may wait for delivery while further
+	 * changes keep arriving.
+	 * </p>
+	 *
+	 * @param  delay			the maximum delivery delay.
+	 * @param  unit				the time unit of the delay.
+	 */
+	public void setMaxDelay( long delay, TimeUnit unit )
+	{
+		maxDelayNanos = unit.toNanos( delay );
+	}
+
+	/**
+	 * <p>
+	 * Sets the executor on which change batches are delivered to the
+	 * call-back.  Passing <code>null</code> delivers batches on the watcher's
+	 * own thread (the default), which delays further watching until the
+	 * call-back returns.
+	 * </p>
+	 *
+	 * @param  executor			the call-back executor, or null.
+	 */
+	public void setExecutor( Executor executor )
+	{
+		this.executor = (executor == null ? Runnable::run : executor);
+	}
+
+	/**
+	 * <p>
+	 * Registers the watched directory, and its subdirectories if watching
+	 * recursively, and starts watching on a daemon thread.
+	 * </p>
+	 *
+	 * <p>
+	 * Throws an exception if the watch service can not be opened or the
+	 * directory can not be registered, or if the instance is already started.
+	 * </p>
+	 *
+	 * @throws					java.io.IOException
+	 *							if watching can not be started.
+	 */
+	public synchronized void start()
+		throws IOException
+	{
+		if( watcher != null )
+		{
+			throw new IOException( "Watcher already started for: " + root );
+		}
+
+		watcher = FileSystems.getDefault().newWatchService();
+		if( recursive )
+		{
+			registerTree( root, false );
+		}
+		else
+		{
+			register( root );
+		}
+
+		watchThread = new Thread( this::processEvents, "DirectoryWatcher-" + root.getFileName() );
+		watchThread.setDaemon( true );
+		watchThread.start();
+	}
+
+	/**
+	 * <p>
+	 * Stops watching.  Changes not yet delivered are discarded.
+	 * </p>
+	 *
+	 * @throws					java.io.IOException
+	 *							if an I/O error occurs.
+	 */
+	public synchronized void close()
+		throws IOException
+	{
+		if( watcher != null )
+		{
+			watcher.close();
+			watchedDirs.clear();
+		}
+	}
+
+
+	/*
+	 * Watch thread body: collects and coalesces events until the debounce
+	 * interval passes without a new event, or the oldest pending change
+	 * reaches the maximum delay, then delivers the pending batch.
+	 */
+	private void processEvents()
+	{
+		long firstEvent = 0L;
+		long lastEvent = 0L;
+
+		try
+		{
+			while( true )
+			{
+				WatchKey key;
+				if( pending.isEmpty() )
+				{
+					key = watcher.take();
+				}
+				else
+				{
+					long now = System.nanoTime();
+					long wait = Math.min( lastEvent + debounceNanos, firstEvent + maxDelayNanos ) - now;
+					key = (wait > 0 ? watcher.poll( wait, TimeUnit.NANOSECONDS ) : null);
+				}
+
+				if( key == null )
+				{
+					deliver();
+					continue;
+				}
+
+				long now = System.nanoTime();
+				if( pending.isEmpty() ) firstEvent = now;
+				lastEvent = now;
+
+				Path dir = watchedDirs.get( key );
+				if( dir != null )
+				{
+					for( WatchEvent<?> event : key.pollEvents() )
+					{
+						handleEvent( dir, event );
+					}
+				}
+
+				if( ! key.reset() )
+				{
+					watchedDirs.remove( key );
+				}
+
+				if( pending.isEmpty() ) continue;
+				if( System.nanoTime() - firstEvent >= maxDelayNanos ) deliver();
+			}
+		}
+		catch( InterruptedException | ClosedWatchServiceException exc )
+		{
+			// watcher closed
+		}
+	}
+
+	/*
+	 * Adds the change named by the given event to the pending batch, and
+	 * registers newly created subdirectories when watching recursively.
+	 */
+	private void handleEvent( Path dir, WatchEvent<?> event )
+	{
+		WatchEvent.Kind<?> kind = event.kind();
+		if( kind == StandardWatchEventKinds.OVERFLOW )
+		{
+			pending.put( dir, Change.Kind.OVERFLOW );
+			return;
+		}
+
+		Path path = dir.resolve( (Path) event.context() );
+		boolean isDirectory = false;
+
+		if( kind == StandardWatchEventKinds.ENTRY_CREATE )
+		{
+			isDirectory = Files.isDirectory( path, LinkOption.NOFOLLOW_LINKS );
+			if( isDirectory && recursive )
+			{
+				try
+				{
+					registerTree( path, true );
+				}
+				catch( IOException exc )
+				{
+					// directory vanished or is unreadable; nothing more to watch
+				}
+			}
+			addChange( path, isDirectory, Change.Kind.CREATED );
+		}
+		else if( kind == StandardWatchEventKinds.ENTRY_MODIFY )
+		{
+			isDirectory = Files.isDirectory( path, LinkOption.NOFOLLOW_LINKS );
+			addChange( path, isDirectory, Change.Kind.MODIFIED );
+		}
+		else
+		{
+			isDirectory = watchedDirs.containsValue( path );
+			addChange( path, isDirectory, Change.Kind.DELETED );
+		}
+	}
+
+	/*
+	 * Coalesces the given change with any change pending for the same path.
+	 */
+	private void addChange( Path path, boolean isDirectory, Change.Kind kind )
+	{
+		if( filter != null && ! filter.accept( path.getFileName().toString(), isDirectory ) )
+		{
+			return;
+		}
+
+		Change.Kind prior = pending.get( path );
+		if( prior == Change.Kind.OVERFLOW )
+		{
+			return;		// lost events must still be reported
+		}
+		else if( prior == null )
+		{
+			pending.put( path, kind );
+		}
+		else if( prior == Change.Kind.CREATED )
+		{
+			if( kind == Change.Kind.DELETED ) pending.remove( path );
+		}
+		else if( prior == Change.Kind.DELETED )
+		{
+			if( kind == Change.Kind.CREATED ) pending.put( path, Change.Kind.MODIFIED );
+		}
+		else if( kind == Change.Kind.DELETED )
+		{
+			pending.put( path, Change.Kind.DELETED );
+		}
+	}
+
+	/*
+	 * Hands the pending batch to the executor for delivery to the call-back.
+	 */
+	private void deliver()
+	{
+		if( pending.isEmpty() ) return;
+
+		List<Change> batch = new ArrayList<Change>( pending.size() );
+		for( Map.Entry<Path,Change.Kind> entry : pending.entrySet() )
+		{
+			batch.add( new Change( entry.getKey().toFile(), entry.getValue() ) );
+		}
+		pending.clear();
+
+		List<Change> changes = Collections.unmodifiableList( batch );
+		try
+		{
+			executor.execute( () -> {
+				try
+				{
+					callback.accept( changes );
+				}
+				catch( RuntimeException exc )
+				{
+					log.error( "Change call-back failed for " + root, exc );
+				}
+			} );
+		}
+		catch( RuntimeException exc )
+		{
+			log.error( "Change batch could not be delivered for " + root, exc );
+		}
+	}
+
+	/*
+	 * Registers the given directory with the watch service.
+	 */
+	private void register( Path dir )
+		throws IOException
+	{
+		WatchKey key = dir.register( watcher,
+				StandardWatchEventKinds.ENTRY_CREATE,
+				StandardWatchEventKinds.ENTRY_DELETE,
+				StandardWatchEventKinds.ENTRY_MODIFY );
+		watchedDirs.put( key, dir );
+	}
+
+	/*
+	 * Registers the given directory and all its subdirectories.  For a
+	 * directory created while watching, entities created in it before it was
+	 * registered are also added to the pending batch as created.
+	 */
+	private void registerTree( Path start, boolean reportExisting )
+		throws IOException
+	{
+		Files.walkFileTree( start, new SimpleFileVisitor<Path>()
+		{
+			public FileVisitResult preVisitDirectory( Path dir, BasicFileAttributes attrs )
+				throws IOException
+			{
+				register( dir );
+				if( reportExisting && ! dir.equals( start ) )
+				{
+					addChange( dir, true, Change.Kind.CREATED );
+				}
+				return FileVisitResult.CONTINUE;
+			}
+
+			public FileVisitResult visitFile( Path file, BasicFileAttributes attrs )
+			{
+				if( reportExisting ) addChange( file, false, Change.Kind.CREATED );
+				return FileVisitResult.CONTINUE;
+			}
+
+			public FileVisitResult visitFileFailed( Path file, IOException exc )
+			{
+				return FileVisitResult.CONTINUE;
+			}
+		} );
+	}
+
+} // End of class: +com.vtis.io.DirectoryWatcher
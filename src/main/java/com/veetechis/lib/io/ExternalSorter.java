@@ -0,0 +1,678 @@
+package com.veetechis.lib.io;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+
+/**
+ * <p>
+ * Sorts the lines of a file that may be much larger than the available
+ * memory.  The input is read in runs that fit a memory budget; each run is
+ * sorted on a fork/join pool while the next one is read, and written to a
+ * temporary spill file.  The spill files are then merged, through a heap of
+ * their current lines, into the output file; if there are more of them than
+ * the merge factor, groups of them are first merged into larger spill files.
+ * Input that fits in a single run is sorted in memory and never spilled.
+ * </p>
+ *
+ * <p>
+ * Lines are compared with a given comparator, natural order by default, and
+ * the sort is stable.  Optionally, lines that compare equal to the line
+ * before them are dropped, and spill files are compressed, which trades CPU
+ * time for temporary disk space and I/O.  Lines are read as by
+ * <code>LineReader</code> and written terminated by a line feed; the output
+ * file is replaced atomically, so it may be the input file.
+ * </p>
+ *
+ * <p>
+ * <b>Usage Note:</b> The memory budget bounds the lines held for sorting,
+ * estimated from their lengths; the merge needs a read buffer per spill file
+ * in addition.
+ * </p>
+ *
+ * <p>
+ * <b>Tech Note:</b> An instance may be reused, but not shared by threads
+ * while sorting.
+ * </p>
+ *
+ * @author      pendraconx@gmail.com
+ * @see			LineReader
+ */
+public class ExternalSorter
+{
+	/**
+	 * The default memory budget in bytes.
+	 */
+	public final static long DEFAULT_MEMORY_LIMIT = 64L * 1024 * 1024;
+
+	/**
+	 * The default number of spill files merged at once.
+	 */
+	public final static int DEFAULT_MERGE_FACTOR = 64;
+
+	private final static int LINE_OVERHEAD = 64;		// estimated bytes per line besides its characters
+	private final static int STREAM_BUFFER_SIZE = 64 * 1024;
+
+	private final Charset charset;
+	private final Comparator<? super String> comparator;
+	private long memoryLimit = DEFAULT_MEMORY_LIMIT;
+	private int mergeFactor = DEFAULT_MERGE_FACTOR;
+	private boolean distinct;
+	private Compression.Format spillCompression = Compression.Format.NONE;
+	private File tempDir;
+	private ForkJoinPool pool = ForkJoinPool.commonPool();
+
+
+	/**
+	 * <p>
+	 * Creates a new instance of <code>ExternalSorter</code> that sorts lines in
+	 * the given character set in their natural order.
+	 * </p>
+	 *
+	 * @param  charset			the character set of the files.
+	 */
+	public ExternalSorter( Charset charset )
+	{
+		this( charset, Comparator.<String>naturalOrder() );
+	}
+
+	/**
+	 * <p>
+	 * Creates a new instance of <code>ExternalSorter</code> that sorts lines in
+	 * the given character set in the order of the given comparator.
+	 * </p>
+	 *
+	 * @param  charset			the character set of the files.
+	 * @param  comparator		the line order.
+	 */
+	public ExternalSorter( Charset charset, Comparator<? super String> comparator )
+	{
+		this.charset = charset;
+		this.comparator = comparator;
+	}
+
+	/**
+	 * <p>
+	 * Sets the memory budget, in bytes, for the lines held while sorting.  It
+	 * is shared by the run being read and the runs being sorted.
+	 * </p>
+	 *
+	 * @param  bytes			the memory budget.
+	 */
+	public void setMemoryLimit( long bytes )
+	{
+		memoryLimit = Math.max( bytes, 1024L * 1024 );
+	}
+
+	/**
+	 * <p>
+	 * Sets the maximum number of spill files merged at once.
+	 * </p>
+	 *
+	 * @param  files			the merge factor, at least 2.
+	 */
+	public void setMergeFactor( int files )
+	{
+		mergeFactor = Math.max( files, 2 );
+	}
+
+	/**
+	 * <p>
+	 * Sets whether lines comparing equal to the preceding line are dropped.
+	 * </p>
+	 *
+	 * @param  distinct			true to write distinct lines only.
+	 */
+	public void setDistinct( boolean distinct )
+	{
+		this.distinct = distinct;
+	}
+
+	/**
+	 * <p>
+	 * Sets the compression format of spill files; they are not compressed by
+	 * default.
+	 * </p>
+	 *
+	 * @param  format			the spill file compression format.
+	 */
+	public void setSpillCompression( Compression.Format format )
+	{
+		spillCompression = (format == null ? Compression.Format.NONE : format);
+	}
+
+	/**
+	 * <p>
+	 * Sets the directory for spill files; the system temporary directory is
+	 * used by default.
+	 * </p>
+	 *
+	 * @param  dir				the spill file directory, or null.
+	 */
+	public void setTempDirectory( File dir )
+	{
+		tempDir = dir;
+	}
+
+	/**
+	 * <p>
+	 * Sets the fork/join pool on which runs are sorted and merged.  The common
+	 * pool is used by default; its parallelism sets the number of runs
+	 * sorted at once.
+	 * </p>
+	 *
+	 * @param  pool				the pool to sort on.
+	 */
+	public void setPool( ForkJoinPool pool )
+	{
+		this.pool = pool;
+	}
+
+	/**
+	 * <p>
+	 * Sorts the lines of the input file into the output file, and returns the
+	 * number of lines written.  Spill files are removed before returning.
+	 * </p>
+	 *
+	 * <p>
+	 * Throws an exception if the input file can not be read, or if an I/O
+	 * error occurs while sorting or writing the output; the output file is
+	 * then unchanged.
+	 * </p>
+	 *
+	 * @param  input			the file to sort.
+	 * @param  output			the file to write the sorted lines to.
+	 * @return					the number of lines written.
+	 * @throws					java.io.FileNotFoundException
+	 *							if the input file does not exist or is not
+	 *								accessible.
+	 * @throws					java.io.IOException
+	 *							if an I/O error occurs.
+	 */
+	public long sort( File input, File output )
+		throws IOException
+	{
+		if( ! FileUtils.isReadableFile( input ) )
+		{
+			throw new FileNotFoundException( "Path name can not be read: " + FileUtils.getPathOf( input ) );
+		}
+
+		int parallelism = Math.max( pool.getParallelism(), 1 );
+		long runLimit = memoryLimit / (parallelism + 1);
+		Semaphore permits = new Semaphore( parallelism );
+		List<Future<File>> pending = new ArrayList<Future<File>>();
+		List<File> spills = Collections.synchronizedList( new ArrayList<File>() );
+
+		try
+		{
+			List<String> run = new ArrayList<String>();
+			long runBytes = 0;
+
+			try( LineReader reader = new LineReader( input, charset ) )
+			{
+				String line;
+				while( (line = reader.readLine()) != null )
+				{
+					run.add( line );
+					runBytes += 2L * line.length() + LINE_OVERHEAD;
+					if( runBytes >= runLimit )
+					{
+						pending.add( spill( run, permits, spills ) );
+						run = new ArrayList<String>();
+						runBytes = 0;
+					}
+				}
+			}
+
+			if( pending.isEmpty() )
+			{
+				String[] lines = run.toArray( new String[run.size()] );
+				run = null;
+				pool.submit( () -> Arrays.parallelSort( lines, comparator ) ).join();	// forks onto 'pool'
+				return writeOutput( output, new ListSource( Arrays.asList( lines ) ) );
+			}
+
+			if( ! run.isEmpty() ) pending.add( spill( run, permits, spills ) );
+			run = null;
+
+			List<File> runs = await( pending );
+			while( runs.size() > mergeFactor )
+			{
+				runs = mergePass( runs, spills );
+			}
+
+			List<File> finalRuns = runs;
+			long[] count = new long[1];
+			new BufferedFileWriter( output ).replace( out -> {
+				LineSink sink = openOutput( out );
+				count[0] = merge( finalRuns, sink );
+				sink.close();
+			}, BufferedFileWriter.Durability.NONE );
+			return count[0];
+		}
+		finally
+		{
+			drain( pending );
+			synchronized( spills )
+			{
+				for( File f : spills ) f.delete();
+			}
+		}
+	}
+
+
+	/*
+	 * Submits a run to be sorted and spilled, once a permit is free, and
+	 * returns the pending spill file.
+	 */
+	private Future<File> spill( List<String> run, Semaphore permits, List<File> spills )
+		throws IOException
+	{
+		try
+		{
+			permits.acquire();
+		}
+		catch( InterruptedException exc )
+		{
+			Thread.currentThread().interrupt();
+			throw new IOException( "Interrupted waiting to sort a run", exc );
+		}
+
+		try
+		{
+			return pool.submit( () -> {
+				try
+				{
+					run.sort( comparator );
+
+					File file = createSpill( spills );
+					try( SpillWriter out = new SpillWriter( file ) )
+					{
+						write( new ListSource( run ), out );
+					}
+					return file;
+				}
+				finally
+				{
+					permits.release();
+				}
+			} );
+		}
+		catch( RuntimeException exc )
+		{
+			permits.release();
+			throw exc;
+		}
+	}
+
+	/*
+	 * Merges groups of spill files into new spill files, in parallel, and
+	 * returns the new files; the merged ones are removed.
+	 */
+	private List<File> mergePass( List<File> runs, List<File> spills )
+		throws IOException
+	{
+		List<Future<File>> merges = new ArrayList<Future<File>>();
+		for( int i = 0; i < runs.size(); i += mergeFactor )
+		{
+			List<File> group = runs.subList( i, Math.min( i + mergeFactor, runs.size() ) );
+			merges.add( pool.submit( () -> {
+				File file = createSpill( spills );
+				try( SpillWriter out = new SpillWriter( file ) )
+				{
+					merge( group, out );
+				}
+				return file;
+			} ) );
+		}
+
+		List<File> merged;
+		try
+		{
+			merged = await( merges );
+		}
+		finally
+		{
+			drain( merges );
+		}
+		for( File f : runs )
+		{
+			f.delete();
+			spills.remove( f );
+		}
+
+		return merged;
+	}
+
+	/*
+	 * Waits for the given tasks and returns their spill files in order.
+	 */
+	private static List<File> await( List<Future<File>> tasks )
+		throws IOException
+	{
+		List<File> files = new ArrayList<File>( tasks.size() );
+		for( Future<File> task : tasks )
+		{
+			try
+			{
+				files.add( task.get() );
+			}
+			catch( InterruptedException exc )
+			{
+				Thread.currentThread().interrupt();
+				throw new IOException( "Interrupted waiting for a sort task", exc );
+			}
+			catch( ExecutionException exc )
+			{
+				Throwable cause = exc.getCause();
+				if( cause instanceof IOException ) throw (IOException) cause;
+				if( cause instanceof RuntimeException ) throw (RuntimeException) cause;
+				if( cause instanceof Error ) throw (Error) cause;
+				throw new IOException( cause );
+			}
+		}
+
+		return files;
+	}
+
+	/*
+	 * Waits for the given tasks to finish, ignoring their outcome, so that
+	 * no task is still writing a spill file when they are removed.
+	 */
+	private static void drain( List<Future<File>> tasks )
+	{
+		for( Future<File> task : tasks )
+		{
+			try
+			{
+				task.get();
+			}
+			catch( InterruptedException exc )
+			{
+				Thread.currentThread().interrupt();
+				return;
+			}
+			catch( ExecutionException exc )
+			{
+				// Reported by await.
+			}
+		}
+	}
+
+	/*
+	 * Merges the given spill files into the sink through a heap of their
+	 * current lines, and returns the number of lines written.  Lines that
+	 * compare equal are taken in spill file order, which keeps the sort
+	 * stable.
+	 */
+	private long merge( List<File> runs, LineSink sink )
+		throws IOException
+	{
+		PriorityQueue<SpillReader> heap = new PriorityQueue<SpillReader>( runs.size(), (a, b) -> {
+			int c = comparator.compare( a.line, b.line );
+			return (c != 0 ? c : Integer.compare( a.order, b.order ));
+		} );
+
+		try
+		{
+			for( int i = 0; i < runs.size(); i++ )
+			{
+				SpillReader reader = new SpillReader( runs.get( i ), i, spillCompression );
+				if( reader.next() )
+				{
+					heap.add( reader );
+				}
+				else
+				{
+					reader.close();
+				}
+			}
+
+			return write( () -> {
+				SpillReader reader = heap.poll();
+				if( reader == null ) return null;
+
+				String line = reader.line;
+				if( reader.next() )
+				{
+					heap.add( reader );
+				}
+				else
+				{
+					reader.close();
+				}
+				return line;
+			}, sink );
+		}
+		finally
+		{
+			for( SpillReader reader : heap ) reader.close();
+		}
+	}
+
+	/*
+	 * Writes the lines of the source to the sink, dropping duplicates if
+	 * requested, and returns the number of lines written.
+	 */
+	private long write( LineSource source, LineSink sink )
+		throws IOException
+	{
+		long count = 0;
+		String last = null;
+		String line;
+		while( (line = source.next()) != null )
+		{
+			if( distinct && last != null && comparator.compare( last, line ) == 0 ) continue;
+
+			sink.line( line );
+			last = line;
+			count++;
+		}
+
+		return count;
+	}
+
+	private long writeOutput( File output, LineSource source )
+		throws IOException
+	{
+		long[] count = new long[1];
+		new BufferedFileWriter( output ).replace( out -> {
+			LineSink sink = openOutput( out );
+			count[0] = write( source, sink );
+			sink.close();
+		}, BufferedFileWriter.Durability.NONE );
+
+		return count[0];
+	}
+
+	/*
+	 * Returns a sink writing lines to the output stream in the character set;
+	 * closing the sink flushes it, leaving the stream open.
+	 */
+	private LineSink openOutput( OutputStream out )
+	{
+		Writer writer = new BufferedWriter( new OutputStreamWriter( out, charset ), STREAM_BUFFER_SIZE );
+		return new LineSink()
+		{
+			public void line( String line )
+				throws IOException
+			{
+				writer.write( line );
+				writer.write( '\n' );
+			}
+
+			public void close()
+				throws IOException
+			{
+				writer.flush();
+			}
+		};
+	}
+
+	private File createSpill( List<File> spills )
+		throws IOException
+	{
+		File file = File.createTempFile( "sort", ".run", tempDir );
+		spills.add( file );
+		return file;
+	}
+
+
+	/*
+	 * A source of lines; returns null at the end.
+	 */
+	private static interface LineSource
+	{
+		String next()
+			throws IOException;
+	}
+
+	/*
+	 * A destination of lines.
+	 */
+	private static interface LineSink
+		extends java.io.Closeable
+	{
+		void line( String line )
+			throws IOException;
+	}
+
+	private static final class ListSource
+		implements LineSource
+	{
+		private final List<String> lines;
+		private int next;
+
+		ListSource( List<String> lines )
+		{
+			this.lines = lines;
+		}
+
+		public String next()
+		{
+			return (next < lines.size() ? lines.get( next++ ) : null);
+		}
+	}
+
+	/*
+	 * Writes a spill file of length-prefixed UTF-8 lines, so that any line
+	 * content, including carriage returns, survives.  A length of -1 ends the
+	 * file.
+	 */
+	private final class SpillWriter
+		implements LineSink
+	{
+		private final DataOutputStream out;
+
+		SpillWriter( File file )
+			throws IOException
+		{
+			FileOutputStream fos = new FileOutputStream( file );
+			try
+			{
+				out = new DataOutputStream( Compression.compress(
+						new BufferedOutputStream( fos, STREAM_BUFFER_SIZE ), spillCompression, 1 ) );
+			}
+			catch( IOException exc )
+			{
+				fos.close();
+				throw exc;
+			}
+		}
+
+		public void line( String line )
+			throws IOException
+		{
+			byte[] b = line.getBytes( StandardCharsets.UTF_8 );
+			out.writeInt( b.length );
+			out.write( b );
+		}
+
+		public void close()
+			throws IOException
+		{
+			out.writeInt( -1 );
+			out.close();
+		}
+	}
+
+	/*
+	 * Reads a spill file line by line.
+	 */
+	private static final class SpillReader
+	{
+		final int order;
+		String line;
+		private final DataInputStream in;
+		private byte[] buf = new byte[256];
+
+		SpillReader( File file, int order, Compression.Format format )
+			throws IOException
+		{
+			FileInputStream fis = new FileInputStream( file );
+			try
+			{
+				this.in = new DataInputStream( Compression.decompress(
+						new BufferedInputStream( fis, STREAM_BUFFER_SIZE ), format ) );
+			}
+			catch( IOException exc )
+			{
+				fis.close();
+				throw exc;
+			}
+			this.order = order;
+		}
+
+		boolean next()
+			throws IOException
+		{
+			int length = in.readInt();
+			if( length < 0 )
+			{
+				line = null;
+				return false;
+			}
+
+			if( length > buf.length ) buf = new byte[Math.max( length, buf.length * 2 )];
+			in.readFully( buf, 0, length );
+			line = new String( buf, 0, length, StandardCharsets.UTF_8 );
+			return true;
+		}
+
+		void close()
+		{
+			try
+			{
+				in.close();
+			}
+			catch( IOException exc )
+			{
+				// Spill files are removed anyway.
+			}
+		}
+	}
+
+} // End of class: +com.vtis.io.ExternalSorter
@@ -0,0 +1,108 @@
+package com.veetechis.lib.io;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+
+
+/**
+ * <p>
+ * Holds the file system metadata used by the permission checks of
+ * <code>FileUtils</code>.  Existence and entity type are read with a single
+ * attribute query when the instance is created; read and write permission are
+ * each queried at most once, on first request.
+ * </p>
+ *
+ * @author      pendraconx@gmail.com
+ */
+final class FileMetadata
+{
+	/*
+	 * Metadata for a path name that can not exist on the file system.
+	 */
+	static final FileMetadata MISSING = new FileMetadata( null, false, false, Long.MAX_VALUE );
+	
+	private final Path path;
+	private final boolean exists;
+	private final boolean directory;
+	private final long expires;
+	private volatile Boolean readable;
+	private volatile Boolean writeable;
+	
+	
+	private FileMetadata( Path path, boolean exists, boolean directory, long expires )
+	{
+		this.path = path;
+		this.exists = exists;
+		this.directory = directory;
+		this.expires = expires;
+	}
+	
+	/*
+	 * Reads the attributes of the given path.  A path whose attributes can not
+	 * be read is reported as not existing, as with File.exists().
+	 */
+	static FileMetadata read( Path path, long expires )
+	{
+		boolean exists = false;
+		boolean directory = false;
+		
+		try
+		{
+			BasicFileAttributes attrs = Files.readAttributes( path, BasicFileAttributes.class );
+			exists = true;
+			directory = attrs.isDirectory();
+		}
+		catch( IOException exc )
+		{
+		}
+		
+		return new FileMetadata( path, exists, directory, expires );
+	}
+	
+	Path getPath()
+	{
+		return path;
+	}
+	
+	boolean exists()
+	{
+		return exists;
+	}
+	
+	boolean isDirectory()
+	{
+		return directory;
+	}
+	
+	boolean isExpired( long now )
+	{
+		return now - expires >= 0;		// nanoTime may wrap
+	}
+	
+	boolean isReadable()
+	{
+		Boolean b = readable;
+		if( b == null )
+		{
+			b = Boolean.valueOf( Files.isReadable( path ) );
+			readable = b;
+		}
+		
+		return b.booleanValue();
+	}
+	
+	boolean isWriteable()
+	{
+		Boolean b = writeable;
+		if( b == null )
+		{
+			b = Boolean.valueOf( Files.isWritable( path ) );
+			writeable = b;
+		}
+		
+		return b.booleanValue();
+	}
+	
+} // End of class: +com.vtis.io.FileMetadata
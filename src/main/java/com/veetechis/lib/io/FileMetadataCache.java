@@ -0,0 +1,306 @@
+package com.veetechis.lib.io;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * <p>
+ * A short-lived cache of file system metadata for the permission checks of
+ * <code>FileUtils</code>.  Once installed through
+ * <code>FileUtils.setMetadataCache</code>, repeated checks of the same path
+ * within the cache's time-to-live are answered without querying the file
+ * system.
+ * </p>
+ *
+ * <p>
+ * If created with watching enabled, the cache also registers the parent
+ * directory of each cached path with a <code>WatchService</code> and drops
+ * entries as soon as their directory reports a change, so that the
+ * time-to-live only bounds staleness on file systems that do not deliver
+ * change events (<i>e.g.</i> network shares).
+ * </p>
+ *
+ * <p>
+ * <b>Tech Note:</b> This class is thread-safe.  A watching cache runs a daemon
+ * thread and should be closed when no longer needed.
+ * </p>
+ *
+ * @author      pendraconx@gmail.com
+ * @see			FileUtils#setMetadataCache
+ */
+public class FileMetadataCache
+	implements Closeable
+{
+	/**
+	 * The default maximum number of cached entries.
+	 */
+	public final static int DEFAULT_MAX_ENTRIES = 10000;
+	
+	private final long ttlNanos;
+	private final int maxEntries;
+	private final Map<Path,FileMetadata> entries;
+	private final Map<Path,WatchKey> watchedDirs;
+	private final WatchService watcher;
+	private final Thread watchThread;
+	
+	
+	/**
+	 * <p>
+	 * Creates a new instance of <code>FileMetadataCache</code> whose entries
+	 * expire after the given time-to-live, without change watching.
+	 * </p>
+	 *
+	 * @param  ttl				the time-to-live of cached entries.
+	 * @param  unit				the time unit of the time-to-live.
+	 */
+	public FileMetadataCache( long ttl, TimeUnit unit )
+	{
+		this.ttlNanos = unit.toNanos( ttl );
+		this.maxEntries = DEFAULT_MAX_ENTRIES;
+		this.entries = new ConcurrentHashMap<Path,FileMetadata>();
+		this.watchedDirs = null;
+		this.watcher = null;
+		this.watchThread = null;
+	}
+	
+	/**
+	 * <p>
+	 * Creates a new instance of <code>FileMetadataCache</code> whose entries
+	 * expire after the given time-to-live, and are invalidated early on change
+	 * events from the file system if <code>watch</code> equates to
+	 * <code>true</code>.
+	 * </p>
+	 *
+	 * <p>
+	 * Throws an exception if watching is requested and the file system's watch
+	 * service can not be opened.
+	 * </p>
+	 *
+	 * @param  ttl				the time-to-live of cached entries.
+	 * @param  unit				the time unit of the time-to-live.
+	 * @param  maxEntries		the maximum number of cached entries.
+	 * @param  watch			invalidates entries on change events if true.
+	 * @throws					java.io.IOException
+	 *							if the watch service can not be opened.
+	 */
+	public FileMetadataCache( long ttl, TimeUnit unit, int maxEntries, boolean watch )
+		throws IOException
+	{
+		this.ttlNanos = unit.toNanos( ttl );
+		this.maxEntries = maxEntries;
+		this.entries = new ConcurrentHashMap<Path,FileMetadata>();
+		
+		if( watch )
+		{
+			this.watchedDirs = new ConcurrentHashMap<Path,WatchKey>();
+			this.watcher = FileSystems.getDefault().newWatchService();
+			this.watchThread = new Thread( this::processEvents, "FileMetadataCache-watcher" );
+			this.watchThread.setDaemon( true );
+			this.watchThread.start();
+		}
+		else
+		{
+			this.watchedDirs = null;
+			this.watcher = null;
+			this.watchThread = null;
+		}
+	}
+	
+	/**
+	 * <p>
+	 * Removes the cached entry for the given file, if any.  Callers that
+	 * change a file's existence or permissions themselves should call this
+	 * method rather than wait for expiry.
+	 * </p>
+	 *
+	 * @param  file				the file whose entry to remove.
+	 */
+	public void invalidate( File file )
+	{
+		entries.remove( keyOf( file ) );
+	}
+	
+	/**
+	 * <p>
+	 * Removes all cached entries.
+	 * </p>
+	 */
+	public void clear()
+	{
+		entries.clear();
+	}
+	
+	/**
+	 * <p>
+	 * Returns the number of entries currently cached, including any that have
+	 * expired but have not yet been removed.
+	 * </p>
+	 *
+	 * @return					the number of cached entries.
+	 */
+	public int size()
+	{
+		return entries.size();
+	}
+	
+	/**
+	 * <p>
+	 * Clears the cache and stops change watching, if enabled.
+	 * </p>
+	 *
+	 * @throws					java.io.IOException
+	 *							if an I/O error occurs.
+	 */
+	public void close()
+		throws IOException
+	{
+		entries.clear();
+		if( watcher != null )
+		{
+			watcher.close();
+			watchedDirs.clear();
+		}
+	}
+	
+	/*
+	 * Returns the metadata for the given file, reading and caching it if no
+	 * current entry exists.
+	 */
+	FileMetadata lookup( File file )
+	{
+		Path key = keyOf( file );
+		long now = System.nanoTime();
+		
+		FileMetadata meta = entries.get( key );
+		if( meta == null || meta.isExpired( now ) )
+		{
+			if( watcher != null ) watch( key.getParent() );
+			meta = FileMetadata.read( key, now + ttlNanos );
+			if( entries.size() >= maxEntries ) purge( now );
+			entries.put( key, meta );
+		}
+		
+		return meta;
+	}
+	
+	
+	/*
+	 * Returns the cache key for the given file: its absolute, normalized path.
+	 * No file system access is required.
+	 */
+	private static Path keyOf( File file )
+	{
+		return file.toPath().toAbsolutePath().normalize();
+	}
+	
+	/*
+	 * Removes expired entries, or all entries and directory watches if none
+	 * have expired.
+	 */
+	private void purge( long now )
+	{
+		Iterator<FileMetadata> it = entries.values().iterator();
+		while( it.hasNext() )
+		{
+			if( it.next().isExpired( now ) ) it.remove();
+		}
+		
+		if( entries.size() >= maxEntries )
+		{
+			entries.clear();
+			if( watcher != null )
+			{
+				for( WatchKey key : watchedDirs.values() ) key.cancel();
+				watchedDirs.clear();
+			}
+		}
+	}
+	
+	/*
+	 * Registers the given directory with the watch service, if not already
+	 * registered.
+	 */
+	private void watch( Path dir )
+	{
+		if( dir == null || watchedDirs.containsKey( dir ) ) return;
+		
+		try
+		{
+			WatchKey key = dir.register( watcher,
+					StandardWatchEventKinds.ENTRY_CREATE,
+					StandardWatchEventKinds.ENTRY_DELETE,
+					StandardWatchEventKinds.ENTRY_MODIFY );
+			watchedDirs.put( dir, key );
+		}
+		catch( IOException | ClosedWatchServiceException exc )
+		{
+			// not watchable; the entry still expires by time-to-live
+		}
+	}
+	
+	/*
+	 * Watch thread body: drops the entries named by each change event, or all
+	 * entries of a directory on event overflow or loss of the watch.
+	 */
+	private void processEvents()
+	{
+		try
+		{
+			while( true )
+			{
+				WatchKey key = watcher.take();
+				Path dir = (Path) key.watchable();
+				
+				for( WatchEvent<?> event : key.pollEvents() )
+				{
+					if( event.kind() == StandardWatchEventKinds.OVERFLOW )
+					{
+						invalidateChildren( dir );
+					}
+					else
+					{
+						entries.remove( dir.resolve( (Path) event.context() ) );
+					}
+				}
+				
+				if( ! key.reset() )
+				{
+					watchedDirs.remove( dir );
+					invalidateChildren( dir );
+					entries.remove( dir );
+				}
+			}
+		}
+		catch( InterruptedException | ClosedWatchServiceException exc )
+		{
+			// cache closed
+		}
+	}
+	
+	/*
+	 * Drops the entries for all cached paths directly within the given
+	 * directory.
+	 */
+	private void invalidateChildren( Path dir )
+	{
+		Iterator<Path> it = entries.keySet().iterator();
+		while( it.hasNext() )
+		{
+			if( dir.equals( it.next().getParent() ) ) it.remove();
+		}
+	}
+	
+} // End of class: +com.vtis.io.FileMetadataCache
@@ -2,6 +2,10 @@ package com.veetechis.lib.io;
 
 import java.io.File;
 import java.io.FilenameFilter;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.regex.Pattern;
 
 
 /**
@@ -12,7 +16,10 @@ import java.io.FilenameFilter;
  * <ul>
  * <li>Match files only, directories only, or both*.</li>
  * <li>Match names based on whether a file name starts, ends, contains*, or
- * matches exactly the search name.</li>
+ * matches exactly the search name, or matches it as a glob or regular
+ * expression pattern.</li>
+ * <li>Match against a single search name or against a set of search names,
+ * where a file name matches if it matches any one of them.</li>
  * <li>Match with case relevance* or non-case relevance.  Note that case
  * relevant matching may not be supported on all hosts or file systems.</li>
  * </ul>
@@ -23,10 +30,11 @@ import java.io.FilenameFilter;
 public class FileSearchFilter
 	implements FilenameFilter
 {
-	private String searchName;
+	private String[] searchNames;
 	private FileType searchFor;
 	private MatchType searchBy;
 	private CaseType matchCase;
+	private volatile NameMatcher matcher;	// compiled from the settings above
 	
 	/**
 	 * <p>
@@ -38,10 +46,12 @@ public class FileSearchFilter
 	/**
 	 * <p>
 	 * Enum for specifying a file or directory name must match its start or end,
-	 * need only contain, or match exactly the search name.
+	 * need only contain, or match exactly the search name, or must match the
+	 * search name as a glob (<i>e.g.</i> <code>*.{txt,log}</code>) or regular
+	 * expression pattern.
 	 * </p>
 	 */
-	 public static enum MatchType { NAME_START, NAME_END, NAME_HAS, NAME_EXACT }
+	 public static enum MatchType { NAME_START, NAME_END, NAME_HAS, NAME_EXACT, NAME_GLOB, NAME_REGEX }
 	
 	/**
 	 * <p>
@@ -78,7 +88,7 @@ public class FileSearchFilter
 	public FileSearchFilter( String name )
 	{
 		this();
-		searchName = name;
+		setSearchName( name );
 	}
 	
 	/**
@@ -98,8 +108,29 @@ public class FileSearchFilter
 	{
 		setSearchType( searchType );
 		setSearchBy( searchBy );
-		searchName = name;
-		matchCase = withCase;
+		setSearchName( name );
+		setCaseRelevance( withCase );
+	}
+	
+	/**
+	 * <p>
+	 * Creates a new instance of <code>FileSearchFilter</code> with the given
+	 * set of search names and the specified search characteristics.  A name
+	 * matches the filter if it matches any one of the search names.
+	 * </p>
+	 * 
+	 * @param  names			the search names to match.
+	 * @param  searchType		the type of entity search to conduct.
+	 * @param  searchBy			the type of name matching to conduct.
+	 * @param  withCase			name searching is case relevant when true.
+	 * @see						#setSearchNames
+	 */
+	public FileSearchFilter( String[] names, FileType searchType, MatchType searchBy, CaseType withCase )
+	{
+		setSearchType( searchType );
+		setSearchBy( searchBy );
+		setSearchNames( names );
+		setCaseRelevance( withCase );
 	}
 	
 	/**
@@ -112,7 +143,37 @@ public class FileSearchFilter
 	 */
 	public void setSearchName( String name )
 	{
-		searchName = name;
+		searchNames = (name == null ? null : new String[] { name });
+		matcher = null;
+	}
+	
+	/**
+	 * <p>
+	 * Sets the search names against which the names of file system entities
+	 * are to be compared.  An entity name matches if it matches any one of the
+	 * given names.  Sets of names are resolved by hash or prefix tree lookup
+	 * rather than by testing each name in turn.
+	 * </p>
+	 *
+	 * @param  names			the search names to match.
+	 */
+	public void setSearchNames( String[] names )
+	{
+		searchNames = (names == null ? null : names.clone());
+		matcher = null;
+	}
+	
+	/**
+	 * <p>
+	 * Returns the search names against which the names of file system entities
+	 * are compared.
+	 * </p>
+	 *
+	 * @return					the search names to match, or null.
+	 */
+	public String[] getSearchNames()
+	{
+		return (searchNames == null ? null : searchNames.clone());
 	}
 		
 	/**
@@ -125,7 +186,7 @@ public class FileSearchFilter
 	 */
 	public String getSearchName()
 	{
-		return searchName;
+		return (searchNames == null || searchNames.length == 0 ? null : searchNames[0]);
 	}
 		
 	/**
@@ -159,8 +220,15 @@ public class FileSearchFilter
 	 * <p>
 	 * Sets the type of name matching to be performed against the searched file
 	 * system entities; must be one of: <code>MatchType.NAME_START</code>,
-	 * <code>MatchType.NAME_END</code>, <code>MatchType.NAME_HAS</code>, or
-	 * <code>MatchType.NAME_EXACT</code>.
+	 * <code>MatchType.NAME_END</code>, <code>MatchType.NAME_HAS</code>,
+	 * <code>MatchType.NAME_EXACT</code>, <code>MatchType.NAME_GLOB</code>, or
+	 * <code>MatchType.NAME_REGEX</code>.
+	 * </p>
+	 *
+	 * <p>
+	 * Glob and regular expression search names are compiled once, on first use
+	 * after any change to the filter's settings.  A malformed pattern raises
+	 * an <code>IllegalArgumentException</code> at that point.
 	 * </p>
 	 *
 	 * @param  type				the type of name matching to conduct.
@@ -168,6 +236,7 @@ public class FileSearchFilter
 	public void setSearchBy( MatchType type )
 	{
 		searchBy = type;
+		matcher = null;
 	}
 
 	/**
@@ -203,6 +272,7 @@ public class FileSearchFilter
 	public void setCaseRelevance( CaseType withCase )
 	{
 		matchCase = withCase;
+		matcher = null;
 	}
 	
 	/**
@@ -233,53 +303,370 @@ public class FileSearchFilter
 	 */
 	public boolean accept( File dir, String name )
 	{
-		boolean isMatch = false;
-
-		String sname = searchName;
-		String tname = name;
-		if( ! isCaseRelevant() )
+		boolean isDirectory = false;
+		if( searchFor != FileType.FILES_AND_DIRS )
+		{
+			isDirectory = new File( dir, name ).isDirectory();
+		}
+		
+		return accept( name, isDirectory );
+	}
+	
+	/**
+	 * <p>
+	 * Returns <code>true</code> if the given entity name fulfills the pattern
+	 * contract, using the given directory flag for the entity type test rather
+	 * than querying the file system.  Meant for callers that have already read
+	 * the entity's attributes.
+	 * </p>
+	 *
+	 * @param  name				the entity name to test.
+	 * @param  isDirectory		true if the entity names a directory.
+	 * @return					true if the entity matches the filter.
+	 */
+	public boolean accept( String name, boolean isDirectory )
+	{
+		if( searchFor == FileType.FILES_ONLY && isDirectory )
+		{
+			return false;
+		}
+		if( searchFor == FileType.DIRS_ONLY && ! isDirectory )
+		{
+			return false;
+		}
+		
+		return getMatcher().matches( name );
+	}
+	
+	/*
+	 * Returns the name matcher compiled from the current settings, compiling
+	 * it first if the settings have changed since the last call.
+	 */
+	private NameMatcher getMatcher()
+	{
+		NameMatcher m = matcher;
+		if( m == null )
+		{
+			m = compileMatcher();
+			matcher = m;
+		}
+		
+		return m;
+	}
+	
+	/*
+	 * Compiles the search names into a matcher suited to the match type and
+	 * case relevance, so that no per-call case folding of the search names or
+	 * pattern compilation is needed.
+	 */
+	private NameMatcher compileMatcher()
+	{
+		if( searchNames == null || searchNames.length == 0 || searchBy == null )
+		{
+			return name -> false;
+		}
+		
+		boolean withCase = isCaseRelevant();
+		
+		if( searchBy == MatchType.NAME_GLOB || searchBy == MatchType.NAME_REGEX )
+		{
+			StringBuilder regex = new StringBuilder();
+			for( int i = 0; i < searchNames.length; i++ )
+			{
+				if( i > 0 ) regex.append( '|' );
+				regex.append( "(?:" );
+				if( searchBy == MatchType.NAME_GLOB )
+				{
+					appendGlob( regex, searchNames[i] );
+				}
+				else
+				{
+					regex.append( searchNames[i] );
+				}
+				regex.append( ')' );
+			}
+			int flags = (withCase ? 0 : Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE);
+			Pattern pattern = Pattern.compile( regex.toString(), flags );
+			return name -> pattern.matcher( name ).matches();
+		}
+		
+		if( searchNames.length == 1 )
 		{
-			sname = searchName.toLowerCase();
-			tname = name.toLowerCase();
+			String sname = searchNames[0];
+			int slen = sname.length();
+			switch( searchBy )
+			{
+				case NAME_START:
+					return name -> name.regionMatches( ! withCase, 0, sname, 0, slen );
+					
+				case NAME_END:
+					return name -> name.regionMatches( ! withCase, name.length() - slen, sname, 0, slen );
+					
+				case NAME_HAS:
+					if( withCase ) return name -> name.indexOf( sname ) > -1;
+					return name -> {
+						for( int i = 0, last = name.length() - slen; i <= last; i++ )
+						{
+							if( name.regionMatches( true, i, sname, 0, slen ) ) return true;
+						}
+						return false;
+					};
+					
+				default:
+					if( withCase ) return name -> name.equals( sname );
+					return name -> name.equalsIgnoreCase( sname );
+			}
+		}
+		
+		if( searchBy == MatchType.NAME_EXACT )
+		{
+			Set<String> names = new HashSet<String>();
+			for( String sname : searchNames )
+			{
+				names.add( withCase ? sname : fold( sname ) );
+			}
+			if( withCase ) return name -> names.contains( name );
+			return name -> names.contains( fold( name ) );
 		}
 		
+		boolean reverse = (searchBy == MatchType.NAME_END);
+		NameTrie trie = new NameTrie( ! withCase );
+		for( String sname : searchNames )
+		{
+			trie.add( sname, reverse );
+		}
 		switch( searchBy )
 		{
 			case NAME_START:
-				if( tname.startsWith( sname ) )
-					isMatch = true;
-				break;
+				return name -> trie.matchesFrom( name, 0, false );
 				
 			case NAME_END:
-				if( tname.endsWith( sname ) )
-					isMatch = true;
-				break;
-				
-			case NAME_HAS:
-				if( tname.indexOf( sname ) > -1 )
-					isMatch = true;
-				break;
+				return name -> trie.matchesFrom( name, name.length() - 1, true );
 				
-			case NAME_EXACT:
-				if( tname.equals( sname ) )
-					isMatch = true;
-				break;
+			default:
+				return name -> {
+					for( int i = 0; i < name.length(); i++ )
+					{
+						if( trie.matchesFrom( name, i, false ) ) return true;
+					}
+					return trie.matchesEmpty();
+				};
 		}
+	}
+	
+	/*
+	 * Appends the regular expression equivalent of the given glob pattern.
+	 * Supports '*', '?', '[...]' (with '!' negation), '{a,b}' alternation, and
+	 * '\' escapes.
+	 */
+	private static void appendGlob( StringBuilder regex, String glob )
+	{
+		boolean inGroup = false;
+		boolean inClass = false;
 		
-		if( searchFor != FileType.FILES_AND_DIRS )
+		for( int i = 0; i < glob.length(); i++ )
 		{
-			File test = new File( dir, tname );
-			if( searchFor == FileType.FILES_ONLY && test.isDirectory() )
+			char c = glob.charAt( i );
+			if( inClass )
 			{
-				isMatch = false;
+				if( c == ']' )
+				{
+					inClass = false;
+					regex.append( c );
+				}
+				else if( c == '\\' )
+				{
+					if( ++i < glob.length() ) appendClassLiteral( regex, glob.charAt( i ), true );
+				}
+				else
+				{
+					appendClassLiteral( regex, c, false );
+				}
+				continue;
 			}
-			if( searchFor == FileType.DIRS_ONLY && ! test.isDirectory() )
+			
+			switch( c )
 			{
-				isMatch = false;
+				case '*':
+					regex.append( ".*" );
+					break;
+					
+				case '?':
+					regex.append( '.' );
+					break;
+					
+				case '[':
+					inClass = true;
+					regex.append( '[' );
+					if( i + 1 < glob.length() && glob.charAt( i + 1 ) == '!' )
+					{
+						regex.append( '^' );
+						i++;
+					}
+					break;
+					
+				case '{':
+					inGroup = true;
+					regex.append( "(?:" );
+					break;
+					
+				case '}':
+					if( inGroup )
+					{
+						inGroup = false;
+						regex.append( ')' );
+					}
+					else
+					{
+						regex.append( "\\}" );
+					}
+					break;
+					
+				case ',':
+					regex.append( inGroup ? "|" : "," );
+					break;
+					
+				case '\\':
+					if( ++i < glob.length() ) appendLiteral( regex, glob.charAt( i ) );
+					break;
+					
+				default:
+					appendLiteral( regex, c );
 			}
 		}
 		
-		return isMatch;
+		if( inClass || inGroup )
+		{
+			throw new IllegalArgumentException( "Unterminated glob pattern: " + glob );
+		}
 	}
+	
+	/*
+	 * Appends the given character to the regular expression, escaping it if it
+	 * is a regular expression meta character.
+	 */
+	private static void appendLiteral( StringBuilder regex, char c )
+	{
+		if( "\\^$.|?*+()[]{}".indexOf( c ) > -1 ) regex.append( '\\' );
+		regex.append( c );
+	}
+	
+	/*
+	 * Appends the given character of a '[...]' class to the regular
+	 * expression, escaping it if it is a class meta character.  A '-' is kept
+	 * as a range unless it was escaped in the glob.
+	 */
+	private static void appendClassLiteral( StringBuilder regex, char c, boolean escaped )
+	{
+		if( "\\[]^&".indexOf( c ) > -1 || (escaped && c == '-') ) regex.append( '\\' );
+		regex.append( c );
+	}
+	
+	/*
+	 * Returns the given name with each character case folded, independent of
+	 * the default locale.
+	 */
+	private static String fold( String name )
+	{
+		char[] chars = name.toCharArray();
+		for( int i = 0; i < chars.length; i++ )
+		{
+			chars[i] = fold( chars[i] );
+		}
+		return new String( chars );
+	}
+	
+	/*
+	 * Returns the given character case folded.
+	 */
+	private static char fold( char c )
+	{
+		return Character.toLowerCase( Character.toUpperCase( c ) );
+	}
+	
+	
+	/*
+	 * A compiled test of an entity name against the filter's search names.
+	 */
+	private static interface NameMatcher
+	{
+		boolean matches( String name );
+	}
+	
+	/*
+	 * A character prefix tree over a set of search names, so that a candidate
+	 * name is tested against all of them in a single pass over its characters.
+	 * Names are stored reversed for suffix matching.
+	 */
+	private static final class NameTrie
+	{
+		private final boolean foldCase;
+		private final Node root = new Node();
+		
+		NameTrie( boolean foldCase )
+		{
+			this.foldCase = foldCase;
+		}
+		
+		void add( String name, boolean reverse )
+		{
+			Node node = root;
+			for( int i = 0, len = name.length(); i < len; i++ )
+			{
+				node = node.child( key( name.charAt( reverse ? len - 1 - i : i ) ), true );
+			}
+			node.terminal = true;
+		}
+		
+		boolean matchesEmpty()
+		{
+			return root.terminal;
+		}
+		
+		boolean matchesFrom( String name, int start, boolean reverse )
+		{
+			Node node = root;
+			if( node.terminal ) return true;
+			
+			int step = (reverse ? -1 : 1);
+			for( int i = start; i >= 0 && i < name.length(); i += step )
+			{
+				node = node.child( key( name.charAt( i ) ), false );
+				if( node == null ) return false;
+				if( node.terminal ) return true;
+			}
+			
+			return false;
+		}
+		
+		private char key( char c )
+		{
+			return (foldCase ? fold( c ) : c);
+		}
+		
+		private static final class Node
+		{
+			private char[] keys = new char[0];
+			private Node[] next = new Node[0];
+			private boolean terminal;
+			
+			Node child( char c, boolean create )
+			{
+				for( int i = 0; i < keys.length; i++ )
+				{
+					if( keys[i] == c ) return next[i];
+				}
+				if( ! create ) return null;
+				
+				int n = keys.length;
+				keys = Arrays.copyOf( keys, n + 1 );
+				next = Arrays.copyOf( next, n + 1 );
+				keys[n] = c;
+				next[n] = new Node();
+				return next[n];
+			}
+		}
+		
+	} // end of NameTrie
 		
 } // End of class: +com.vtis.io.FilenameSearchFilter
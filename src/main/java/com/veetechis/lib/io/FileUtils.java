@@ -3,7 +3,23 @@ package com.veetechis.lib.io;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Consumer;
 
 
 /**
@@ -24,6 +40,8 @@ public class FileUtils
 	private final static String	IS_A_DIRECTORY_MSG		= "Path names a directory: ";
 	private final static String IS_NOT_A_DIRECTORY_MSG	= "Path does not name a directory: ";
 
+	private static volatile FileMetadataCache metadataCache;
+
 	
 	/**
 	 * <p>
@@ -51,6 +69,35 @@ public class FileUtils
 		return pathName;
 	}
 	
+	/**
+	 * <p>
+	 * Installs the given cache to answer the permission checks of this class
+	 * (<code>isReadableFile</code>, <code>isWriteableFile</code>,
+	 * <code>isReadableDirectory</code>, and <code>isWriteableDirectory</code>).
+	 * Passing <code>null</code> removes any installed cache, so that each check
+	 * queries the file system directly (the default).
+	 * </p>
+	 *
+	 * @param  cache			the metadata cache to use, or null.
+	 */
+	public static void setMetadataCache( FileMetadataCache cache )
+	{
+		metadataCache = cache;
+	}
+	
+	/**
+	 * <p>
+	 * Returns the cache installed to answer the permission checks of this
+	 * class, or <code>null</code> if none is installed.
+	 * </p>
+	 *
+	 * @return					the metadata cache, or null.
+	 */
+	public static FileMetadataCache getMetadataCache()
+	{
+		return metadataCache;
+	}
+	
 	/**
 	 * <p>
 	 * Makes a copy of the source file as the destination file.
@@ -230,6 +277,154 @@ public class FileUtils
 		return files;
 	}
 
+	/**
+	 * <p>
+	 * Searches the specified file system location (directory) for all files
+	 * and directories accepted by the given filter and passes each match to
+	 * the consumer as it is found.  If <code>recursive</code> equates to
+	 * <code>true</code> the entire directory tree below the location is
+	 * searched, with subdirectories fanned out over the common fork/join pool.
+	 * </p>
+	 *
+	 * <p>
+	 * Throws an exception if the specified search location can not be accessed
+	 * or is not a directory.
+	 * </p>
+	 *
+	 * @param  dir				the directory to search within.
+	 * @param  filter			the filter to match entity names.
+	 * @param  recursive		searches all subdirectories if true.
+	 * @param  consumer			the receiver of matching files.
+	 * @throws					DirNotFoundException
+	 *							if the search location is not a directory or
+	 *								can not be accessed.
+	 * @see						#findMatching(File,FileSearchFilter,boolean,Consumer,ForkJoinPool)
+	 */
+	public static void findMatching( File dir, FileSearchFilter filter,
+			boolean recursive, Consumer<File> consumer )
+		throws FileNotFoundException
+	{
+		findMatching( dir, filter, recursive, consumer, ForkJoinPool.commonPool() );
+	}
+
+	/**
+	 * <p>
+	 * Searches the specified file system location (directory) for all files
+	 * and directories accepted by the given filter and passes each match to
+	 * the consumer as it is found.  If <code>recursive</code> equates to
+	 * <code>true</code> the entire directory tree below the location is
+	 * searched, with each subdirectory listed as a separate task on the given
+	 * fork/join pool.
+	 * </p>
+	 *
+	 * <p>
+	 * The attributes of each directory entry are read only once, and no
+	 * further access check is made, so a match may not be readable by the
+	 * process.  Symbolic links are not followed, and subdirectories that can
+	 * not be listed are skipped.  When searching recursively the consumer is
+	 * called from the pool's worker threads and must therefore be
+	 * thread-safe.
+	 * </p>
+	 *
+	 * <p>
+	 * Throws an exception if the specified search location can not be accessed
+	 * or is not a directory.
+	 * </p>
+	 *
+	 * @param  dir				the directory to search within.
+	 * @param  filter			the filter to match entity names.
+	 * @param  recursive		searches all subdirectories if true.
+	 * @param  consumer			the receiver of matching files.
+	 * @param  pool				the pool on which to search subdirectories.
+	 * @throws					DirNotFoundException
+	 *							if the search location is not a directory or
+	 *								can not be accessed.
+	 */
+	public static void findMatching( File dir, FileSearchFilter filter,
+			boolean recursive, Consumer<File> consumer, ForkJoinPool pool )
+		throws FileNotFoundException
+	{
+		if( ! isReadableDirectory( dir ) )
+			throw new DirNotFoundException( IS_NOT_READABLE_MSG + getPathOf( dir ) );
+
+		SearchTask task = new SearchTask( dir.toPath(), filter, recursive, consumer );
+		if( recursive )
+		{
+			pool.invoke( task );
+		}
+		else
+		{
+			task.compute();
+		}
+	}
+
+	/**
+	 * <p>
+	 * Scans the entire directory tree below the specified directory and
+	 * returns its statistics, with the ten largest files, on the common
+	 * fork/join pool.
+	 * </p>
+	 *
+	 * <p>
+	 * Throws an exception if the specified directory can not be accessed or is
+	 * not a directory.
+	 * </p>
+	 *
+	 * @param  dir				the directory to scan.
+	 * @return					the statistics of the tree.
+	 * @throws					DirNotFoundException
+	 *							if the location is not a directory or can not
+	 *								be accessed.
+	 * @see						#scanTree(File,int,int,ForkJoinPool)
+	 */
+	public static TreeStatistics scanTree( File dir )
+		throws FileNotFoundException
+	{
+		return scanTree( dir, Integer.MAX_VALUE, 10, ForkJoinPool.commonPool() );
+	}
+
+	/**
+	 * <p>
+	 * Scans the directory tree below the specified directory, down to the
+	 * given depth, and returns its statistics: total bytes, counts of files,
+	 * directories, and other entities, a file size histogram, the given
+	 * number of largest files, and totals per file name extension.  The
+	 * directory's own entries are at depth 1; directories at the maximum
+	 * depth are counted but not scanned.
+	 * </p>
+	 *
+	 * <p>
+	 * Each directory is walked with <code>Files.walkFileTree</code> as a
+	 * separate task on the given fork/join pool, into statistics of its own
+	 * that are merged as the tasks complete, so that threads do not contend
+	 * on shared counters.  The attributes of each entry are read only once.
+	 * Symbolic links are not followed, and entities that can not be read are
+	 * counted as skipped.
+	 * </p>
+	 *
+	 * <p>
+	 * Throws an exception if the specified directory can not be accessed or is
+	 * not a directory.
+	 * </p>
+	 *
+	 * @param  dir				the directory to scan.
+	 * @param  maxDepth			the maximum depth to scan, at least 1.
+	 * @param  largest			the number of largest files to keep.
+	 * @param  pool				the pool on which to scan directories.
+	 * @return					the statistics of the tree.
+	 * @throws					DirNotFoundException
+	 *							if the location is not a directory or can not
+	 *								be accessed.
+	 */
+	public static TreeStatistics scanTree( File dir, int maxDepth, int largest, ForkJoinPool pool )
+		throws FileNotFoundException
+	{
+		if( ! isReadableDirectory( dir ) )
+			throw new DirNotFoundException( IS_NOT_READABLE_MSG + getPathOf( dir ) );
+
+		return pool.invoke( new TreeTask( dir.toPath(), 0, Math.max( maxDepth, 1 ), largest ) );
+	}
+
 	/**
 	 * <p>
 	 * Returns <code>true</code> if the argument identifies a readable directory
@@ -247,34 +442,19 @@ public class FileUtils
 		throws DirNotFoundException
 	{
 		boolean isValid = false;
-		String dirName = getPathOf( dir );
-		String error = null;
 		
 		try
 		{
-			if( dir.exists() )
-			{
-				if( dir.isDirectory() )
-				{
-					if( dir.canRead() )
-					{
-						isValid = true;
-					}
-				}
-				else
-				{
-					error = IS_NOT_A_DIRECTORY_MSG + dirName;
-				}
-			}
-			else
+			FileMetadata meta = getMetadata( dir );
+			if( ! meta.exists() )
 			{
-				error = DOES_NOT_EXIST_MSG + dirName;
+				throw new DirNotFoundException( DOES_NOT_EXIST_MSG + getPathOf( dir ) );
 			}
-		
-			if( error != null )
+			else if( ! meta.isDirectory() )
 			{
-				throw new DirNotFoundException( error );
+				throw new DirNotFoundException( IS_NOT_A_DIRECTORY_MSG + getPathOf( dir ) );
 			}
+			isValid = meta.isReadable();
 		}
 		catch( SecurityException exc )
 		{
@@ -305,34 +485,19 @@ public class FileUtils
 		throws DirNotFoundException
 	{
 		boolean isValid = false;
-		String dirName = getPathOf( dir );
-		String error = null;
 		
 		try
 		{
-			if( dir.exists() )
+			FileMetadata meta = getMetadata( dir );
+			if( ! meta.exists() )
 			{
-				if( dir.isDirectory() )
-				{
-					if( dir.canWrite() )
-					{
-						isValid = true;
-					}
-				}
-				else
-				{
-					error = IS_NOT_A_DIRECTORY_MSG + dirName;
-				}
-			}
-			else
-			{
-				error = DOES_NOT_EXIST_MSG + dirName;
+				throw new DirNotFoundException( DOES_NOT_EXIST_MSG + getPathOf( dir ) );
 			}
-		
-			if( error != null )
+			else if( ! meta.isDirectory() )
 			{
-				throw new DirNotFoundException( error );
+				throw new DirNotFoundException( IS_NOT_A_DIRECTORY_MSG + getPathOf( dir ) );
 			}
+			isValid = meta.isWriteable();
 		}
 		catch( SecurityException exc )
 		{
@@ -419,34 +584,19 @@ public class FileUtils
 		throws FileNotFoundException
 	{
 		boolean isValid = false;
-		String fileName = getPathOf( file );
-		String error = null;
 		
 		try
 		{
-			if( file.exists() )
-			{
-				if( ! file.isDirectory() )
-				{
-					if( file.canRead() )
-					{
-						isValid = true;
-					}
-				}
-				else
-				{
-					error = IS_A_DIRECTORY_MSG + fileName;
-				}
-			}
-			else
+			FileMetadata meta = getMetadata( file );
+			if( ! meta.exists() )
 			{
-				error = DOES_NOT_EXIST_MSG + fileName;
+				throw new FileNotFoundException( DOES_NOT_EXIST_MSG + getPathOf( file ) );
 			}
-		
-			if( error != null )
+			else if( meta.isDirectory() )
 			{
-				throw new FileNotFoundException( error );
+				throw new FileNotFoundException( IS_A_DIRECTORY_MSG + getPathOf( file ) );
 			}
+			isValid = meta.isReadable();
 		}
 		catch( SecurityException exc )
 		{
@@ -477,40 +627,189 @@ public class FileUtils
 		throws FileNotFoundException
 	{
 		boolean isValid = false;
-		String fileName = getPathOf( file );
-		String error = null;
 		
 		try
 		{
-			if( file.exists() )
+			FileMetadata meta = getMetadata( file );
+			if( ! meta.exists() )
+			{
+				throw new FileNotFoundException( DOES_NOT_EXIST_MSG + getPathOf( file ) );
+			}
+			else if( meta.isDirectory() )
 			{
-				if( ! file.isDirectory() )
+				throw new FileNotFoundException( IS_A_DIRECTORY_MSG + getPathOf( file ) );
+			}
+			isValid = meta.isWriteable();
+		}
+		catch( SecurityException exc )
+		{
+		}
+		
+		return isValid;
+	}
+
+	/*
+	 * Returns the metadata of the given file from the installed cache, or
+	 * read directly from the file system if no cache is installed.
+	 */
+	private static FileMetadata getMetadata( File file )
+	{
+		FileMetadataCache cache = metadataCache;
+		
+		try
+		{
+			if( cache != null )
+			{
+				return cache.lookup( file );
+			}
+			
+			return FileMetadata.read( file.toPath(), 0L );
+		}
+		catch( InvalidPathException exc )
+		{
+			return FileMetadata.MISSING;
+		}
+	}
+
+	/*
+	 * Lists a single directory for entities accepted by the search filter,
+	 * forking a sub-task for each subdirectory when searching recursively.
+	 */
+	private static final class SearchTask
+		extends RecursiveAction
+	{
+		private static final long serialVersionUID = 1L;
+		
+		private final Path dir;
+		private final FileSearchFilter filter;
+		private final boolean recursive;
+		private final Consumer<File> consumer;
+		
+		SearchTask( Path dir, FileSearchFilter filter, boolean recursive, Consumer<File> consumer )
+		{
+			this.dir = dir;
+			this.filter = filter;
+			this.recursive = recursive;
+			this.consumer = consumer;
+		}
+		
+		protected void compute()
+		{
+			List<SearchTask> subTasks = null;
+			
+			try( DirectoryStream<Path> entries = Files.newDirectoryStream( dir ) )
+			{
+				for( Path entry : entries )
 				{
-					if( file.canWrite() )
+					BasicFileAttributes attrs = null;
+					try
 					{
-						isValid = true;
+						attrs = Files.readAttributes( entry, BasicFileAttributes.class,
+								LinkOption.NOFOLLOW_LINKS );
+					}
+					catch( IOException exc )
+					{
+						continue;
+					}
+					
+					boolean isDirectory = attrs.isDirectory();
+					if( filter.accept( entry.getFileName().toString(), isDirectory ) )
+					{
+						consumer.accept( entry.toFile() );
+					}
+					
+					if( recursive && isDirectory )
+					{
+						if( subTasks == null ) subTasks = new ArrayList<SearchTask>();
+						subTasks.add( new SearchTask( entry, filter, true, consumer ) );
 					}
-				}
-				else
-				{
-					error = IS_A_DIRECTORY_MSG + fileName;
 				}
 			}
-			else
+			catch( IOException | DirectoryIteratorException | SecurityException exc )
 			{
-				error = DOES_NOT_EXIST_MSG + fileName;
+				// unreadable directory; skip it like any other inaccessible entity
 			}
+			
+			if( subTasks != null ) invokeAll( subTasks );
+		}
 		
-			if( error != null )
-			{
-				throw new FileNotFoundException( error );
-			}
+	} // end of SearchTask
+
+	/*
+	 * Walks a single directory into statistics of its own, forking a sub-task
+	 * for each subdirectory above the depth cutoff and merging their results.
+	 */
+	private static final class TreeTask
+		extends RecursiveTask<TreeStatistics>
+	{
+		private static final long serialVersionUID = 1L;
+		
+		private final Path dir;
+		private final int depth;			// depth of 'dir'; the root is 0
+		private final int maxDepth;
+		private final int largest;
+		
+		TreeTask( Path dir, int depth, int maxDepth, int largest )
+		{
+			this.dir = dir;
+			this.depth = depth;
+			this.maxDepth = maxDepth;
+			this.largest = largest;
 		}
-		catch( SecurityException exc )
+		
+		protected TreeStatistics compute()
 		{
+			TreeStatistics stats = new TreeStatistics( largest );
+			List<TreeTask> subTasks = new ArrayList<TreeTask>();
+			
+			try
+			{
+				Files.walkFileTree( dir, EnumSet.noneOf( FileVisitOption.class ), 1, new SimpleFileVisitor<Path>()
+				{
+					public FileVisitResult visitFile( Path entry, BasicFileAttributes attrs )
+					{
+						stats.add( entry, attrs, depth + 1 );
+						if( attrs.isDirectory() )
+						{
+							if( depth + 1 < maxDepth )
+							{
+								subTasks.add( new TreeTask( entry, depth + 1, maxDepth, largest ) );
+							}
+							else
+							{
+								stats.truncated();
+							}
+						}
+						return FileVisitResult.CONTINUE;
+					}
+					
+					public FileVisitResult visitFileFailed( Path entry, IOException exc )
+					{
+						stats.skipped();
+						return FileVisitResult.CONTINUE;
+					}
+					
+					public FileVisitResult postVisitDirectory( Path entry, IOException exc )
+					{
+						if( exc != null ) stats.skipped();
+						return FileVisitResult.CONTINUE;
+					}
+				} );
+			}
+			catch( IOException | SecurityException exc )
+			{
+				stats.skipped();
+			}
+			
+			if( ! subTasks.isEmpty() )
+			{
+				invokeAll( subTasks );
+				for( TreeTask task : subTasks ) stats.merge( task.join() );
+			}
+			
+			return stats;
 		}
 		
-		return isValid;
-	}
+	} // end of TreeTask
 
 } // End of class: +com.vtis.io.FileUtils
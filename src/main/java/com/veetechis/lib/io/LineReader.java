@@ -0,0 +1,502 @@
+package com.veetechis.lib.io;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+
+/**
+ * <p>
+ * Reads the lines of a file on the local file system in a given character
+ * set.  For character sets in which the line feed character is encoded as the
+ * single byte <code>0x0A</code> and that byte never occurs within a multi-byte
+ * sequence (<i>e.g.</i> UTF-8, US-ASCII, and the ISO-8859 family), the file is
+ * read in large chunks of raw bytes and lines are found with a tight scan of
+ * the byte array, so that no character decoding is needed just to split
+ * lines.  Lines are then offered in one of three forms:
+ * <ul>
+ * <li>As a <code>String</code>, through <code>readLine</code>, for
+ * compatibility with <code>BufferedFileReader</code>.</li>
+ * <li>As a slice of the reader's byte buffer, through
+ * <code>forEachLine(ByteLineHandler)</code>, without any decoding or
+ * copying.</li>
+ * <li>As a <code>CharSequence</code> decoded into a reused character buffer,
+ * through <code>forEachLine(CharLineHandler)</code>.</li>
+ * </ul>
+ * </p>
+ *
+ * <p>
+ * Lines are terminated by a line feed or a carriage return followed by a line
+ * feed; neither is included in the line.  Unlike
+ * <code>BufferedReader.readLine</code>, a lone carriage return is not treated
+ * as a line terminator.  For other character sets the reader falls back to
+ * decoding through a <code>BufferedReader</code>, and the byte slice mode is
+ * not available.
+ * </p>
+ *
+ * <p>
+ * <b>Usage Note:</b> The byte slice and character sequence passed to a
+ * handler are only valid for the duration of the call; they must be copied if
+ * retained.
+ * </p>
+ *
+ * @author      pendraconx@gmail.com
+ */
+public class LineReader
+	implements Closeable
+{
+	/**
+	 * The default size, in bytes, of the read buffer.
+	 */
+	public final static int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+	private final static byte LF = '\n';
+	private final static byte CR = '\r';
+
+	private final File file;
+	private final Charset charset;
+	private final boolean byteScan;
+	private InputStream in;
+	private BufferedReader reader;
+	private CharsetDecoder decoder;
+	private CharBuffer chars;
+
+	private byte[] buf;
+	private int start;				// start of the next line in buf
+	private int end;				// end of valid data in buf
+	private boolean eof;
+
+
+	/**
+	 * <p>
+	 * Handler of lines passed as slices of the reader's byte buffer.
+	 * </p>
+	 */
+	public static interface ByteLineHandler
+	{
+		/**
+		 * Handles the line held in the given buffer range, and returns
+		 * <code>false</code> to stop reading.
+		 *
+		 * @param  buf			the buffer holding the line.
+		 * @param  offset		the offset of the line in the buffer.
+		 * @param  length		the length of the line in bytes.
+		 * @return				true to continue reading.
+		 * @throws				java.io.IOException
+		 *						to abort reading.
+		 */
+		public boolean line( byte[] buf, int offset, int length )
+			throws IOException;
+	}
+
+	/**
+	 * <p>
+	 * Handler of lines passed as decoded character sequences.
+	 * </p>
+	 */
+	public static interface CharLineHandler
+	{
+		/**
+		 * Handles the given line, and returns <code>false</code> to stop
+		 * reading.
+		 *
+		 * @param  line			the line of text.
+		 * @return				true to continue reading.
+		 * @throws				java.io.IOException
+		 *						to abort reading.
+		 */
+		public boolean line( CharSequence line )
+			throws IOException;
+	}
+
+
+	/**
+	 * <p>
+	 * Creates a new instance of <code>LineReader</code> for the specified
+	 * file in the given character set, with the default buffer size.
+	 * </p>
+	 *
+	 * <p>
+	 * Throws an exception if the specified file is not found or can not be
+	 * accessed.
+	 * </p>
+	 *
+	 * @param  file				the file to read.
+	 * @param  charset			the character set of the file.
+	 * @throws					java.io.FileNotFoundException
+	 *							if the file does not exist or is not accessible.
+	 */
+	public LineReader( File file, Charset charset )
+		throws FileNotFoundException
+	{
+		this( file, charset, DEFAULT_BUFFER_SIZE );
+	}
+
+	/**
+	 * <p>
+	 * Creates a new instance of <code>LineReader</code> for the specified
+	 * file in the given character set, with the given initial buffer size.
+	 * The buffer grows as needed to hold the longest line.
+	 * </p>
+	 *
+	 * <p>
+	 * Throws an exception if the specified file is not found or can not be
+	 * accessed.
+	 * </p>
+	 *
+	 * @param  file				the file to read.
+	 * @param  charset			the character set of the file.
+	 * @param  bufferSize		the initial read buffer size in bytes.
+	 * @throws					java.io.FileNotFoundException
+	 *							if the file does not exist or is not accessible.
+	 */
+	public LineReader( File file, Charset charset, int bufferSize )
+		throws FileNotFoundException
+	{
+		if( ! FileUtils.isReadableFile( file ) )
+		{
+			throw new FileNotFoundException( "Path name can not be read: " + FileUtils.getPathOf( file ) );
+		}
+
+		this.file = file;
+		this.charset = charset;
+		this.byteScan = isLineFeedSafe( charset );
+		this.buf = BufferPool.getShared().acquire( Math.max( bufferSize, 16 ) );
+	}
+
+	/**
+	 * <p>
+	 * Returns <code>true</code> if lines of text in the given character set
+	 * can be found by scanning for the line feed byte, in which case the byte
+	 * slice mode of this class is available.
+	 * </p>
+	 *
+	 * @param  charset			the character set to check.
+	 * @return					true if line feeds can be found in raw bytes.
+	 */
+	public static boolean isLineFeedSafe( Charset charset )
+	{
+		if( ! charset.canEncode() ) return false;
+
+		byte[] lf = "\n".getBytes( charset );
+		byte[] a = "a".getBytes( charset );
+		return lf.length == 1 && lf[0] == LF && a.length == 1 && a[0] == 'a';
+	}
+
+	/**
+	 * <p>
+	 * Returns the file read by this instance.
+	 * </p>
+	 *
+	 * @return					the file being read.
+	 */
+	public File getFile()
+	{
+		return file;
+	}
+
+	/**
+	 * <p>
+	 * Returns the character set in which the file is read.
+	 * </p>
+	 *
+	 * @return					the file's character set.
+	 */
+	public Charset getCharset()
+	{
+		return charset;
+	}
+
+	/**
+	 * <p>
+	 * Returns the next line of text in the file, or <code>null</code> if the
+	 * end of the file has been reached.
+	 * </p>
+	 *
+	 * @return					the line of text, or null.
+	 * @throws					java.io.IOException
+	 *							if an I/O error occurs.
+	 */
+	public String readLine()
+		throws IOException
+	{
+		if( ! byteScan )
+		{
+			return getReader().readLine();
+		}
+
+		int lineEnd = nextLine();
+		if( lineEnd < 0 ) return null;
+
+		int lineStart = start;
+		start = advance( lineEnd );
+		return new String( buf, lineStart, lineLength( lineStart, lineEnd ), charset );
+	}
+
+	/**
+	 * <p>
+	 * Passes each remaining line of the file to the given handler as a slice
+	 * of the reader's byte buffer, until the end of the file is reached or the
+	 * handler returns <code>false</code>.  Returns the number of lines
+	 * passed.
+	 * </p>
+	 *
+	 * <p>
+	 * Throws an exception if the file's character set does not permit line
+	 * scanning on raw bytes, or if an I/O error occurs.
+	 * </p>
+	 *
+	 * @param  handler			the receiver of each line.
+	 * @return					the number of lines passed to the handler.
+	 * @throws					java.lang.UnsupportedOperationException
+	 *							if the character set is not line feed safe.
+	 * @throws					java.io.IOException
+	 *							if an I/O error occurs.
+	 * @see						#isLineFeedSafe
+	 */
+	public long forEachLine( ByteLineHandler handler )
+		throws IOException
+	{
+		if( ! byteScan )
+		{
+			throw new UnsupportedOperationException( "Byte lines not supported for charset: " + charset );
+		}
+
+		long count = 0;
+		int lineEnd;
+		while( (lineEnd = nextLine()) >= 0 )
+		{
+			int lineStart = start;
+			start = advance( lineEnd );
+			count++;
+			if( ! handler.line( buf, lineStart, lineLength( lineStart, lineEnd ) ) ) break;
+		}
+
+		return count;
+	}
+
+	/**
+	 * <p>
+	 * Passes each remaining line of the file to the given handler as a
+	 * character sequence, until the end of the file is reached or the handler
+	 * returns <code>false</code>.  Lines are decoded into a reused buffer
+	 * rather than allocated as strings.  Returns the number of lines passed.
+	 * </p>
+	 *
+	 * @param  handler			the receiver of each line.
+	 * @return					the number of lines passed to the handler.
+	 * @throws					java.io.IOException
+	 *							if an I/O error occurs, or a line can not be
+	 *								decoded.
+	 */
+	public long forEachLine( CharLineHandler handler )
+		throws IOException
+	{
+		long count = 0;
+
+		if( ! byteScan )
+		{
+			String line;
+			while( (line = getReader().readLine()) != null )
+			{
+				count++;
+				if( ! handler.line( line ) ) break;
+			}
+			return count;
+		}
+
+		int lineEnd;
+		while( (lineEnd = nextLine()) >= 0 )
+		{
+			int lineStart = start;
+			start = advance( lineEnd );
+			count++;
+			if( ! handler.line( decode( lineStart, lineLength( lineStart, lineEnd ) ) ) ) break;
+		}
+
+		return count;
+	}
+
+	/**
+	 * <p>
+	 * Closes the reader.
+	 * </p>
+	 *
+	 * @throws					java.io.IOException
+	 *							if an I/O error occurs.
+	 */
+	public void close()
+		throws IOException
+	{
+		if( reader != null )
+		{
+			reader.close();
+			reader = null;
+		}
+
+		if( in != null )
+		{
+			in.close();
+			in = null;
+		}
+
+		eof = true;
+		start = end = 0;
+		BufferPool.getShared().release( buf );
+		buf = new byte[0];
+	}
+
+
+	/*
+	 * Returns the index of the line feed ending the next line, or 'end' if
+	 * the last line of the file is unterminated, or -1 at the end of the file.
+	 * Reads and compacts the buffer as needed so that the whole line is held
+	 * from 'start'.
+	 */
+	private int nextLine()
+		throws IOException
+	{
+		int scan = start;
+
+		while( true )
+		{
+			int lf = indexOfLineFeed( buf, scan, end );
+			if( lf >= 0 ) return lf;
+
+			if( eof )
+			{
+				return (start < end ? end : -1);
+			}
+
+			scan = end - start;
+			fill();
+			scan += start;
+		}
+	}
+
+	/*
+	 * Scans the given buffer range for a line feed byte.  Kept as a simple
+	 * counted loop over the array so that it compiles to a tight scan.
+	 */
+	private static int indexOfLineFeed( byte[] b, int from, int to )
+	{
+		for( int i = from; i < to; i++ )
+		{
+			if( b[i] == LF ) return i;
+		}
+
+		return -1;
+	}
+
+	/*
+	 * Moves any partial line to the front of the buffer, growing it if the
+	 * partial line fills it, and reads more data after it.
+	 */
+	private void fill()
+		throws IOException
+	{
+		if( in == null ) in = new FileInputStream( file );
+
+		int remaining = end - start;
+		if( remaining == buf.length )
+		{
+			byte[] bigger = BufferPool.getShared().acquire( buf.length * 2 );
+			System.arraycopy( buf, start, bigger, 0, remaining );
+			BufferPool.getShared().release( buf );
+			buf = bigger;
+		}
+		else if( start > 0 )
+		{
+			System.arraycopy( buf, start, buf, 0, remaining );
+		}
+		start = 0;
+		end = remaining;
+
+		int n = in.read( buf, end, buf.length - end );
+		if( n < 0 )
+		{
+			eof = true;
+		}
+		else
+		{
+			end += n;
+		}
+	}
+
+	/*
+	 * Returns the start of the line following the one ending at 'lineEnd'.
+	 */
+	private int advance( int lineEnd )
+	{
+		return (lineEnd < end ? lineEnd + 1 : end);
+	}
+
+	/*
+	 * Returns the length of the line excluding any carriage return before
+	 * the line feed.
+	 */
+	private int lineLength( int lineStart, int lineEnd )
+	{
+		int len = lineEnd - lineStart;
+		if( lineEnd < end && len > 0 && buf[lineEnd - 1] == CR ) len--;
+		return len;
+	}
+
+	/*
+	 * Decodes the given buffer range into the reused character buffer.
+	 */
+	private CharBuffer decode( int offset, int length )
+		throws CharacterCodingException
+	{
+		if( decoder == null )
+		{
+			decoder = charset.newDecoder().
+				onMalformedInput( CodingErrorAction.REPLACE ).
+				onUnmappableCharacter( CodingErrorAction.REPLACE );
+			chars = CharBuffer.allocate( 256 );
+		}
+
+		int max = (int) Math.ceil( length * (double) decoder.maxCharsPerByte() );
+		if( chars.capacity() < max ) chars = CharBuffer.allocate( max );
+
+		ByteBuffer bytes = ByteBuffer.wrap( buf, offset, length );
+		chars.clear();
+		decoder.reset();
+		CoderResult result = decoder.decode( bytes, chars, true );
+		if( ! result.isUnderflow() ) result.throwException();
+		result = decoder.flush( chars );
+		if( ! result.isUnderflow() ) result.throwException();
+		chars.flip();
+
+		return chars;
+	}
+
+	/*
+	 * Returns the decoding reader used for character sets that are not line
+	 * feed safe.
+	 */
+	private BufferedReader getReader()
+		throws IOException
+	{
+		if( reader == null )
+		{
+			reader = new BufferedReader( new InputStreamReader( new FileInputStream( file ), charset ),
+					buf.length );
+		}
+
+		return reader;
+	}
+
+} // End of class: +com.vtis.io.LineReader
@@ -0,0 +1,47 @@
+package com.veetechis.lib.io;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+
+/**
+ * <p>
+ * Implementations of this interface write and read objects of one class in a
+ * compact binary form.  An instance is registered with an
+ * <code>ObjectFileCodec</code> under a numeric class identifier, and is then
+ * used in place of Java serialization for objects of that class.
+ * </p>
+ *
+ * @author		pendraconx@gmail.com
+ * @see			ObjectFileCodec#register
+ */
+public interface ObjectCodec<T>
+{
+	/**
+	 * <p>
+	 * Writes the given object to the output.
+	 * </p>
+	 *
+	 * @param  obj				the object to write.
+	 * @param  out				the output to write to.
+	 * @throws					java.io.IOException
+	 *							if an I/O error occurs.
+	 */
+	public void write( T obj, DataOutput out )
+		throws IOException;
+
+	/**
+	 * <p>
+	 * Reads and returns an object written by <code>write</code>.
+	 * </p>
+	 *
+	 * @param  in				the input to read from.
+	 * @return					the object read.
+	 * @throws					java.io.IOException
+	 *							if an I/O error occurs or the data is invalid.
+	 */
+	public T read( DataInput in )
+		throws IOException;
+
+} // End of interface: +com.vtis.io.ObjectCodec
@@ -0,0 +1,740 @@
+package com.veetechis.lib.io;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.NotSerializableException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.io.StreamCorruptedException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+import java.util.zip.Checksum;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+
+/**
+ * <p>
+ * Writes and reads objects to and from streams in a framed format with
+ * optional compression and an optional checksum.  The codec supports the
+ * following characteristics (* = default):
+ * <ul>
+ * <li>Objects of classes registered through <code>register</code> are written
+ * in the compact binary form of their <code>ObjectCodec</code>, tagged with
+ * the class identifier.</li>
+ * <li>Other <code>Serializable</code> objects are written with Java
+ * serialization, unless the serialization fallback is disabled.</li>
+ * <li>When reading serialized objects, only classes matching the configured
+ * allow-list are resolved.  With no allow-list* all classes are resolved.</li>
+ * <li>The object data is deflated, or not*.</li>
+ * <li>A CRC-32 checksum* of the object data is written and verified.</li>
+ * </ul>
+ * </p>
+ *
+ * <p>
+ * The stream format is a header (magic number, version, and flags) followed
+ * by the object data in length-prefixed blocks, a zero-length terminator
+ * block, and the checksum.  When compressed, each block is deflated on its
+ * own.  Blocks let the reader consume exactly the written data even when the
+ * object reader reads ahead, so the checksum always covers all of it and the
+ * stream is left positioned after it.
+ * </p>
+ *
+ * <p>
+ * <b>Tech Note:</b> An instance may be shared by threads once configured.
+ * </p>
+ *
+ * @author      pendraconx@gmail.com
+ * @see			ObjectCodec
+ */
+public class ObjectFileCodec
+{
+	/*
+	 * Stream header magic number; distinct from the Java serialization stream
+	 * magic (0xACED).
+	 */
+	final static int MAGIC = 0x564F424A;		// "VOBJ"
+
+	private final static int VERSION = 1;
+	private final static int FLAG_COMPRESSED = 0x01;
+	private final static int FLAG_CHECKSUM = 0x02;
+	private final static int TAG_NULL = 0;
+	private final static int TAG_REGISTERED = 1;
+	private final static int TAG_SERIALIZED = 2;
+	private final static int BLOCK_SIZE = 64 * 1024;
+	private final static int PACKED_SIZE = BLOCK_SIZE + BLOCK_SIZE / 8 + 64;	// deflated block bound
+
+	private final Map<Class<?>,Registration<?>> byClass;
+	private final Map<Integer,Registration<?>> byId;
+	private volatile boolean compressed;
+	private volatile boolean checksummed;
+	private volatile boolean serializationAllowed;
+	private volatile String[] allowedClasses;
+
+
+	/**
+	 * <p>
+	 * Creates a new instance of <code>ObjectFileCodec</code> with no
+	 * registered classes, no compression, checksums enabled, and the
+	 * serialization fallback enabled without an allow-list.
+	 * </p>
+	 */
+	public ObjectFileCodec()
+	{
+		byClass = new ConcurrentHashMap<Class<?>,Registration<?>>();
+		byId = new ConcurrentHashMap<Integer,Registration<?>>();
+		checksummed = true;
+		serializationAllowed = true;
+	}
+
+	/**
+	 * <p>
+	 * Registers the given codec for objects of exactly the given class, under
+	 * the given class identifier.  The identifier is written in place of the
+	 * class name and must stay the same for as long as written data is to be
+	 * read.
+	 * </p>
+	 *
+	 * <p>
+	 * Throws an exception if the class or identifier is already registered.
+	 * </p>
+	 *
+	 * @param  cls				the class to register.
+	 * @param  id				the class identifier.
+	 * @param  codec			the codec for objects of the class.
+	 * @throws					java.lang.IllegalArgumentException
+	 *							if the class or identifier is already in use.
+	 */
+	public synchronized <T> void register( Class<T> cls, int id, ObjectCodec<T> codec )
+	{
+		if( byClass.containsKey( cls ) || byId.containsKey( id ) )
+		{
+			throw new IllegalArgumentException( "Class or identifier already registered: " +
+					cls.getName() + " / " + id );
+		}
+
+		Registration<T> reg = new Registration<T>( id, codec );
+		byClass.put( cls, reg );
+		byId.put( id, reg );
+	}
+
+	/**
+	 * <p>
+	 * If set to <code>true</code>, instructs this instance to deflate the
+	 * object data it writes.  Compressed data is read regardless of this
+	 * setting.
+	 * </p>
+	 *
+	 * @param  compress			the flag to enable compression.
+	 */
+	public void setCompression( boolean compress )
+	{
+		compressed = compress;
+	}
+
+	/**
+	 * <p>
+	 * Returns <code>true</code> if this instance deflates the object data it
+	 * writes.
+	 * </p>
+	 *
+	 * @return					the state of the compression flag.
+	 */
+	public boolean isCompression()
+	{
+		return compressed;
+	}
+
+	/**
+	 * <p>
+	 * If set to <code>true</code>, instructs this instance to write a checksum
+	 * of the object data.  Checksums present in read data are always
+	 * verified.
+	 * </p>
+	 *
+	 * @param  checksum			the flag to enable checksums.
+	 */
+	public void setChecksum( boolean checksum )
+	{
+		checksummed = checksum;
+	}
+
+	/**
+	 * <p>
+	 * Returns <code>true</code> if this instance writes a checksum of the
+	 * object data.
+	 * </p>
+	 *
+	 * @return					the state of the checksum flag.
+	 */
+	public boolean isChecksum()
+	{
+		return checksummed;
+	}
+
+	/**
+	 * <p>
+	 * If set to <code>false</code>, instructs this instance to neither write
+	 * nor read objects of unregistered classes with Java serialization.
+	 * </p>
+	 *
+	 * @param  allowed			the flag to enable the serialization fallback.
+	 */
+	public void setSerializationAllowed( boolean allowed )
+	{
+		serializationAllowed = allowed;
+	}
+
+	/**
+	 * <p>
+	 * Returns <code>true</code> if this instance falls back to Java
+	 * serialization for objects of unregistered classes.
+	 * </p>
+	 *
+	 * @return					the state of the serialization fallback flag.
+	 */
+	public boolean isSerializationAllowed()
+	{
+		return serializationAllowed;
+	}
+
+	/**
+	 * <p>
+	 * Sets the allow-list of classes that may be resolved when reading
+	 * serialized objects.  Each entry is either a fully-qualified class name,
+	 * a package name followed by <code>.*</code> to allow the classes of that
+	 * package, or a package name followed by <code>.**</code> to allow the
+	 * classes of that package and its sub-packages.  Array classes are allowed
+	 * if their component class is; primitive types are always allowed.
+	 * Passing <code>null</code> removes the allow-list.
+	 * </p>
+	 *
+	 * @param  patterns			the allowed class patterns, or null.
+	 */
+	public void setAllowedClasses( String... patterns )
+	{
+		allowedClasses = (patterns == null ? null : patterns.clone());
+	}
+
+	/**
+	 * <p>
+	 * Writes the given object, which may be <code>null</code>, to the output
+	 * stream.  The stream is flushed but not closed.
+	 * </p>
+	 *
+	 * <p>
+	 * Throws an exception if the object's class is not registered and it can
+	 * not be serialized, or if an I/O error occurs.
+	 * </p>
+	 *
+	 * @param  obj				the object to write.
+	 * @param  out				the stream to write to.
+	 * @throws					java.io.NotSerializableException
+	 *							if the object can not be written.
+	 * @throws					java.io.IOException
+	 *							if an I/O error occurs.
+	 */
+	public void write( Object obj, OutputStream out )
+		throws IOException
+	{
+		Registration<?> reg = (obj == null ? null : byClass.get( obj.getClass() ));
+		if( obj != null && reg == null && ! (serializationAllowed && obj instanceof Serializable) )
+		{
+			throw new NotSerializableException( obj.getClass().getName() );
+		}
+
+		boolean compress = compressed;
+		boolean checksum = checksummed;
+
+		DataOutputStream header = new DataOutputStream( out );
+		header.writeInt( MAGIC );
+		header.writeByte( VERSION );
+		header.writeByte( (compress ? FLAG_COMPRESSED : 0) | (checksum ? FLAG_CHECKSUM : 0) );
+
+		Deflater deflater = (compress ? Compression.acquireDeflater( Deflater.BEST_SPEED, false ) : null);
+		BlockOutputStream blocks = new BlockOutputStream( out, deflater );
+		try
+		{
+			Checksum crc = new CRC32();
+			DataOutputStream data = new DataOutputStream( new CheckedOutputStream( blocks, crc ) );
+
+			if( obj == null )
+			{
+				data.writeByte( TAG_NULL );
+			}
+			else if( reg != null )
+			{
+				data.writeByte( TAG_REGISTERED );
+				data.writeInt( reg.id );
+				reg.write( obj, data );
+			}
+			else
+			{
+				data.writeByte( TAG_SERIALIZED );
+				ObjectOutputStream oos = new ObjectOutputStream( data );
+				oos.writeObject( obj );
+				oos.flush();
+			}
+			data.flush();
+			blocks.finish();
+
+			if( checksum ) header.writeLong( crc.getValue() );
+		}
+		finally
+		{
+			blocks.release();
+			if( deflater != null ) Compression.releaseDeflater( deflater, false );
+		}
+
+		out.flush();
+	}
+
+	/**
+	 * <p>
+	 * Reads and returns an object written by <code>write</code>.  Exactly the
+	 * written data is consumed from the stream, which is not closed.
+	 * </p>
+	 *
+	 * <p>
+	 * Throws an exception if the stream was not written by this class, if the
+	 * checksum does not match, if a serialized class is not allowed or not
+	 * found, or if an I/O error occurs.
+	 * </p>
+	 *
+	 * @param  in				the stream to read from.
+	 * @return					the object read, or null.
+	 * @throws					java.io.StreamCorruptedException
+	 *							if the data is not valid.
+	 * @throws					java.io.InvalidClassException
+	 *							if a class is not allowed or not registered.
+	 * @throws					java.io.IOException
+	 *							if an I/O error occurs.
+	 * @throws					java.lang.ClassNotFoundException
+	 *							if a serialized class is not on the class path.
+	 */
+	public Object read( InputStream in )
+		throws IOException, ClassNotFoundException
+	{
+		DataInputStream header = new DataInputStream( in );
+		if( header.readInt() != MAGIC )
+		{
+			throw new StreamCorruptedException( "Not an object codec stream" );
+		}
+		int version = header.readUnsignedByte();
+		if( version != VERSION )
+		{
+			throw new StreamCorruptedException( "Unsupported object codec version: " + version );
+		}
+		int flags = header.readUnsignedByte();
+
+		Inflater inflater = ((flags & FLAG_COMPRESSED) != 0 ? Compression.acquireInflater( false ) : null);
+		BlockInputStream blocks = new BlockInputStream( in, inflater );
+		try
+		{
+			Checksum crc = new CRC32();
+			DataInputStream data = new DataInputStream( new CheckedInputStream( blocks, crc ) );
+
+			Object obj;
+			int tag = data.readUnsignedByte();
+			if( tag == TAG_NULL )
+			{
+				obj = null;
+			}
+			else if( tag == TAG_REGISTERED )
+			{
+				int id = data.readInt();
+				Registration<?> reg = byId.get( id );
+				if( reg == null )
+				{
+					throw new InvalidClassException( "No codec registered for class identifier: " + id );
+				}
+				obj = reg.codec.read( data );
+			}
+			else if( tag == TAG_SERIALIZED )
+			{
+				if( ! serializationAllowed )
+				{
+					throw new InvalidClassException( "Serialized objects not allowed" );
+				}
+				obj = new FilteringObjectInputStream( data, allowedClasses ).readObject();
+			}
+			else
+			{
+				throw new StreamCorruptedException( "Invalid object tag: " + tag );
+			}
+
+			// consume any data the object reader left, so the checksum covers it
+			while( data.skip( BLOCK_SIZE ) > 0 || data.read() >= 0 )
+			{
+			}
+
+			if( (flags & FLAG_CHECKSUM) != 0 && header.readLong() != crc.getValue() )
+			{
+				throw new StreamCorruptedException( "Object data checksum mismatch" );
+			}
+
+			return obj;
+		}
+		finally
+		{
+			blocks.release();
+			if( inflater != null ) Compression.releaseInflater( inflater, false );
+		}
+	}
+
+	/**
+	 * <p>
+	 * Returns <code>true</code> if the given leading bytes of a stream are the
+	 * header of data written by this class.
+	 * </p>
+	 *
+	 * @param  head				at least the first four bytes of a stream.
+	 * @return					true if the bytes begin an object codec stream.
+	 */
+	public static boolean isCodecHeader( byte[] head )
+	{
+		return head.length >= 4 &&
+				((head[0] & 0xFF) << 24 | (head[1] & 0xFF) << 16 | (head[2] & 0xFF) << 8 | (head[3] & 0xFF)) == MAGIC;
+	}
+
+
+	/*
+	 * Returns a pooled buffer of twice the size holding the given content,
+	 * releasing the given buffer.
+	 */
+	private static byte[] grow( byte[] buf, int length )
+	{
+		byte[] bigger = BufferPool.getShared().acquire( buf.length * 2 );
+		System.arraycopy( buf, 0, bigger, 0, length );
+		BufferPool.getShared().release( buf );
+		return bigger;
+	}
+
+	/*
+	 * Returns a pooled buffer of at least the given size in place of the
+	 * given one, which is released.
+	 */
+	private static byte[] reacquire( byte[] buf, int size )
+	{
+		BufferPool.getShared().release( buf );
+		return BufferPool.getShared().acquire( size );
+	}
+
+	/*
+	 * A class identifier and its codec.
+	 */
+	private static final class Registration<T>
+	{
+		final int id;
+		final ObjectCodec<T> codec;
+
+		Registration( int id, ObjectCodec<T> codec )
+		{
+			this.id = id;
+			this.codec = codec;
+		}
+
+		@SuppressWarnings( "unchecked" )
+		void write( Object obj, DataOutputStream out )
+			throws IOException
+		{
+			codec.write( (T) obj, out );
+		}
+	}
+
+	/*
+	 * Resolves only the classes matching an allow-list, if one is given.
+	 */
+	private static final class FilteringObjectInputStream
+		extends ObjectInputStream
+	{
+		private final String[] allowed;
+
+		FilteringObjectInputStream( InputStream in, String[] allowed )
+			throws IOException
+		{
+			super( in );
+			this.allowed = allowed;
+		}
+
+		protected Class<?> resolveClass( ObjectStreamClass desc )
+			throws IOException, ClassNotFoundException
+		{
+			if( allowed != null && ! isAllowed( desc.getName() ) )
+			{
+				throw new InvalidClassException( desc.getName(), "Class not allowed" );
+			}
+
+			return super.resolveClass( desc );
+		}
+
+		protected Class<?> resolveProxyClass( String[] interfaces )
+			throws IOException, ClassNotFoundException
+		{
+			if( allowed != null )
+			{
+				for( String name : interfaces )
+				{
+					if( ! isAllowed( name ) ) throw new InvalidClassException( name, "Class not allowed" );
+				}
+			}
+
+			return super.resolveProxyClass( interfaces );
+		}
+
+		private boolean isAllowed( String name )
+		{
+			int dims = 0;
+			while( dims < name.length() && name.charAt( dims ) == '[' ) dims++;
+			if( dims > 0 )
+			{
+				if( name.charAt( dims ) != 'L' ) return true;		// primitive array
+				name = name.substring( dims + 1, name.length() - 1 );
+			}
+
+			int dot = name.lastIndexOf( '.' );
+			String pkg = (dot < 0 ? "" : name.substring( 0, dot ));
+			for( String pattern : allowed )
+			{
+				if( pattern.equals( name ) ) return true;
+				if( pattern.endsWith( ".**" ) )
+				{
+					String base = pattern.substring( 0, pattern.length() - 3 );
+					if( pkg.equals( base ) || pkg.startsWith( base + "." ) ) return true;
+				}
+				else if( pattern.endsWith( ".*" ) )
+				{
+					if( pkg.equals( pattern.substring( 0, pattern.length() - 2 ) ) ) return true;
+				}
+			}
+
+			return false;
+		}
+	}
+
+	/*
+	 * Writes data as length-prefixed blocks, each deflated on its own if a
+	 * deflater is given; 'finish' writes the zero-length terminator block.
+	 * The underlying stream is never closed; 'release' returns the pooled
+	 * buffers.
+	 */
+	private static final class BlockOutputStream
+		extends OutputStream
+	{
+		private final DataOutputStream out;
+		private final Deflater deflater;
+		private byte[] block = BufferPool.getShared().acquire( BLOCK_SIZE );
+		private byte[] packed;
+		private int count;
+
+		BlockOutputStream( OutputStream out, Deflater deflater )
+		{
+			this.out = new DataOutputStream( out );
+			this.deflater = deflater;
+		}
+
+		void release()
+		{
+			BufferPool.getShared().release( block );
+			BufferPool.getShared().release( packed );
+			block = null;
+			packed = null;
+		}
+
+		public void write( int b )
+			throws IOException
+		{
+			if( count == BLOCK_SIZE ) writeBlock();
+			block[count++] = (byte) b;
+		}
+
+		public void write( byte[] b, int off, int len )
+			throws IOException
+		{
+			while( len > 0 )
+			{
+				if( count == BLOCK_SIZE ) writeBlock();
+				int n = Math.min( len, BLOCK_SIZE - count );
+				System.arraycopy( b, off, block, count, n );
+				count += n;
+				off += n;
+				len -= n;
+			}
+		}
+
+		public void flush()
+		{
+			// blocks are written when full or on finish
+		}
+
+		void finish()
+			throws IOException
+		{
+			if( count > 0 ) writeBlock();
+			out.writeInt( 0 );
+		}
+
+		private void writeBlock()
+			throws IOException
+		{
+			out.writeInt( count );
+			if( deflater == null )
+			{
+				out.write( block, 0, count );
+			}
+			else
+			{
+				if( packed == null ) packed = BufferPool.getShared().acquire( PACKED_SIZE );
+				deflater.reset();
+				deflater.setInput( block, 0, count );
+				deflater.finish();
+				int len = 0;
+				while( ! deflater.finished() )
+				{
+					if( len == packed.length ) packed = grow( packed, len );
+					len += deflater.deflate( packed, len, packed.length - len );
+				}
+				out.writeInt( len );
+				out.write( packed, 0, len );
+			}
+			count = 0;
+		}
+	}
+
+	/*
+	 * Reads length-prefixed blocks, inflating each if an inflater is given,
+	 * and returns end-of-stream at the terminator block without reading past
+	 * it.  The underlying stream is never closed; 'release' returns the
+	 * pooled buffers.
+	 */
+	private static final class BlockInputStream
+		extends InputStream
+	{
+		private final DataInputStream in;
+		private final Inflater inflater;
+		private final byte[] one = new byte[1];
+		private byte[] block;
+		private byte[] packed;
+		private int pos;
+		private int limit;
+		private int remaining;			// unread bytes of an uncompressed block
+		private boolean done;
+
+		BlockInputStream( InputStream in, Inflater inflater )
+		{
+			this.in = new DataInputStream( in );
+			this.inflater = inflater;
+		}
+
+		void release()
+		{
+			BufferPool.getShared().release( block );
+			BufferPool.getShared().release( packed );
+			block = null;
+			packed = null;
+		}
+
+		public int read()
+			throws IOException
+		{
+			return (read( one, 0, 1 ) < 0 ? -1 : one[0] & 0xFF);
+		}
+
+		public int read( byte[] b, int off, int len )
+			throws IOException
+		{
+			if( len == 0 ) return 0;
+			if( ! nextBlock() ) return -1;
+
+			int n;
+			if( inflater == null )
+			{
+				n = in.read( b, off, Math.min( len, remaining ) );
+				if( n < 0 ) throw new EOFException( "Truncated object data" );
+				remaining -= n;
+			}
+			else
+			{
+				n = Math.min( len, limit - pos );
+				System.arraycopy( block, pos, b, off, n );
+				pos += n;
+			}
+
+			return n;
+		}
+
+		public int available()
+		{
+			return (inflater == null ? remaining : limit - pos);
+		}
+
+		private boolean nextBlock()
+			throws IOException
+		{
+			while( remaining == 0 && pos == limit && ! done )
+			{
+				int len = in.readInt();
+				if( len < 0 || len > BLOCK_SIZE ) throw new StreamCorruptedException( "Invalid block length: " + len );
+				if( len == 0 )
+				{
+					done = true;
+				}
+				else if( inflater == null )
+				{
+					remaining = len;
+				}
+				else
+				{
+					inflateBlock( len );
+				}
+			}
+
+			return ! done;
+		}
+
+		private void inflateBlock( int len )
+			throws IOException
+		{
+			int packedLen = in.readInt();
+			if( packedLen < 0 || packedLen > PACKED_SIZE )
+			{
+				throw new StreamCorruptedException( "Invalid compressed block length: " + packedLen );
+			}
+			if( packed == null || packed.length < packedLen ) packed = reacquire( packed, packedLen );
+			if( block == null || block.length < len ) block = reacquire( block, len );
+			in.readFully( packed, 0, packedLen );
+
+			inflater.reset();
+			inflater.setInput( packed, 0, packedLen );
+			try
+			{
+				int n = 0;
+				while( n < len && ! inflater.finished() )
+				{
+					int k = inflater.inflate( block, n, len - n );
+					if( k == 0 && (inflater.needsInput() || inflater.needsDictionary()) ) break;
+					n += k;
+				}
+				if( n != len ) throw new StreamCorruptedException( "Invalid compressed block" );
+			}
+			catch( DataFormatException exc )
+			{
+				throw new StreamCorruptedException( "Invalid compressed block: " + exc.getMessage() );
+			}
+			pos = 0;
+			limit = len;
+		}
+	}
+
+} // End of class: +com.vtis.io.ObjectFileCodec
@@ -0,0 +1,803 @@
+package com.veetechis.lib.io;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * <p>
+ * A random-access store of byte records in a single file, updated in place
+ * with positional reads and writes on a <code>FileChannel</code>.  The store
+ * has the following characteristics:
+ * <ul>
+ * <li>The file is divided into slots of a fixed size, given when the file is
+ * created.  A record is identified by the number of its (first) slot, which
+ * does not change while the record exists.</li>
+ * <li>In fixed mode each record occupies one slot and may be at most
+ * <code>getMaxRecordLength</code> bytes long.  In variable mode a record
+ * occupies as many consecutive slots as it needs; an update that no longer
+ * fits its slots moves the record, and returns its new identifier.</li>
+ * <li>Slot usage is kept in bitmap pages, each followed by the data pages of
+ * the slots it maps, so that the file grows in extents and free slots are
+ * found without scanning data.  Deleted slots are reused.</li>
+ * <li>Pages are read through an in-memory cache of a given number of pages
+ * with least recently used eviction.  Writes change cached pages only; dirty
+ * pages are written back when evicted, on <code>flush</code>, and on
+ * <code>close</code>.</li>
+ * </ul>
+ * </p>
+ *
+ * <p>
+ * Changes are not journaled: after a crash, records changed since the last
+ * <code>flush</code> may be lost or partly written.
+ * </p>
+ *
+ * <p>
+ * <b>Tech Note:</b> This class is thread-safe.  A file must not be opened by
+ * more than one instance at a time.
+ * </p>
+ *
+ * @author      pendraconx@gmail.com
+ */
+public class RecordFile
+	implements Closeable
+{
+	/**
+	 * The default page size, in bytes.
+	 */
+	public final static int DEFAULT_PAGE_SIZE = 4096;
+
+	/**
+	 * The default number of cached pages.
+	 */
+	public final static int DEFAULT_CACHE_PAGES = 1024;
+
+	private final static int MAGIC = 0x56524543;		// "VREC"
+	private final static int VERSION = 1;
+	private final static int FLAG_VARIABLE = 0x01;
+	private final static int LENGTH_SIZE = 4;			// record length prefix
+
+	private final File file;
+	private final FileChannel channel;
+	private final int pageSize;
+	private final int slotSize;
+	private final boolean variable;
+	private final int slotsPerPage;
+	private final int slotsPerExtent;		// slots mapped by one bitmap page
+	private final int pagesPerExtent;		// bitmap page plus data pages
+	private final PageCache cache;
+	private long recordCount;
+	private long firstFree;					// no free slot below this one
+	private boolean closed;
+
+
+	/**
+	 * <p>
+	 * Opens, or creates, the record file with the given slot size in fixed
+	 * mode, with the default page size and cache size.
+	 * </p>
+	 *
+	 * @param  file				the record file.
+	 * @param  slotSize			the slot size in bytes, for a new file.
+	 * @throws					java.io.IOException
+	 *							if the file can not be opened or was created
+	 *								with different settings.
+	 */
+	public RecordFile( File file, int slotSize )
+		throws IOException
+	{
+		this( file, slotSize, false, DEFAULT_PAGE_SIZE, DEFAULT_CACHE_PAGES );
+	}
+
+	/**
+	 * <p>
+	 * Opens, or creates, the record file.  The slot size, mode, and page size
+	 * are stored in a new file; an existing file must have been created with
+	 * the same values.
+	 * </p>
+	 *
+	 * <p>
+	 * Throws an exception if the file can not be opened or created, is not a
+	 * record file, or was created with different settings; or if the settings
+	 * are invalid (the slot size must be more than four bytes, and the page
+	 * size a power of two holding at least one slot).
+	 * </p>
+	 *
+	 * @param  file				the record file.
+	 * @param  slotSize			the slot size in bytes.
+	 * @param  variable			true for variable-size records.
+	 * @param  pageSize			the page size in bytes.
+	 * @param  cachePages		the number of pages to cache.
+	 * @throws					java.io.IOException
+	 *							if the file can not be opened or was created
+	 *								with different settings.
+	 * @throws					java.lang.IllegalArgumentException
+	 *							if a setting is invalid.
+	 */
+	public RecordFile( File file, int slotSize, boolean variable, int pageSize, int cachePages )
+		throws IOException
+	{
+		if( pageSize < 64 || Integer.bitCount( pageSize ) != 1 )
+		{
+			throw new IllegalArgumentException( "Page size not a power of two of at least 64: " + pageSize );
+		}
+		if( slotSize <= LENGTH_SIZE || slotSize > pageSize )
+		{
+			throw new IllegalArgumentException( "Slot size not between 5 and the page size: " + slotSize );
+		}
+		if( file.exists() ? ! FileUtils.isWriteableFile( file ) : ! FileUtils.isCreateablePath( file ) )
+		{
+			throw new IOException( "No write permission for file: " + FileUtils.getPathOf( file ) );
+		}
+
+		this.file = file;
+		this.pageSize = pageSize;
+		this.slotSize = slotSize;
+		this.variable = variable;
+		this.slotsPerPage = pageSize / slotSize;
+		this.slotsPerExtent = pageSize * 4;				// two bits per slot
+		this.pagesPerExtent = 1 + (slotsPerExtent + slotsPerPage - 1) / slotsPerPage;
+		this.channel = FileChannel.open( file.toPath(), StandardOpenOption.CREATE,
+				StandardOpenOption.READ, StandardOpenOption.WRITE );
+		this.cache = new PageCache( Math.max( cachePages, 4 ) );
+
+		try
+		{
+			if( channel.size() == 0 )
+			{
+				writeHeader();
+			}
+			else
+			{
+				readHeader();
+			}
+		}
+		catch( IOException | RuntimeException exc )
+		{
+			cache.discard();
+			channel.close();
+			throw exc;
+		}
+	}
+
+	/**
+	 * <p>
+	 * Returns the record file referenced by the instance.
+	 * </p>
+	 *
+	 * @return					the record file.
+	 */
+	public File getFile()
+	{
+		return file;
+	}
+
+	/**
+	 * <p>
+	 * Returns the number of records in the file.
+	 * </p>
+	 *
+	 * @return					the record count.
+	 */
+	public synchronized long size()
+	{
+		return recordCount;
+	}
+
+	/**
+	 * <p>
+	 * Returns the maximum record length: the slot size less the length
+	 * prefix in fixed mode, or the largest array size in variable mode.
+	 * </p>
+	 *
+	 * @return					the maximum record length in bytes.
+	 */
+	public int getMaxRecordLength()
+	{
+		return (variable ? Integer.MAX_VALUE - 8 : slotSize - LENGTH_SIZE);
+	}
+
+	/**
+	 * <p>
+	 * Stores the given data as a new record and returns its identifier.
+	 * </p>
+	 *
+	 * @param  data				the record data.
+	 * @return					the record identifier.
+	 * @throws					java.io.IOException
+	 *							if an I/O error occurs.
+	 * @throws					java.lang.IllegalArgumentException
+	 *							if the data exceeds the maximum record length.
+	 */
+	public long insert( byte[] data )
+		throws IOException
+	{
+		return insert( data, 0, data.length );
+	}
+
+	/**
+	 * <p>
+	 * Stores the given range of data as a new record and returns its
+	 * identifier.
+	 * </p>
+	 *
+	 * @param  data				the buffer holding the record data.
+	 * @param  offset			the offset of the data in the buffer.
+	 * @param  length			the length of the data.
+	 * @return					the record identifier.
+	 * @throws					java.io.IOException
+	 *							if an I/O error occurs.
+	 * @throws					java.lang.IllegalArgumentException
+	 *							if the data exceeds the maximum record length.
+	 */
+	public synchronized long insert( byte[] data, int offset, int length )
+		throws IOException
+	{
+		checkOpen();
+		int slots = slotsFor( length );
+
+		long id = allocate( slots );
+		writeRecord( id, data, offset, length );
+		recordCount++;
+
+		return id;
+	}
+
+	/**
+	 * <p>
+	 * Returns the data of the given record, or <code>null</code> if there is
+	 * no record with the identifier.
+	 * </p>
+	 *
+	 * @param  id				the record identifier.
+	 * @return					the record data, or null.
+	 * @throws					java.io.IOException
+	 *							if an I/O error occurs.
+	 */
+	public synchronized byte[] read( long id )
+		throws IOException
+	{
+		checkOpen();
+		if( ! isHead( id ) ) return null;
+
+		byte[] head = new byte[LENGTH_SIZE];
+		transfer( id, 0, head, 0, LENGTH_SIZE, false );
+		int length = readInt( head );
+		if( length < 0 || length > getMaxRecordLength() )
+		{
+			throw new IOException( "Corrupt record " + id + " in file: " + file );
+		}
+
+		byte[] data = new byte[length];
+		transfer( id, LENGTH_SIZE, data, 0, length, false );
+		return data;
+	}
+
+	/**
+	 * <p>
+	 * Returns <code>true</code> if there is a record with the given
+	 * identifier.
+	 * </p>
+	 *
+	 * @param  id				the record identifier.
+	 * @return					true if the record exists.
+	 * @throws					java.io.IOException
+	 *							if an I/O error occurs.
+	 */
+	public synchronized boolean contains( long id )
+		throws IOException
+	{
+		checkOpen();
+		return isHead( id );
+	}
+
+	/**
+	 * <p>
+	 * Replaces the data of the given record in place and returns the record's
+	 * identifier.  In variable mode, if the new data needs more slots than
+	 * the record has and the slots after it are taken, the record is moved
+	 * and the new identifier is returned.
+	 * </p>
+	 *
+	 * @param  id				the record identifier.
+	 * @param  data				the new record data.
+	 * @return					the record identifier, changed if it moved.
+	 * @throws					java.io.IOException
+	 *							if an I/O error occurs.
+	 * @throws					java.lang.IllegalArgumentException
+	 *							if there is no such record, or the data
+	 *								exceeds the maximum record length.
+	 */
+	public long update( long id, byte[] data )
+		throws IOException
+	{
+		return update( id, data, 0, data.length );
+	}
+
+	/**
+	 * <p>
+	 * Replaces the data of the given record with the given range of data.
+	 * </p>
+	 *
+	 * @param  id				the record identifier.
+	 * @param  data				the buffer holding the new record data.
+	 * @param  offset			the offset of the data in the buffer.
+	 * @param  length			the length of the data.
+	 * @return					the record identifier, changed if it moved.
+	 * @throws					java.io.IOException
+	 *							if an I/O error occurs.
+	 * @throws					java.lang.IllegalArgumentException
+	 *							if there is no such record, or the data
+	 *								exceeds the maximum record length.
+	 * @see						#update(long,byte[])
+	 */
+	public synchronized long update( long id, byte[] data, int offset, int length )
+		throws IOException
+	{
+		checkOpen();
+		if( ! isHead( id ) ) throw new IllegalArgumentException( "No record: " + id );
+
+		int needed = slotsFor( length );
+		int held = slotCount( id );
+		if( needed < held )
+		{
+			setUsed( id + needed, held - needed, false, false );
+			firstFree = Math.min( firstFree, id + needed );
+		}
+		else if( needed > held )
+		{
+			if( isFree( id + held, needed - held ) )
+			{
+				setUsed( id + held, needed - held, true, false );
+			}
+			else
+			{
+				setUsed( id, held, false, false );
+				firstFree = Math.min( firstFree, id );
+				id = allocate( needed );
+			}
+		}
+
+		writeRecord( id, data, offset, length );
+		return id;
+	}
+
+	/**
+	 * <p>
+	 * Deletes the given record, freeing its slots.  Returns
+	 * <code>false</code> if there is no record with the identifier.
+	 * </p>
+	 *
+	 * @param  id				the record identifier.
+	 * @return					true if the record was deleted.
+	 * @throws					java.io.IOException
+	 *							if an I/O error occurs.
+	 */
+	public synchronized boolean delete( long id )
+		throws IOException
+	{
+		checkOpen();
+		if( ! isHead( id ) ) return false;
+
+		setUsed( id, slotCount( id ), false, false );
+		firstFree = Math.min( firstFree, id );
+		recordCount--;
+
+		return true;
+	}
+
+	/**
+	 * <p>
+	 * Writes all dirty pages back to the file, in file order, and then the
+	 * header, and optionally forces them to the storage device.  The pages
+	 * are written, and when forced reach the device, before the header does,
+	 * so that the header never counts records whose pages were lost.
+	 * </p>
+	 *
+	 * @param  force			true to force the file to the device.
+	 * @throws					java.io.IOException
+	 *							if an I/O error occurs.
+	 */
+	public synchronized void flush( boolean force )
+		throws IOException
+	{
+		checkOpen();
+		cache.writeBack();
+		if( force ) channel.force( false );
+		writeHeader();
+		if( force ) channel.force( false );
+	}
+
+	/**
+	 * <p>
+	 * Writes all dirty pages back to the file and closes it.
+	 * </p>
+	 *
+	 * @throws					java.io.IOException
+	 *							if an I/O error occurs.
+	 */
+	public synchronized void close()
+		throws IOException
+	{
+		if( closed ) return;
+
+		try
+		{
+			cache.writeBack();
+			writeHeader();
+		}
+		finally
+		{
+			closed = true;
+			cache.discard();
+			channel.close();
+		}
+	}
+
+
+	private void checkOpen()
+		throws IOException
+	{
+		if( closed ) throw new IOException( "Record file is closed: " + file );
+	}
+
+	/*
+	 * Returns the number of slots a record of the given length occupies.
+	 */
+	private int slotsFor( int length )
+	{
+		if( length < 0 || length > getMaxRecordLength() )
+		{
+			throw new IllegalArgumentException( "Record length exceeds maximum of " + getMaxRecordLength() + ": " + length );
+		}
+
+		return (int) ((LENGTH_SIZE + (long) length + slotSize - 1) / slotSize);
+	}
+
+	/*
+	 * Returns the number of slots held by the record at the given head slot:
+	 * the head and the used slots following it that are not heads.
+	 */
+	private int slotCount( long id )
+		throws IOException
+	{
+		if( ! variable ) return 1;
+
+		int n = 1;
+		while( bit( id + n, 0 ) && ! bit( id + n, 1 ) ) n++;
+		return n;
+	}
+
+	/*
+	 * Finds and marks the first run of the given number of free slots, and
+	 * returns its first slot.
+	 */
+	private long allocate( int slots )
+		throws IOException
+	{
+		long slot = firstFree;
+		boolean leading = true;			// no used slot seen since firstFree
+
+		while( true )
+		{
+			slot = nextFree( slot );
+			if( leading ) firstFree = slot;
+
+			int run = 1;
+			while( run < slots && ! bit( slot + run, 0 ) ) run++;
+			if( run == slots )
+			{
+				setUsed( slot, slots, true, true );
+				if( slot == firstFree ) firstFree = slot + slots;
+				return slot;
+			}
+
+			slot += run;
+			leading = false;
+		}
+	}
+
+	/*
+	 * Returns the first free slot at or after the given one, skipping whole
+	 * bitmap bytes of used slots.
+	 */
+	private long nextFree( long slot )
+		throws IOException
+	{
+		while( true )
+		{
+			long extent = slot / slotsPerExtent;
+			byte[] map = cache.get( extent * pagesPerExtent + 1, false );
+			for( int i = (int) (slot % slotsPerExtent); i < slotsPerExtent; )
+			{
+				int b = map[i >>> 2];
+				if( (i & 3) == 0 && (b & 0x55) == 0x55 )
+				{
+					i += 4;
+					continue;
+				}
+				if( (b & (1 << ((i & 3) * 2))) == 0 ) return extent * slotsPerExtent + i;
+				i++;
+			}
+			slot = (extent + 1) * slotsPerExtent;
+		}
+	}
+
+	private boolean isFree( long slot, int count )
+		throws IOException
+	{
+		for( int i = 0; i < count; i++ )
+		{
+			if( bit( slot + i, 0 ) ) return false;
+		}
+
+		return true;
+	}
+
+	private boolean isHead( long id )
+		throws IOException
+	{
+		return id >= 0 && bit( id, 0 ) && bit( id, 1 );
+	}
+
+	/*
+	 * Returns the used (0) or head (1) bit of the given slot.
+	 */
+	private boolean bit( long slot, int which )
+		throws IOException
+	{
+		long extent = slot / slotsPerExtent;
+		int i = (int) (slot % slotsPerExtent);
+		byte[] map = cache.get( extent * pagesPerExtent + 1, false );
+
+		return (map[i >>> 2] & (1 << ((i & 3) * 2 + which))) != 0;
+	}
+
+	/*
+	 * Marks a run of slots used, with the first as head if requested, or
+	 * free.
+	 */
+	private void setUsed( long slot, int count, boolean used, boolean head )
+		throws IOException
+	{
+		for( int k = 0; k < count; k++ )
+		{
+			long s = slot + k;
+			long extent = s / slotsPerExtent;
+			int i = (int) (s % slotsPerExtent);
+			byte[] map = cache.get( extent * pagesPerExtent + 1, true );
+
+			int shift = (i & 3) * 2;
+			int bits = (used ? 1 : 0) | (used && head && k == 0 ? 2 : 0);
+			map[i >>> 2] = (byte) ((map[i >>> 2] & ~(3 << shift)) | (bits << shift));
+		}
+	}
+
+	private void writeRecord( long id, byte[] data, int offset, int length )
+		throws IOException
+	{
+		byte[] head = new byte[LENGTH_SIZE];
+		writeInt( head, 0, length );
+		transfer( id, 0, head, 0, LENGTH_SIZE, true );
+		transfer( id, LENGTH_SIZE, data, offset, length, true );
+	}
+
+	/*
+	 * Copies bytes between the given buffer and a record's slots, starting at
+	 * the given position within the record, slot piece by slot piece.
+	 */
+	private void transfer( long id, long position, byte[] buf, int offset, int length, boolean write )
+		throws IOException
+	{
+		while( length > 0 )
+		{
+			long slot = id + position / slotSize;
+			int within = (int) (position % slotSize);
+			int n = Math.min( length, slotSize - within );
+
+			long extent = slot / slotsPerExtent;
+			int i = (int) (slot % slotsPerExtent);
+			long page = extent * pagesPerExtent + 2 + i / slotsPerPage;
+			int at = (i % slotsPerPage) * slotSize + within;
+
+			byte[] data = cache.get( page, write );
+			if( write )
+			{
+				System.arraycopy( buf, offset, data, at, n );
+			}
+			else
+			{
+				System.arraycopy( data, at, buf, offset, n );
+			}
+
+			position += n;
+			offset += n;
+			length -= n;
+		}
+	}
+
+	private void readHeader()
+		throws IOException
+	{
+		ByteBuffer header = ByteBuffer.allocate( 40 );
+		while( header.hasRemaining() && channel.read( header, header.position() ) >= 0 );
+		header.flip();
+		if( header.remaining() < 40 || header.getInt() != MAGIC )
+		{
+			throw new IOException( "Not a record file: " + FileUtils.getPathOf( file ) );
+		}
+
+		int version = header.getInt();
+		int storedPageSize = header.getInt();
+		int storedSlotSize = header.getInt();
+		boolean storedVariable = (header.getInt() & FLAG_VARIABLE) != 0;
+		if( version != VERSION )
+		{
+			throw new IOException( "Unsupported record file version " + version + ": " + FileUtils.getPathOf( file ) );
+		}
+		if( storedPageSize != pageSize || storedSlotSize != slotSize || storedVariable != variable )
+		{
+			throw new IOException( "Record file created with page size " + storedPageSize + ", slot size " +
+					storedSlotSize + (storedVariable ? ", variable" : ", fixed") + " mode: " + FileUtils.getPathOf( file ) );
+		}
+
+		header.getInt();		// reserved
+		recordCount = header.getLong();
+		firstFree = header.getLong();
+	}
+
+	/*
+	 * Writes the header directly, bypassing the cache.
+	 */
+	private void writeHeader()
+		throws IOException
+	{
+		ByteBuffer header = ByteBuffer.allocate( 40 );
+		header.putInt( MAGIC ).putInt( VERSION ).putInt( pageSize ).putInt( slotSize );
+		header.putInt( variable ? FLAG_VARIABLE : 0 ).putInt( 0 );
+		header.putLong( recordCount ).putLong( firstFree );
+		header.flip();
+		while( header.hasRemaining() ) channel.write( header, header.position() );
+	}
+
+	private static int readInt( byte[] b )
+	{
+		return (b[0] & 0xFF) << 24 | (b[1] & 0xFF) << 16 | (b[2] & 0xFF) << 8 | (b[3] & 0xFF);
+	}
+
+	private static void writeInt( byte[] b, int off, int v )
+	{
+		b[off] = (byte) (v >>> 24);
+		b[off + 1] = (byte) (v >>> 16);
+		b[off + 2] = (byte) (v >>> 8);
+		b[off + 3] = (byte) v;
+	}
+
+
+	/*
+	 * A cached page.
+	 */
+	private static final class Page
+	{
+		final long number;
+		final byte[] data;
+		boolean dirty;
+
+		Page( long number, byte[] data )
+		{
+			this.number = number;
+			this.data = data;
+		}
+	}
+
+	/*
+	 * LRU cache of pages; the eldest page is evicted, and written back if
+	 * dirty, when the cache is full.  Page buffers are drawn from the shared
+	 * buffer pool.
+	 */
+	private final class PageCache
+		extends LinkedHashMap<Long,Page>
+	{
+		private static final long serialVersionUID = 1L;
+
+		private final int capacity;
+
+		PageCache( int capacity )
+		{
+			super( capacity * 4 / 3 + 1, 0.75f, true );
+			this.capacity = capacity;
+		}
+
+		/*
+		 * Returns the data of the given page, reading it on a miss; marks it
+		 * dirty if it is about to be changed.
+		 */
+		byte[] get( long number, boolean dirty )
+			throws IOException
+		{
+			Page page = get( number );
+			if( page == null )
+			{
+				if( size() >= capacity ) evict();
+
+				page = new Page( number, BufferPool.getShared().acquire( pageSize ) );
+				load( page );
+				put( number, page );
+			}
+			if( dirty ) page.dirty = true;
+
+			return page.data;
+		}
+
+		/*
+		 * Writes the dirty pages in page order.
+		 */
+		void writeBack()
+			throws IOException
+		{
+			List<Page> dirty = new ArrayList<Page>();
+			for( Page page : values() )
+			{
+				if( page.dirty ) dirty.add( page );
+			}
+			dirty.sort( (a, b) -> Long.compare( a.number, b.number ) );
+
+			for( Page page : dirty ) store( page );
+		}
+
+		/*
+		 * Drops all pages without writing them and releases their buffers.
+		 */
+		void discard()
+		{
+			for( Page page : values() ) BufferPool.getShared().release( page.data );
+			clear();
+		}
+
+		private void evict()
+			throws IOException
+		{
+			Iterator<Page> it = values().iterator();
+			Page eldest = it.next();
+			if( eldest.dirty ) store( eldest );
+			it.remove();
+			BufferPool.getShared().release( eldest.data );
+		}
+
+		private void load( Page page )
+			throws IOException
+		{
+			ByteBuffer buf = ByteBuffer.wrap( page.data, 0, pageSize );
+			long position = page.number * pageSize;
+			while( buf.hasRemaining() )
+			{
+				int n = channel.read( buf, position + buf.position() );
+				if( n < 0 ) break;
+			}
+			Arrays.fill( page.data, buf.position(), pageSize, (byte) 0 );		// past the end of the file
+		}
+
+		private void store( Page page )
+			throws IOException
+		{
+			ByteBuffer buf = ByteBuffer.wrap( page.data, 0, pageSize );
+			long position = page.number * pageSize;
+			while( buf.hasRemaining() )
+			{
+				channel.write( buf, position + buf.position() );
+			}
+			page.dirty = false;
+		}
+	}
+
+} // End of class: +com.vtis.io.RecordFile
@@ -0,0 +1,866 @@
+package com.veetechis.lib.io;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+
+
+/**
+ * <p>
+ * An append-only record log stored as a sequence of segment files in one
+ * directory.  Each record is numbered consecutively from zero and carries a
+ * timestamp.  The log supports the following characteristics:
+ * <ul>
+ * <li>Records are length-prefixed and protected by a CRC-32 checksum of their
+ * timestamp and data.</li>
+ * <li>A new segment is started once the current one would exceed the segment
+ * size.  Segment files are named by the number of their first record.</li>
+ * <li>Each segment keeps a sparse index of record number, file position, and
+ * timestamp, with one entry per index interval of bytes, so that a record is
+ * found by number or timestamp with a binary search and a short scan.  Index
+ * files are written when a segment is completed or the log is closed, and
+ * rebuilt from the segment if missing or stale.</li>
+ * <li>On open, the last segment is scanned and any torn or corrupt record at
+ * its tail, and everything after it, is truncated.</li>
+ * </ul>
+ * </p>
+ *
+ * <p>
+ * Appends are buffered; <code>flush</code> writes them to the file system,
+ * optionally forcing them to the storage device.  Lookup by timestamp assumes
+ * that records are appended in non-decreasing timestamp order.
+ * </p>
+ *
+ * <p>
+ * <b>Tech Note:</b> This class is thread-safe.  A log directory must not be
+ * opened by more than one instance at a time.
+ * </p>
+ *
+ * @author      pendraconx@gmail.com
+ */
+public class SegmentedLog
+	implements Closeable
+{
+	/**
+	 * The default maximum segment size, in bytes.
+	 */
+	public final static long DEFAULT_SEGMENT_SIZE = 64L * 1024 * 1024;
+
+	/**
+	 * The default number of bytes between sparse index entries.
+	 */
+	public final static int DEFAULT_INDEX_INTERVAL = 4096;
+
+	private final static String SEGMENT_SUFFIX = ".log";
+	private final static String INDEX_SUFFIX = ".idx";
+	private final static int HEADER_SIZE = 16;			// length, timestamp, crc
+	private final static int WRITE_BUFFER_SIZE = 64 * 1024;
+
+	private final File dir;
+	private final long segmentSize;
+	private final int indexInterval;
+	private final List<Segment> segments;
+	private final ByteBuffer writeBuffer;
+	private final CRC32 crc;
+	private Segment active;
+	private boolean closed;
+
+
+	/**
+	 * <p>
+	 * A record read from the log.
+	 * </p>
+	 */
+	public static final class Record
+	{
+		private final long number;
+		private final long timestamp;
+		private final byte[] data;
+
+		Record( long number, long timestamp, byte[] data )
+		{
+			this.number = number;
+			this.timestamp = timestamp;
+			this.data = data;
+		}
+
+		/**
+		 * Returns the record number.
+		 */
+		public long getNumber() { return number; }
+
+		/**
+		 * Returns the record timestamp.
+		 */
+		public long getTimestamp() { return timestamp; }
+
+		/**
+		 * Returns the record data.
+		 */
+		public byte[] getData() { return data; }
+	}
+
+	/**
+	 * <p>
+	 * Handler of records replayed from the log.
+	 * </p>
+	 */
+	public static interface RecordHandler
+	{
+		/**
+		 * Handles the record held in the given buffer range, and returns
+		 * <code>false</code> to stop the replay.  The buffer is only valid for
+		 * the duration of the call.
+		 *
+		 * @param  number		the record number.
+		 * @param  timestamp	the record timestamp.
+		 * @param  buf			the buffer holding the record data.
+		 * @param  offset		the offset of the data in the buffer.
+		 * @param  length		the length of the data.
+		 * @return				true to continue the replay.
+		 * @throws				java.io.IOException
+		 *						to abort the replay.
+		 */
+		public boolean record( long number, long timestamp, byte[] buf, int offset, int length )
+			throws IOException;
+	}
+
+
+	/**
+	 * <p>
+	 * Opens, or creates, the log in the given directory with the default
+	 * segment size and index interval.
+	 * </p>
+	 *
+	 * @param  dir				the log directory.
+	 * @throws					java.io.IOException
+	 *							if the log can not be opened or recovered.
+	 */
+	public SegmentedLog( File dir )
+		throws IOException
+	{
+		this( dir, DEFAULT_SEGMENT_SIZE, DEFAULT_INDEX_INTERVAL );
+	}
+
+	/**
+	 * <p>
+	 * Opens, or creates, the log in the given directory with the given
+	 * segment size and index interval.  The directory is created if it does
+	 * not exist.  The last segment is recovered as described for this class.
+	 * </p>
+	 *
+	 * @param  dir				the log directory.
+	 * @param  segmentSize		the maximum segment size in bytes.
+	 * @param  indexInterval	the number of bytes between index entries.
+	 * @throws					java.io.IOException
+	 *							if the log can not be opened or recovered.
+	 */
+	public SegmentedLog( File dir, long segmentSize, int indexInterval )
+		throws IOException
+	{
+		dir = dir.getAbsoluteFile();	// a relative name has no parent to check
+		if( ! dir.isDirectory() && FileUtils.isCreateablePath( dir ) )
+		{
+			dir.mkdirs();
+		}
+		if( ! FileUtils.isWriteableDirectory( dir ) )
+		{
+			throw new IOException( "No write permission for directory: " + FileUtils.getPathOf( dir ) );
+		}
+
+		this.dir = dir;
+		this.segmentSize = segmentSize;
+		this.indexInterval = Math.max( indexInterval, 1 );
+		this.segments = new ArrayList<Segment>();
+		this.crc = new CRC32();
+
+		openSegments();
+		this.writeBuffer = BufferPool.getShared().acquireDirect( WRITE_BUFFER_SIZE );
+	}
+
+	/**
+	 * <p>
+	 * Returns the number of the first record in the log.
+	 * </p>
+	 *
+	 * @return					the first record number.
+	 */
+	public synchronized long getFirstRecordNumber()
+	{
+		return segments.get( 0 ).base;
+	}
+
+	/**
+	 * <p>
+	 * Returns the number the next appended record will receive; this is also
+	 * the number of records ever appended to the log.
+	 * </p>
+	 *
+	 * @return					the next record number.
+	 */
+	public synchronized long getNextRecordNumber()
+	{
+		return active.base + active.count;
+	}
+
+	/**
+	 * <p>
+	 * Appends the given data as a new record timestamped with the current
+	 * time, and returns its record number.
+	 * </p>
+	 *
+	 * @param  data				the record data.
+	 * @return					the record number.
+	 * @throws					java.io.IOException
+	 *							if an I/O error occurs.
+	 */
+	public long append( byte[] data )
+		throws IOException
+	{
+		return append( data, 0, data.length, System.currentTimeMillis() );
+	}
+
+	/**
+	 * <p>
+	 * Appends the given buffer range as a new record with the given
+	 * timestamp, and returns its record number.  The record is buffered until
+	 * the next call to <code>flush</code>, or until the buffer fills.
+	 * </p>
+	 *
+	 * @param  data				the buffer holding the record data.
+	 * @param  offset			the offset of the data in the buffer.
+	 * @param  length			the length of the data.
+	 * @param  timestamp		the record timestamp.
+	 * @return					the record number.
+	 * @throws					java.io.IOException
+	 *							if an I/O error occurs.
+	 */
+	public synchronized long append( byte[] data, int offset, int length, long timestamp )
+		throws IOException
+	{
+		checkOpen();
+
+		long recordSize = HEADER_SIZE + (long) length;
+		if( active.count > 0 && active.size + recordSize > segmentSize )
+		{
+			roll();
+		}
+
+		crc.reset();
+		crc.update( (int) (timestamp >>> 56) );
+		crc.update( (int) (timestamp >>> 48) );
+		crc.update( (int) (timestamp >>> 40) );
+		crc.update( (int) (timestamp >>> 32) );
+		crc.update( (int) (timestamp >>> 24) );
+		crc.update( (int) (timestamp >>> 16) );
+		crc.update( (int) (timestamp >>> 8) );
+		crc.update( (int) timestamp );
+		crc.update( data, offset, length );
+
+		if( writeBuffer.remaining() < HEADER_SIZE ) flushBuffer();
+		writeBuffer.putInt( length );
+		writeBuffer.putLong( timestamp );
+		writeBuffer.putInt( (int) crc.getValue() );
+		while( length > 0 )
+		{
+			if( ! writeBuffer.hasRemaining() ) flushBuffer();
+			int n = Math.min( length, writeBuffer.remaining() );
+			writeBuffer.put( data, offset, n );
+			offset += n;
+			length -= n;
+		}
+
+		long number = active.base + active.count;
+		active.addRecord( number, active.size, timestamp, recordSize, indexInterval );
+		return number;
+	}
+
+	/**
+	 * <p>
+	 * Writes all buffered records to the file system, and if
+	 * <code>force</code> equates to <code>true</code> also forces them to the
+	 * storage device.
+	 * </p>
+	 *
+	 * @param  force			forces data to the device if true.
+	 * @throws					java.io.IOException
+	 *							if an I/O error occurs.
+	 */
+	public synchronized void flush( boolean force )
+		throws IOException
+	{
+		checkOpen();
+		flushBuffer();
+		if( force ) active.channel.force( false );
+	}
+
+	/**
+	 * <p>
+	 * Returns the record with the given number, or <code>null</code> if no
+	 * such record exists.
+	 * </p>
+	 *
+	 * @param  number			the record number.
+	 * @return					the record, or null.
+	 * @throws					java.io.IOException
+	 *							if an I/O error occurs or the record is corrupt.
+	 */
+	public synchronized Record read( long number )
+		throws IOException
+	{
+		checkOpen();
+		if( number < getFirstRecordNumber() || number >= getNextRecordNumber() ) return null;
+
+		final Record[] found = new Record[1];
+		replay( number, (n, ts, buf, off, len) -> {
+			found[0] = new Record( n, ts, Arrays.copyOfRange( buf, off, off + len ) );
+			return false;
+		} );
+
+		return found[0];
+	}
+
+	/**
+	 * <p>
+	 * Returns the number of the first record whose timestamp is equal to or
+	 * later than the given timestamp, or the next record number if there is
+	 * none.
+	 * </p>
+	 *
+	 * @param  timestamp		the timestamp to find.
+	 * @return					the record number.
+	 * @throws					java.io.IOException
+	 *							if an I/O error occurs.
+	 */
+	public synchronized long findByTimestamp( long timestamp )
+		throws IOException
+	{
+		checkOpen();
+		flushBuffer();
+
+		int lo = 0;
+		int hi = segments.size() - 1;
+		while( lo < hi )
+		{
+			int mid = (lo + hi + 1) >>> 1;
+			Segment seg = segments.get( mid );
+			if( seg.count > 0 && seg.timestamps[0] < timestamp )
+			{
+				lo = mid;
+			}
+			else
+			{
+				hi = mid - 1;
+			}
+		}
+
+		for( int i = lo; i < segments.size(); i++ )
+		{
+			Segment seg = segments.get( i );
+			if( seg.count == 0 ) continue;
+
+			int entry = seg.floorEntryByTimestamp( timestamp );
+			final long[] result = { -1L };
+			scan( seg, seg.numbers[entry], seg.positions[entry], (n, ts, buf, off, len) -> {
+				if( ts >= timestamp )
+				{
+					result[0] = n;
+					return false;
+				}
+				return true;
+			} );
+			if( result[0] >= 0 ) return result[0];
+		}
+
+		return getNextRecordNumber();
+	}
+
+	/**
+	 * <p>
+	 * Passes the records from the given record number onwards, in order, to
+	 * the handler until the end of the log is reached or the handler returns
+	 * <code>false</code>.  Returns the number of records passed.
+	 * </p>
+	 *
+	 * @param  from				the number of the first record to pass.
+	 * @param  handler			the receiver of each record.
+	 * @return					the number of records passed.
+	 * @throws					java.io.IOException
+	 *							if an I/O error occurs or a record is corrupt.
+	 */
+	public synchronized long replay( long from, RecordHandler handler )
+		throws IOException
+	{
+		checkOpen();
+		flushBuffer();
+
+		long start = Math.max( from, getFirstRecordNumber() );
+		long[] count = { 0L };
+		boolean[] stopped = { false };
+		RecordHandler counting = (n, ts, buf, off, len) -> {
+			count[0]++;
+			if( ! handler.record( n, ts, buf, off, len ) ) stopped[0] = true;
+			return ! stopped[0];
+		};
+
+		for( int i = segmentFor( start ); i < segments.size() && ! stopped[0]; i++ )
+		{
+			Segment seg = segments.get( i );
+			if( seg.count == 0 ) continue;
+
+			long first = Math.max( start, seg.base );
+			int entry = seg.floorEntryByNumber( first );
+			scan( seg, seg.numbers[entry], seg.positions[entry], (n, ts, buf, off, len) ->
+					n < first || counting.record( n, ts, buf, off, len ) );
+		}
+
+		return count[0];
+	}
+
+	/**
+	 * <p>
+	 * Flushes buffered records, writes the index of the active segment, and
+	 * closes the log.
+	 * </p>
+	 *
+	 * @throws					java.io.IOException
+	 *							if an I/O error occurs.
+	 */
+	public synchronized void close()
+		throws IOException
+	{
+		if( closed ) return;
+
+		try
+		{
+			flushBuffer();
+			writeIndex( active );
+		}
+		finally
+		{
+			closed = true;
+			BufferPool.getShared().release( writeBuffer );
+			for( Segment seg : segments )
+			{
+				seg.channel.close();
+			}
+		}
+	}
+
+
+	/*
+	 * Opens the existing segments, or creates the first one, loading or
+	 * rebuilding each index and recovering the last segment.
+	 */
+	private void openSegments()
+		throws IOException
+	{
+		File[] files = dir.listFiles( (d, name) -> name.endsWith( SEGMENT_SUFFIX ) );
+		long[] bases = new long[files == null ? 0 : files.length];
+		int n = 0;
+		for( int i = 0; i < bases.length; i++ )
+		{
+			String name = files[i].getName();
+			try
+			{
+				bases[n] = Long.parseLong( name.substring( 0, name.length() - SEGMENT_SUFFIX.length() ) );
+				n++;
+			}
+			catch( NumberFormatException exc )
+			{
+				// not a segment file
+			}
+		}
+		bases = Arrays.copyOf( bases, n );
+		Arrays.sort( bases );
+
+		for( int i = 0; i < bases.length; i++ )
+		{
+			boolean last = (i == bases.length - 1);
+			Segment seg = openSegment( bases[i] );
+			if( last || ! readIndex( seg ) )
+			{
+				rebuild( seg, last );
+				if( ! last ) writeIndex( seg );
+			}
+			segments.add( seg );
+		}
+
+		if( segments.isEmpty() )
+		{
+			segments.add( openSegment( 0L ) );
+		}
+		active = segments.get( segments.size() - 1 );
+		active.channel.position( active.size );
+	}
+
+	/*
+	 * Opens the segment file with the given base record number.
+	 */
+	private Segment openSegment( long base )
+		throws IOException
+	{
+		File file = segmentFile( base, SEGMENT_SUFFIX );
+		FileChannel channel = FileChannel.open( file.toPath(),
+				StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE );
+		return new Segment( base, file, channel );
+	}
+
+	/*
+	 * Completes the active segment and starts a new one.
+	 */
+	private void roll()
+		throws IOException
+	{
+		flushBuffer();
+		active.channel.force( false );
+		writeIndex( active );
+
+		Segment next = openSegment( active.base + active.count );
+		next.channel.truncate( 0L );
+		segments.add( next );
+		active = next;
+	}
+
+	/*
+	 * Writes the buffered records to the active segment.
+	 */
+	private void flushBuffer()
+		throws IOException
+	{
+		writeBuffer.flip();
+		while( writeBuffer.hasRemaining() )
+		{
+			active.channel.write( writeBuffer );
+		}
+		writeBuffer.clear();
+	}
+
+	/*
+	 * Scans a segment's records from the given record number and position,
+	 * rebuilding its index if 'rebuild' is set.  If 'truncate' is set, a torn
+	 * or corrupt record ends the segment and is cut off; otherwise it raises
+	 * an exception.
+	 */
+	private long scanRecords( Segment seg, long number, long position, RecordHandler handler,
+			boolean rebuild, boolean truncate )
+		throws IOException
+	{
+		long fileSize = seg.channel.size();
+		long pos = position;
+		byte[] buf = new byte[4096];
+		CRC32 check = new CRC32();
+
+		try( DataInputStream in = new DataInputStream( new BufferedInputStream(
+				new ChannelInputStream( seg.channel, position ), WRITE_BUFFER_SIZE ) ) )
+		{
+			while( pos + HEADER_SIZE <= fileSize )
+			{
+				int length = in.readInt();
+				long timestamp = in.readLong();
+				int sum = in.readInt();
+				if( length < 0 || pos + HEADER_SIZE + length > fileSize )
+				{
+					if( truncate ) break;
+					throw new IOException( "Torn record " + number + " in segment: " + seg.file );
+				}
+
+				if( buf.length < length ) buf = new byte[Math.max( length, buf.length * 2 )];
+				in.readFully( buf, 0, length );
+
+				check.reset();
+				for( int shift = 56; shift >= 0; shift -= 8 ) check.update( (int) (timestamp >>> shift) );
+				check.update( buf, 0, length );
+				if( (int) check.getValue() != sum )
+				{
+					if( truncate ) break;
+					throw new IOException( "Corrupt record " + number + " in segment: " + seg.file );
+				}
+
+				long recordSize = HEADER_SIZE + (long) length;
+				if( rebuild ) seg.addRecord( number, pos, timestamp, recordSize, indexInterval );
+				if( handler != null && ! handler.record( number, timestamp, buf, 0, length ) )
+				{
+					return pos;
+				}
+				number++;
+				pos += recordSize;
+			}
+		}
+		catch( EOFException exc )
+		{
+			if( ! truncate ) throw exc;
+		}
+
+		return pos;
+	}
+
+	/*
+	 * Scans a segment from an indexed record, failing on corrupt records.
+	 */
+	private void scan( Segment seg, long number, long position, RecordHandler handler )
+		throws IOException
+	{
+		scanRecords( seg, number, position, handler, false, false );
+	}
+
+	/*
+	 * Rebuilds a segment's index by scanning it; for the last segment also
+	 * truncates a torn or corrupt tail.
+	 */
+	private void rebuild( Segment seg, boolean recover )
+		throws IOException
+	{
+		seg.reset();
+		long end = scanRecords( seg, seg.base, 0L, null, true, true );
+		if( recover && end < seg.channel.size() )
+		{
+			seg.channel.truncate( end );
+			seg.channel.force( true );
+		}
+		seg.size = end;
+	}
+
+	/*
+	 * Returns the index of the segment holding the given record number.
+	 */
+	private int segmentFor( long number )
+	{
+		int lo = 0;
+		int hi = segments.size() - 1;
+		while( lo < hi )
+		{
+			int mid = (lo + hi + 1) >>> 1;
+			if( segments.get( mid ).base <= number )
+			{
+				lo = mid;
+			}
+			else
+			{
+				hi = mid - 1;
+			}
+		}
+
+		return lo;
+	}
+
+	/*
+	 * Writes the index file of the given segment.
+	 */
+	private void writeIndex( Segment seg )
+		throws IOException
+	{
+		File file = segmentFile( seg.base, INDEX_SUFFIX );
+		try( DataOutputStream out = new DataOutputStream( new BufferedOutputStream(
+				new FileOutputStream( file ) ) ) )
+		{
+			out.writeLong( seg.size );
+			out.writeLong( seg.count );
+			out.writeInt( seg.entries );
+			for( int i = 0; i < seg.entries; i++ )
+			{
+				out.writeLong( seg.numbers[i] );
+				out.writeLong( seg.positions[i] );
+				out.writeLong( seg.timestamps[i] );
+			}
+		}
+	}
+
+	/*
+	 * Loads the index file of the given segment, returning false if it is
+	 * missing or does not match the segment.
+	 */
+	private boolean readIndex( Segment seg )
+	{
+		File file = segmentFile( seg.base, INDEX_SUFFIX );
+		if( ! file.isFile() ) return false;
+
+		try( DataInputStream in = new DataInputStream( new BufferedInputStream(
+				new FileInputStream( file ) ) ) )
+		{
+			long size = in.readLong();
+			long count = in.readLong();
+			int entries = in.readInt();
+			if( size != seg.channel.size() || entries < 0 || (count > 0 && entries == 0) ) return false;
+
+			seg.reset();
+			seg.ensureCapacity( entries );
+			for( int i = 0; i < entries; i++ )
+			{
+				seg.numbers[i] = in.readLong();
+				seg.positions[i] = in.readLong();
+				seg.timestamps[i] = in.readLong();
+			}
+			seg.entries = entries;
+			seg.count = count;
+			seg.size = size;
+			seg.lastIndexed = (entries > 0 ? seg.positions[entries - 1] : 0L);
+			return true;
+		}
+		catch( IOException exc )
+		{
+			return false;
+		}
+	}
+
+	/*
+	 * Returns the segment or index file for the given base record number.
+	 */
+	private File segmentFile( long base, String suffix )
+	{
+		return new File( dir, String.format( "%020d%s", base, suffix ) );
+	}
+
+	private void checkOpen()
+		throws IOException
+	{
+		if( closed ) throw new IOException( "Log is closed: " + dir );
+	}
+
+
+	/*
+	 * A segment file and its sparse index.
+	 */
+	private static final class Segment
+	{
+		final long base;
+		final File file;
+		final FileChannel channel;
+		long size;
+		long count;
+		long lastIndexed;
+		int entries;
+		long[] numbers = new long[16];
+		long[] positions = new long[16];
+		long[] timestamps = new long[16];
+
+		Segment( long base, File file, FileChannel channel )
+		{
+			this.base = base;
+			this.file = file;
+			this.channel = channel;
+		}
+
+		void reset()
+		{
+			size = 0L;
+			count = 0L;
+			entries = 0;
+			lastIndexed = 0L;
+		}
+
+		void ensureCapacity( int n )
+		{
+			if( numbers.length < n )
+			{
+				int len = Math.max( n, numbers.length * 2 );
+				numbers = Arrays.copyOf( numbers, len );
+				positions = Arrays.copyOf( positions, len );
+				timestamps = Arrays.copyOf( timestamps, len );
+			}
+		}
+
+		/*
+		 * Accounts for a record, adding an index entry for the first record
+		 * and once at least 'interval' bytes follow the last entry.
+		 */
+		void addRecord( long number, long position, long timestamp, long recordSize, int interval )
+		{
+			if( entries == 0 || position - lastIndexed >= interval )
+			{
+				ensureCapacity( entries + 1 );
+				numbers[entries] = number;
+				positions[entries] = position;
+				timestamps[entries] = timestamp;
+				entries++;
+				lastIndexed = position;
+			}
+			count++;
+			size = position + recordSize;
+		}
+
+		int floorEntryByNumber( long number )
+		{
+			int i = Arrays.binarySearch( numbers, 0, entries, number );
+			return (i >= 0 ? i : Math.max( -i - 2, 0 ));
+		}
+
+		/*
+		 * Returns the last index entry with a timestamp earlier than the given
+		 * one, or the first entry.
+		 */
+		int floorEntryByTimestamp( long timestamp )
+		{
+			int lo = 0;
+			int hi = entries - 1;
+			while( lo < hi )
+			{
+				int mid = (lo + hi + 1) >>> 1;
+				if( timestamps[mid] < timestamp )
+				{
+					lo = mid;
+				}
+				else
+				{
+					hi = mid - 1;
+				}
+			}
+
+			return lo;
+		}
+	}
+
+	/*
+	 * Reads a file channel sequentially from a given position with positional
+	 * reads, leaving the channel's own position unchanged.
+	 */
+	private static final class ChannelInputStream
+		extends InputStream
+	{
+		private final FileChannel channel;
+		private long pos;
+
+		ChannelInputStream( FileChannel channel, long pos )
+		{
+			this.channel = channel;
+			this.pos = pos;
+		}
+
+		public int read()
+			throws IOException
+		{
+			byte[] one = new byte[1];
+			return (read( one, 0, 1 ) < 0 ? -1 : one[0] & 0xFF);
+		}
+
+		public int read( byte[] b, int off, int len )
+			throws IOException
+		{
+			if( len == 0 ) return 0;
+			int n = channel.read( ByteBuffer.wrap( b, off, len ), pos );
+			if( n > 0 ) pos += n;
+			return n;
+		}
+
+		public void close()
+		{
+			// the channel belongs to the segment
+		}
+	}
+
+} // End of class: +com.vtis.io.SegmentedLog
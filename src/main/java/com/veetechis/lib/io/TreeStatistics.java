@@ -0,0 +1,456 @@
+package com.veetechis.lib.io;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+
+/**
+ * <p>
+ * Holds the statistics of a directory tree as collected by
+ * <code>FileUtils.scanTree</code>: total bytes and counts of files,
+ * directories, and other entities (<i>e.g.</i> symbolic links), a histogram
+ * of file sizes, the largest files, and totals per file name extension.
+ * Sizes are those of regular files; directories and links add no bytes.
+ * </p>
+ *
+ * <p>
+ * The size histogram has power-of-two buckets: bucket 0 counts empty files
+ * and bucket <i>n</i> counts files of at least 2<sup><i>n</i>-1</sup> and
+ * less than 2<sup><i>n</i></sup> bytes.
+ * </p>
+ *
+ * <p>
+ * <b>Tech Note:</b> Instances are filled by a single thread each and merged;
+ * a completed instance returned by <code>scanTree</code> is not modified
+ * any more and may be read by any thread.
+ * </p>
+ *
+ * @author      pendraconx@gmail.com
+ * @see			FileUtils#scanTree(File,int,int,java.util.concurrent.ForkJoinPool)
+ */
+public class TreeStatistics
+{
+	/**
+	 * The number of size histogram buckets.
+	 */
+	public final static int BUCKETS = 64;
+
+	private final int largestLimit;
+	private long totalBytes;
+	private long fileCount;
+	private long directoryCount;
+	private long otherCount;
+	private long skippedCount;
+	private long truncatedCount;
+	private int depth;
+	private final long[] bucketCounts = new long[BUCKETS];
+	private final long[] bucketBytes = new long[BUCKETS];
+	private PriorityQueue<SizedFile> largest;			// min-heap of the largest files
+	private Map<String,long[]> extensions;				// extension -> count, bytes
+
+
+	/**
+	 * <p>
+	 * A file and its size.
+	 * </p>
+	 */
+	public static final class SizedFile
+	{
+		private final Path path;
+		private final long size;
+
+		SizedFile( Path path, long size )
+		{
+			this.path = path;
+			this.size = size;
+		}
+
+		/**
+		 * Returns the file.
+		 *
+		 * @return				the file.
+		 */
+		public File getFile()
+		{
+			return path.toFile();
+		}
+
+		/**
+		 * Returns the file's size in bytes.
+		 *
+		 * @return				the file size.
+		 */
+		public long getSize()
+		{
+			return size;
+		}
+
+		public String toString()
+		{
+			return path + " (" + size + ")";
+		}
+	}
+
+	/**
+	 * <p>
+	 * The number and total size of the files with one extension.
+	 * </p>
+	 */
+	public static final class Total
+	{
+		private final long count;
+		private final long bytes;
+
+		Total( long count, long bytes )
+		{
+			this.count = count;
+			this.bytes = bytes;
+		}
+
+		/**
+		 * Returns the number of files.
+		 *
+		 * @return				the file count.
+		 */
+		public long getCount()
+		{
+			return count;
+		}
+
+		/**
+		 * Returns the total size of the files in bytes.
+		 *
+		 * @return				the total size.
+		 */
+		public long getBytes()
+		{
+			return bytes;
+		}
+
+		public String toString()
+		{
+			return count + " files, " + bytes + " bytes";
+		}
+	}
+
+
+	/*
+	 * Creates an empty instance keeping the given number of largest files.
+	 */
+	TreeStatistics( int largestLimit )
+	{
+		this.largestLimit = Math.max( largestLimit, 0 );
+	}
+
+	/**
+	 * <p>
+	 * Returns the total size of all files in bytes.
+	 * </p>
+	 *
+	 * @return					the total size.
+	 */
+	public long getTotalBytes()
+	{
+		return totalBytes;
+	}
+
+	/**
+	 * <p>
+	 * Returns the number of regular files.
+	 * </p>
+	 *
+	 * @return					the file count.
+	 */
+	public long getFileCount()
+	{
+		return fileCount;
+	}
+
+	/**
+	 * <p>
+	 * Returns the number of directories below the scanned directory.
+	 * </p>
+	 *
+	 * @return					the directory count.
+	 */
+	public long getDirectoryCount()
+	{
+		return directoryCount;
+	}
+
+	/**
+	 * <p>
+	 * Returns the number of entities that are neither regular files nor
+	 * directories, such as symbolic links (which are not followed).
+	 * </p>
+	 *
+	 * @return					the count of other entities.
+	 */
+	public long getOtherCount()
+	{
+		return otherCount;
+	}
+
+	/**
+	 * <p>
+	 * Returns the number of entities that could not be read (directories
+	 * that could not be listed, or entries whose attributes could not be
+	 * read).
+	 * </p>
+	 *
+	 * @return					the count of skipped entities.
+	 */
+	public long getSkippedCount()
+	{
+		return skippedCount;
+	}
+
+	/**
+	 * <p>
+	 * Returns the number of directories at the depth cutoff, whose content was
+	 * not scanned.
+	 * </p>
+	 *
+	 * @return					the count of unscanned directories.
+	 */
+	public long getTruncatedCount()
+	{
+		return truncatedCount;
+	}
+
+	/**
+	 * <p>
+	 * Returns the depth of the deepest entity found, where the scanned
+	 * directory's entries are at depth 1.
+	 * </p>
+	 *
+	 * @return					the maximum depth.
+	 */
+	public int getMaxDepth()
+	{
+		return depth;
+	}
+
+	/**
+	 * <p>
+	 * Returns the number of files per size histogram bucket.
+	 * </p>
+	 *
+	 * @return					the file counts, indexed by bucket.
+	 * @see						#bucketOf
+	 */
+	public long[] getSizeHistogram()
+	{
+		return bucketCounts.clone();
+	}
+
+	/**
+	 * <p>
+	 * Returns the total size of the files per size histogram bucket.
+	 * </p>
+	 *
+	 * @return					the total sizes, indexed by bucket.
+	 * @see						#bucketOf
+	 */
+	public long[] getSizeHistogramBytes()
+	{
+		return bucketBytes.clone();
+	}
+
+	/**
+	 * <p>
+	 * Returns the size histogram bucket of the given file size.
+	 * </p>
+	 *
+	 * @param  size				a file size.
+	 * @return					the bucket index.
+	 */
+	public static int bucketOf( long size )
+	{
+		return (size <= 0 ? 0 : 64 - Long.numberOfLeadingZeros( size ));
+	}
+
+	/**
+	 * <p>
+	 * Returns the smallest file size counted in the given bucket.
+	 * </p>
+	 *
+	 * @param  bucket			a bucket index.
+	 * @return					the bucket's lower bound in bytes.
+	 */
+	public static long bucketLowerBound( int bucket )
+	{
+		return (bucket <= 0 ? 0L : 1L << (bucket - 1));
+	}
+
+	/**
+	 * <p>
+	 * Returns the largest files, largest first, up to the number requested
+	 * from the scan.
+	 * </p>
+	 *
+	 * @return					the largest files.
+	 */
+	public List<SizedFile> getLargestFiles()
+	{
+		if( largest == null ) return Collections.emptyList();
+
+		List<SizedFile> list = new ArrayList<SizedFile>( largest );
+		list.sort( (a, b) -> Long.compare( b.size, a.size ) );
+		return list;
+	}
+
+	/**
+	 * <p>
+	 * Returns the file count and total size per file name extension.
+	 * Extensions are lower case and without the dot; files without one are
+	 * totaled under the empty string.
+	 * </p>
+	 *
+	 * @return					the totals, keyed by extension.
+	 */
+	public Map<String,Total> getExtensionTotals()
+	{
+		Map<String,Total> totals = new HashMap<String,Total>();
+		if( extensions != null )
+		{
+			for( Map.Entry<String,long[]> e : extensions.entrySet() )
+			{
+				totals.put( e.getKey(), new Total( e.getValue()[0], e.getValue()[1] ) );
+			}
+		}
+
+		return totals;
+	}
+
+	public String toString()
+	{
+		return "TreeStatistics[bytes=" + totalBytes + ", files=" + fileCount +
+				", directories=" + directoryCount + ", other=" + otherCount +
+				", skipped=" + skippedCount + ", truncated=" + truncatedCount +
+				", maxDepth=" + depth + "]";
+	}
+
+
+	/*
+	 * Adds an entry found at the given depth.
+	 */
+	void add( Path path, BasicFileAttributes attrs, int depth )
+	{
+		if( depth > this.depth ) this.depth = depth;
+
+		if( attrs.isDirectory() )
+		{
+			directoryCount++;
+		}
+		else if( attrs.isRegularFile() )
+		{
+			long size = attrs.size();
+			fileCount++;
+			totalBytes += size;
+
+			int bucket = bucketOf( size );
+			bucketCounts[bucket]++;
+			bucketBytes[bucket] += size;
+
+			addLargest( path, size );
+			addExtension( extensionOf( path ), 1, size );
+		}
+		else
+		{
+			otherCount++;
+		}
+	}
+
+	void skipped()
+	{
+		skippedCount++;
+	}
+
+	void truncated()
+	{
+		truncatedCount++;
+	}
+
+	/*
+	 * Adds the statistics of another part of the tree to this one.
+	 */
+	void merge( TreeStatistics other )
+	{
+		totalBytes += other.totalBytes;
+		fileCount += other.fileCount;
+		directoryCount += other.directoryCount;
+		otherCount += other.otherCount;
+		skippedCount += other.skippedCount;
+		truncatedCount += other.truncatedCount;
+		depth = Math.max( depth, other.depth );
+		for( int i = 0; i < BUCKETS; i++ )
+		{
+			bucketCounts[i] += other.bucketCounts[i];
+			bucketBytes[i] += other.bucketBytes[i];
+		}
+
+		if( other.largest != null )
+		{
+			for( SizedFile f : other.largest ) addLargest( f.path, f.size );
+		}
+		if( other.extensions != null )
+		{
+			for( Map.Entry<String,long[]> e : other.extensions.entrySet() )
+			{
+				addExtension( e.getKey(), e.getValue()[0], e.getValue()[1] );
+			}
+		}
+	}
+
+	private void addLargest( Path path, long size )
+	{
+		if( largestLimit == 0 ) return;
+		if( largest == null ) largest = new PriorityQueue<SizedFile>( largestLimit + 1, (a, b) -> Long.compare( a.size, b.size ) );
+
+		if( largest.size() < largestLimit )
+		{
+			largest.add( new SizedFile( path, size ) );
+		}
+		else if( size > largest.peek().size )
+		{
+			largest.poll();
+			largest.add( new SizedFile( path, size ) );
+		}
+	}
+
+	private void addExtension( String ext, long count, long bytes )
+	{
+		if( extensions == null ) extensions = new HashMap<String,long[]>();
+
+		long[] total = extensions.get( ext );
+		if( total == null )
+		{
+			total = new long[2];
+			extensions.put( ext, total );
+		}
+		total[0] += count;
+		total[1] += bytes;
+	}
+
+	/*
+	 * Returns the lower case extension of the file name, or "" if it has
+	 * none (a leading dot does not start an extension).
+	 */
+	private static String extensionOf( Path path )
+	{
+		String name = path.getFileName().toString();
+		int dot = name.lastIndexOf( '.' );
+
+		return (dot <= 0 || dot == name.length() - 1 ? "" : name.substring( dot + 1 ).toLowerCase( Locale.ROOT ));
+	}
+
+} // End of class: +com.vtis.io.TreeStatistics
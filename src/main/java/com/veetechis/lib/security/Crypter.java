@@ -1,7 +1,5 @@
 package com.veetechis.lib.security;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
 import java.security.KeyException;
@@ -15,6 +13,7 @@ import java.security.SecureRandom;
 import java.security.Signature;
 import java.security.spec.InvalidKeySpecException;
 import java.security.spec.KeySpec;
+import java.util.Arrays;
 import java.util.Base64;
 
 import javax.crypto.BadPaddingException;
@@ -28,6 +27,8 @@ import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.PBEKeySpec;
 import javax.crypto.spec.SecretKeySpec;
 
+import com.veetechis.lib.io.BufferPool;
+
 
 /**
  * <p>
@@ -43,6 +44,11 @@ public class Crypter
 	 */
 	public static final String DEFAULT_KEY_DERIVATION_ALGORITHM = "PBKDF2WithHmacSHA256";
 
+	/*
+	 * Input size above which data is ciphered in chunks of this size.
+	 */
+	private static final int CHUNK_SIZE = 64 * 1024;
+
 	/**
 	 * Crypto cipher strengths.
 	 */
@@ -286,7 +292,9 @@ public class Crypter
 	/**
 	 * Returns the given input data in de/encrypted form, depending on the
 	 * specified mode, using the specified cipher strength, secret key, and
-	 * initialization vector.
+	 * initialization vector.  Large input is processed in chunks into a
+	 * pooled output buffer, so that only the result is allocated; the buffer
+	 * is wiped before it is returned to the pool.
 	 * 
 	 * @param mode  the cipher handling mode.
 	 * @param strength  the encryption strength.
@@ -306,25 +314,22 @@ public class Crypter
 			Cipher cipher = Cipher.getInstance( strength.algorithm() );
 			cipher.init( mode, key, iv );
 
-			if (input.length > 1024) {
-				ByteArrayInputStream in = new ByteArrayInputStream( input );
-				ByteArrayOutputStream out = new ByteArrayOutputStream();
-				byte[] buffer = new byte[1024];
-				int byteCnt;
-				while ((byteCnt = in.read(buffer)) != -1) {
-					output = cipher.update( buffer, 0, byteCnt );
-					if (output != null) {
-						out.write( output );
+			if (input.length > CHUNK_SIZE) {
+				BufferPool pool = BufferPool.getShared();
+				byte[] buffer = pool.acquire( cipher.getOutputSize(input.length) );
+				try {
+					int outCnt = 0;
+					for (int off = 0; off < input.length; off += CHUNK_SIZE) {
+						int byteCnt = Math.min( CHUNK_SIZE, input.length - off );
+						outCnt += cipher.update( input, off, byteCnt, buffer, outCnt );
 					}
+					outCnt += cipher.doFinal( buffer, outCnt );
+					output = Arrays.copyOf( buffer, outCnt );
 				}
-				output = cipher.doFinal();
-				if (output != null) {
-					out.write( output );
+				finally {
+					Arrays.fill( buffer, (byte) 0 );
+					pool.release( buffer );
 				}
-				out.flush();
-				out.close();
-				in.close();
-				output = out.toByteArray();
 			}
 			else {
 				output = cipher.doFinal( input );
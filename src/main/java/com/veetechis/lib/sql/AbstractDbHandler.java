@@ -1,6 +1,5 @@
 package com.veetechis.lib.sql;
 
-import java.io.ByteArrayOutputStream;
 import java.io.ObjectOutputStream;
 import java.io.IOException;
 import java.sql.Connection;
@@ -14,6 +13,8 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import com.veetechis.lib.io.BufferPool;
+
 
 /**
  * <p>
@@ -515,15 +516,12 @@ public abstract class AbstractDbHandler
 					ps.setByte( idx + 1, ((Byte) o).byteValue() );
 					break;
 				case Types.BINARY:
-					try
+					try( BufferPool.PooledOutputStream baos = new BufferPool.PooledOutputStream() )
 					{
-						ByteArrayOutputStream baos = new ByteArrayOutputStream();
 						ObjectOutputStream oos = new ObjectOutputStream( baos );
 						oos.writeObject( o );
 						oos.flush();
 						ps.setBytes( idx + 1, baos.toByteArray() );
-						oos.close();
-						baos.close();
 					}
 					catch( IOException e )
 					{
@@ -0,0 +1,566 @@
+package com.veetechis.lib.xml;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * A memory-efficient variant of <code>DynamicXMLValueBean</code> for large
+ * documents.  Instead of one object per element, each with its own map,
+ * list, and buffer, the whole document is held in a few shared arrays:
+ * <ul>
+ * <li>element and attribute names are interned in one name table and
+ * referenced by number;</li>
+ * <li>elements are numbered in document order, and each keeps only its
+ * name, the end of its subtree, its first attribute, and its text, so that
+ * its children are found by skipping from subtree to subtree;</li>
+ * <li>attributes are held in parallel arrays of names and values;</li>
+ * <li>element text and attribute values are offsets into one shared
+ * character buffer.</li>
+ * </ul>
+ * An element therefore costs five integers plus its text, and the arrays are
+ * trimmed to size when the document is complete.
+ *
+ * The read API of <code>DynamicXMLValueBean</code> is kept: the instance
+ * given to the parser is the root element, and the elements returned by it
+ * are lightweight views created on request, which compare equal if they
+ * refer to the same element.  Maps, lists and strings returned by the views
+ * are created on each call, and changing them does not change the document.
+ * Lookups by name use an index of element numbers built on first use once
+ * the document is complete.
+ *
+ * <i>Usage note</i>: An instance holds one document; attributes must be set
+ * directly after their element is opened, as the parsers in this package
+ * do.
+ *
+ * @author      pendraconx@gmail.com
+ * @see			DynamicXMLValueBean
+ */
+public class CompactXMLValueBean
+extends DynamicXMLValueBean
+{
+	private final Arena arena;
+	private final int index;
+
+
+	/**
+	 * Creates a new empty instance, to be populated by a parser.
+	 */
+	public CompactXMLValueBean()
+	{
+		this( new Arena(), 0 );
+	}
+
+	/*
+	 * Creates a view of the given element.
+	 */
+	private CompactXMLValueBean( Arena arena, int index )
+	{
+		super();
+		this.arena = arena;
+		this.index = index;
+	}
+
+	/**
+	 * Returns the name of this element, or <code>null</code> if not defined.
+	 *
+	 * @return					the element name, or null.
+	 */
+	public String getElementName()
+	{
+		return (exists() ? arena.names[arena.nameId[index]] : null);
+	}
+
+	/**
+	 * Returns a new map of this element's attributes, or <code>null</code> if
+	 * no attributes are defined.
+	 *
+	 * @return					the attribute map, or null.
+	 */
+	public Map getAttributes()
+	{
+		int n = (exists() ? arena.attributeCount( index ) : 0);
+		if( n == 0 ) return null;
+
+		HashMap<String,String> map = new HashMap<String,String>( n * 4 / 3 + 1 );
+		for( int a = arena.attrStart[index]; a < arena.attrStart[index] + n; a++ ) {
+			map.put( arena.names[arena.attrName[a]],
+				arena.string( arena.attrValueStart[a], arena.attrValueLength[a] ) );
+		}
+		return map;
+	}
+
+	/**
+	 * Returns the data contained by this element, or <code>null</code> if the
+	 * element has no data.
+	 *
+	 * @return					the element data, or null.
+	 */
+	public String getData()
+	{
+		return (hasData() ?
+			arena.string( arena.textStart[index], arena.textLength[index] ) : null);
+	}
+
+	/**
+	 * Returns a new list of views of the child elements of this element, or
+	 * <code>null</code> if the element has no child elements.
+	 */
+	public List getChildElements()
+	{
+		if( ! hasChildren() ) return null;
+
+		List<CompactXMLValueBean> children = new ArrayList<CompactXMLValueBean>();
+		int end = arena.subtreeEnd( index );
+		for( int c = index + 1; c < end; c = arena.subtreeEnd( c ) ) {
+			children.add( new CompactXMLValueBean( arena, c ) );
+		}
+		return children;
+	}
+
+	/**
+	 * Returns <code>true</code> if this element is an empty element (does not
+	 * have data nor child elements).
+	 *
+	 * @return					true if this is an empty element.
+	 */
+	public boolean isEmpty()
+	{
+		return ! hasData() && ! hasChildren();
+	}
+
+	/**
+	 * Returns <code>true</code> if this element has been closed.
+	 *
+	 * @return					true if endElement has been called.
+	 */
+	public boolean isComplete()
+	{
+		return exists() && arena.end[index] >= 0;
+	}
+
+	/**
+	 * Returns <code>true</code> if this element is a data element.
+	 *
+	 * @return					true if this element has data.
+	 */
+	public boolean hasData()
+	{
+		return exists() && arena.textLength[index] > 0;
+	}
+
+	/**
+	 * Returns <code>true</code> if this element has defined attributes.
+	 *
+	 * @return					true if this element has attributes.
+	 */
+	public boolean hasAttributes()
+	{
+		return exists() && arena.attributeCount( index ) > 0;
+	}
+
+	/**
+	 * Returns <code>true</code> if this element contains child elements and
+	 * no data.
+	 *
+	 * @return					true if this is a parent element.
+	 */
+	public boolean isParent()
+	{
+		return hasChildren() && ! hasData();
+	}
+
+	/**
+	 * Indicates that the named element has been opened.
+	 *
+	 * @param  elementName		the element just opened.
+	 * @throws					java.lang.IllegalStateException
+	 *							if the document is already complete.
+	 */
+	public void startElement( String elementName )
+	{
+		arena.start( elementName );
+	}
+
+	/**
+	 * Sets the given attribute on the element just opened.
+	 *
+	 * @param  element			the element to which the attribute belongs.
+	 * @param  attrib			the attribute's name.
+	 * @param  value			the value of the attribute.
+	 * @throws					java.lang.IllegalStateException
+	 *							if the innermost open element already has
+	 *							child elements.
+	 */
+	public void setElementAttribute(
+		String element, String attrib, String value )
+	{
+		arena.attribute( attrib, value );
+	}
+
+	/**
+	 * Appends the given value to the data of the innermost open element.
+	 *
+	 * @param  element			the element for which the value is given.
+	 * @param  value			the value of the element.
+	 */
+	public void setElementData( String element, String value )
+	{
+		arena.text( value );
+	}
+
+	/**
+	 * Appends the given value to the data of the innermost open element.
+	 *
+	 * @param  element			the element for which the value is given.
+	 * @param  value			the value of the element.
+	 */
+	public void setElementCharData( String element, CharSequence value )
+	{
+		arena.text( value );
+	}
+
+	/**
+	 * Indicates that the innermost open element has been closed.
+	 *
+	 * @param  elementName		the element just closed.
+	 */
+	public void endElement( String elementName )
+	{
+		arena.end();
+	}
+
+	/**
+	 * Returns <code>true</code> if the given object is a view of the same
+	 * element of the same document.
+	 *
+	 * @param  obj				the object to compare.
+	 * @return					true if it refers to the same element.
+	 */
+	public boolean equals( Object obj )
+	{
+		if( ! (obj instanceof CompactXMLValueBean) ) return false;
+
+		CompactXMLValueBean other = (CompactXMLValueBean) obj;
+		return other.arena == arena && other.index == index;
+	}
+
+	public int hashCode()
+	{
+		return System.identityHashCode( arena ) * 31 + index;
+	}
+
+
+	/*
+	 * Returns views of the elements of the given name in this element's
+	 * subtree, in document order, from the name index once the document is
+	 * complete, or by scanning the subtree until then.
+	 */
+	List<CompactXMLValueBean> elementsNamed( String name )
+	{
+		Integer id = (exists() ? arena.nameIds.get( name ) : null);
+		if( id == null ) return Collections.<CompactXMLValueBean>emptyList();
+
+		int end = arena.subtreeEnd( index );
+		int[][] nameIndex = arena.index();
+		if( nameIndex != null ) {
+			int[] elements = nameIndex[id.intValue()];
+			return new ViewList( elements, lowerBound( elements, index ), lowerBound( elements, end ) );
+		}
+
+		int[] elements = new int[16];
+		int n = 0;
+		for( int i = index; i < end; i++ ) {
+			if( arena.nameId[i] != id.intValue() ) continue;
+			if( n == elements.length ) elements = Arrays.copyOf( elements, n * 2 );
+			elements[n++] = i;
+		}
+		return new ViewList( elements, 0, n );
+	}
+
+	/*
+	 * Returns the value of the given attribute of this element, or null,
+	 * without building the attribute map.
+	 */
+	String attributeValue( String attrib )
+	{
+		Integer id = (exists() ? arena.nameIds.get( attrib ) : null);
+		if( id == null ) return null;
+
+		int start = arena.attrStart[index];
+		for( int a = start; a < start + arena.attributeCount( index ); a++ ) {
+			if( arena.attrName[a] == id.intValue() ) {
+				return arena.string( arena.attrValueStart[a], arena.attrValueLength[a] );
+			}
+		}
+		return null;
+	}
+
+	/*
+	 * Returns views of this element and all elements below it, in document
+	 * order.
+	 */
+	List<CompactXMLValueBean> preorder()
+	{
+		if( ! exists() ) return Collections.<CompactXMLValueBean>singletonList( this );
+
+		int end = arena.subtreeEnd( index );
+		int[] elements = new int[end - index];
+		for( int i = 0; i < elements.length; i++ ) elements[i] = index + i;
+		return new ViewList( elements, 0, elements.length );
+	}
+
+	private boolean exists()
+	{
+		return index < arena.count;
+	}
+
+	private boolean hasChildren()
+	{
+		return exists() && arena.subtreeEnd( index ) > index + 1;
+	}
+
+	/*
+	 * Returns the position of the first element number at or above the
+	 * given one.
+	 */
+	private static int lowerBound( int[] elements, int value )
+	{
+		int i = Arrays.binarySearch( elements, value );
+		return (i < 0 ? -i - 1 : i);
+	}
+
+
+	/*
+	 * A read-only list of views of a range of element numbers.
+	 */
+	private final class ViewList
+	extends AbstractList<CompactXMLValueBean>
+	{
+		private final int[] elements;
+		private final int from;
+		private final int to;
+
+		ViewList( int[] elements, int from, int to )
+		{
+			this.elements = elements;
+			this.from = from;
+			this.to = to;
+		}
+
+		public CompactXMLValueBean get( int i )
+		{
+			if( i < 0 || i >= to - from ) {
+				throw new IndexOutOfBoundsException( "Index: " + i );
+			}
+			return new CompactXMLValueBean( arena, elements[from + i] );
+		}
+
+		public int size()
+		{
+			return to - from;
+		}
+	}
+
+	/*
+	 * The shared storage of one document.
+	 */
+	private static final class Arena
+	{
+		// Name table
+		String[] names = new String[16];
+		HashMap<String,Integer> nameIds = new HashMap<String,Integer>();
+		int nameCount;
+
+		// Elements, in document order
+		int count;
+		int[] nameId = new int[64];
+		int[] end = new int[64];			// subtree end, or -1 while open
+		int[] attrStart = new int[64];
+		int[] textStart = new int[64];
+		int[] textLength = new int[64];
+
+		// Attributes, in element order
+		int attrCount;
+		int[] attrName = new int[16];
+		int[] attrValueStart = new int[16];
+		int[] attrValueLength = new int[16];
+
+		// Text and attribute values
+		char[] chars = new char[1024];
+		int charCount;
+
+		// Open elements while parsing, with their pending text
+		int[] open = new int[16];
+		StringBuilder[] pending = new StringBuilder[16];
+		int depth;
+
+		volatile int[][] nameIndex;
+
+		void start( String name )
+		{
+			if( count > 0 && depth == 0 ) {
+				throw new IllegalStateException( "Document already complete" );
+			}
+			if( count == nameId.length ) {
+				int size = count * 2;
+				nameId = Arrays.copyOf( nameId, size );
+				end = Arrays.copyOf( end, size );
+				attrStart = Arrays.copyOf( attrStart, size );
+				textStart = Arrays.copyOf( textStart, size );
+				textLength = Arrays.copyOf( textLength, size );
+			}
+			if( depth == open.length ) {
+				open = Arrays.copyOf( open, depth * 2 );
+				pending = Arrays.copyOf( pending, depth * 2 );
+			}
+
+			nameId[count] = intern( name );
+			end[count] = -1;
+			attrStart[count] = attrCount;
+			open[depth++] = count++;
+		}
+
+		void attribute( String name, String value )
+		{
+			if( depth == 0 || open[depth - 1] != count - 1 ) {
+				throw new IllegalStateException( "Attribute not set directly after its element: " + name );
+			}
+			if( attrCount == attrName.length ) {
+				int size = attrCount * 2;
+				attrName = Arrays.copyOf( attrName, size );
+				attrValueStart = Arrays.copyOf( attrValueStart, size );
+				attrValueLength = Arrays.copyOf( attrValueLength, size );
+			}
+
+			attrName[attrCount] = intern( name );
+			attrValueStart[attrCount] = charCount;
+			attrValueLength[attrCount] = value.length();
+			append( value );
+			attrCount++;
+		}
+
+		void text( CharSequence value )
+		{
+			if( depth == 0 || value.length() == 0 ) return;
+
+			StringBuilder text = pending[depth - 1];
+			if( text == null ) {
+				text = new StringBuilder();
+				pending[depth - 1] = text;
+			}
+			text.append( value );
+		}
+
+		void end()
+		{
+			if( depth == 0 ) return;
+
+			int i = open[--depth];
+			StringBuilder text = pending[depth];
+			if( text != null && text.length() > 0 ) {
+				textStart[i] = charCount;
+				textLength[i] = text.length();
+				append( text );
+				text.setLength( 0 );
+			}
+			end[i] = count;
+
+			if( depth == 0 ) trim();
+		}
+
+		int subtreeEnd( int i )
+		{
+			return (end[i] >= 0 ? end[i] : count);
+		}
+
+		int attributeCount( int i )
+		{
+			return (i + 1 < count ? attrStart[i + 1] : attrCount) - attrStart[i];
+		}
+
+		String string( int start, int length )
+		{
+			return new String( chars, start, length );
+		}
+
+		/*
+		 * Returns the element numbers per name number, built on first use,
+		 * or null while the document is incomplete.
+		 */
+		int[][] index()
+		{
+			int[][] result = nameIndex;
+			if( result != null || count == 0 || end[0] < 0 ) return result;
+
+			int[] sizes = new int[nameCount];
+			for( int i = 0; i < count; i++ ) sizes[nameId[i]]++;
+
+			result = new int[nameCount][];
+			for( int n = 0; n < nameCount; n++ ) result[n] = new int[sizes[n]];
+			Arrays.fill( sizes, 0 );
+			for( int i = 0; i < count; i++ ) {
+				int n = nameId[i];
+				result[n][sizes[n]++] = i;
+			}
+
+			nameIndex = result;
+			return result;
+		}
+
+		private int intern( String name )
+		{
+			Integer id = nameIds.get( name );
+			if( id == null ) {
+				if( nameCount == names.length ) names = Arrays.copyOf( names, nameCount * 2 );
+				id = Integer.valueOf( nameCount );
+				names[nameCount++] = name;
+				nameIds.put( name, id );
+			}
+			return id.intValue();
+		}
+
+		private void append( CharSequence value )
+		{
+			int length = value.length();
+			if( charCount + length > chars.length ) {
+				chars = Arrays.copyOf( chars, Math.max( chars.length * 2, charCount + length ) );
+			}
+			if( value instanceof String ) {
+				((String) value).getChars( 0, length, chars, charCount );
+			}
+			else if( value instanceof StringBuilder ) {
+				((StringBuilder) value).getChars( 0, length, chars, charCount );
+			}
+			else {
+				for( int i = 0; i < length; i++ ) chars[charCount + i] = value.charAt( i );
+			}
+			charCount += length;
+		}
+
+		/*
+		 * Trims the arrays to size once the document is complete.
+		 */
+		private void trim()
+		{
+			names = Arrays.copyOf( names, nameCount );
+			nameId = Arrays.copyOf( nameId, count );
+			end = Arrays.copyOf( end, count );
+			attrStart = Arrays.copyOf( attrStart, count );
+			textStart = Arrays.copyOf( textStart, count );
+			textLength = Arrays.copyOf( textLength, count );
+			attrName = Arrays.copyOf( attrName, attrCount );
+			attrValueStart = Arrays.copyOf( attrValueStart, attrCount );
+			attrValueLength = Arrays.copyOf( attrValueLength, attrCount );
+			chars = Arrays.copyOf( chars, charCount );
+			open = new int[0];
+			pending = new StringBuilder[0];
+		}
+	}
+
+} // end of CompactXMLValueBean
@@ -1,10 +1,13 @@
 package com.veetechis.lib.xml;
 
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.Iterator;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 
 /**
@@ -13,11 +16,15 @@ import java.util.Map;
  * internal linked-list-map data structure.  This implementation performs no
  * data validation and should be sub-classed and the <code>validate</code>
  * method overridden for cases where data validation is required.
+ * 
+ * Parsing events are sent to the root element, which keeps a stack of the
+ * open elements and applies each event directly to the innermost one, so
+ * that the cost of an event does not depend on the depth of the document.
  *
  * @author      pendraconx@gmail.com
  */
 public class DynamicXMLValueBean
-implements XMLValueBean
+implements XMLCharDataBean
 {
 	
 	/**
@@ -124,29 +131,20 @@ implements XMLValueBean
 	}
 	
 	/**
-	 * Locates the first occurrence of the requested element and returns its
-	 * storage node.  Returns <code>null</code> if the element is not found.
+	 * Locates the first occurrence of the requested element, in document
+	 * order starting with this element, and returns its storage node.
+	 * Returns <code>null</code> if the element is not found.
+	 * 
+	 * Once the element is complete, lookups go through an index of its
+	 * elements by name, built on the first lookup.
 	 * 
 	 * @param  elementName		the element to find.
 	 * @return					the storage node or null.
 	 */
 	public DynamicXMLValueBean findElement( String elementName )
 	{
-		DynamicXMLValueBean node = null;
-
-		if( elementName.equals( getElementName() ) ) {
-			node = this;
-		}
-		else if( isParent() ) {
-			DynamicXMLValueBean child = null;
-			for( int i = 0; i < elementList.size(); i++ ) {
-				child = (DynamicXMLValueBean) elementList.get( i );
-				node = child.findElement( elementName );
-				if( node != null ) break;
-			}
-		}
-		
-		return node;
+		List<? extends DynamicXMLValueBean> nodes = elementsNamed( elementName );
+		return (nodes.isEmpty() ? null : nodes.get( 0 ));
 	}
 	
 	/**
@@ -171,54 +169,126 @@ implements XMLValueBean
 	}
 
 	/**
-	 * Returns a list of all storage nodes matching the requested element.
-	 * Returns an empty list if no matching elements are found.
+	 * Returns a list of all storage nodes matching the requested element, in
+	 * document order starting with this element, at any depth.  Returns an
+	 * empty list if no matching elements are found.
 	 * 
 	 * @param  elementName		the elements to find.
 	 * @return					the storage list or empty list.
+	 * @see						#findElement
 	 */
 	public List findMatchingElements( String elementName )
 	{
-		ArrayList nodeList = new ArrayList();
+		return new ArrayList<DynamicXMLValueBean>( elementsNamed( elementName ) );
+	}
+	
+	/**
+	 * Returns the storage nodes selected by the given path expression.  The
+	 * expression is a small subset of XPath: steps separated by
+	 * <code>/</code>, each an element name or <code>*</code>, where a step
+	 * after <code>//</code> matches at any depth below the elements selected
+	 * so far.  A step may be followed by predicates <code>[@attr]</code>,
+	 * <code>[@attr='value']</code>, or <code>[n]</code> (the n<sup>th</sup>
+	 * match, from 1, below each selected element).
+	 * 
+	 * This element is the context: a relative path such as
+	 * <code>b/c</code> starts at its children, a path starting with
+	 * <code>/</code> such as <code>/a/b</code> must name this element first,
+	 * and a path starting with <code>//</code> such as
+	 * <code>//b[@id='x']</code> matches anywhere, this element included.
+	 * Named steps at any depth use the element index.
+	 * 
+	 * Throws an exception if the expression is malformed.
+	 * 
+	 * @param  path				the path expression.
+	 * @return					the storage list or empty list.
+	 * @throws					java.lang.IllegalArgumentException
+	 *							if the expression is malformed.
+	 */
+	public List<DynamicXMLValueBean> selectElements( String path )
+	{
+		List<PathStep> steps = PathStep.parse( path );
+		List<DynamicXMLValueBean> nodes = new ArrayList<DynamicXMLValueBean>();
+		nodes.add( this );
+		boolean self = path.startsWith( "/" );		// first step tests this element
 		
-		if( elementName.equals( getElementName() ) ) {
-			nodeList.add( this );
-		}
-		else if( isParent() ) {
-			DynamicXMLValueBean child = null;
-			for( int i = 0; i < elementList.size(); i++ ) {
-				child = (DynamicXMLValueBean) elementList.get( i );
-				if( elementName.equals( child.getElementName() ) ) {
-					nodeList.addAll(
-							child.findMatchingElements( elementName ) );
+		for( int i = 0; i < steps.size() && ! nodes.isEmpty(); i++ ) {
+			PathStep step = steps.get( i );
+			List<DynamicXMLValueBean> matches = new ArrayList<DynamicXMLValueBean>();
+			Set<DynamicXMLValueBean> seen = new HashSet<DynamicXMLValueBean>();
+			
+			for( int n = 0; n < nodes.size(); n++ ) {
+				DynamicXMLValueBean node = nodes.get( n );
+				List<? extends DynamicXMLValueBean> candidates;
+				if( step.descendant ) {
+					candidates = node.descendantsNamed( step.name, self );
+				}
+				else if( self ) {
+					candidates = Collections.singletonList( node );
+				}
+				else {
+					candidates = node.childrenNamed( step.name );
+				}
+				
+				int position = 0;
+				for( int c = 0; c < candidates.size(); c++ ) {
+					DynamicXMLValueBean candidate = candidates.get( c );
+					if( ! step.matches( candidate ) ) continue;
+					if( step.position > 0 && ++position != step.position ) continue;
+					if( seen.add( candidate ) ) matches.add( candidate );
 				}
 			}
+			nodes = matches;
+			self = false;
 		}
 		
-		return nodeList;
+		return nodes;
+	}
+	
+	/**
+	 * Returns the first storage node selected by the given path expression,
+	 * or <code>null</code> if none is selected.
+	 * 
+	 * @param  path				the path expression.
+	 * @return					the storage node or null.
+	 * @throws					java.lang.IllegalArgumentException
+	 *							if the expression is malformed.
+	 * @see						#selectElements
+	 */
+	public DynamicXMLValueBean selectElement( String path )
+	{
+		List<DynamicXMLValueBean> nodes = selectElements( path );
+		return (nodes.isEmpty() ? null : nodes.get( 0 ));
 	}
 	
 	/**
-	 * Indicates that the named element has been opened.
+	 * Indicates that the named element has been opened.  The element becomes
+	 * a child of the innermost open element, or this element if it is the
+	 * first one opened.
 	 * 
 	 * @param  elementName		the element just opened.
 	 */
 	public void startElement( String elementName )
 	{
+		DynamicXMLValueBean node = this;
+		
+		elementIndex = null;
 		if( getElementName() == null ) {
 			this.elementName = elementName;
 		}
 		else {
-			if( nextElement == null || nextElement.isComplete() ) {
-				nextElement = new DynamicXMLValueBean();
-				addChildElement( nextElement );
-			}
-			nextElement.startElement( elementName );
+			node = new DynamicXMLValueBean();
+			node.elementName = elementName;
+			currentElement().addChildElement( node );
 		}
+		
+		if( openElements == null ) openElements = new ArrayList<DynamicXMLValueBean>();
+		openElements.add( node );
 	}
 
 	/**
-	 * Sets the given element attribute in internal storage.
+	 * Sets the given element attribute in internal storage.  The attribute is
+	 * set on the innermost open element.
 	 * 
 	 * @param  element			the element to which the attribute belongs.
 	 * @param  attrib			the attribute's name.
@@ -227,45 +297,51 @@ implements XMLValueBean
 	public void setElementAttribute(
 		String element, String attrib, String value )
 	{
-		if( element.equals( getElementName() ) ) {
-			addAttribute( attrib, value );
-		}
-		else {
-			nextElement.setElementAttribute( element, attrib, value );
-		}
+		currentElement().addAttribute( attrib, value );
 	}
 	
 	/**
-	 * Sets the given element value in internal storage.
+	 * Sets the given element value in internal storage.  The value is
+	 * appended to the data of the innermost open element.
 	 * 
 	 * @param  element			the element for which the value is given.
 	 * @param  value			the value of the element.
 	 */
 	public void setElementData( String element, String value )
 	{
-		if( element.equals( getElementName() ) ) {
-			if( dataBuffer == null ) dataBuffer = new StringBuffer();
-			dataBuffer.append( value );
-		}
-		else {
-			nextElement.setElementData( element, value );
-		}
+		currentElement().appendData( value );
+	}
+	
+	/**
+	 * Sets the given element value in internal storage, appending it to the
+	 * data of the innermost open element without creating an intermediate
+	 * string.
+	 * 
+	 * @param  element			the element for which the value is given.
+	 * @param  value			the value of the element.
+	 */
+	public void setElementCharData( String element, CharSequence value )
+	{
+		currentElement().appendData( value );
 	}
 	
 	/**
-	 * Indicates that the named element has been closed.
+	 * Indicates that the named element has been closed, which is the
+	 * innermost open element.
 	 * 
 	 * @param  elementName		the element just closed.
 	 */
 	public void endElement( String elementName )
 	{
-		if( elementName.equals( getElementName() ) ) {
-			if( dataBuffer != null ) setData( dataBuffer.toString() );
-			isComplete = true;
-		}
-		else {
-			nextElement.endElement( elementName );
+		DynamicXMLValueBean node = this;
+		
+		if( openElements != null && ! openElements.isEmpty() ) {
+			node = (DynamicXMLValueBean) openElements.remove( openElements.size() - 1 );
+			if( openElements.isEmpty() ) openElements = null;
 		}
+		if( node.dataBuffer != null ) node.setData( node.dataBuffer.toString() );
+		node.dataBuffer = null;
+		node.isComplete = true;
 	}
 
 	/**
@@ -299,63 +375,161 @@ implements XMLValueBean
 	/**
 	 * Returns this XML bean in its XML document form including all attributes
 	 * and child elements, if any.  This method assumes this element is a child
-	 * element beginning at <code>level</code> sub-elements deep.
+	 * element beginning at <code>level</code> sub-elements deep.  Text and
+	 * attribute values are escaped.
 	 * 
 	 * @param  level			the sub-level of this element.
 	 * @return					this XML element as a string.
+	 * @see						XMLValueBeanWriter
 	 */
 	public String toString( int level )
 	{
-		String indent = getIndentPadding( level );
-		
-		StringBuffer doc = new StringBuffer( indent ).
-			append( "<" ).append( getElementName() );
-		if( hasAttributes() ) {
-			Iterator it = getAttributes().keySet().iterator();
-			String attrib = null;
-			String value = null;
-			while( it.hasNext() ) {
-				attrib = (String) it.next();
-				value = (String) getAttributes().get( attrib );
-				doc.append( " " ).append( attrib ).
-					append( "='" ).append( value ).append( "'" );
-			}
+		StringBuilder doc = new StringBuilder();
+		try {
+			new XMLValueBeanWriter( doc ).write( this, level );
+		}
+		catch( IOException e ) {
+			throw new IllegalStateException( e );	// not thrown by StringBuilder
 		}
-		if( isEmpty() ) {
-			doc.append( "/>" );
+		return doc.toString();
+	}
+	
+	
+	/*
+	 * Returns the innermost open element, in constant time: open elements
+	 * are kept on a stack in the element events are sent to.
+	 */
+	private DynamicXMLValueBean currentElement()
+	{
+		if( openElements == null || openElements.isEmpty() ) return this;
+		return openElements.get( openElements.size() - 1 );
+	}
+	
+	/*
+	 * Returns the elements of the given name in this element's subtree, this
+	 * element included, in document order.  The list is taken from the index,
+	 * built on first use once the element is complete; until then the
+	 * subtree is walked.  The list must not be modified.
+	 */
+	List<? extends DynamicXMLValueBean> elementsNamed( String name )
+	{
+		HashMap<String,List<DynamicXMLValueBean>> index = elementIndex;
+		if( index == null ) {
+			index = buildIndex();
+			if( isComplete() ) elementIndex = index;
+		}
+		
+		List<DynamicXMLValueBean> nodes = index.get( name );
+		return (nodes == null ? Collections.<DynamicXMLValueBean>emptyList() : nodes);
+	}
+	
+	/*
+	 * Returns the value of the given attribute of this element, or null.
+	 */
+	String attributeValue( String attrib )
+	{
+		return (attributeMap == null ? null : (String) attributeMap.get( attrib ));
+	}
+	
+	/*
+	 * Returns the elements of the given name, or all elements for "*", below
+	 * this element, and this element too if requested, in document order.
+	 */
+	private List<? extends DynamicXMLValueBean> descendantsNamed( String name, boolean self )
+	{
+		List<? extends DynamicXMLValueBean> nodes;
+		if( name.equals( "*" ) ) {
+			nodes = preorder();
 		}
 		else {
-			doc.append( ">" );
-			if( isParent() ) {
-				List children = getChildElements();
-				DynamicXMLValueBean child = null;
-				for( int i = 0; i < children.size(); i++ ) {
-					child = (DynamicXMLValueBean) children.get( i );
-					doc.append( LINE_SEP ).append( child.toString( level + 1 ) );
+			nodes = elementsNamed( name );
+		}
+		
+		if( ! self && ! nodes.isEmpty() && nodes.get( 0 ).equals( this ) ) {
+			nodes = nodes.subList( 1, nodes.size() );
+		}
+		return nodes;
+	}
+	
+	/*
+	 * Returns the child elements of the given name, or all for "*".
+	 */
+	private List<DynamicXMLValueBean> childrenNamed( String name )
+	{
+		List<DynamicXMLValueBean> children = children();
+		if( children == null ) return Collections.<DynamicXMLValueBean>emptyList();
+		if( name.equals( "*" ) ) return children;
+		
+		List<DynamicXMLValueBean> nodes = new ArrayList<DynamicXMLValueBean>();
+		for( int i = 0; i < children.size(); i++ ) {
+			DynamicXMLValueBean child = children.get( i );
+			if( name.equals( child.getElementName() ) ) nodes.add( child );
+		}
+		return nodes;
+	}
+	
+	/*
+	 * Returns this element and all elements below it in document order,
+	 * walking the tree with an explicit stack.
+	 */
+	List<? extends DynamicXMLValueBean> preorder()
+	{
+		List<DynamicXMLValueBean> nodes = new ArrayList<DynamicXMLValueBean>();
+		ArrayList<DynamicXMLValueBean> stack = new ArrayList<DynamicXMLValueBean>();
+		stack.add( this );
+		
+		while( ! stack.isEmpty() ) {
+			DynamicXMLValueBean node = stack.remove( stack.size() - 1 );
+			nodes.add( node );
+			List<DynamicXMLValueBean> children = node.children();
+			if( children != null ) {
+				for( int i = children.size() - 1; i >= 0; i-- ) {
+					stack.add( children.get( i ) );
 				}
-				doc.append( LINE_SEP ).append( indent );
 			}
-			else {
-				doc.append( getData() );
-			}
-			doc.append( "</" ).append( getElementName() ).append( ">" );
 		}
+		return nodes;
+	}
+	
+	/*
+	 * Builds the index of this element's subtree: element name to the list
+	 * of elements of that name, in document order.
+	 */
+	private HashMap<String,List<DynamicXMLValueBean>> buildIndex()
+	{
+		HashMap<String,List<DynamicXMLValueBean>> index = new HashMap<String,List<DynamicXMLValueBean>>();
+		List<? extends DynamicXMLValueBean> nodes = preorder();
 		
-		return doc.toString();
+		for( int i = 0; i < nodes.size(); i++ ) {
+			DynamicXMLValueBean node = nodes.get( i );
+			if( node.getElementName() == null ) continue;
+			List<DynamicXMLValueBean> named = index.get( node.getElementName() );
+			if( named == null ) {
+				named = new ArrayList<DynamicXMLValueBean>( 1 );
+				index.put( node.getElementName(), named );
+			}
+			named.add( node );
+		}
+		return index;
 	}
 	
+	/*
+	 * Returns the child elements, or null.  Overriding classes keep the
+	 * element type of the legacy raw list.
+	 */
+	@SuppressWarnings( "unchecked" )
+	private List<DynamicXMLValueBean> children()
+	{
+		return getChildElements();
+	}
 	
 	/*
-	 * Returns an indent string for the specified indent level.  Returns an
-	 * empty string if the indent level is zero (0).
+	 * Appends to the data buffer of this element.
 	 */
-	private String getIndentPadding( int level )
+	private void appendData( CharSequence value )
 	{
-		StringBuffer pad = new StringBuffer( "" );
-		for( int i = 0; i < level; i++ ) {
-			pad.append( INDENT );
-		}
-		return pad.toString();
+		if( dataBuffer == null ) dataBuffer = new StringBuilder( value.length() );
+		dataBuffer.append( value );
 	}
 	
 	/*
@@ -397,16 +571,115 @@ implements XMLValueBean
 	private String elementName;
 	private ArrayList elementList;
 	private String elementData;
-	private StringBuffer dataBuffer;
+	private StringBuilder dataBuffer;
 	private HashMap attributeMap;
-	private DynamicXMLValueBean nextElement;
+	private ArrayList<DynamicXMLValueBean> openElements;	// stack of open elements, root only
+	private volatile HashMap<String,List<DynamicXMLValueBean>> elementIndex;	// name to elements, once complete
 	private boolean isEmpty = true;
 	private boolean hasAttributes;
 	private boolean hasData;
 	private boolean isParent;
 	private boolean isComplete;
 	
-	private final static String LINE_SEP = System.getProperty("line.separator");
-	private final static String INDENT = "\t";
+	
+	/*
+	 * One step of a path expression: an element name or "*", whether it
+	 * matches at any depth, and its predicates.
+	 */
+	private static final class PathStep
+	{
+		boolean descendant;
+		String name;
+		String attribute;
+		String value;			// null to test presence only
+		int position;			// 0 for any
+		
+		/*
+		 * Parses a path expression into its steps.
+		 */
+		static List<PathStep> parse( String path )
+		{
+			List<PathStep> steps = new ArrayList<PathStep>();
+			int i = 0;
+			int length = path.length();
+			
+			if( path.startsWith( "/" ) ) i = 1;
+			while( i <= length ) {
+				PathStep step = new PathStep();
+				if( i < length && path.charAt( i ) == '/' ) {
+					step.descendant = true;
+					i++;
+				}
+				
+				int start = i;
+				while( i < length && path.charAt( i ) != '/' && path.charAt( i ) != '[' ) i++;
+				step.name = path.substring( start, i ).trim();
+				if( step.name.length() == 0 ) {
+					throw new IllegalArgumentException( "Missing element name at " + start + ": " + path );
+				}
+				
+				while( i < length && path.charAt( i ) == '[' ) {
+					int close = path.indexOf( ']', i );
+					if( close < 0 ) {
+						throw new IllegalArgumentException( "Unclosed predicate at " + i + ": " + path );
+					}
+					step.predicate( path.substring( i + 1, close ).trim(), path );
+					i = close + 1;
+				}
+				
+				if( i < length && path.charAt( i ) != '/' ) {
+					throw new IllegalArgumentException( "Unexpected character at " + i + ": " + path );
+				}
+				steps.add( step );
+				i++;
+			}
+			return steps;
+		}
+		
+		/*
+		 * Returns true if the node passes the name and attribute tests.
+		 */
+		boolean matches( DynamicXMLValueBean node )
+		{
+			if( ! name.equals( "*" ) && ! name.equals( node.getElementName() ) ) return false;
+			if( attribute == null ) return true;
+			
+			String actual = node.attributeValue( attribute );
+			return (value == null ? actual != null : value.equals( actual ));
+		}
+		
+		private void predicate( String text, String path )
+		{
+			if( text.startsWith( "@" ) ) {
+				int eq = text.indexOf( '=' );
+				if( eq < 0 ) {
+					attribute = text.substring( 1 ).trim();
+				}
+				else {
+					attribute = text.substring( 1, eq ).trim();
+					String quoted = text.substring( eq + 1 ).trim();
+					if( quoted.length() < 2 || quoted.charAt( 0 ) != quoted.charAt( quoted.length() - 1 ) ||
+							(quoted.charAt( 0 ) != '\'' && quoted.charAt( 0 ) != '"') ) {
+						throw new IllegalArgumentException( "Unquoted attribute value: " + path );
+					}
+					value = quoted.substring( 1, quoted.length() - 1 );
+				}
+				if( attribute.length() == 0 ) {
+					throw new IllegalArgumentException( "Missing attribute name: " + path );
+				}
+			}
+			else {
+				try {
+					position = Integer.parseInt( text );
+				}
+				catch( NumberFormatException e ) {
+					throw new IllegalArgumentException( "Unsupported predicate [" + text + "]: " + path );
+				}
+				if( position < 1 ) {
+					throw new IllegalArgumentException( "Position not positive: " + path );
+				}
+			}
+		}
+	}
 
 } // end of DynamicXMLValueBean
@@ -1,13 +1,24 @@
 package com.veetechis.lib.xml;
 
+import java.io.File;
 import java.io.InputStream;
 import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+import javax.xml.XMLConstants;
 import javax.xml.parsers.SAXParser;
 import javax.xml.parsers.SAXParserFactory;
 import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.transform.stream.StreamSource;
+import javax.xml.validation.Schema;
+import javax.xml.validation.SchemaFactory;
+import javax.xml.validation.ValidatorHandler;
 import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
 import org.xml.sax.SAXParseException;
+import org.xml.sax.XMLReader;
 import org.xml.sax.helpers.DefaultHandler;
 
 
@@ -24,6 +35,22 @@ import org.xml.sax.helpers.DefaultHandler;
  * is to throw an exception.  No other validation is performed by an instance of
  * this class, therefore the given bean instance should be able to fully
  * validate the document's data as required.
+ * 
+ * Parser factories are created once per combination of namespace awareness
+ * and document validation and shared by all instances, and parsers are reset
+ * and pooled after use, so that parsing many small documents does not pay
+ * for factory lookup and parser construction each time.
+ * 
+ * Documents may also be validated against an XML schema (XSD).  Schemas are
+ * compiled once per URI and cached for all instances and threads; validation
+ * runs inline, as a <code>ValidatorHandler</code> between the parser and the
+ * data bean, so it costs no second pass over the document.
+ * 
+ * Large documents made of many repeated elements can be split into records
+ * instead of populated into one bean: each record element is populated into
+ * a new bean of its own and passed to an <code>XMLRecordHandler</code> as soon
+ * as it ends, and the parser keeps no reference to it, so that memory use
+ * does not grow with the size of the document.
  *
  * @author      pendraconx@gmail.com
  * @see			XMLValueBean
@@ -36,9 +63,21 @@ public class GenericSAXParser
 	private boolean validateDocument;
 	private boolean validateData;
 	private boolean namespaceAware;
+	private Schema schema;
+	private String recordElement;
+	private Supplier<? extends XMLValueBean> recordBeans;
+	private XMLRecordHandler<XMLValueBean> recordHandler;
 	
 	private static String LINE_SEP = System.getProperty( "line.separator" );
 	
+	private final static int POOL_SIZE =
+		Math.max( 4, 2 * Runtime.getRuntime().availableProcessors() );
+	private final static ParserPool[] pools = new ParserPool[4];
+	private final static ConcurrentHashMap<String,Schema> schemas =
+		new ConcurrentHashMap<String,Schema>();
+	private final static SchemaFactory schemaFactory =
+		SchemaFactory.newInstance( XMLConstants.W3C_XML_SCHEMA_NS_URI );
+	
 
 	public final static String XML_PROLOGUE = "<?xml version='1.0' encoding='ISO-8859-1' standalone='yes'?>";
 
@@ -146,6 +185,91 @@ public class GenericSAXParser
 		return validateDocument;
 	}
 	
+	/**
+	 * Sets the XML schema that documents are validated against during the
+	 * next call to <code>process</code>, or <code>null</code> for none.
+	 *
+	 * @param  schema			the compiled schema, or null.
+	 * @see						#getSchema(String)
+	 */
+	public void setSchema( Schema schema )
+	{
+		this.schema = schema;
+	}
+	
+	/**
+	 * Sets the XML schema at the given URI, compiled and cached on first
+	 * use, as the schema that documents are validated against.
+	 *
+	 * @param  uri				the schema URI.
+	 * @throws					XMLParseException
+	 *							if the schema can not be read or compiled.
+	 */
+	public void setSchema( String uri )
+	throws XMLParseException
+	{
+		setSchema( getSchema( uri ) );
+	}
+	
+	/**
+	 * Returns the XML schema documents are validated against, or
+	 * <code>null</code> if none is set.
+	 *
+	 * @return					the compiled schema, or null.
+	 */
+	public Schema getSchema()
+	{
+		return schema;
+	}
+	
+	/**
+	 * Returns the XML schema (XSD) at the given URI, compiling it on first
+	 * use and caching it for later calls.  The schema is immutable and may be
+	 * shared by any number of threads.
+	 * 
+	 * Throws an exception if the schema can not be read or compiled.
+	 *
+	 * @param  uri				the schema URI.
+	 * @return					the compiled schema.
+	 * @throws					XMLParseException
+	 *							if the schema can not be read or compiled.
+	 */
+	public static Schema getSchema( String uri )
+	throws XMLParseException
+	{
+		Schema compiled = schemas.get( uri );
+		if( compiled == null ) {
+			try {
+				synchronized( schemaFactory ) {
+					compiled = schemas.get( uri );
+					if( compiled == null ) {
+						compiled = schemaFactory.newSchema( new StreamSource( uri ) );
+						schemas.put( uri, compiled );
+					}
+				}
+			}
+			catch( SAXException e ) {
+				throw new XMLParseException( "SCHEMA ERROR: URI = " + uri + "; CAUSE: " + e.getMessage(), e );
+			}
+		}
+		return compiled;
+	}
+	
+	/**
+	 * Returns the XML schema (XSD) in the given file, compiled and cached as
+	 * for <code>getSchema(String)</code>.
+	 *
+	 * @param  file				the schema file.
+	 * @return					the compiled schema.
+	 * @throws					XMLParseException
+	 *							if the schema can not be read or compiled.
+	 */
+	public static Schema getSchema( File file )
+	throws XMLParseException
+	{
+		return getSchema( file.toURI().toString() );
+	}
+	
 	/**
 	 * If set to <code>true</code>, instructs this instance to call the data
 	 * bean's <code>validate</code> method after populating it during the next
@@ -169,19 +293,78 @@ public class GenericSAXParser
 		return validateData;
 	}
 	
+	/**
+	 * Splits the documents processed by the next calls to <code>process</code>
+	 * into records, one per element with the given name, each populated into
+	 * a new <code>DynamicXMLValueBean</code> and passed to the handler when
+	 * the element ends.  Events outside of records go to the currently set
+	 * data bean, if any.  A <code>null</code> element name turns splitting
+	 * off.
+	 *
+	 * @param  element			the record element name, or null.
+	 * @param  handler			receives each completed record.
+	 */
+	public void setRecordHandler(
+		String element, XMLRecordHandler<? super DynamicXMLValueBean> handler )
+	{
+		setRecordHandler( element, DynamicXMLValueBean::new, handler );
+	}
+	
+	/**
+	 * Splits the documents processed by the next calls to <code>process</code>
+	 * into records, one per element with the given name, each populated into
+	 * a new bean from the supplier and passed to the handler when the element
+	 * ends.  Record elements nested in a record belong to that record.  Events
+	 * outside of records go to the currently set data bean, if any.  If
+	 * <code>isDataValidating()</code> evaluates to <code>true</code>, each
+	 * record is validated before it is passed.  A <code>null</code> element
+	 * name turns splitting off.
+	 *
+	 * @param  element			the record element name, or null.
+	 * @param  beans			creates the bean of each record.
+	 * @param  handler			receives each completed record.
+	 */
+	@SuppressWarnings( "unchecked" )
+	public <B extends XMLValueBean> void setRecordHandler(
+		String element, Supplier<? extends B> beans, XMLRecordHandler<? super B> handler )
+	{
+		recordElement = element;
+		recordBeans = (element == null ? null : beans);
+		recordHandler = (element == null ? null : (XMLRecordHandler<XMLValueBean>) handler);
+	}
+	
+	/**
+	 * Returns the name of the record element that documents are split on, or
+	 * <code>null</code> if they are not split.
+	 *
+	 * @return					the record element name, or null.
+	 */
+	public String getRecordElement()
+	{
+		return recordElement;
+	}
+	
 	/**
 	 * Parses the given <code>java.io.InputStream</code> for XML document data
 	 * and populates the currently set <code>XMLValueBean</code> instance with
 	 * the data found.
 	 * 
 	 * If <code>isDocumentValidating()</code> evalutes to <code>true</code> then
-	 * the document (stream) is validated while parsing it.
+	 * the document (stream) is validated while parsing it.  If a schema is
+	 * set, the document is also validated against it while parsing; the
+	 * document is then parsed namespace aware, but element and attribute
+	 * names are still reported as qualified names unless
+	 * <code>isNamespaceAware()</code> evaluates to <code>true</code>.
 	 * 
 	 * If <code>isDataValidating()</code> evaluates to <code>true</code> then
 	 * the populated data bean's <code>validate</code> method is called after
 	 * parsing completes.
 	 * 
-	 * Throws an exception if no data bean instance is set, if a non-recoverable
+	 * If a record element is set, the document is split into records as
+	 * described for <code>setRecordHandler</code>.
+	 * 
+	 * Throws an exception if no data bean instance is set and the document is
+	 * not split into records, if a non-recoverable
 	 * parsing or I/O error is encountered, if document validation is enabled
 	 * and a recoverable XML warning is encountered when
 	 * <code>isIgnoreWarnings()</code> evaluates to <code>false</code>, or if a
@@ -189,7 +372,8 @@ public class GenericSAXParser
 	 *
 	 * @param  istream			the input stream to processes.
 	 * @throws					java.lang.NullPointerException
-	 *							if the current bean instance is not set.
+	 *							if the current bean instance is not set and
+	 *							the document is not split into records.
 	 * @throws					XMLParseException
 	 *							if an XML error or non-ignored warning occurs.
 	 * @throws					XMLValidationException
@@ -201,15 +385,36 @@ public class GenericSAXParser
 		StringBuffer msg = null;
 		Exception exc = null;
 		
-		DefaultHandler handler = new GenericHandler();
-		SAXParserFactory factory = SAXParserFactory.newInstance();
-		factory.setNamespaceAware( isNamespaceAware() );
-		factory.setValidating( isDocumentValidating() );
+		XMLValueBean bean = data;
+		if( recordElement != null ) {
+			bean = new RecordSplitter( data, recordElement, recordBeans, recordHandler, isDataValidating() );
+		}
+		DefaultHandler handler = new GenericHandler( bean );
+		ParserPool pool = getPool( isNamespaceAware() || schema != null, isDocumentValidating() );
 
         try {
-            SAXParser parser = factory.newSAXParser();
-            parser.parse( istream, handler );
-			if( isDataValidating() ) data.validate();
+            SAXParser parser = pool.acquire();
+            try {
+				if( schema == null ) {
+					parser.parse( istream, handler );
+				}
+				else {
+					ValidatorHandler validator = schema.newValidatorHandler();
+					validator.setContentHandler( handler );
+					validator.setErrorHandler( handler );
+					
+					XMLReader reader = parser.getXMLReader();
+					reader.setContentHandler( validator );
+					reader.setErrorHandler( handler );
+					reader.setDTDHandler( handler );
+					reader.setEntityResolver( handler );
+					reader.parse( new InputSource( istream ) );
+				}
+            }
+            finally {
+                pool.release( parser );
+            }
+			if( isDataValidating() ) bean.validate();
         }
         catch( SAXParseException e ) {
 			msg = new StringBuffer().append( "SAX PARSING ERROR: " ).
@@ -238,6 +443,65 @@ public class GenericSAXParser
 	}
 
 
+	/*
+	 * Returns the shared parser pool for the given configuration, creating it
+	 * on first use.
+	 */
+	private static ParserPool getPool( boolean namespaceAware, boolean validating )
+	{
+		int i = (namespaceAware ? 1 : 0) | (validating ? 2 : 0);
+		synchronized( pools ) {
+			if( pools[i] == null ) {
+				pools[i] = new ParserPool( namespaceAware, validating );
+			}
+			return pools[i];
+		}
+	}
+
+
+	/*
+	 * A factory configured for one combination of namespace awareness and
+	 * validation, and a bounded pool of the parsers it created.  Parsers are
+	 * reset when returned; a parser that can not be reset is dropped.
+	 */
+	private static final class ParserPool
+	{
+		private final SAXParserFactory factory;
+		private final ArrayBlockingQueue<SAXParser> parsers =
+			new ArrayBlockingQueue<SAXParser>( POOL_SIZE );
+		
+		ParserPool( boolean namespaceAware, boolean validating )
+		{
+			factory = SAXParserFactory.newInstance();
+			factory.setNamespaceAware( namespaceAware );
+			factory.setValidating( validating );
+		}
+		
+		SAXParser acquire()
+		throws ParserConfigurationException, SAXException
+		{
+			SAXParser parser = parsers.poll();
+			if( parser == null ) {
+				synchronized( factory ) {
+					parser = factory.newSAXParser();
+				}
+			}
+			return parser;
+		}
+		
+		void release( SAXParser parser )
+		{
+			try {
+				parser.reset();
+				parsers.offer( parser );
+			}
+			catch( UnsupportedOperationException e ) {
+				// Not reusable: left to the garbage collector.
+			}
+		}
+	}
+
+
 	/**
 	 * SAX parsing handler for <code>GenericSAXParser</code>.  An instance of
 	 * this class is used by <code>GenericSAXParser</code> to perform handling
@@ -253,9 +517,26 @@ public class GenericSAXParser
 		private String attributeName;
 		private String attributeValue;
 		private String elementName;
-		private String elementValue;
+		private final TextAccumulator text = new TextAccumulator();
+		private final XMLValueBean bean;
 		
 		
+		/**
+		 * Creates a handler populating the data bean of the enclosing parser.
+		 */
+		public GenericHandler()
+		{
+			this( data );
+		}
+		
+		/*
+		 * Creates a handler populating the given bean.
+		 */
+		GenericHandler( XMLValueBean bean )
+		{
+			this.bean = bean;
+		}
+		
 		/**
 		 * Called by the SAX parser to indicate an XML validation error in the
 		 * document.  Re-throws the exception out to the processor.
@@ -307,8 +588,9 @@ public class GenericSAXParser
 		 * Called by the SAX parser to indicate that the opening tag of an
 		 * element is encountered in the document.
 		 * 
-		 * Calls the <code>startElement</code> method on the currently set data
-		 * bean instance.  If any attributes are present in the tag, also calls
+		 * Passes any text gathered for the enclosing element to the bean, then
+		 * calls the <code>startElement</code> method on the data bean
+		 * instance.  If any attributes are present in the tag, also calls
 		 * the <code>setElementAttribute</code> method on the bean for all of
 		 * the element's attributes.
 		 * 
@@ -318,17 +600,18 @@ public class GenericSAXParser
 			String nsURI, String sName, String qName, Attributes attrs )
         throws SAXException
         {
+			if( elementName != null ) text.flush( bean, elementName );
 			elementName = findElementName( sName, qName );
-			data.startElement( elementName );
+			bean.startElement( elementName );
 			
             if( attrs != null ) {
                 for( int i = 0; i < attrs.getLength(); i++ ) {
                     attributeName = attrs.getLocalName( i );
-                    if( attributeName.equals( "" ) ) {
+                    if( attributeName.equals( "" ) || ! isNamespaceAware() ) {
 						attributeName = attrs.getQName( i );
 					}
 					attributeValue = attrs.getValue( i );
-					data.setElementAttribute(
+					bean.setElementAttribute(
 						elementName, attributeName,	attributeValue );
                 }
             }
@@ -336,30 +619,33 @@ public class GenericSAXParser
 
 		/**
 		 * Called by the SAX parser to indicate the end of an element has been
-		 * reached.  Calls the <code>endElement</code> method on the currently
-		 * set data bean instance.
+		 * reached.  Passes the text gathered for the element to the bean, then
+		 * calls the <code>endElement</code> method on the data bean
+		 * instance.
 		 */
         public void endElement( String nsURI, String sName, String qName )
         throws SAXException
         {
 			elementName = findElementName( sName, qName );
-			data.endElement( elementName );
+			text.flush( bean, elementName );
+			bean.endElement( elementName );
 			elementName = null;
 		}
 
 		/**
 		 * Called by the SAX parser to pass the character data of the just
-		 * encountered element.  Calls the <code>setElementData</code> method on
-		 * the currently set data bean instance to set the data.
-		 * 
-		 * Throws an exception if the bean instance indicates an error.
+		 * encountered element, possibly in several fragments.  The fragments
+		 * are gathered without creating strings, and passed to the bean,
+		 * trimmed as a whole, when the next element starts or this one ends:
+		 * through <code>setElementCharData</code> if the bean is an
+		 * <code>XMLCharDataBean</code>, else through
+		 * <code>setElementData</code>.
 		 */
         public void characters( char buf[], int offset, int len )
 	    throws SAXException
         {
 			if( elementName != null ) {
-	            elementValue = new String( buf, offset, len ).trim();
-				data.setElementData( elementName, elementValue );
+				text.append( buf, offset, len );
 			}
         }
 
@@ -371,7 +657,7 @@ public class GenericSAXParser
 		private String findElementName( String sName, String qName )
 		{
 			elementName = sName;
-            if( elementName.equals( "" ) ) {
+            if( elementName.equals( "" ) || ! isNamespaceAware() ) {
 				elementName = qName;	// Not namespace aware
 			}
 			return elementName;
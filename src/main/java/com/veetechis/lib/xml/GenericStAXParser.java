@@ -0,0 +1,459 @@
+package com.veetechis.lib.xml;
+
+import java.io.InputStream;
+import javax.xml.stream.Location;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+
+/**
+ * Parses an XML input stream with a StAX pull parser for its "generic" data
+ * -- elements and attributes only -- and stores the resulting data into an
+ * instance of <code>XMLValueBean</code>, through the same call-back methods
+ * as <code>GenericSAXParser</code>.
+ *
+ * Unlike the SAX parser, this parser reads the document only as far as it
+ * is asked to.  An <code>ElementFilter</code> may be set to skip the subtrees
+ * of elements that are of no interest, which are then read past without any
+ * call-backs, or to stop processing once the elements needed have been read;
+ * the rest of the document is then never parsed.
+ *
+ * Callers may also pull events themselves: <code>open</code> returns a
+ * reader positioned at the start of the document, which may be advanced
+ * freely, passed to <code>skipElement</code> to pass over the subtree of the
+ * current element, or passed to <code>process(XMLStreamReader)</code> to
+ * populate the data bean from the current element only.
+ *
+ * Input factories are created once per namespace awareness setting and
+ * shared by all instances.  No document validation is performed.
+ *
+ * @author      pendraconx@gmail.com
+ * @see			GenericSAXParser
+ * @see			XMLValueBean
+ */
+public class GenericStAXParser
+{
+	/**
+	 * The actions an <code>ElementFilter</code> may take on an element.
+	 */
+	public static enum Action
+	{
+		/** Process the element and its content. */
+		PROCESS,
+		/** Skip the element and its content, without call-backs. */
+		SKIP,
+		/** Stop processing before the element. */
+		STOP
+	}
+
+	/**
+	 * Decides, as each element is opened, whether it is processed.
+	 */
+	public static interface ElementFilter
+	{
+		/**
+		 * Returns the action to take on the given element.
+		 *
+		 * @param  elementName	the element being opened.
+		 * @param  depth		the element's depth, 1 for the element
+		 * 							processing started at.
+		 * @return				the action to take.
+		 */
+		public Action startElement( String elementName, int depth );
+	}
+
+	private XMLValueBean data;			// The composite data item to populate.
+	private ElementFilter filter;
+
+	private boolean validateData;
+	private boolean namespaceAware;
+
+	private final static XMLInputFactory[] factories = new XMLInputFactory[2];
+
+
+	/**
+	 * Creates a new default instance of <code>GenericStAXParser</code>.  Use of
+	 * this constructor requires that the <code>XMLValueBean</code> instance to
+	 * populate is provided through a call to <code>setXMLValueBean</code>
+	 * before calling the appropriate <code>process</code> method.
+	 */
+	public GenericStAXParser()
+	{
+		super();
+	}
+
+	/**
+	 * Creates a new instance of <code>GenericStAXParser</code> for the given
+	 * <code>XMLValueBean</code> instance.
+	 *
+	 * @param  bean				the composite data item to populate.
+	 */
+	public GenericStAXParser( XMLValueBean bean )
+	{
+		this();
+		setXMLValueBean( bean );
+	}
+
+	/**
+	 * Sets the given instance as the instance to populate on the next call to
+	 * <code>process</code>.
+	 *
+	 * @param  bean				the composite data item to populate.
+	 */
+	public void setXMLValueBean( XMLValueBean bean )
+	{
+		data = bean;
+	}
+
+	/**
+	 * Sets the filter consulted as each element is opened, or
+	 * <code>null</code> to process all elements.
+	 *
+	 * @param  filter			the element filter, or null.
+	 */
+	public void setElementFilter( ElementFilter filter )
+	{
+		this.filter = filter;
+	}
+
+	/**
+	 * Returns the current element filter, or <code>null</code> if none is
+	 * set.
+	 *
+	 * @return					the element filter, or null.
+	 */
+	public ElementFilter getElementFilter()
+	{
+		return filter;
+	}
+
+	/**
+	 * If set to <code>true</code>, instructs this instance to parse documents
+	 * with namespace awareness enabled.
+	 *
+	 * @param  enabled			the flag to enable namespace awareness, or not.
+	 */
+	public void setNamespaceAware( boolean enabled )
+	{
+		namespaceAware = enabled;
+	}
+
+	/**
+	 * Returns <code>true</code> if documents are parsed with namespace
+	 * awareness enabled.
+	 *
+	 * @return					the current state of the namespace awareness
+	 * 								flag.
+	 */
+	public boolean isNamespaceAware()
+	{
+		return namespaceAware;
+	}
+
+	/**
+	 * If set to <code>true</code>, instructs this instance to call the data
+	 * bean's <code>validate</code> method after populating it during the next
+	 * call to <code>process</code>.
+	 *
+	 * @param  validate			the flag to enable data validation.
+	 */
+	public void enableDataValidating( boolean validate )
+	{
+		validateData = validate;
+	}
+
+	/**
+	 * Returns <code>true</code> if the next call to <code>process</code> will
+	 * invoke the data bean's <code>validate</code> method after populating it.
+	 *
+	 * @return					the state of the data validation flag.
+	 */
+	public boolean isDataValidating()
+	{
+		return validateData;
+	}
+
+	/**
+	 * Returns a reader over the given input stream, positioned at the start
+	 * of the document, for the caller to pull events from.  The reader must
+	 * be closed by the caller; closing it does not close the stream.
+	 *
+	 * Throws an exception if the reader can not be created.
+	 *
+	 * @param  istream			the input stream to read.
+	 * @return					a reader over the stream.
+	 * @throws					XMLParseException
+	 *							if the reader can not be created.
+	 */
+	public XMLStreamReader open( InputStream istream )
+	throws XMLParseException
+	{
+		XMLInputFactory factory = getFactory( isNamespaceAware() );
+		try {
+			synchronized( factory ) {
+				return factory.createXMLStreamReader( istream );
+			}
+		}
+		catch( XMLStreamException e ) {
+			throw parseException( e );
+		}
+	}
+
+	/**
+	 * Parses the given <code>java.io.InputStream</code> for XML document data
+	 * and populates the currently set <code>XMLValueBean</code> instance with
+	 * the data found, subject to the element filter.  Parsing ends at the
+	 * end of the document or when the filter stops it.  The stream is not
+	 * closed.
+	 *
+	 * If <code>isDataValidating()</code> evaluates to <code>true</code> then
+	 * the populated data bean's <code>validate</code> method is called after
+	 * parsing ends.
+	 *
+	 * Throws an exception if no data bean instance is set, if a parsing or
+	 * I/O error is encountered, or if a data validation error occurs.
+	 *
+	 * @param  istream			the input stream to processes.
+	 * @throws					java.lang.NullPointerException
+	 *							if the current bean instance is not set.
+	 * @throws					XMLParseException
+	 *							if an XML error occurs.
+	 * @throws					XMLValidationException
+	 *							if data validation fails.
+	 */
+	public void process( InputStream istream )
+	throws XMLParseException, XMLValidationException, NullPointerException
+	{
+		if( data == null ) throw new NullPointerException( "No XMLValueBean set" );
+
+		XMLStreamReader reader = open( istream );
+		try {
+			process( reader );
+		}
+		finally {
+			close( reader );
+		}
+	}
+
+	/**
+	 * Populates the currently set <code>XMLValueBean</code> instance from the
+	 * given reader, subject to the element filter.  If the reader is at the
+	 * start of the document, the whole document is processed; if it is at the
+	 * start of an element, that element and its content are processed and
+	 * the reader is left at its end.  Returns <code>false</code> if the
+	 * filter stopped processing.
+	 *
+	 * If <code>isDataValidating()</code> evaluates to <code>true</code> then
+	 * the populated data bean's <code>validate</code> method is called after
+	 * processing ends.
+	 *
+	 * Throws an exception if no data bean instance is set, if the reader is
+	 * at neither the start of the document nor of an element, if a parsing
+	 * error is encountered, or if a data validation error occurs.
+	 *
+	 * @param  reader			the reader to process from.
+	 * @return					false if processing was stopped by the filter.
+	 * @throws					java.lang.NullPointerException
+	 *							if the current bean instance is not set.
+	 * @throws					XMLParseException
+	 *							if an XML error occurs.
+	 * @throws					XMLValidationException
+	 *							if data validation fails.
+	 */
+	public boolean process( XMLStreamReader reader )
+	throws XMLParseException, XMLValidationException, NullPointerException
+	{
+		if( data == null ) throw new NullPointerException( "No XMLValueBean set" );
+
+		int event = reader.getEventType();
+		if( event != XMLStreamConstants.START_DOCUMENT &&
+				event != XMLStreamConstants.START_ELEMENT ) {
+			throw new XMLParseException( "Reader not at the start of the document or of an element" );
+		}
+
+		boolean completed;
+		try {
+			completed = drive( reader, event == XMLStreamConstants.START_ELEMENT );
+		}
+		catch( XMLStreamException e ) {
+			throw parseException( e );
+		}
+
+		if( isDataValidating() ) data.validate();
+		return completed;
+	}
+
+	/**
+	 * Advances the given reader, which must be at the start of an element,
+	 * past that element's content, leaving it at the element's end.  Nothing
+	 * is built for the skipped content.
+	 *
+	 * Throws an exception if the reader is not at the start of an element or
+	 * a parsing error is encountered.
+	 *
+	 * @param  reader			the reader to advance.
+	 * @throws					XMLParseException
+	 *							if an XML error occurs.
+	 */
+	public static void skipElement( XMLStreamReader reader )
+	throws XMLParseException
+	{
+		if( reader.getEventType() != XMLStreamConstants.START_ELEMENT ) {
+			throw new XMLParseException( "Reader not at the start of an element" );
+		}
+
+		try {
+			skip( reader );
+		}
+		catch( XMLStreamException e ) {
+			throw parseException( e );
+		}
+	}
+
+
+	/*
+	 * Feeds the bean from the reader until the end of the document, or of
+	 * the current element if inElement, or until the filter stops.  Returns
+	 * false if stopped.
+	 */
+	private boolean drive( XMLStreamReader reader, boolean inElement )
+	throws XMLStreamException, XMLParseException
+	{
+		String elementName = null;		// open element whose text is passed
+		TextAccumulator text = new TextAccumulator();
+		int depth = 0;
+		int event = reader.getEventType();
+
+		while( true ) {
+			if( event == XMLStreamConstants.START_ELEMENT ) {
+				if( elementName != null ) text.flush( data, elementName );
+				String name = elementName( reader );
+				Action action = (filter == null ?
+					Action.PROCESS : filter.startElement( name, depth + 1 ));
+
+				if( action == Action.STOP ) {
+					return false;
+				}
+				else if( action == Action.SKIP ) {
+					skip( reader );
+					elementName = null;
+					if( inElement && depth == 0 ) return true;
+				}
+				else {
+					depth++;
+					elementName = name;
+					data.startElement( elementName );
+					for( int i = 0; i < reader.getAttributeCount(); i++ ) {
+						data.setElementAttribute( elementName,
+							attributeName( reader, i ), reader.getAttributeValue( i ) );
+					}
+				}
+			}
+			else if( event == XMLStreamConstants.END_ELEMENT ) {
+				String name = elementName( reader );
+				text.flush( data, name );
+				data.endElement( name );
+				elementName = null;
+				if( --depth == 0 && inElement ) return true;
+			}
+			else if( event == XMLStreamConstants.CHARACTERS ||
+					event == XMLStreamConstants.CDATA ||
+					event == XMLStreamConstants.SPACE ) {
+				if( elementName != null ) {
+					text.append( reader.getTextCharacters(),
+						reader.getTextStart(), reader.getTextLength() );
+				}
+			}
+			else if( event == XMLStreamConstants.END_DOCUMENT ) {
+				return true;
+			}
+
+			event = reader.next();
+		}
+	}
+
+	/*
+	 * Advances the reader from the start of an element to its end.
+	 */
+	private static void skip( XMLStreamReader reader )
+	throws XMLStreamException
+	{
+		int depth = 1;
+		while( depth > 0 ) {
+			int event = reader.next();
+			if( event == XMLStreamConstants.START_ELEMENT ) {
+				depth++;
+			}
+			else if( event == XMLStreamConstants.END_ELEMENT ) {
+				depth--;
+			}
+		}
+	}
+
+	/*
+	 * Returns the element name as GenericSAXParser reports it: the local
+	 * name if namespace aware, else the qualified name.
+	 */
+	private String elementName( XMLStreamReader reader )
+	{
+		String prefix = reader.getPrefix();
+		if( isNamespaceAware() || prefix == null || prefix.equals( "" ) ) {
+			return reader.getLocalName();
+		}
+		return prefix + ":" + reader.getLocalName();
+	}
+
+	private String attributeName( XMLStreamReader reader, int i )
+	{
+		String prefix = reader.getAttributePrefix( i );
+		if( isNamespaceAware() || prefix == null || prefix.equals( "" ) ) {
+			return reader.getAttributeLocalName( i );
+		}
+		return prefix + ":" + reader.getAttributeLocalName( i );
+	}
+
+	private static void close( XMLStreamReader reader )
+	{
+		try {
+			reader.close();
+		}
+		catch( XMLStreamException e ) {
+			// Nothing left to read.
+		}
+	}
+
+	/*
+	 * Returns the shared input factory for the namespace awareness setting,
+	 * creating it on first use.
+	 */
+	private static XMLInputFactory getFactory( boolean namespaceAware )
+	{
+		int i = (namespaceAware ? 1 : 0);
+		synchronized( factories ) {
+			if( factories[i] == null ) {
+				XMLInputFactory factory = XMLInputFactory.newInstance();
+				factory.setProperty( XMLInputFactory.IS_NAMESPACE_AWARE, namespaceAware );
+				factory.setProperty( XMLInputFactory.IS_COALESCING, Boolean.TRUE );
+				factories[i] = factory;
+			}
+			return factories[i];
+		}
+	}
+
+	private static XMLParseException parseException( XMLStreamException e )
+	{
+		StringBuffer msg = new StringBuffer( "STAX PARSING ERROR: " );
+		Location loc = e.getLocation();
+		if( loc != null ) {
+			msg.append( "Line = " ).append( loc.getLineNumber() ).
+				append( "; URI = " ).append( loc.getSystemId() ).
+				append( "; " );
+		}
+		msg.append( "CAUSE: " ).append( e.getMessage() );
+
+		return new XMLParseException( msg.toString(), e );
+	}
+
+} // end of GenericStAXParser
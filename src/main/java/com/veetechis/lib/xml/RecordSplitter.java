@@ -0,0 +1,115 @@
+package com.veetechis.lib.xml;
+
+import java.util.function.Supplier;
+
+
+/**
+ * Splits the events of a document into records: each element with the
+ * record name, and its content, is passed to a new bean from the supplier,
+ * which is given to the record handler when the element ends and then
+ * forgotten.  Events outside of records are passed to the envelope bean, if
+ * any.  Record elements nested in a record belong to the enclosing record.
+ *
+ * @author      pendraconx@gmail.com
+ */
+final class RecordSplitter
+implements XMLCharDataBean
+{
+	private final XMLValueBean envelope;
+	private final String recordName;
+	private final Supplier<? extends XMLValueBean> beans;
+	private final XMLRecordHandler<XMLValueBean> handler;
+	private final boolean validate;
+
+	private XMLValueBean record;		// the open record, if any
+	private int depth;					// elements open in the record
+
+
+	RecordSplitter( XMLValueBean envelope, String recordName,
+		Supplier<? extends XMLValueBean> beans, XMLRecordHandler<XMLValueBean> handler,
+		boolean validate )
+	{
+		this.envelope = envelope;
+		this.recordName = recordName;
+		this.beans = beans;
+		this.handler = handler;
+		this.validate = validate;
+	}
+
+	public void startElement( String elementName )
+	throws XMLValidationException
+	{
+		if( record == null ) {
+			if( ! recordName.equals( elementName ) ) {
+				if( envelope != null ) envelope.startElement( elementName );
+				return;
+			}
+			record = beans.get();
+		}
+		depth++;
+		record.startElement( elementName );
+	}
+
+	public void setElementAttribute( String element, String attrib, String value )
+	throws XMLParseException
+	{
+		XMLValueBean target = target();
+		if( target != null ) target.setElementAttribute( element, attrib, value );
+	}
+
+	public void setElementData( String element, String value )
+	throws XMLValidationException
+	{
+		XMLValueBean target = target();
+		if( target != null ) target.setElementData( element, value );
+	}
+
+	public void setElementCharData( String element, CharSequence value )
+	throws XMLValidationException
+	{
+		XMLValueBean target = target();
+		if( target instanceof XMLCharDataBean ) {
+			((XMLCharDataBean) target).setElementCharData( element, value );
+		}
+		else if( target != null ) {
+			target.setElementData( element, value.toString() );
+		}
+	}
+
+	public void endElement( String elementName )
+	throws XMLValidationException
+	{
+		if( record == null ) {
+			if( envelope != null ) envelope.endElement( elementName );
+			return;
+		}
+
+		record.endElement( elementName );
+		if( --depth == 0 ) {
+			XMLValueBean done = record;
+			record = null;
+			if( validate ) done.validate();
+			handler.record( done );
+		}
+	}
+
+	/**
+	 * Validates the envelope bean, if any; records are validated as they
+	 * complete.
+	 */
+	public void validate()
+	throws XMLValidationException
+	{
+		if( envelope != null ) envelope.validate();
+	}
+
+
+	/*
+	 * Returns the bean receiving the current events.
+	 */
+	private XMLValueBean target()
+	{
+		return (record != null ? record : envelope);
+	}
+
+} // end of RecordSplitter
@@ -0,0 +1,110 @@
+package com.veetechis.lib.xml;
+
+
+/**
+ * Gathers the character data of an element, as delivered in fragments by a
+ * parser, into one reused buffer, and passes it to a data bean trimmed once
+ * as a whole.  Beans implementing <code>XMLCharDataBean</code> receive a view
+ * of the buffer; others receive a <code>String</code>.  Whitespace-only text
+ * is not passed.
+ *
+ * @author      pendraconx@gmail.com
+ */
+final class TextAccumulator
+{
+	private final StringBuilder text = new StringBuilder( 256 );
+	private final View view = new View();
+
+
+	/**
+	 * Appends a fragment of character data.
+	 */
+	void append( char[] buf, int offset, int len )
+	{
+		text.append( buf, offset, len );
+	}
+
+	/**
+	 * Appends a fragment of character data.
+	 */
+	void append( CharSequence chars )
+	{
+		text.append( chars );
+	}
+
+	/**
+	 * Discards the gathered text.
+	 */
+	void clear()
+	{
+		text.setLength( 0 );
+	}
+
+	/**
+	 * Passes the gathered text, trimmed, to the bean as the data of the given
+	 * element, and clears it.
+	 */
+	void flush( XMLValueBean bean, String element )
+	throws XMLValidationException
+	{
+		int start = 0;
+		int end = text.length();
+		while( start < end && text.charAt( start ) <= ' ' ) start++;
+		while( end > start && text.charAt( end - 1 ) <= ' ' ) end--;
+
+		try {
+			if( start == end ) {
+				return;
+			}
+			if( bean instanceof XMLCharDataBean ) {
+				view.start = start;
+				view.end = end;
+				((XMLCharDataBean) bean).setElementCharData( element, view );
+			}
+			else {
+				bean.setElementData( element, text.substring( start, end ) );
+			}
+		}
+		finally {
+			text.setLength( 0 );
+		}
+	}
+
+
+	/*
+	 * A view of the trimmed range of the buffer.
+	 */
+	private final class View
+	implements CharSequence
+	{
+		int start;
+		int end;
+
+		public int length()
+		{
+			return end - start;
+		}
+
+		public char charAt( int index )
+		{
+			if( index < 0 || index >= end - start ) {
+				throw new IndexOutOfBoundsException( "Index: " + index );
+			}
+			return text.charAt( start + index );
+		}
+
+		public CharSequence subSequence( int from, int to )
+		{
+			if( from < 0 || to > end - start || from > to ) {
+				throw new IndexOutOfBoundsException( "Range: " + from + "-" + to );
+			}
+			return text.substring( start + from, start + to );
+		}
+
+		public String toString()
+		{
+			return text.substring( start, end );
+		}
+	}
+
+} // end of TextAccumulator
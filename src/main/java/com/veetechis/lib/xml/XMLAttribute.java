@@ -0,0 +1,34 @@
+package com.veetechis.lib.xml;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+
+/**
+ * <p>
+ * Binds a field, or a method taking one argument, of a class annotated with
+ * <code>XMLElement</code> to an attribute of the class's element for
+ * <code>XMLBinding</code>.  The attribute value is converted to the type of
+ * the field or argument.  If the name is empty, it is the field name, or the
+ * method name without a <code>set</code> prefix.
+ * </p>
+ *
+ * @author		pendraconx@gmail.com
+ * @see			XMLBinding
+ */
+@Documented
+@Retention( RetentionPolicy.RUNTIME )
+@Target( { ElementType.FIELD, ElementType.METHOD } )
+public @interface XMLAttribute
+{
+	/**
+	 * <p>
+	 * The attribute name.
+	 * </p>
+	 */
+	String value() default "";
+
+} // End of annotation: +com.vtis.xml.XMLAttribute
@@ -0,0 +1,553 @@
+package com.veetechis.lib.xml;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.InputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import javax.xml.validation.Schema;
+
+
+/**
+ * Parses a batch of XML documents in parallel, each into its own
+ * <code>XMLValueBean</code>, and passes every populated bean, or the error
+ * that ended its document, to a <code>ResultHandler</code>.
+ *
+ * Documents are read from <code>Source</code> instances: files, paths, byte
+ * arrays, or streams.  A fixed number of workers, by default one per thread
+ * of the fork/join pool, take the next document from the batch until none
+ * are left; each worker keeps one configured <code>GenericSAXParser</code>
+ * for all of its documents, and the underlying SAX parsers are reset and
+ * reused from the shared pool rather than created per document.
+ *
+ * An error in one document is passed to the handler and does not stop the
+ * batch.  Each call to <code>parse</code> returns the throughput
+ * <code>Metrics</code> of the batch.
+ *
+ * The handler is called from the worker threads and must be thread-safe.
+ *
+ * @author      pendraconx@gmail.com
+ * @see			GenericSAXParser
+ */
+public class XMLBatchParser
+{
+	// shared by default; parsing blocks on I/O, which would starve the common pool
+	private final static ForkJoinPool defaultPool =
+		new ForkJoinPool( Runtime.getRuntime().availableProcessors() );
+
+	private ForkJoinPool pool = defaultPool;
+	private int parallelism;
+	private boolean ignoreWarnings;
+	private boolean validateDocument;
+	private boolean validateData;
+	private boolean namespaceAware;
+	private Schema schema;
+
+
+	/**
+	 * Receives the outcome of each document of a batch.
+	 */
+	public interface ResultHandler<B extends XMLValueBean>
+	{
+		/**
+		 * Called with the bean populated from the given source.
+		 *
+		 * @param  source			the document source.
+		 * @param  bean				the populated bean.
+		 */
+		public void parsed( Source source, B bean );
+
+		/**
+		 * Called when the given source could not be read, parsed, or
+		 * validated, or when <code>parsed</code> failed for it.  An exception
+		 * thrown by this method stops the batch and is thrown by
+		 * <code>parse</code>.
+		 *
+		 * @param  source			the document source.
+		 * @param  e				the error.
+		 */
+		public void failed( Source source, XMLParseException e );
+	}
+
+
+	/**
+	 * A document to parse.  A source is opened once, by the worker that
+	 * parses it, and the stream is closed after parsing.
+	 */
+	public static abstract class Source
+	{
+		private final String name;
+
+		/**
+		 * Creates a source with the given name, used in error messages.
+		 *
+		 * @param  name				the name of the source.
+		 */
+		protected Source( String name )
+		{
+			this.name = name;
+		}
+
+		/**
+		 * Returns the name of this source.
+		 *
+		 * @return					the source name.
+		 */
+		public String getName()
+		{
+			return name;
+		}
+
+		/**
+		 * Opens the document for reading.
+		 *
+		 * @return					the document stream.
+		 * @throws					java.io.IOException
+		 *							if the document can not be opened.
+		 */
+		public abstract InputStream open()
+		throws IOException;
+
+		/**
+		 * Returns the size of the document in bytes if known in advance, or -1.
+		 *
+		 * @return					the document size, or -1.
+		 */
+		public long size()
+		{
+			return -1L;
+		}
+
+		public String toString()
+		{
+			return name;
+		}
+
+		/**
+		 * Returns a source reading the given file.
+		 *
+		 * @param  file				the document file.
+		 * @return					the source.
+		 */
+		public static Source of( File file )
+		{
+			return of( file.toPath() );
+		}
+
+		/**
+		 * Returns a source reading the given path.
+		 *
+		 * @param  path				the document path.
+		 * @return					the source.
+		 */
+		public static Source of( final Path path )
+		{
+			return new Source( path.toString() ) {
+				public InputStream open()
+				throws IOException
+				{
+					return Files.newInputStream( path );
+				}
+			};
+		}
+
+		/**
+		 * Returns a source reading the given bytes.
+		 *
+		 * @param  name				the name of the source.
+		 * @param  bytes			the document.
+		 * @return					the source.
+		 */
+		public static Source of( String name, final byte[] bytes )
+		{
+			return new Source( name ) {
+				public InputStream open()
+				{
+					return new ByteArrayInputStream( bytes );
+				}
+
+				public long size()
+				{
+					return bytes.length;
+				}
+			};
+		}
+
+		/**
+		 * Returns a source reading the given stream, which is closed after
+		 * parsing.  The source can be parsed only once.
+		 *
+		 * @param  name				the name of the source.
+		 * @param  stream			the document stream.
+		 * @return					the source.
+		 */
+		public static Source of( String name, final InputStream stream )
+		{
+			return new Source( name ) {
+				public InputStream open()
+				{
+					return stream;
+				}
+			};
+		}
+	}
+
+
+	/**
+	 * The throughput of one batch.
+	 */
+	public static final class Metrics
+	{
+		/** Documents parsed successfully. */
+		public final long parsed;
+		/** Documents that failed. */
+		public final long failed;
+		/** Bytes read from all documents. */
+		public final long bytes;
+		/** Wall-clock time of the batch, in nanoseconds. */
+		public final long elapsedNanos;
+		/** Workers used. */
+		public final int workers;
+
+		Metrics( long parsed, long failed, long bytes, long elapsedNanos, int workers )
+		{
+			this.parsed = parsed;
+			this.failed = failed;
+			this.bytes = bytes;
+			this.elapsedNanos = elapsedNanos;
+			this.workers = workers;
+		}
+
+		/**
+		 * Returns the documents processed, parsed or failed, per second.
+		 *
+		 * @return					the document rate.
+		 */
+		public double documentsPerSecond()
+		{
+			return rate( parsed + failed );
+		}
+
+		/**
+		 * Returns the bytes read per second.
+		 *
+		 * @return					the byte rate.
+		 */
+		public double bytesPerSecond()
+		{
+			return rate( bytes );
+		}
+
+		private double rate( long count )
+		{
+			return (elapsedNanos == 0 ? 0.0 : count * 1e9 / elapsedNanos);
+		}
+
+		public String toString()
+		{
+			return "XMLBatchParser[parsed=" + parsed + ", failed=" + failed +
+					", bytes=" + bytes + ", elapsedNanos=" + elapsedNanos +
+					", workers=" + workers + "]";
+		}
+	}
+
+
+	/**
+	 * Creates a new instance running on the default pool, a fork/join pool
+	 * shared by all instances with one thread per available processor.
+	 */
+	public XMLBatchParser()
+	{
+		super();
+	}
+
+	/**
+	 * Sets the fork/join pool on which batches are parsed, instead of the
+	 * default pool.  Since the workers block on I/O, the common pool is best
+	 * avoided.
+	 *
+	 * @param  pool				the pool to parse on.
+	 */
+	public void setPool( ForkJoinPool pool )
+	{
+		this.pool = pool;
+	}
+
+	/**
+	 * Sets the number of workers per batch.  If zero or less, which is the
+	 * default, the parallelism of the pool is used.
+	 *
+	 * @param  workers			the number of workers.
+	 */
+	public void setParallelism( int workers )
+	{
+		parallelism = workers;
+	}
+
+	/**
+	 * If set to <code>true</code>, parser warnings are ignored.
+	 *
+	 * @param  ignore			the flag to ignore parser warnings.
+	 * @see						GenericSAXParser#setIgnoreWarnings(boolean)
+	 */
+	public void setIgnoreWarnings( boolean ignore )
+	{
+		ignoreWarnings = ignore;
+	}
+
+	/**
+	 * If set to <code>true</code>, documents are parsed namespace aware.
+	 *
+	 * @param  enabled			the flag to enable namespace awareness.
+	 * @see						GenericSAXParser#setNamespaceAware(boolean)
+	 */
+	public void setNamespaceAware( boolean enabled )
+	{
+		namespaceAware = enabled;
+	}
+
+	/**
+	 * If set to <code>true</code>, documents are validated while parsing.
+	 *
+	 * @param  validate			the flag to enable document validation.
+	 * @see						GenericSAXParser#enableDocumentValidating(boolean)
+	 */
+	public void enableDocumentValidating( boolean validate )
+	{
+		validateDocument = validate;
+	}
+
+	/**
+	 * Sets the schema documents are validated against, or <code>null</code>.
+	 *
+	 * @param  schema			the schema to validate against.
+	 * @see						GenericSAXParser#setSchema(Schema)
+	 */
+	public void setSchema( Schema schema )
+	{
+		this.schema = schema;
+	}
+
+	/**
+	 * If set to <code>true</code>, each populated bean is validated before it
+	 * is passed to the handler.
+	 *
+	 * @param  validate			the flag to enable data validation.
+	 * @see						GenericSAXParser#enableDataValidating(boolean)
+	 */
+	public void enableDataValidating( boolean validate )
+	{
+		validateData = validate;
+	}
+
+	/**
+	 * Parses all given sources, each into a new bean from the supplier, and
+	 * passes each outcome to the handler.  Returns when every source has been
+	 * handled.
+	 *
+	 * @param  sources			the documents to parse.
+	 * @param  beans			creates a bean per document.
+	 * @param  handler			receives each populated bean or error.
+	 * @return					the throughput of the batch.
+	 */
+	public <B extends XMLValueBean> Metrics parse(
+		Collection<? extends Source> sources,
+		Supplier<? extends B> beans,
+		ResultHandler<? super B> handler
+	)
+	{
+		final Batch<B> batch = new Batch<B>( new ArrayList<Source>( sources ), beans, handler );
+		int workers = (parallelism > 0 ? parallelism : pool.getParallelism());
+		workers = Math.max( 1, Math.min( workers, batch.sources.size() ) );
+
+		long start = System.nanoTime();
+		List<ForkJoinTask<?>> tasks = new ArrayList<ForkJoinTask<?>>( workers );
+		for( int i = 0; i < workers; i++ ) {
+			tasks.add( pool.submit( new Runnable() {
+				public void run()
+				{
+					batch.work( newParser() );
+				}
+			} ) );
+		}
+
+		RuntimeException exc = null;
+		for( ForkJoinTask<?> task : tasks ) {
+			try {
+				task.join();
+			}
+			catch( RuntimeException e ) {
+				if( exc == null ) exc = e;
+			}
+		}
+		if( exc != null ) throw exc;
+
+		return new Metrics( batch.parsed.sum(), batch.failed.sum(), batch.bytes.sum(),
+				System.nanoTime() - start, workers );
+	}
+
+
+	/*
+	 * Returns a parser configured as this instance, for one worker.
+	 */
+	private GenericSAXParser newParser()
+	{
+		GenericSAXParser parser = new GenericSAXParser();
+		parser.setIgnoreWarnings( ignoreWarnings );
+		parser.setNamespaceAware( namespaceAware );
+		parser.enableDocumentValidating( validateDocument );
+		parser.enableDataValidating( validateData );
+		parser.setSchema( schema );
+		return parser;
+	}
+
+
+	/*
+	 * The state shared by the workers of one batch: the sources, the index of
+	 * the next one to parse, and the counters.
+	 */
+	private static final class Batch<B extends XMLValueBean>
+	{
+		final List<Source> sources;
+		final Supplier<? extends B> beans;
+		final ResultHandler<? super B> handler;
+		final AtomicInteger next = new AtomicInteger();
+		final LongAdder parsed = new LongAdder();
+		final LongAdder failed = new LongAdder();
+		final LongAdder bytes = new LongAdder();
+		volatile boolean aborted;
+
+		Batch( List<Source> sources, Supplier<? extends B> beans, ResultHandler<? super B> handler )
+		{
+			this.sources = sources;
+			this.beans = beans;
+			this.handler = handler;
+		}
+
+		/*
+		 * Parses sources with the given parser until none are left or the
+		 * batch is aborted.
+		 */
+		void work( GenericSAXParser parser )
+		{
+			int i;
+			while( ! aborted && (i = next.getAndIncrement()) < sources.size() ) {
+				Source source = sources.get( i );
+				XMLParseException exc = null;
+				try {
+					B bean = beans.get();
+					parser.setXMLValueBean( bean );
+					parse( parser, source );
+					handler.parsed( source, bean );
+					parsed.increment();
+				}
+				catch( XMLParseException e ) {
+					exc = e;
+				}
+				catch( IOException e ) {
+					exc = new XMLParseException( "I/O ERROR: " + source + ": " + e.getMessage(), e );
+				}
+				catch( RuntimeException e ) {
+					exc = new XMLParseException( "PROCESSING ERROR: " + source + ": " + e, e );
+				}
+				finally {
+					parser.setXMLValueBean( null );
+				}
+
+				if( exc != null ) {
+					failed.increment();
+					try {
+						handler.failed( source, exc );
+					}
+					catch( RuntimeException e ) {
+						aborted = true;
+						throw e;
+					}
+				}
+			}
+		}
+
+		/*
+		 * Parses one source, counting the bytes read.
+		 */
+		private void parse( GenericSAXParser parser, Source source )
+		throws XMLParseException, IOException
+		{
+			long size = source.size();
+			InputStream in = source.open();
+			try {
+				if( size >= 0 ) {
+					parser.process( in );
+					bytes.add( size );
+				}
+				else {
+					CountingInputStream counter = new CountingInputStream( in );
+					try {
+						parser.process( counter );
+					}
+					finally {
+						bytes.add( counter.count );
+					}
+				}
+			}
+			finally {
+				in.close();
+			}
+		}
+	}
+
+
+	/*
+	 * Counts the bytes read through it.
+	 */
+	private static final class CountingInputStream
+	extends FilterInputStream
+	{
+		long count;
+
+		CountingInputStream( InputStream in )
+		{
+			super( in );
+		}
+
+		public int read()
+		throws IOException
+		{
+			int b = in.read();
+			if( b >= 0 ) count++;
+			return b;
+		}
+
+		public int read( byte[] buf, int off, int len )
+		throws IOException
+		{
+			int n = in.read( buf, off, len );
+			if( n > 0 ) count += n;
+			return n;
+		}
+
+		public long skip( long n )
+		throws IOException
+		{
+			long skipped = in.skip( n );
+			count += skipped;
+			return skipped;
+		}
+
+		public void close()
+		{
+			// Closed by the batch, after parsing.
+		}
+	}
+
+} // end of XMLBatchParser
@@ -0,0 +1,298 @@
+package com.veetechis.lib.xml;
+
+import java.util.Arrays;
+
+
+/**
+ * Populates an object of a bound class from the events of one XML document,
+ * following the state machine of its <code>XMLBinding</code>.  Pass an
+ * instance to <code>GenericSAXParser</code> or <code>GenericStAXParser</code>
+ * as the bean to populate, then call <code>getResult</code>.
+ *
+ * The binder keeps only a stack of the open bound elements and the text of
+ * those that are bound to text; elements that are not bound are skipped
+ * with their content.  An element or attribute without text sets nothing.
+ *
+ * An instance is not thread-safe; call <code>reset</code> to reuse it for
+ * another document.
+ *
+ * @author      pendraconx@gmail.com
+ * @see			XMLBinding
+ */
+public class XMLBinder<T>
+implements XMLCharDataBean
+{
+	private final XMLBinding<T> binding;
+
+	private XMLBinding.State[] states = new XMLBinding.State[16];	// null for text
+	private XMLBinding.Transition[] via = new XMLBinding.Transition[16];
+	private Object[] objects = new Object[16];
+	private int[] marks = new int[16];				// text start per level
+	private int depth;
+	private int skip;								// depth in unbound content
+	private final StringBuilder text = new StringBuilder( 256 );
+	private T result;
+
+
+	/**
+	 * Creates a new binder for the given binding.
+	 *
+	 * @param  binding			the compiled binding.
+	 */
+	public XMLBinder( XMLBinding<T> binding )
+	{
+		this.binding = binding;
+	}
+
+	/**
+	 * Returns the object bound from the document, or <code>null</code> if
+	 * its document element has not ended yet.
+	 *
+	 * @return					the bound object.
+	 */
+	public T getResult()
+	{
+		return result;
+	}
+
+	/**
+	 * Discards the bound object and any partial state, for binding another
+	 * document.
+	 */
+	public void reset()
+	{
+		Arrays.fill( objects, 0, depth, null );
+		depth = 0;
+		skip = 0;
+		text.setLength( 0 );
+		result = null;
+	}
+
+	/**
+	 * Enters the state of the element, creating its object if it is bound
+	 * to one.
+	 *
+	 * @param  elementName		the element name.
+	 * @throws					XMLValidationException
+	 *							if the document element is not the bound one,
+	 *							or an object can not be created.
+	 */
+	public void startElement( String elementName )
+	throws XMLValidationException
+	{
+		if( skip > 0 ) {
+			skip++;
+			return;
+		}
+
+		if( depth == 0 ) {
+			if( result != null ) {
+				throw new XMLValidationException( "Document already bound; call reset first" );
+			}
+			String rootName = binding.getRootName();
+			if( rootName.length() > 0 && ! rootName.equals( elementName ) ) {
+				throw new XMLValidationException( "Unexpected document element: " + elementName +
+					"; expected " + rootName );
+			}
+			push( binding.root, null, create( binding.root, elementName ) );
+			return;
+		}
+
+		XMLBinding.State state = states[depth - 1];
+		XMLBinding.Transition t = (state == null ? null : state.children.get( elementName ));
+		if( t == null ) {
+			skip = 1;
+			return;
+		}
+
+		switch( t.kind ) {
+			case XMLBinding.Transition.OBJECT:
+				push( t.target, t, create( t.target, elementName ) );
+				break;
+			case XMLBinding.Transition.TEXT:
+				push( null, t, objects[depth - 1] );
+				break;
+			default:
+				push( t.target, t, objects[depth - 1] );
+		}
+	}
+
+	/**
+	 * Sets the attribute on the object of the element, if it is bound.
+	 *
+	 * @param  element			the element name.
+	 * @param  attrib			the attribute name.
+	 * @param  value			the attribute value.
+	 * @throws					XMLParseException
+	 *							if the value can not be converted or set.
+	 */
+	public void setElementAttribute( String element, String attrib, String value )
+	throws XMLParseException
+	{
+		if( skip > 0 || depth == 0 ) return;
+
+		XMLBinding.State state = states[depth - 1];
+		if( state == null ) return;
+		XMLBinding.Transition t = state.attributes.get( attrib );
+		if( t != null && value.length() > 0 ) {
+			set( t, objects[depth - 1], value );
+		}
+	}
+
+	/**
+	 * Gathers the text of the element, if it is bound.
+	 *
+	 * @param  element			the element name.
+	 * @param  value			the text.
+	 */
+	public void setElementData( String element, String value )
+	{
+		setElementCharData( element, value );
+	}
+
+	/**
+	 * Gathers the text of the element, if it is bound.
+	 *
+	 * @param  element			the element name.
+	 * @param  value			the text, valid during the call only.
+	 */
+	public void setElementCharData( String element, CharSequence value )
+	{
+		if( skip > 0 || depth == 0 ) return;
+
+		XMLBinding.State state = states[depth - 1];
+		if( state == null || state.text != null ) {
+			text.append( value );
+		}
+	}
+
+	/**
+	 * Leaves the state of the element, setting its text or object on the
+	 * enclosing object.
+	 *
+	 * @param  elementName		the element name.
+	 * @throws					XMLValidationException
+	 *							if a value can not be converted or set.
+	 */
+	public void endElement( String elementName )
+	throws XMLValidationException
+	{
+		if( skip > 0 ) {
+			skip--;
+			return;
+		}
+		if( depth == 0 ) return;
+
+		depth--;
+		XMLBinding.State state = states[depth];
+		XMLBinding.Transition t = via[depth];
+		Object object = objects[depth];
+		objects[depth] = null;
+
+		int mark = marks[depth];
+		try {
+			if( text.length() > mark ) {
+				XMLBinding.Transition textTransition = (state == null ? t : state.text);
+				set( textTransition, object, text.substring( mark ) );
+			}
+		}
+		finally {
+			text.setLength( mark );
+		}
+
+		if( t == null ) {
+			@SuppressWarnings( "unchecked" )
+			T root = (T) object;
+			result = root;
+		}
+		else if( t.kind == XMLBinding.Transition.OBJECT ) {
+			try {
+				t.setter.invokeExact( objects[depth - 1], object );
+			}
+			catch( Error e ) {
+				throw e;
+			}
+			catch( Throwable e ) {
+				throw new XMLValidationException( "Can not set element " + t.name + ": " + e, cause( e ) );
+			}
+		}
+	}
+
+	/**
+	 * Throws an exception if no object has been bound.
+	 *
+	 * @throws					XMLValidationException
+	 *							if the document element has not ended.
+	 */
+	public void validate()
+	throws XMLValidationException
+	{
+		if( result == null ) {
+			throw new XMLValidationException( "No document bound to " + binding.getType().getName() );
+		}
+	}
+
+
+	/*
+	 * Pushes a level for an element.
+	 */
+	private void push( XMLBinding.State state, XMLBinding.Transition t, Object object )
+	{
+		if( depth == states.length ) {
+			states = Arrays.copyOf( states, depth * 2 );
+			via = Arrays.copyOf( via, depth * 2 );
+			objects = Arrays.copyOf( objects, depth * 2 );
+			marks = Arrays.copyOf( marks, depth * 2 );
+		}
+		states[depth] = state;
+		via[depth] = t;
+		objects[depth] = object;
+		marks[depth] = text.length();
+		depth++;
+	}
+
+	/*
+	 * Creates the object of a state.
+	 */
+	private static Object create( XMLBinding.State state, String elementName )
+	throws XMLValidationException
+	{
+		try {
+			return (Object) state.factory.invokeExact();
+		}
+		catch( Error e ) {
+			throw e;
+		}
+		catch( Throwable e ) {
+			throw new XMLValidationException( "Can not create object for element " + elementName + ": " + e,
+				cause( e ) );
+		}
+	}
+
+	/*
+	 * Converts and sets a text value through a transition.
+	 */
+	private static void set( XMLBinding.Transition t, Object object, String value )
+	throws XMLValidationException
+	{
+		try {
+			t.setter.invokeExact( object, value );
+		}
+		catch( Error e ) {
+			throw e;
+		}
+		catch( Throwable e ) {
+			throw new XMLValidationException( "Invalid value for " + t.name + ": " + value, cause( e ) );
+		}
+	}
+
+	/*
+	 * Returns a thrown object as an exception, wrapping a throwable that is
+	 * neither an exception nor an error.
+	 */
+	private static Exception cause( Throwable e )
+	{
+		return (e instanceof Exception ? (Exception) e : new RuntimeException( e ));
+	}
+
+} // end of XMLBinder
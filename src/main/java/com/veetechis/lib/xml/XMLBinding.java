@@ -0,0 +1,505 @@
+package com.veetechis.lib.xml;
+
+import java.io.InputStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.AccessibleObject;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Member;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+
+/**
+ * Binds XML documents to instances of a class annotated with
+ * <code>XMLElement</code>, without building an intermediate tree of the
+ * document.
+ *
+ * The annotations of a class, and of the classes it refers to, are read once
+ * and compiled into a state machine: one state per bound class, or per
+ * intermediate element of a path, holding a hashed table of the child
+ * elements and attributes it accepts.  Each transition carries a
+ * <code>MethodHandle</code> that converts the text and calls the setter,
+ * adder, or field directly, so that populating an object takes one table
+ * lookup per event and no reflection.  Bindings are cached per class and
+ * are thread-safe; elements and attributes that are not bound are skipped.
+ *
+ * Documents are bound by an <code>XMLBinder</code>, which is an
+ * <code>XMLValueBean</code> and so can be populated by
+ * <code>GenericSAXParser</code>, <code>GenericStAXParser</code>, or
+ * <code>XMLBatchParser</code>.  Text is converted to strings, primitives and
+ * their wrappers, enums, and any class with a static
+ * <code>valueOf(String)</code> method or a constructor taking a string.
+ *
+ * @author      pendraconx@gmail.com
+ * @see			XMLElement
+ * @see			XMLAttribute
+ * @see			XMLText
+ * @see			XMLBinder
+ */
+public final class XMLBinding<T>
+{
+	private final Class<T> type;
+	private final String rootName;
+	final State root;
+
+	private final static ConcurrentHashMap<Class<?>,XMLBinding<?>> bindings =
+		new ConcurrentHashMap<Class<?>,XMLBinding<?>>();
+	private final static MethodHandles.Lookup lookup = MethodHandles.lookup();
+
+	private final static MethodType TEXT_SETTER =
+		MethodType.methodType( void.class, Object.class, String.class );
+	private final static MethodType OBJECT_SETTER =
+		MethodType.methodType( void.class, Object.class, Object.class );
+	private final static MethodType FACTORY = MethodType.methodType( Object.class );
+
+	private final static MethodHandle addToField;
+	private final static MethodHandle parseChar;
+	static {
+		try {
+			addToField = lookup.findStatic( XMLBinding.class, "addToField",
+				MethodType.methodType( void.class, Class.class, MethodHandle.class,
+					MethodHandle.class, Object.class, Object.class ) );
+			parseChar = lookup.findStatic( XMLBinding.class, "parseChar",
+				MethodType.methodType( char.class, String.class ) );
+		}
+		catch( ReflectiveOperationException e ) {
+			throw new ExceptionInInitializerError( e );
+		}
+	}
+
+
+	private XMLBinding( Class<T> type, State root )
+	{
+		this.type = type;
+		this.rootName = type.getAnnotation( XMLElement.class ).value();
+		this.root = root;
+	}
+
+	/**
+	 * Returns the binding for the given class, compiling and caching it on
+	 * first use.
+	 *
+	 * @param  type				the class annotated with <code>XMLElement</code>.
+	 * @return					the binding.
+	 * @throws					java.lang.IllegalArgumentException
+	 *							if the class or one of its bound members can
+	 *							not be bound.
+	 */
+	public static <T> XMLBinding<T> forClass( Class<T> type )
+	{
+		@SuppressWarnings( "unchecked" )
+		XMLBinding<T> binding = (XMLBinding<T>) bindings.get( type );
+		if( binding == null ) {
+			if( type.getAnnotation( XMLElement.class ) == null ) {
+				throw new IllegalArgumentException( "Not annotated with XMLElement: " + type.getName() );
+			}
+			binding = new XMLBinding<T>( type, compile( type, new HashMap<Class<?>,State>() ) );
+			@SuppressWarnings( "unchecked" )
+			XMLBinding<T> cached = (XMLBinding<T>) bindings.putIfAbsent( type, binding );
+			if( cached != null ) binding = cached;
+		}
+		return binding;
+	}
+
+	/**
+	 * Returns the bound class.
+	 *
+	 * @return					the bound class.
+	 */
+	public Class<T> getType()
+	{
+		return type;
+	}
+
+	/**
+	 * Returns the name of the document element, or an empty string if any
+	 * element is accepted.
+	 *
+	 * @return					the root element name.
+	 */
+	public String getRootName()
+	{
+		return rootName;
+	}
+
+	/**
+	 * Returns a new binder for documents of this binding.
+	 *
+	 * @return					the binder.
+	 */
+	public XMLBinder<T> newBinder()
+	{
+		return new XMLBinder<T>( this );
+	}
+
+	/**
+	 * Parses the given stream and returns the object bound from it.  The
+	 * stream is not closed.
+	 *
+	 * @param  istream			the document to bind.
+	 * @return					the bound object.
+	 * @throws					XMLParseException
+	 *							if an XML error occurs.
+	 * @throws					XMLValidationException
+	 *							if a value can not be converted or set.
+	 */
+	public T parse( InputStream istream )
+	throws XMLParseException, XMLValidationException
+	{
+		XMLBinder<T> binder = newBinder();
+		try {
+			new GenericSAXParser( binder ).process( istream );
+		}
+		catch( XMLParseException e ) {
+			// the parser wraps what the binder throws
+			if( e.getException() instanceof XMLValidationException ) {
+				throw (XMLValidationException) e.getException();
+			}
+			throw e;
+		}
+		return binder.getResult();
+	}
+
+
+	/*
+	 * Compiles the state of the given class and of all classes it refers to
+	 * that are not compiled yet.
+	 */
+	private static State compile( Class<?> type, Map<Class<?>,State> compiled )
+	{
+		State state = compiled.get( type );
+		if( state != null ) return state;
+
+		state = new State( factory( type ) );
+		compiled.put( type, state );
+
+		for( Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass() ) {
+			for( Field field : c.getDeclaredFields() ) {
+				bind( state, field, field.getType(), field.getGenericType(), compiled );
+			}
+			for( Method method : c.getDeclaredMethods() ) {
+				if( method.isBridge() || method.isSynthetic() ) continue;
+				Class<?>[] params = method.getParameterTypes();
+				if( params.length != 1 ) {
+					if( isBound( method ) ) {
+						throw new IllegalArgumentException( "Bound method must take one argument: " + method );
+					}
+					continue;
+				}
+				bind( state, method, params[0], null, compiled );
+			}
+		}
+		return state;
+	}
+
+	/*
+	 * Adds the transitions for a bound field or method to the state.
+	 */
+	private static void bind( State state, AccessibleObject member, Class<?> valueType,
+		Type genericType, Map<Class<?>,State> compiled )
+	{
+		XMLElement element = member.getAnnotation( XMLElement.class );
+		XMLAttribute attribute = member.getAnnotation( XMLAttribute.class );
+		XMLText text = member.getAnnotation( XMLText.class );
+		if( element == null && attribute == null && text == null ) return;
+		if( (element != null ? 1 : 0) + (attribute != null ? 1 : 0) + (text != null ? 1 : 0) > 1 ) {
+			throw new IllegalArgumentException( "More than one binding on " + member );
+		}
+		if( Modifier.isStatic( ((Member) member).getModifiers() ) ) {
+			throw new IllegalArgumentException( "Bound member is static: " + member );
+		}
+
+		MethodHandle setter;
+		try {
+			member.setAccessible( true );
+			if( member instanceof Method ) {
+				setter = lookup.unreflect( (Method) member );
+				setter = setter.asType( setter.type().changeReturnType( void.class ) );
+			}
+			else if( element != null && Collection.class.isAssignableFrom( valueType ) ) {
+				Field field = (Field) member;
+				MethodHandle getter = lookup.unreflectGetter( field );
+				MethodHandle fieldSetter = null;
+				if( ! Modifier.isFinal( field.getModifiers() ) ) {
+					fieldSetter = lookup.unreflectSetter( field ).asType( OBJECT_SETTER );
+				}
+				setter = MethodHandles.insertArguments( addToField, 0, valueType,
+					getter.asType( MethodType.methodType( Object.class, Object.class ) ),
+					fieldSetter );
+				valueType = elementType( field, genericType );
+			}
+			else {
+				if( Modifier.isFinal( ((Field) member).getModifiers() ) ) {
+					throw new IllegalArgumentException( "Bound field is final: " + member );
+				}
+				setter = lookup.unreflectSetter( (Field) member );
+			}
+		}
+		catch( IllegalAccessException | RuntimeException e ) {
+			if( e instanceof IllegalArgumentException ) throw (IllegalArgumentException) e;
+			throw new IllegalArgumentException( "Can not access " + member + ": " + e.getMessage(), e );
+		}
+
+		if( element != null ) {
+			String path = (element.value().length() > 0 ? element.value() : defaultName( member ));
+			String[] names = path.split( "/" );
+			for( int i = 0; i < names.length - 1; i++ ) {
+				state = state.path( names[i], member );
+			}
+
+			String name = names[names.length - 1];
+			if( valueType.getAnnotation( XMLElement.class ) != null ) {
+				state.add( name, new Transition( Transition.OBJECT, name,
+					compile( valueType, compiled ), setter.asType( OBJECT_SETTER ) ), member );
+			}
+			else {
+				state.add( name, new Transition( Transition.TEXT, name,
+					null, textSetter( setter, valueType, member ) ), member );
+			}
+		}
+		else if( attribute != null ) {
+			String name = (attribute.value().length() > 0 ? attribute.value() : defaultName( member ));
+			if( state.attributes.containsKey( name ) ) {
+				throw new IllegalArgumentException( "Attribute bound twice: " + name + " at " + member );
+			}
+			state.attributes.put( name, new Transition( Transition.TEXT, name,
+				null, textSetter( setter, valueType, member ) ) );
+		}
+		else {
+			if( state.text != null ) {
+				throw new IllegalArgumentException( "Text bound twice at " + member );
+			}
+			state.text = new Transition( Transition.TEXT, "text()",
+				null, textSetter( setter, valueType, member ) );
+		}
+	}
+
+	/*
+	 * Returns the setter composed with the conversion of text to the value
+	 * type, as a handle of type (Object,String)void.
+	 */
+	private static MethodHandle textSetter( MethodHandle setter, Class<?> valueType, AccessibleObject member )
+	{
+		MethodHandle converter = converter( valueType );
+		if( converter == null ) {
+			throw new IllegalArgumentException( "No conversion from text to " + valueType.getName() + " at " + member );
+		}
+		converter = converter.asType( converter.type().changeReturnType( setter.type().parameterType( 1 ) ) );
+		return MethodHandles.filterArguments( setter, 1, converter ).asType( TEXT_SETTER );
+	}
+
+	/*
+	 * Returns a handle converting a string to the given type, or null if
+	 * there is none.
+	 */
+	private static MethodHandle converter( Class<?> type )
+	{
+		try {
+			if( type == String.class || type == Object.class || type == CharSequence.class ) {
+				return MethodHandles.identity( String.class );
+			}
+			if( type == char.class || type == Character.class ) {
+				return parseChar;
+			}
+			if( type.isPrimitive() ) {
+				Class<?> wrapper = MethodType.methodType( type ).wrap().returnType();
+				String name = "parse" + Character.toUpperCase( type.getName().charAt( 0 ) ) + type.getName().substring( 1 );
+				return lookup.findStatic( wrapper, name, MethodType.methodType( type, String.class ) );
+			}
+			if( type.isEnum() ) {
+				MethodHandle valueOf = lookup.findStatic( Enum.class, "valueOf",
+					MethodType.methodType( Enum.class, Class.class, String.class ) );
+				return MethodHandles.insertArguments( valueOf, 0, type );
+			}
+
+			Method valueOf = null;
+			try {
+				valueOf = type.getMethod( "valueOf", String.class );
+			}
+			catch( NoSuchMethodException e ) {
+				// Fall through to the constructor.
+			}
+			if( valueOf != null && Modifier.isStatic( valueOf.getModifiers() ) &&
+				type.isAssignableFrom( valueOf.getReturnType() ) ) {
+				return lookup.unreflect( valueOf );
+			}
+			return lookup.unreflectConstructor( type.getConstructor( String.class ) );
+		}
+		catch( ReflectiveOperationException e ) {
+			return null;
+		}
+	}
+
+	/*
+	 * Returns a handle creating a new instance of the given class.
+	 */
+	private static MethodHandle factory( Class<?> type )
+	{
+		try {
+			Constructor<?> constructor = type.getDeclaredConstructor();
+			constructor.setAccessible( true );
+			return lookup.unreflectConstructor( constructor ).asType( FACTORY );
+		}
+		catch( ReflectiveOperationException | RuntimeException e ) {
+			throw new IllegalArgumentException( "No accessible no-argument constructor: " + type.getName(), e );
+		}
+	}
+
+	/*
+	 * Returns the element class of a collection field.
+	 */
+	private static Class<?> elementType( Field field, Type genericType )
+	{
+		if( genericType instanceof ParameterizedType ) {
+			Type arg = ((ParameterizedType) genericType).getActualTypeArguments()[0];
+			if( arg instanceof Class ) return (Class<?>) arg;
+			if( arg instanceof ParameterizedType ) return (Class<?>) ((ParameterizedType) arg).getRawType();
+		}
+		throw new IllegalArgumentException( "Unknown element type of collection " + field );
+	}
+
+	/*
+	 * Returns the name bound by default to a field or method.
+	 */
+	private static String defaultName( AccessibleObject member )
+	{
+		String name = ((Member) member).getName();
+		if( member instanceof Method && name.length() > 3 &&
+			(name.startsWith( "set" ) || name.startsWith( "add" )) ) {
+			name = Character.toLowerCase( name.charAt( 3 ) ) + name.substring( 4 );
+		}
+		return name;
+	}
+
+	/*
+	 * Returns true if the member carries a binding annotation.
+	 */
+	private static boolean isBound( AccessibleObject member )
+	{
+		return member.isAnnotationPresent( XMLElement.class ) ||
+			member.isAnnotationPresent( XMLAttribute.class ) ||
+			member.isAnnotationPresent( XMLText.class );
+	}
+
+	/*
+	 * Adds the value to the collection in the field, creating the collection
+	 * if the field is null.
+	 */
+	@SuppressWarnings( { "unchecked", "rawtypes" } )
+	private static void addToField( Class<?> type, MethodHandle getter, MethodHandle setter,
+		Object target, Object value )
+	throws Throwable
+	{
+		Collection values = (Collection) (Object) getter.invokeExact( target );
+		if( values == null ) {
+			if( setter == null ) {
+				throw new IllegalStateException( "Final collection field is null" );
+			}
+			if( type.isAssignableFrom( ArrayList.class ) ) {
+				values = new ArrayList();
+			}
+			else if( type.isAssignableFrom( LinkedHashSet.class ) ) {
+				values = new LinkedHashSet();
+			}
+			else {
+				values = (Collection) type.newInstance();
+			}
+			setter.invokeExact( target, (Object) values );
+		}
+		values.add( value );
+	}
+
+	/*
+	 * Returns the single character of the text.
+	 */
+	private static char parseChar( String text )
+	{
+		if( text.length() != 1 ) {
+			throw new IllegalArgumentException( "Not a single character: " + text );
+		}
+		return text.charAt( 0 );
+	}
+
+
+	/*
+	 * A state of the binding: the object it creates, if any, and the
+	 * transitions on its child elements, attributes, and text.
+	 */
+	static final class State
+	{
+		final MethodHandle factory;
+		final HashMap<String,Transition> children = new HashMap<String,Transition>();
+		final HashMap<String,Transition> attributes = new HashMap<String,Transition>();
+		Transition text;
+
+		State( MethodHandle factory )
+		{
+			this.factory = factory;
+		}
+
+		/*
+		 * Returns the state of the intermediate element of a path, adding it
+		 * if needed.
+		 */
+		State path( String name, AccessibleObject member )
+		{
+			Transition t = children.get( name );
+			if( t == null ) {
+				t = new Transition( Transition.PATH, name, new State( null ), null );
+				children.put( name, t );
+			}
+			else if( t.kind != Transition.PATH ) {
+				throw new IllegalArgumentException( "Element bound twice: " + name + " at " + member );
+			}
+			return t.target;
+		}
+
+		void add( String name, Transition t, AccessibleObject member )
+		{
+			if( name.length() == 0 || children.containsKey( name ) ) {
+				throw new IllegalArgumentException( "Element bound twice or empty: " + name + " at " + member );
+			}
+			children.put( name, t );
+		}
+	}
+
+
+	/*
+	 * A transition to a child element or attribute.  An OBJECT transition
+	 * creates an object of the target state and sets it on the enclosing
+	 * object when the element ends; a TEXT transition sets the converted text
+	 * of an element or attribute; a PATH transition enters the target state
+	 * with the enclosing object.
+	 */
+	static final class Transition
+	{
+		static final int OBJECT = 0;
+		static final int TEXT = 1;
+		static final int PATH = 2;
+
+		final int kind;
+		final String name;
+		final State target;
+		final MethodHandle setter;
+
+		Transition( int kind, String name, State target, MethodHandle setter )
+		{
+			this.kind = kind;
+			this.name = name;
+			this.target = target;
+			this.setter = setter;
+		}
+	}
+
+} // end of XMLBinding
@@ -0,0 +1,42 @@
+package com.veetechis.lib.xml;
+
+
+/**
+ * <p>
+ * An <code>XMLValueBean</code> that accepts element data as a character
+ * sequence.  The document processors in this package gather the text of an
+ * element into a reused buffer and pass it, trimmed, to
+ * <code>setElementCharData</code> instead of <code>setElementData</code>,
+ * so that no <code>String</code> is created for it unless the bean needs
+ * one.
+ * </p>
+ * <p>
+ * <i>Usage note</i>: The character sequence is a view of the processor's
+ * buffer and is only valid for the duration of the call; it must be copied
+ * if retained.
+ * </p>
+ *
+ * @author		pendraconx@gmail.com
+ * @see			GenericSAXParser
+ */
+public interface XMLCharDataBean
+extends XMLValueBean
+{
+	/**
+	 * <p>
+	 * Sets the given element value in internal storage.
+	 * </p>
+	 * <p>
+	 * Throws an exception if an internal validation error occurs.
+	 * </p>
+	 *
+	 * @param  element			the element for which the value is given.
+	 * @param  value			the value of the element, valid during the
+	 *							call only.
+	 * @throws					XMLValidationException
+	 *							if a document validation error occurs.
+	 */
+	public void setElementCharData( String element, CharSequence value )
+	throws XMLValidationException;
+
+} // End of interface: +com.vtis.xml.XMLCharDataBean
@@ -0,0 +1,46 @@
+package com.veetechis.lib.xml;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+
+/**
+ * <p>
+ * Binds a class, or a field or method of a bound class, to an XML element
+ * for <code>XMLBinding</code>.
+ * </p>
+ * <p>
+ * On a class, names the element that instances of the class are populated
+ * from; if the name is empty, any element is accepted as the document root.
+ * On a field, or a method taking one argument, names the child element that
+ * sets it.  The name may be a path of child element names separated by
+ * <code>/</code>; if it is empty, it is the field name, or the method name
+ * without a <code>set</code> or <code>add</code> prefix.
+ * </p>
+ * <p>
+ * If the type of the field or argument is itself annotated with
+ * <code>XMLElement</code>, a new instance of it is populated from the child
+ * element and then set; otherwise the text of the child element is
+ * converted and set.  A method is called, and a <code>Collection</code>
+ * field is added to, once for every occurrence of the element.
+ * </p>
+ *
+ * @author		pendraconx@gmail.com
+ * @see			XMLBinding
+ */
+@Documented
+@Retention( RetentionPolicy.RUNTIME )
+@Target( { ElementType.TYPE, ElementType.FIELD, ElementType.METHOD } )
+public @interface XMLElement
+{
+	/**
+	 * <p>
+	 * The element name or path.
+	 * </p>
+	 */
+	String value() default "";
+
+} // End of annotation: +com.vtis.xml.XMLElement
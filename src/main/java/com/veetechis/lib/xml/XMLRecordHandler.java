@@ -0,0 +1,35 @@
+package com.veetechis.lib.xml;
+
+
+/**
+ * <p>
+ * Receives the records of a document split by
+ * <code>GenericSAXParser</code>, each populated into its own bean as soon as
+ * its element ends.
+ * </p>
+ * <p>
+ * <i>Usage note</i>: The parser keeps no reference to a record after passing
+ * it, so the bean may be retained or handed to another thread.
+ * </p>
+ *
+ * @author		pendraconx@gmail.com
+ * @see			GenericSAXParser#setRecordHandler(String,XMLRecordHandler)
+ */
+public interface XMLRecordHandler<B extends XMLValueBean>
+{
+	/**
+	 * <p>
+	 * Called with each completed record.
+	 * </p>
+	 * <p>
+	 * Throws an exception to stop processing the document.
+	 * </p>
+	 *
+	 * @param  record			the bean populated from the record element.
+	 * @throws					XMLValidationException
+	 *							if the record is not valid.
+	 */
+	public void record( B record )
+	throws XMLValidationException;
+
+} // End of interface: +com.vtis.xml.XMLRecordHandler
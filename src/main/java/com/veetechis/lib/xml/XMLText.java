@@ -0,0 +1,26 @@
+package com.veetechis.lib.xml;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+
+/**
+ * <p>
+ * Binds a field, or a method taking one argument, of a class annotated with
+ * <code>XMLElement</code> to the text of the class's own element for
+ * <code>XMLBinding</code>, as for an element that has both attributes and
+ * text.  The text is converted to the type of the field or argument.
+ * </p>
+ *
+ * @author		pendraconx@gmail.com
+ * @see			XMLBinding
+ */
+@Documented
+@Retention( RetentionPolicy.RUNTIME )
+@Target( { ElementType.FIELD, ElementType.METHOD } )
+public @interface XMLText
+{
+} // End of annotation: +com.vtis.xml.XMLText
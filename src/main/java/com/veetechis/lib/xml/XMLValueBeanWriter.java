@@ -0,0 +1,376 @@
+package com.veetechis.lib.xml;
+
+import java.io.BufferedWriter;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * Writes XML to an <code>Appendable</code>, <code>Writer</code>, or
+ * <code>OutputStream</code> in a single streaming pass, either from a
+ * <code>DynamicXMLValueBean</code> tree or from calls to
+ * <code>startElement</code>, <code>attribute</code>, <code>text</code>, and
+ * <code>endElement</code>.  Text and attribute values are escaped, and an
+ * element without content is written as an empty tag.
+ *
+ * By default the output is indented with tabs, one element per line, as
+ * <code>DynamicXMLValueBean.toString</code> has always written it;
+ * indentation strings are created once per level and reused.  In compact
+ * mode no whitespace is written between elements, for output sent over the
+ * wire.  Trees are written with an explicit stack, so their depth is not
+ * limited by the call stack.
+ *
+ * An instance is not thread-safe.
+ *
+ * @author      pendraconx@gmail.com
+ * @see			DynamicXMLValueBean
+ */
+public class XMLValueBeanWriter
+implements Flushable
+{
+	private final Appendable out;
+	private boolean compact;
+	private String indent = "\t";
+	private String lineSeparator = LINE_SEP;
+	private String[] indents = new String[16];
+
+	private String[] open = new String[16];		// names of open elements
+	private boolean[] parent = new boolean[16];	// open element has children
+	private int depth;
+	private int baseLevel;
+	private boolean tagOpen;					// start tag not yet closed
+	private boolean started;					// anything written
+
+	private final static String LINE_SEP = System.getProperty( "line.separator" );
+
+
+	/**
+	 * Creates a new instance writing to the given <code>Appendable</code>,
+	 * such as a <code>StringBuilder</code> or a <code>Writer</code>.
+	 *
+	 * @param  out				the destination.
+	 */
+	public XMLValueBeanWriter( Appendable out )
+	{
+		this.out = out;
+	}
+
+	/**
+	 * Creates a new instance writing to the given stream, buffered and
+	 * encoded in the given character set.  Call <code>flush</code> when done;
+	 * the stream is not closed.
+	 *
+	 * @param  out				the destination stream.
+	 * @param  charset			the character encoding.
+	 */
+	public XMLValueBeanWriter( OutputStream out, Charset charset )
+	{
+		this( new BufferedWriter( new OutputStreamWriter( out, charset ) ) );
+	}
+
+	/**
+	 * If set to <code>true</code>, no whitespace is written between elements.
+	 *
+	 * @param  compact			the flag to write compact output.
+	 */
+	public void setCompact( boolean compact )
+	{
+		this.compact = compact;
+	}
+
+	/**
+	 * Returns <code>true</code> if no whitespace is written between elements.
+	 *
+	 * @return					the state of the compact flag.
+	 */
+	public boolean isCompact()
+	{
+		return compact;
+	}
+
+	/**
+	 * Sets the string written once per level of indentation; a tab by default.
+	 *
+	 * @param  indent			the indentation unit.
+	 */
+	public void setIndent( String indent )
+	{
+		this.indent = indent;
+		indents = new String[16];
+	}
+
+	/**
+	 * Sets the line separator; the platform line separator by default.
+	 *
+	 * @param  separator		the line separator.
+	 */
+	public void setLineSeparator( String separator )
+	{
+		lineSeparator = separator;
+	}
+
+	/**
+	 * Writes an XML declaration for the given encoding.
+	 *
+	 * @param  encoding			the encoding name to declare.
+	 * @throws					java.io.IOException
+	 *							if the destination can not be written.
+	 */
+	public void declaration( String encoding )
+	throws IOException
+	{
+		out.append( "<?xml version='1.0' encoding='" ).append( encoding ).append( "'?>" );
+		if( ! compact ) out.append( lineSeparator );
+	}
+
+	/**
+	 * Writes the given element and all of its attributes, data, and child
+	 * elements.
+	 *
+	 * @param  bean				the element to write.
+	 * @throws					java.io.IOException
+	 *							if the destination can not be written.
+	 */
+	public void write( DynamicXMLValueBean bean )
+	throws IOException
+	{
+		write( bean, 0 );
+	}
+
+	/**
+	 * Writes the given element and all of its attributes, data, and child
+	 * elements, indented as if it were <code>level</code> elements deep.
+	 * An element with data is written with its data only.
+	 *
+	 * @param  bean				the element to write.
+	 * @param  level			the indentation level of the element.
+	 * @throws					java.io.IOException
+	 *							if the destination can not be written.
+	 */
+	public void write( DynamicXMLValueBean bean, int level )
+	throws IOException
+	{
+		int savedLevel = baseLevel;
+		baseLevel += level;
+		if( ! compact && ! started ) out.append( indent( baseLevel ) );
+
+		try {
+			List<Iterator<?>> stack = new ArrayList<Iterator<?>>();	// iterators over child lists
+			writeStart( bean );
+			if( bean.isParent() ) {
+				stack.add( bean.getChildElements().iterator() );
+			}
+			else {
+				endElement();
+			}
+
+			while( ! stack.isEmpty() ) {
+				Iterator<?> it = stack.get( stack.size() - 1 );
+				if( ! it.hasNext() ) {
+					stack.remove( stack.size() - 1 );
+					endElement();
+					continue;
+				}
+
+				DynamicXMLValueBean child = (DynamicXMLValueBean) it.next();
+				writeStart( child );
+				if( child.isParent() ) {
+					stack.add( child.getChildElements().iterator() );
+				}
+				else {
+					endElement();
+				}
+			}
+		}
+		finally {
+			baseLevel = savedLevel;
+		}
+	}
+
+	/**
+	 * Starts an element; its attributes may be written until content is.
+	 *
+	 * @param  name				the element name.
+	 * @throws					java.io.IOException
+	 *							if the destination can not be written.
+	 */
+	public void startElement( String name )
+	throws IOException
+	{
+		if( tagOpen ) {
+			out.append( '>' );
+			tagOpen = false;
+		}
+		if( depth > 0 ) parent[depth - 1] = true;
+		if( ! compact && (depth > 0 || started) ) {
+			out.append( lineSeparator ).append( indent( baseLevel + depth ) );
+		}
+
+		if( depth == open.length ) {
+			open = Arrays.copyOf( open, depth * 2 );
+			parent = Arrays.copyOf( parent, depth * 2 );
+		}
+		open[depth] = name;
+		parent[depth] = false;
+		depth++;
+
+		out.append( '<' ).append( name );
+		tagOpen = true;
+		started = true;
+	}
+
+	/**
+	 * Writes an attribute of the element just started.
+	 *
+	 * @param  name				the attribute name.
+	 * @param  value			the attribute value.
+	 * @throws					java.io.IOException
+	 *							if the destination can not be written.
+	 * @throws					java.lang.IllegalStateException
+	 *							if content was written after the start tag.
+	 */
+	public void attribute( String name, String value )
+	throws IOException
+	{
+		if( ! tagOpen ) throw new IllegalStateException( "Attribute outside of a start tag: " + name );
+
+		out.append( ' ' ).append( name ).append( "='" );
+		escape( value, true );
+		out.append( '\'' );
+	}
+
+	/**
+	 * Writes text content of the open element.
+	 *
+	 * @param  text				the text.
+	 * @throws					java.io.IOException
+	 *							if the destination can not be written.
+	 */
+	public void text( CharSequence text )
+	throws IOException
+	{
+		if( tagOpen ) {
+			out.append( '>' );
+			tagOpen = false;
+		}
+		escape( text, false );
+	}
+
+	/**
+	 * Ends the innermost open element, as an empty tag if nothing was written
+	 * in it.
+	 *
+	 * @throws					java.io.IOException
+	 *							if the destination can not be written.
+	 * @throws					java.lang.IllegalStateException
+	 *							if no element is open.
+	 */
+	public void endElement()
+	throws IOException
+	{
+		if( depth == 0 ) throw new IllegalStateException( "No open element" );
+
+		depth--;
+		if( tagOpen ) {
+			out.append( "/>" );
+			tagOpen = false;
+			return;
+		}
+		if( parent[depth] && ! compact ) {
+			out.append( lineSeparator ).append( indent( baseLevel + depth ) );
+		}
+		out.append( "</" ).append( open[depth] ).append( '>' );
+		open[depth] = null;
+	}
+
+	/**
+	 * Flushes the destination, if it can be flushed.
+	 *
+	 * @throws					java.io.IOException
+	 *							if the destination can not be written.
+	 */
+	public void flush()
+	throws IOException
+	{
+		if( out instanceof Flushable ) ((Flushable) out).flush();
+	}
+
+
+	/*
+	 * Writes the start tag and attributes of the element, and its data if it
+	 * is not a parent.
+	 */
+	private void writeStart( DynamicXMLValueBean bean )
+	throws IOException
+	{
+		startElement( bean.getElementName() );
+		if( bean.hasAttributes() ) {
+			Iterator<?> it = bean.getAttributes().entrySet().iterator();
+			while( it.hasNext() ) {
+				Map.Entry<?,?> attrib = (Map.Entry<?,?>) it.next();
+				attribute( (String) attrib.getKey(), (String) attrib.getValue() );
+			}
+		}
+		if( ! bean.isEmpty() && ! bean.isParent() ) {
+			text( bean.getData() );
+		}
+	}
+
+	/*
+	 * Returns the indentation string for the given level.
+	 */
+	private String indent( int level )
+	{
+		if( level == 0 ) return "";
+		if( level >= indents.length ) indents = Arrays.copyOf( indents, Math.max( level + 1, indents.length * 2 ) );
+		if( indents[level] == null ) {
+			StringBuilder pad = new StringBuilder( indent.length() * level );
+			for( int i = 0; i < level; i++ ) pad.append( indent );
+			indents[level] = pad.toString();
+		}
+		return indents[level];
+	}
+
+	/*
+	 * Writes the text with markup characters replaced by references,
+	 * appending unchanged runs in one call each.  In attribute values, quotes
+	 * and line breaks are also replaced.
+	 */
+	private void escape( CharSequence text, boolean attribute )
+	throws IOException
+	{
+		if( text == null ) return;
+
+		int run = 0;
+		int length = text.length();
+		for( int i = 0; i < length; i++ ) {
+			String ref;
+			switch( text.charAt( i ) ) {
+				case '&':	ref = "&amp;"; break;
+				case '<':	ref = "&lt;"; break;
+				case '>':	ref = "&gt;"; break;
+				case '\'':	ref = (attribute ? "&apos;" : null); break;
+				case '"':	ref = (attribute ? "&quot;" : null); break;
+				case '\n':	ref = (attribute ? "&#10;" : null); break;
+				case '\r':	ref = "&#13;"; break;
+				case '\t':	ref = (attribute ? "&#9;" : null); break;
+				default:	ref = null;
+			}
+			if( ref != null ) {
+				if( i > run ) out.append( text, run, i );
+				out.append( ref );
+				run = i + 1;
+			}
+		}
+		if( length > run ) out.append( text, run, length );
+	}
+
+} // end of XMLValueBeanWriter